@@ -0,0 +1,79 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import com.spshpau.chatservice.services.impl.ChatRoomIdResolver;
+import com.spshpau.chatservice.services.impl.ChatRoomServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat id derivation from a user pair, and room resolution through {@link ChatRoomServiceImpl} for rooms it
+ * already knows and for rooms it has to upsert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRoomIdBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    private final UUID[] senders = new UUID[PAIRS];
+    private final UUID[] recipients = new UUID[PAIRS];
+    private int next;
+
+    private ChatRoomIdResolver resolver;
+    private ChatRoomServiceImpl knownRooms;
+    private ChatRoomServiceImpl newRooms;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < PAIRS; i++) {
+            senders[i] = UUID.randomUUID();
+            recipients[i] = UUID.randomUUID();
+        }
+        Set<UUID> rooms = ConcurrentHashMap.newKeySet();
+        ChatRoomRepository chatRoomRepository = StandIns.of(ChatRoomRepository.class, Map.of(
+                "upsertRoom", args -> rooms.add((UUID) args[0]),
+                "existsById", args -> rooms.contains((UUID) args[0])));
+
+        resolver = new ChatRoomIdResolver(PAIRS * 2);
+        knownRooms = new ChatRoomServiceImpl(chatRoomRepository, resolver, new SimpleMeterRegistry());
+        for (int i = 0; i < PAIRS; i++) {
+            knownRooms.getChatRoomId(senders[i], recipients[i], true);
+        }
+        // A resolver remembering a single room misses on every pair, so each call upserts.
+        newRooms = new ChatRoomServiceImpl(chatRoomRepository, new ChatRoomIdResolver(1), new SimpleMeterRegistry());
+    }
+
+    private int nextPair() {
+        return next = (next + 1) & (PAIRS - 1);
+    }
+
+    @Benchmark
+    public UUID deriveChatId() {
+        int i = nextPair();
+        return resolver.resolve(senders[i], recipients[i]);
+    }
+
+    @Benchmark
+    public Optional<UUID> resolveKnownRoom() {
+        int i = nextPair();
+        return knownRooms.getChatRoomId(recipients[i], senders[i], false);
+    }
+
+    @Benchmark
+    public Optional<UUID> resolveAndUpsertRoom() {
+        int i = nextPair();
+        return newRooms.getChatRoomId(senders[i], recipients[i], true);
+    }
+}
@@ -0,0 +1,98 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.spshpau.chatservice.config.WebSocketConfig;
+import com.spshpau.chatservice.controller.notifications.ChatNotification;
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of outbound notifications through the STOMP converter configured in {@link WebSocketConfig}.
+ * Status updates are measured with 1 to 200 message ids and in watermark form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationSerializationBenchmark {
+
+    private MappingJackson2MessageConverter converter;
+    private ChatNotification chatNotification;
+    private MessageStatusUpdateNotification watermarkUpdate;
+
+    @State(Scope.Benchmark)
+    public static class StatusUpdate {
+
+        @Param({"1", "50", "200"})
+        public int ids;
+
+        private MessageStatusUpdateNotification notification;
+
+        @Setup
+        public void setUp() {
+            List<UUID> messageIds = new ArrayList<>(ids);
+            for (int i = 0; i < ids; i++) {
+                messageIds.add(UUID.randomUUID());
+            }
+            notification = MessageStatusUpdateNotification.builder()
+                    .chatId(UUID.randomUUID())
+                    .messageIds(messageIds)
+                    .newStatus(MessageStatus.READ)
+                    .statusTimestamp(Instant.now())
+                    .updatedByUserId(UUID.randomUUID())
+                    .build();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        converter = WebSocketConfig.jsonMessageConverter(StandIns.objectMapper());
+        Instant now = Instant.now();
+        UUID chatId = UUID.randomUUID();
+
+        chatNotification = ChatNotification.builder()
+                .id(UUID.randomUUID())
+                .senderId(UUID.randomUUID())
+                .recipientId(UUID.randomUUID())
+                .content("Are we still on for the session tomorrow? I finished the mix of the second track.")
+                .sentAt(now)
+                .status(MessageStatus.SENT)
+                .chatId(chatId)
+                .statusTimestamp(now)
+                .build();
+
+        watermarkUpdate = MessageStatusUpdateNotification.builder()
+                .chatId(chatId)
+                .messageIds(List.of())
+                .newStatus(MessageStatus.READ)
+                .statusTimestamp(now)
+                .updatedByUserId(UUID.randomUUID())
+                .upToSentAt(now)
+                .build();
+    }
+
+    @Benchmark
+    public Message<?> chatNotification() {
+        return converter.toMessage(chatNotification, null);
+    }
+
+    @Benchmark
+    public Message<?> statusUpdateWithIds(StatusUpdate statusUpdate) {
+        return converter.toMessage(statusUpdate.notification, null);
+    }
+
+    @Benchmark
+    public Message<?> statusUpdateWatermark() {
+        return converter.toMessage(watermarkUpdate, null);
+    }
+}
@@ -0,0 +1,74 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.spshpau.chatservice.config.OutboundTraceMode;
+import com.spshpau.chatservice.config.OutboundTracingInterceptor;
+import com.spshpau.chatservice.services.impl.PresenceRegistryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the outbound channel interceptor in each trace mode, against no interceptor at all.
+ * The traced user in {@code USERS} mode is not the recipient, so the benchmark measures the session lookup
+ * rather than logging.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutboundTracingBenchmark {
+
+    @Param({"NONE", "OFF", "SAMPLED", "USERS"})
+    public String mode;
+
+    private static final MessageChannel CHANNEL = (message, timeout) -> true;
+
+    private PresenceRegistryImpl presenceRegistry;
+    private ChannelInterceptor interceptor;
+    private Message<byte[]> message;
+
+    @Setup
+    public void setUp() {
+        presenceRegistry = new PresenceRegistryImpl(event -> {
+        }, new SimpleMeterRegistry(), 60_000, 60_000);
+        UUID recipient = UUID.randomUUID();
+        presenceRegistry.sessionConnected(recipient, "session-1");
+
+        if ("NONE".equals(mode)) {
+            interceptor = new ChannelInterceptor() {
+            };
+        } else {
+            interceptor = new OutboundTracingInterceptor(presenceRegistry, new SimpleMeterRegistry(),
+                    OutboundTraceMode.valueOf(mode), 10_000, Set.of(UUID.randomUUID()));
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("session-1");
+        accessor.setDestination("/user/" + recipient + "/queue/messages");
+        accessor.setLeaveMutable(false);
+        byte[] payload = ("{\"id\":\"" + UUID.randomUUID() + "\",\"content\":\"hello\"}").getBytes(StandardCharsets.UTF_8);
+        message = MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    @TearDown
+    public void tearDown() {
+        presenceRegistry.shutdown();
+    }
+
+    @Benchmark
+    public Message<?> preSend() {
+        return interceptor.preSend(message, CHANNEL);
+    }
+}
@@ -0,0 +1,63 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.spshpau.chatservice.config.WebSocketConfig;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for repositories and services, so benchmarks measure the service code without Mongo
+ * or the network. Only the methods a benchmark exercises are implemented; calling any other method fails.
+ */
+final class StandIns {
+
+    private StandIns() {
+    }
+
+    /**
+     * @param type    The interface to stand in for.
+     * @param answers Answers by method name, called with the invocation arguments.
+     */
+    static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Object standIn = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return type.getSimpleName() + " stand-in";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    Function<Object[], Object> answer = answers.get(method.getName());
+                    if (answer == null) {
+                        throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    }
+                    return answer.apply(args);
+            }
+        });
+        return type.cast(standIn);
+    }
+
+    /**
+     * An ObjectMapper configured like Spring Boot's default one.
+     */
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    /**
+     * A messaging template that converts payloads with the application's STOMP converter and drops the frames.
+     */
+    static SimpMessagingTemplate messagingTemplate() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        template.setMessageConverter(WebSocketConfig.jsonMessageConverter(objectMapper()));
+        return template;
+    }
+}
@@ -0,0 +1,82 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.services.InboxService;
+import com.spshpau.chatservice.services.impl.ChatMessageServiceImpl;
+import com.spshpau.chatservice.services.impl.ChatTailCache;
+import com.spshpau.chatservice.services.impl.ClusterFanout;
+import com.spshpau.chatservice.services.impl.MessageStatusNotifierImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read receipt end to end without the database: {@link ChatMessageServiceImpl#markMessagesAsRead} over a
+ * repository stand-in that reports {@code batch} changed messages, then notifying their sender through
+ * {@link MessageStatusNotifierImpl}, including serialization of the status update. From 200 messages on the
+ * notifier switches to the watermark form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusTransitionBenchmark {
+
+    @Param({"1", "50", "500"})
+    public int batch;
+
+    private final UUID chatId = UUID.randomUUID();
+    private final UUID readerId = UUID.randomUUID();
+
+    private ChatMessageServiceImpl chatMessageService;
+    private MessageStatusNotifierImpl messageStatusNotifier;
+
+    @Setup
+    public void setUp() {
+        UUID senderId = UUID.randomUUID();
+        Instant sentAt = Instant.now().minusSeconds(batch);
+        List<MessageStatusChange> changes = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            changes.add(MessageStatusChange.builder()
+                    .id(UUID.randomUUID())
+                    .chatId(chatId)
+                    .senderId(senderId)
+                    .recipientId(readerId)
+                    .status(MessageStatus.READ)
+                    .sentAt(sentAt.plusSeconds(i))
+                    .deliveredAt(sentAt.plusSeconds(i))
+                    .readAt(Instant.now())
+                    .build());
+        }
+
+        ChatMessageRepository chatMessageRepository = StandIns.of(ChatMessageRepository.class, Map.of(
+                "markRead", args -> changes));
+        InboxService inboxService = StandIns.of(InboxService.class, Map.of(
+                "recordRead", args -> null));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // Status transitions neither resolve rooms nor go through the write-behind buffer.
+        ChatTailCache tailCache = new ChatTailCache(chatMessageRepository, meterRegistry, true, 500, 64L << 20);
+        // Single node: without a transport the fan-out publishes nothing.
+        ClusterFanout clusterFanout = new ClusterFanout(Optional.empty(), null, null, null, tailCache, null, meterRegistry, 1);
+        chatMessageService = new ChatMessageServiceImpl(chatMessageRepository, null, null, inboxService,
+                tailCache, clusterFanout, meterRegistry);
+        messageStatusNotifier = new MessageStatusNotifierImpl(StandIns.messagingTemplate(), meterRegistry, 200);
+    }
+
+    @Benchmark
+    public int markAsReadAndNotify() {
+        List<MessageStatusChange> changes = chatMessageService.markMessagesAsRead(chatId, readerId);
+        return messageStatusNotifier.notifySenders(changes, readerId);
+    }
+}
@@ -0,0 +1,121 @@
+package com.spshpau.chatservice.benchmark;
+
+import com.spshpau.chatservice.model.ChatSummaryResult;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.ChatMessageService;
+import com.spshpau.chatservice.services.InboxUpdateNotifier;
+import com.spshpau.chatservice.services.UserService;
+import com.spshpau.chatservice.services.impl.ChatRoomIdResolver;
+import com.spshpau.chatservice.services.impl.ChatSummaryServiceImpl;
+import com.spshpau.chatservice.services.impl.InboxServiceImpl;
+import com.spshpau.chatservice.services.impl.MessageStatusNotifierImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat summary assembly through {@link ChatSummaryServiceImpl} and {@link InboxServiceImpl}, with the user
+ * service and repositories replaced by in-memory stand-ins. The user has {@code connections} connections and
+ * has talked to half of them, so the first page mixes conversations with connections not talked to yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SummaryAssemblyBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10", "100"})
+    public int connections;
+
+    private final UUID userId = UUID.randomUUID();
+    private Jwt jwt;
+    private ChatSummaryServiceImpl chatSummaryService;
+
+    @Setup
+    public void setUp() {
+        ChatRoomIdResolver chatRoomIdResolver = new ChatRoomIdResolver(10_000);
+        List<User> users = new ArrayList<>(connections);
+        List<InboxEntry> entries = new ArrayList<>();
+        Map<String, InboxEntry> entriesById = new HashMap<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < connections; i++) {
+            User partner = new User();
+            partner.setId(UUID.randomUUID());
+            partner.setUsername("user" + i);
+            partner.setFirstName("First" + i);
+            partner.setLastName("Last" + i);
+            partner.setStatus(StatusEnum.OFFLINE);
+            users.add(partner);
+            if (i % 2 == 0) {
+                UUID chatId = chatRoomIdResolver.resolve(userId, partner.getId());
+                InboxEntry entry = InboxEntry.builder()
+                        .id(InboxEntry.idFor(userId, chatId))
+                        .userId(userId)
+                        .chatId(chatId)
+                        .partnerId(partner.getId())
+                        .unreadCount(i % 5)
+                        .lastMessageId(UUID.randomUUID())
+                        .lastMessageSenderId(partner.getId())
+                        .lastMessagePreview("See you at the studio")
+                        .lastMessageAt(now.minusSeconds(i))
+                        .build();
+                entries.add(entry);
+                entriesById.put(entry.getId(), entry);
+            }
+        }
+
+        InboxEntryRepository inboxEntryRepository = StandIns.of(InboxEntryRepository.class, Map.of(
+                "findByUserIdOrderByLastMessageAtDesc", args -> entries.subList(0, Math.min(PAGE_SIZE, entries.size())),
+                "countByUserId", args -> (long) entries.size(),
+                "findAllById", args -> {
+                    List<InboxEntry> found = new ArrayList<>();
+                    for (Object id : (Iterable<?>) args[0]) {
+                        InboxEntry entry = entriesById.get(id);
+                        if (entry != null) {
+                            found.add(entry);
+                        }
+                    }
+                    return found;
+                }));
+        UserRepository userRepository = StandIns.of(UserRepository.class, Map.of(
+                "findAllById", args -> List.of()));
+        UserService userService = StandIns.of(UserService.class, Map.of(
+                "findMyChats", args -> users));
+        ChatMessageService chatMessageService = StandIns.of(ChatMessageService.class, Map.of(
+                "markSentMessagesToUserAsDelivered", args -> List.of()));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        chatSummaryService = new ChatSummaryServiceImpl(chatMessageService,
+                new MessageStatusNotifierImpl(StandIns.messagingTemplate(), meterRegistry, 200),
+                userService, new InboxServiceImpl(inboxEntryRepository, userRepository, chatRoomIdResolver,
+                        StandIns.of(InboxUpdateNotifier.class, Map.of())),
+                meterRegistry, 4, 64, 2000, 3000, 2000, false);
+        jwt = Jwt.withTokenValue("benchmark").header("alg", "none").subject(userId.toString()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        chatSummaryService.shutdown();
+    }
+
+    @Benchmark
+    public ChatSummaryResult assembleFirstPage() {
+        return chatSummaryService.assembleSummaries(jwt, userId, 0, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,51 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.repositories.memory.InMemoryStorageConfig;
+import com.spshpau.chatservice.services.ClusterTransport;
+import com.spshpau.chatservice.services.impl.LoopbackClusterTransport;
+import com.spshpau.chatservice.services.impl.MongoChangeStreamClusterTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Selects the {@link ClusterTransport} the nodes of a cluster exchange message changes with, by
+ * {@code chat.cluster.transport}: {@code mongo} tails the chat message change stream, {@code loopback} only
+ * reaches the node itself. Without the property no transport is created and each node only notifies its own
+ * sessions, which is all a single node needs.
+ */
+@Configuration
+public class ClusterConfig {
+
+    public static final String TRANSPORT_PROPERTY = "chat.cluster.transport";
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(name = TRANSPORT_PROPERTY, havingValue = "mongo")
+    public ClusterTransport mongoChangeStreamClusterTransport(
+            MongoTemplate mongoTemplate,
+            @Value("${" + InMemoryStorageConfig.ENGINE_PROPERTY + ":" + InMemoryStorageConfig.ENGINE_MONGO + "}") String engine,
+            @Value("${chat.cluster.node-id:${HOSTNAME:chatservice}}") String nodeId,
+            @Value("${chat.cluster.mongo.batch-size:500}") int batchSize,
+            @Value("${chat.cluster.mongo.resume-token-interval-ms:1000}") long tokenIntervalMillis,
+            @Value("${chat.cluster.mongo.max-await-ms:1000}") long maxAwaitMillis,
+            @Value("${chat.cluster.mongo.reopen-interval-ms:5000}") long reopenIntervalMillis,
+            @Value("${chat.cluster.mongo.max-filter-users:5000}") int maxFilterUsers
+    ) {
+        if (InMemoryStorageConfig.ENGINE_MEMORY.equalsIgnoreCase(engine)) {
+            throw new IllegalStateException(TRANSPORT_PROPERTY + "=mongo observes the Mongo chat messages and cannot "
+                    + "be combined with " + InMemoryStorageConfig.ENGINE_PROPERTY + "=" + InMemoryStorageConfig.ENGINE_MEMORY);
+        }
+        return new MongoChangeStreamClusterTransport(mongoTemplate, nodeId, batchSize, tokenIntervalMillis, maxAwaitMillis,
+                reopenIntervalMillis, maxFilterUsers);
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(name = TRANSPORT_PROPERTY, havingValue = "loopback")
+    public ClusterTransport loopbackClusterTransport(
+            @Value("${chat.cluster.node-id:${HOSTNAME:chatservice}}") String nodeId
+    ) {
+        return new LoopbackClusterTransport(new LoopbackClusterTransport.Hub(), nodeId);
+    }
+}
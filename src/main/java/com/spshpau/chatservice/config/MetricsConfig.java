@@ -0,0 +1,51 @@
+package com.spshpau.chatservice.config;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Distribution settings for the service's own {@code chat.*} timers and summaries. By default they publish
+ * percentile histograms, so latency quantiles can be aggregated across instances in Prometheus; client-side
+ * percentiles and timer SLO buckets can be added per deployment. Settings for individual meters under
+ * {@code management.metrics.distribution.*} still apply on top of these.
+ */
+@Configuration
+public class MetricsConfig {
+
+    static final String METER_PREFIX = "chat.";
+
+    @Bean
+    public MeterFilter chatDistributionMeterFilter(
+            @Value("${chat.metrics.percentiles-histogram:true}") boolean percentilesHistogram,
+            @Value("${chat.metrics.percentiles:}") double[] percentiles,
+            @Value("${chat.metrics.slo-ms:}") long[] sloMillis,
+            @Value("${chat.metrics.expiry-ms:120000}") long expiryMillis
+    ) {
+        double[] sloNanos = Arrays.stream(sloMillis).mapToDouble(ms -> Duration.ofMillis(ms).toNanos()).toArray();
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (!id.getName().startsWith(METER_PREFIX)) {
+                    return config;
+                }
+                DistributionStatisticConfig.Builder builder = DistributionStatisticConfig.builder()
+                        .percentilesHistogram(percentilesHistogram)
+                        .expiry(Duration.ofMillis(expiryMillis));
+                if (percentiles.length > 0) {
+                    builder.percentiles(percentiles);
+                }
+                if (id.getType() == Meter.Type.TIMER && sloNanos.length > 0) {
+                    builder.serviceLevelObjectives(sloNanos);
+                }
+                return config.merge(builder.build());
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.model.HistoryCursor;
+import org.bson.UuidRepresentation;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Pins the Mongo UUID representation to {@link UuidRepresentation#STANDARD}, whatever
+ * {@code spring.data.mongodb.uuid-representation} says. Only then does Mongo sort ids the way
+ * {@link HistoryCursor#ID_ORDER} compares them, which history paging, delta sync and the in-memory engine rely on;
+ * {@code JAVA_LEGACY}, Spring Boot's default, stores the bytes of each half reversed.
+ */
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer standardUuidRepresentation() {
+        return settings -> settings.uuidRepresentation(UuidRepresentation.STANDARD);
+    }
+}
@@ -0,0 +1,254 @@
+package com.spshpau.chatservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-session outbound backpressure. Every WebSocket session gets an {@link OutboundSessionQueue} bounded by
+ * {@code max-frames} and {@code max-bytes}, and a pool of sender threads writes the queues to the sockets, so
+ * one slow client only grows its own queue. Writes block, so a client that stopped reading holds a sender until
+ * it is disconnected for exceeding {@code send-time-limit-ms}; the pool is bounded at {@code threads} senders,
+ * and the sessions behind the stalled ones wait at most that long. With virtual threads, every write gets its
+ * own. While a session is behind, frames are treated by their {@link OutboundFrameClass}:
+ * <ul>
+ *     <li>chat messages and other frames are always queued;</li>
+ *     <li>status updates of the same chat and status are merged into one frame with the latest state;</li>
+ *     <li>presence deltas are merged into the queued presence frame, and dropped, along with the queued one,
+ *     while the session is over budget; once it has room again, its client is sent a presence frame with
+ *     {@code resync} set.</li>
+ * </ul>
+ * A session that stays over budget for longer than {@code over-budget-ms}, goes over twice the budget, or
+ * takes longer than {@code send-time-limit-ms} to accept a frame is disconnected. Its client reconnects and
+ * catches up through the sync endpoint, so chat messages are never lost, only no longer pushed.
+ */
+@Component
+@Slf4j
+public class OutboundBackpressure implements WebSocketHandlerDecoratorFactory {
+
+    static final String OVER_BUDGET = "over-budget";
+    static final String SEND_TIME = "send-time";
+    static final String SEND_ERROR = "send-error";
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    @Getter
+    private final ObjectMapper objectMapper;
+    @Getter
+    private final boolean enabled;
+    @Getter
+    private final int maxFrames;
+    @Getter
+    private final long maxBytes;
+    @Getter
+    private final long overBudgetMillis;
+    @Getter
+    private final long sendTimeLimitMillis;
+    @Getter
+    private final int drainBatch;
+    private final Clock clock;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService sweeper;
+
+    private final ConcurrentMap<String, OutboundSessionQueue> sessions = new ConcurrentHashMap<>();
+
+    private final Map<OutboundFrameClass, Counter> droppedCounters = new EnumMap<>(OutboundFrameClass.class);
+    private final Map<OutboundFrameClass, Counter> coalescedCounters = new EnumMap<>(OutboundFrameClass.class);
+    private final Map<String, Counter> disconnectCounters = new HashMap<>();
+    private final DistributionSummary depthSummary;
+
+    @Autowired
+    public OutboundBackpressure(
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${chat.websocket.outbound.enabled:true}") boolean enabled,
+            @Value("${chat.websocket.outbound.max-frames:1000}") int maxFrames,
+            @Value("${chat.websocket.outbound.max-bytes:1048576}") long maxBytes,
+            @Value("${chat.websocket.outbound.over-budget-ms:10000}") long overBudgetMillis,
+            @Value("${chat.websocket.outbound.send-time-limit-ms:10000}") long sendTimeLimitMillis,
+            @Value("${chat.websocket.outbound.drain-batch:64}") int drainBatch,
+            @Value("${chat.websocket.outbound.threads:0}") int threads,
+            @Value("${" + VirtualThreads.PROPERTY + ":false}") boolean virtualThreads
+    ) {
+        this(objectMapper, meterRegistry, enabled, maxFrames, maxBytes, overBudgetMillis, sendTimeLimitMillis,
+                drainBatch, Clock.systemUTC(),
+                virtualThreads
+                        ? VirtualThreads.perTaskExecutor("chat-ws-sender-")
+                        : senderPool(threads > 0 ? threads : Math.max(8, 2 * Runtime.getRuntime().availableProcessors())),
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chat-ws-outbound-sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        if (enabled) {
+            sweeper.scheduleWithFixedDelay(this::sweepQuietly, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    OutboundBackpressure(ObjectMapper objectMapper, MeterRegistry meterRegistry, boolean enabled, int maxFrames,
+                         long maxBytes, long overBudgetMillis, long sendTimeLimitMillis, int drainBatch, Clock clock,
+                         ExecutorService senders, ScheduledExecutorService sweeper) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.maxFrames = Math.max(1, maxFrames);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.overBudgetMillis = overBudgetMillis;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.drainBatch = Math.max(1, drainBatch);
+        this.clock = clock;
+        this.senders = senders;
+        this.sweeper = sweeper;
+
+        droppedCounters.put(OutboundFrameClass.PRESENCE, Counter.builder("chat.ws.outbound.dropped")
+                .description("Outbound frames dropped because their session was over budget")
+                .tag("class", "presence")
+                .register(meterRegistry));
+        for (OutboundFrameClass frameClass : List.of(OutboundFrameClass.STATUS, OutboundFrameClass.PRESENCE)) {
+            coalescedCounters.put(frameClass, Counter.builder("chat.ws.outbound.coalesced")
+                    .description("Outbound frames merged into a frame still queued for their session")
+                    .tag("class", frameClass.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        for (String reason : List.of(OVER_BUDGET, SEND_TIME, SEND_ERROR)) {
+            disconnectCounters.put(reason, Counter.builder("chat.ws.outbound.disconnects")
+                    .description("Sessions closed because they could not keep up with their outbound frames")
+                    .tag("reason", reason)
+                    .register(meterRegistry));
+        }
+        this.depthSummary = DistributionSummary.builder("chat.ws.outbound.session.depth")
+                .description("Frames queued for the session, recorded on every outbound frame")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.outbound.queued.frames", this, backpressure -> backpressure.total(OutboundSessionStats::frames))
+                .description("Outbound frames queued over all sessions")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.outbound.queued.bytes", this, backpressure -> backpressure.total(OutboundSessionStats::bytes))
+                .description("Outbound payload bytes queued over all sessions")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.outbound.sessions.over.budget", sessions,
+                        queues -> queues.values().stream().filter(OutboundSessionQueue::isOverBudget).count())
+                .description("Sessions whose outbound queue is over budget")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return A pool of at most {@code threads} senders, which stop after a minute idle. Each session queues at
+     * most one drain, so the queue is bounded by the number of sessions.
+     */
+    static ExecutorService senderPool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-ws-sender");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        if (!enabled) {
+            return handler;
+        }
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                OutboundSessionQueue queue = new OutboundSessionQueue(session, OutboundBackpressure.this);
+                sessions.put(session.getId(), queue);
+                super.afterConnectionEstablished(queue);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                OutboundSessionQueue queue = sessions.remove(session.getId());
+                if (queue != null) {
+                    queue.discard();
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * @return The queues of the open sessions, fullest first, at most {@code limit}.
+     */
+    public List<OutboundSessionStats> getSessionStats(int limit) {
+        return sessions.values().stream()
+                .map(OutboundSessionQueue::stats)
+                .sorted(Comparator.comparingLong(OutboundSessionStats::bytes).reversed())
+                .limit(Math.max(0, limit))
+                .toList();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    void sweep() {
+        sessions.values().forEach(OutboundSessionQueue::checkLimits);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.error("Failed to check outbound session limits.", e);
+        }
+    }
+
+    private double total(ToLongFunction<OutboundSessionStats> value) {
+        return sessions.values().stream().map(OutboundSessionQueue::stats).mapToLong(value).sum();
+    }
+
+    long now() {
+        return clock.millis();
+    }
+
+    void execute(Runnable drain) {
+        senders.execute(drain);
+    }
+
+    void recordDepth(int depth) {
+        depthSummary.record(depth);
+    }
+
+    void dropped(OutboundFrameClass frameClass) {
+        droppedCounters.get(frameClass).increment();
+    }
+
+    void coalesced(OutboundFrameClass frameClass) {
+        coalescedCounters.get(frameClass).increment();
+    }
+
+    void disconnected(OutboundSessionQueue queue, String reason, OutboundSessionStats stats) {
+        sessions.remove(queue.getId(), queue);
+        disconnectCounters.get(reason).increment();
+        log.warn("Closing session {} ({}): {} frames / {} bytes queued, over budget for {} ms, sending for {} ms.",
+                queue.getId(), reason, stats.frames(), stats.bytes(), stats.overBudgetMillis(), stats.sendingMillis());
+    }
+}
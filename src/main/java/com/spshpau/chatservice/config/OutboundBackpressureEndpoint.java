@@ -0,0 +1,42 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.services.PresenceRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Actuator endpoint {@code /actuator/wsqueues}: the outbound queues of the open WebSocket sessions, fullest
+ * first, e.g. {@code GET /actuator/wsqueues?limit=20}.
+ */
+@Component
+@Endpoint(id = "wsqueues")
+@RequiredArgsConstructor
+public class OutboundBackpressureEndpoint {
+
+    private final OutboundBackpressure backpressure;
+    private final PresenceRegistry presenceRegistry;
+
+    @ReadOperation
+    public Map<String, Object> queues(@Nullable Integer limit) {
+        List<SessionQueue> queues = backpressure.getSessionStats(limit != null ? limit : 100).stream()
+                .map(stats -> new SessionQueue(presenceRegistry.getSessionUser(stats.sessionId()), stats))
+                .toList();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sessions", backpressure.getSessionCount());
+        result.put("maxFrames", backpressure.getMaxFrames());
+        result.put("maxBytes", backpressure.getMaxBytes());
+        result.put("queues", queues);
+        return result;
+    }
+
+    public record SessionQueue(UUID userId, OutboundSessionStats queue) {
+    }
+}
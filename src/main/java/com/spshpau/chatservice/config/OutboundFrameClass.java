@@ -0,0 +1,54 @@
+package com.spshpau.chatservice.config;
+
+/**
+ * How {@link OutboundBackpressure} treats an outbound frame when a session falls behind.
+ */
+public enum OutboundFrameClass {
+    /**
+     * New chat messages on "/user/queue/messages". Never dropped or merged.
+     */
+    MESSAGE,
+    /**
+     * Status updates on "/user/queue/status-updates". Queued updates of the same chat and status are merged.
+     */
+    STATUS,
+    /**
+     * Presence deltas on "/user/queue/presence". Merged into the queued presence frame, or dropped while the
+     * session is over budget and followed by a resync request once it has room again.
+     */
+    PRESENCE,
+    /**
+     * Everything else, e.g. CONNECTED, RECEIPT, ERROR, heartbeats and inbox updates. Never dropped or merged.
+     */
+    OTHER;
+
+    private static final String MESSAGE_COMMAND = "MESSAGE\n";
+    private static final String DESTINATION_HEADER = "\ndestination:";
+
+    /**
+     * Classifies an encoded STOMP frame by its command and destination header, without decoding the frame.
+     */
+    public static OutboundFrameClass of(String frame) {
+        if (!frame.startsWith(MESSAGE_COMMAND)) {
+            return OTHER;
+        }
+        int headersEnd = frame.indexOf("\n\n");
+        int header = frame.indexOf(DESTINATION_HEADER, MESSAGE_COMMAND.length() - 1);
+        if (header < 0 || (headersEnd >= 0 && header > headersEnd)) {
+            return OTHER;
+        }
+        int valueStart = header + DESTINATION_HEADER.length();
+        int valueEnd = frame.indexOf('\n', valueStart);
+        String destination = frame.substring(valueStart, valueEnd < 0 ? frame.length() : valueEnd);
+        if (destination.endsWith("/queue/messages")) {
+            return MESSAGE;
+        }
+        if (destination.endsWith("/queue/status-updates")) {
+            return STATUS;
+        }
+        if (destination.endsWith("/queue/presence")) {
+            return PRESENCE;
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,426 @@
+package com.spshpau.chatservice.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outbound queue of one WebSocket session. {@link #sendMessage} only queues the frame, merging or dropping
+ * it by its {@link OutboundFrameClass} when the session is behind, and a sender thread of
+ * {@link OutboundBackpressure} writes the queue to the socket, so a slow client never holds up the outbound
+ * channel. Merged frames take the place of the newest frame they replace, so they never overtake a frame that
+ * was queued before any of their parts.
+ */
+@Slf4j
+final class OutboundSessionQueue extends WebSocketSessionDecorator implements Runnable {
+
+    private final OutboundBackpressure owner;
+    private final Object lock = new Object();
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final Map<StatusKey, Frame> queuedStatus = new HashMap<>();
+    private Frame queuedPresence;
+    private Frame droppedPresence;
+    private long bytes;
+    private long overBudgetSinceMillis = -1;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile long sendStartedMillis = -1;
+
+    OutboundSessionQueue(WebSocketSession delegate, OutboundBackpressure owner) {
+        super(delegate);
+        this.owner = owner;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        if (closed.get()) {
+            return;
+        }
+        String exceeded;
+        synchronized (lock) {
+            enqueue(new Frame(message));
+            owner.recordDepth(frames.size());
+            exceeded = limitExceeded(owner.now());
+        }
+        if (exceeded != null) {
+            disconnect(exceeded);
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        discard();
+        super.close(status);
+    }
+
+    /**
+     * Disconnects the session if a frame has been sending for longer than the send time limit, or if the queue
+     * has stayed over budget for longer than the grace period.
+     */
+    void checkLimits() {
+        String exceeded;
+        synchronized (lock) {
+            exceeded = limitExceeded(owner.now());
+        }
+        if (exceeded != null) {
+            disconnect(exceeded);
+        }
+    }
+
+    /**
+     * Drops the queue once the session is closed.
+     */
+    void discard() {
+        closed.set(true);
+        synchronized (lock) {
+            frames.clear();
+            queuedStatus.clear();
+            queuedPresence = null;
+            droppedPresence = null;
+            bytes = 0;
+        }
+    }
+
+    OutboundSessionStats stats() {
+        long now = owner.now();
+        long sendStarted = sendStartedMillis;
+        synchronized (lock) {
+            return new OutboundSessionStats(getId(), frames.size(), bytes, dropped.get(), coalesced.get(),
+                    overBudgetSinceMillis >= 0 ? now - overBudgetSinceMillis : 0,
+                    sendStarted >= 0 ? now - sendStarted : 0);
+        }
+    }
+
+    boolean isOverBudget() {
+        synchronized (lock) {
+            return overBudget();
+        }
+    }
+
+    private void enqueue(Frame frame) {
+        switch (frame.frameClass) {
+            case PRESENCE -> {
+                if (queuedPresence != null) {
+                    Frame merged = mergePresence(queuedPresence, frame);
+                    if (merged != null) {
+                        replace(queuedPresence, merged);
+                        queuedPresence = merged;
+                        return;
+                    }
+                }
+                if (overBudget()) {
+                    drop(frame);
+                    return;
+                }
+                append(frame);
+                queuedPresence = frame;
+            }
+            case STATUS -> {
+                // Only a session with a backlog can merge, so only then is the payload read.
+                if (!frames.isEmpty() && statusKey(frame) != null) {
+                    Frame queued = queuedStatus.get(frame.statusKey);
+                    Frame merged = queued != null ? mergeStatus(queued, frame) : null;
+                    if (merged != null) {
+                        replace(queued, merged);
+                        queuedStatus.put(merged.statusKey, merged);
+                        break;
+                    }
+                    queuedStatus.put(frame.statusKey, frame);
+                }
+                append(frame);
+            }
+            default -> append(frame);
+        }
+        if (overBudget() && queuedPresence != null) {
+            frames.removeFirstOccurrence(queuedPresence);
+            bytes -= queuedPresence.bytes;
+            drop(queuedPresence);
+            queuedPresence = null;
+        }
+    }
+
+    private void append(Frame frame) {
+        frames.addLast(frame);
+        bytes += frame.bytes;
+    }
+
+    private void replace(Frame queued, Frame merged) {
+        frames.removeFirstOccurrence(queued);
+        bytes -= queued.bytes;
+        append(merged);
+        coalesced.incrementAndGet();
+        owner.coalesced(merged.frameClass);
+    }
+
+    private void drop(Frame frame) {
+        dropped.incrementAndGet();
+        owner.dropped(frame.frameClass);
+        if (frame.frameClass == OutboundFrameClass.PRESENCE) {
+            droppedPresence = frame;
+        }
+    }
+
+    /**
+     * Once a session that dropped presence deltas has room again, queues a presence frame asking its client to
+     * reload presence. It goes through {@link #enqueue}, so it merges with a queued presence frame, and is
+     * dropped and asked for again if the session falls behind once more.
+     */
+    private void resyncPresence() {
+        if (droppedPresence == null || frames.size() >= owner.getMaxFrames() || bytes >= owner.getMaxBytes()) {
+            return;
+        }
+        Frame resync = rebuild(droppedPresence,
+                PresenceDeltaNotification.builder().changes(List.of()).resync(true).build());
+        droppedPresence = null;
+        if (resync != null) {
+            enqueue(resync);
+        }
+    }
+
+    private Frame poll() {
+        synchronized (lock) {
+            Frame frame = frames.pollFirst();
+            if (frame == null) {
+                return null;
+            }
+            bytes -= frame.bytes;
+            if (frame == queuedPresence) {
+                queuedPresence = null;
+            }
+            if (frame.statusKey != null) {
+                queuedStatus.remove(frame.statusKey, frame);
+            }
+            resyncPresence();
+            return frame;
+        }
+    }
+
+    private boolean overBudget() {
+        return frames.size() > owner.getMaxFrames() || bytes > owner.getMaxBytes();
+    }
+
+    private String limitExceeded(long now) {
+        long sendStarted = sendStartedMillis;
+        if (sendStarted >= 0 && now - sendStarted > owner.getSendTimeLimitMillis()) {
+            return OutboundBackpressure.SEND_TIME;
+        }
+        if (!overBudget()) {
+            overBudgetSinceMillis = -1;
+            return null;
+        }
+        if (overBudgetSinceMillis < 0) {
+            overBudgetSinceMillis = now;
+        }
+        boolean farOver = frames.size() > 2L * owner.getMaxFrames() || bytes > 2 * owner.getMaxBytes();
+        return farOver || now - overBudgetSinceMillis > owner.getOverBudgetMillis()
+                ? OutboundBackpressure.OVER_BUDGET
+                : null;
+    }
+
+    private void disconnect(String reason) {
+        if (closed.getAndSet(true)) {
+            return;
+        }
+        OutboundSessionStats stats = stats();
+        discard();
+        owner.disconnected(this, reason, stats);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to close session {} after {}.", getId(), reason, e);
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            owner.execute(this);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            log.debug("Outbound senders stopped, not sending to session {}.", getId());
+        }
+    }
+
+    /**
+     * Writes up to a batch of queued frames, then hands the sender thread back.
+     */
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < owner.getDrainBatch() && !closed.get(); i++) {
+                Frame frame = poll();
+                if (frame == null) {
+                    break;
+                }
+                sendStartedMillis = owner.now();
+                try {
+                    getDelegate().sendMessage(frame.message);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Failed to send to session {}.", getId(), e);
+                    disconnect(OutboundBackpressure.SEND_ERROR);
+                } finally {
+                    sendStartedMillis = -1;
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            boolean pending;
+            synchronized (lock) {
+                pending = !frames.isEmpty();
+            }
+            if (pending && !closed.get()) {
+                schedule();
+            }
+        }
+    }
+
+    private StatusKey statusKey(Frame frame) {
+        MessageStatusUpdateNotification update = frame.body(MessageStatusUpdateNotification.class);
+        if (update != null && update.getChatId() != null && update.getNewStatus() != null) {
+            frame.statusKey = new StatusKey(update.getChatId(), update.getNewStatus(), update.getUpToSentAt() != null);
+        }
+        return frame.statusKey;
+    }
+
+    /**
+     * Merges two status updates of the same chat and status: watermarks into the later watermark, message
+     * lists into their union.
+     */
+    private Frame mergeStatus(Frame queued, Frame next) {
+        MessageStatusUpdateNotification older = queued.body(MessageStatusUpdateNotification.class);
+        MessageStatusUpdateNotification newer = next.body(MessageStatusUpdateNotification.class);
+        if (older == null) {
+            return null;
+        }
+        MessageStatusUpdateNotification.MessageStatusUpdateNotificationBuilder merged = MessageStatusUpdateNotification.builder()
+                .chatId(newer.getChatId())
+                .newStatus(newer.getNewStatus())
+                .statusTimestamp(later(older.getStatusTimestamp(), newer.getStatusTimestamp()))
+                .updatedByUserId(newer.getUpdatedByUserId());
+        if (next.statusKey.watermark()) {
+            merged.messageIds(List.of()).upToSentAt(later(older.getUpToSentAt(), newer.getUpToSentAt()));
+        } else {
+            Set<UUID> messageIds = new LinkedHashSet<>(older.getMessageIds() != null ? older.getMessageIds() : List.of());
+            if (newer.getMessageIds() != null) {
+                messageIds.addAll(newer.getMessageIds());
+            }
+            merged.messageIds(List.copyOf(messageIds));
+        }
+        Frame frame = rebuild(next, merged.build());
+        if (frame != null) {
+            frame.statusKey = next.statusKey;
+        }
+        return frame;
+    }
+
+    /**
+     * Merges two presence frames, keeping the latest change of each user and a resync request of either.
+     */
+    private Frame mergePresence(Frame queued, Frame next) {
+        PresenceDeltaNotification older = queued.body(PresenceDeltaNotification.class);
+        PresenceDeltaNotification newer = next.body(PresenceDeltaNotification.class);
+        if (older == null || newer == null) {
+            return null;
+        }
+        Map<UUID, PresenceDeltaNotification.Delta> latest = new LinkedHashMap<>();
+        for (PresenceDeltaNotification notification : List.of(older, newer)) {
+            if (notification.getChanges() != null) {
+                notification.getChanges().forEach(delta -> latest.merge(delta.getUserId(), delta,
+                        (current, candidate) -> candidate.getAt() >= current.getAt() ? candidate : current));
+            }
+        }
+        return rebuild(next, PresenceDeltaNotification.builder()
+                .changes(List.copyOf(latest.values()))
+                .resync(older.isResync() || newer.isResync())
+                .build());
+    }
+
+    private Frame rebuild(Frame template, Object body) {
+        try {
+            Frame frame = new Frame(new TextMessage(template.withBody(owner.getObjectMapper().writeValueAsString(body))));
+            frame.body = body;
+            return frame;
+        } catch (JsonProcessingException e) {
+            log.debug("Failed to write merged {} frame for session {}.", template.frameClass, getId(), e);
+            return null;
+        }
+    }
+
+    private static Instant later(Instant a, Instant b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.isAfter(b) ? a : b;
+    }
+
+    private record StatusKey(UUID chatId, MessageStatus status, boolean watermark) {
+    }
+
+    private final class Frame {
+        private final WebSocketMessage<?> message;
+        private final OutboundFrameClass frameClass;
+        private final int bytes;
+        private StatusKey statusKey;
+        private Object body;
+
+        Frame(WebSocketMessage<?> message) {
+            this.message = message;
+            this.frameClass = message instanceof TextMessage text ? OutboundFrameClass.of(text.getPayload())
+                    : OutboundFrameClass.OTHER;
+            this.bytes = message.getPayloadLength();
+        }
+
+        <T> T body(Class<T> type) {
+            if (body == null) {
+                String text = ((TextMessage) message).getPayload();
+                int start = text.indexOf("\n\n");
+                int end = text.lastIndexOf('\0');
+                try {
+                    body = owner.getObjectMapper().readValue(
+                            text.substring(start + 2, end > start ? end : text.length()), type);
+                } catch (JsonProcessingException | RuntimeException e) {
+                    log.debug("Cannot read {} frame for session {}, not merging it.", frameClass, getId(), e);
+                    return null;
+                }
+            }
+            return type.isInstance(body) ? type.cast(body) : null;
+        }
+
+        /**
+         * @return This frame's command and headers with a new JSON body and its content length.
+         */
+        String withBody(String json) {
+            String text = ((TextMessage) message).getPayload();
+            StringBuilder frame = new StringBuilder(text.length() + json.length());
+            for (String line : text.substring(0, text.indexOf("\n\n")).split("\n")) {
+                if (!line.startsWith("content-length:")) {
+                    frame.append(line).append('\n');
+                }
+            }
+            return frame.append("content-length:").append(json.getBytes(StandardCharsets.UTF_8).length)
+                    .append("\n\n").append(json).append('\0').toString();
+        }
+    }
+}
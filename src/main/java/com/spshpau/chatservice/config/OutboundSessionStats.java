@@ -0,0 +1,11 @@
+package com.spshpau.chatservice.config;
+
+/**
+ * The outbound queue of one WebSocket session at a point in time.
+ *
+ * @param overBudgetMillis How long the queue has been over budget, 0 if it is within budget.
+ * @param sendingMillis    How long the frame being written has been sending, 0 if none is.
+ */
+public record OutboundSessionStats(String sessionId, int frames, long bytes, long dropped, long coalesced,
+                                   long overBudgetMillis, long sendingMillis) {
+}
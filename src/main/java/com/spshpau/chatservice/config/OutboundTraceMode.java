@@ -0,0 +1,20 @@
+package com.spshpau.chatservice.config;
+
+/**
+ * What {@link OutboundTracingInterceptor} logs about outbound STOMP frames. Frame counters and size histograms
+ * are kept in every mode.
+ */
+public enum OutboundTraceMode {
+    /**
+     * Log nothing.
+     */
+    OFF,
+    /**
+     * Log one in {@code sample-rate} frames.
+     */
+    SAMPLED,
+    /**
+     * Log every frame sent to a session of the selected users.
+     */
+    USERS
+}
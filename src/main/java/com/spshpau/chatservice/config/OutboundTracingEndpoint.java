@@ -0,0 +1,45 @@
+package com.spshpau.chatservice.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Actuator endpoint {@code /actuator/stomptrace}: reads the outbound frame counters and size histogram, and
+ * switches the trace mode at runtime, e.g.
+ * {@code POST /actuator/stomptrace {"mode": "USERS", "users": ["123e4567-e89b-12d3-a456-426614174000"]}}.
+ */
+@Component
+@Endpoint(id = "stomptrace")
+@RequiredArgsConstructor
+public class OutboundTracingEndpoint {
+
+    private final OutboundTracingInterceptor interceptor;
+
+    @ReadOperation
+    public Map<String, Object> trace() {
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("settings", interceptor.getSettings());
+        trace.put("frames", interceptor.getFrameCounts());
+        trace.put("sizeHistogram", interceptor.getSizeHistogram());
+        return trace;
+    }
+
+    @WriteOperation
+    public OutboundTracingInterceptor.Settings configure(OutboundTraceMode mode, @Nullable Integer sampleRate,
+                                                         @Nullable Set<UUID> users) {
+        OutboundTracingInterceptor.Settings current = interceptor.getSettings();
+        interceptor.configure(mode,
+                sampleRate != null ? sampleRate : current.sampleRate(),
+                users != null ? users : current.users());
+        return interceptor.getSettings();
+    }
+}
@@ -0,0 +1,153 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts outbound STOMP frames and their payload sizes, and logs a configurable subset of them. The per-frame
+ * path only reads message headers and increments preallocated counters, so it does not allocate unless the
+ * frame is logged. Sizes are kept in power-of-two buckets: bucket {@code i} holds payloads of
+ * {@code [2^(i-1), 2^i)} bytes, bucket 0 empty payloads.
+ * <p>
+ * The mode can be changed at runtime through the {@code stomptrace} actuator endpoint.
+ */
+@Component
+@Slf4j
+public class OutboundTracingInterceptor implements ChannelInterceptor {
+
+    static final int SIZE_BUCKETS = 32;
+    private static final SimpMessageType[] MESSAGE_TYPES = SimpMessageType.values();
+
+    private final PresenceRegistry presenceRegistry;
+
+    private final AtomicLongArray framesByType = new AtomicLongArray(MESSAGE_TYPES.length + 1);
+    private final AtomicLongArray bytesByType = new AtomicLongArray(MESSAGE_TYPES.length + 1);
+    private final AtomicLongArray sizeBuckets = new AtomicLongArray(SIZE_BUCKETS);
+
+    private volatile Settings settings;
+
+    public OutboundTracingInterceptor(
+            PresenceRegistry presenceRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${chat.ws.outbound-trace.mode:OFF}") OutboundTraceMode mode,
+            @Value("${chat.ws.outbound-trace.sample-rate:1000}") int sampleRate,
+            @Value("${chat.ws.outbound-trace.users:}") Set<UUID> users
+    ) {
+        this.presenceRegistry = presenceRegistry;
+        configure(mode, sampleRate, users);
+
+        for (int i = 0; i <= MESSAGE_TYPES.length; i++) {
+            int index = i;
+            String type = i < MESSAGE_TYPES.length ? MESSAGE_TYPES[i].name() : "UNKNOWN";
+            FunctionCounter.builder("chat.ws.outbound.frames", framesByType, frames -> frames.get(index))
+                    .description("Outbound STOMP frames by message type")
+                    .tag("type", type)
+                    .register(meterRegistry);
+            FunctionCounter.builder("chat.ws.outbound.bytes", bytesByType, bytes -> bytes.get(index))
+                    .description("Outbound STOMP payload bytes by message type")
+                    .baseUnit("bytes")
+                    .tag("type", type)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        int size = message.getPayload() instanceof byte[] bytes ? bytes.length : 0;
+
+        int typeIndex = messageType != null ? messageType.ordinal() : MESSAGE_TYPES.length;
+        framesByType.incrementAndGet(typeIndex);
+        bytesByType.addAndGet(typeIndex, size);
+        sizeBuckets.incrementAndGet(sizeBucket(size));
+
+        Settings current = settings;
+        if (current.mode() == OutboundTraceMode.OFF) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (current.mode() == OutboundTraceMode.SAMPLED) {
+            if (ThreadLocalRandom.current().nextInt(current.sampleRate()) == 0) {
+                trace(headers, messageType, sessionId, size);
+            }
+        } else if (sessionId != null && !current.users().isEmpty()) {
+            UUID userId = presenceRegistry.getSessionUser(sessionId);
+            if (userId != null && current.users().contains(userId)) {
+                trace(headers, messageType, sessionId, size);
+            }
+        }
+        return message;
+    }
+
+    private void trace(MessageHeaders headers, SimpMessageType messageType, String sessionId, int size) {
+        log.info("Outbound {} to {} (session {}, {} bytes)", messageType,
+                SimpMessageHeaderAccessor.getDestination(headers), sessionId, size);
+    }
+
+    static int sizeBucket(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * Switches the trace mode. A sample rate below 1 is treated as 1, i.e. every frame.
+     */
+    public void configure(OutboundTraceMode mode, int sampleRate, Set<UUID> users) {
+        settings = new Settings(mode != null ? mode : OutboundTraceMode.OFF, Math.max(1, sampleRate),
+                users != null ? Set.copyOf(users) : Set.of());
+        log.info("Outbound STOMP tracing set to {} (sample rate 1/{}, users {}).",
+                settings.mode(), settings.sampleRate(), settings.users());
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The frames and bytes counted so far per message type.
+     */
+    public Map<String, FrameCount> getFrameCounts() {
+        Map<String, FrameCount> counts = new LinkedHashMap<>();
+        for (int i = 0; i <= MESSAGE_TYPES.length; i++) {
+            if (framesByType.get(i) > 0) {
+                counts.put(i < MESSAGE_TYPES.length ? MESSAGE_TYPES[i].name() : "UNKNOWN",
+                        new FrameCount(framesByType.get(i), bytesByType.get(i)));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return The payload size histogram, keyed by the exclusive upper bound of each non-empty bucket in bytes.
+     */
+    public Map<Long, Long> getSizeHistogram() {
+        Map<Long, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < SIZE_BUCKETS; i++) {
+            long count = sizeBuckets.get(i);
+            if (count > 0) {
+                histogram.put(1L << i, count);
+            }
+        }
+        return histogram;
+    }
+
+    public record Settings(OutboundTraceMode mode, int sampleRate, Set<UUID> users) {
+    }
+
+    public record FrameCount(long frames, long bytes) {
+    }
+}
@@ -0,0 +1,54 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.services.PresenceRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.UUID;
+
+/**
+ * Keeps presence sessions alive: every inbound frame of a session, STOMP heartbeats included, counts as activity.
+ * Sessions themselves are opened and closed by {@link PresenceSessionEventListener}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PresenceChannelInterceptor implements ChannelInterceptor {
+
+    private final PresenceRegistry presenceRegistry;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null || messageType == SimpMessageType.CONNECT || messageType == SimpMessageType.DISCONNECT) {
+            return message;
+        }
+        presenceRegistry.touch(sessionId);
+        return message;
+    }
+
+    /**
+     * @return The user ID (JWT subject) of an authenticated WebSocket principal, or null.
+     */
+    static UUID userId(Principal principal) {
+        if (principal == null) {
+            return null;
+        }
+        String subject = principal instanceof JwtAuthenticationToken token ? token.getToken().getSubject() : principal.getName();
+        try {
+            return subject != null ? UUID.fromString(subject) : null;
+        } catch (IllegalArgumentException e) {
+            log.warn("WebSocket principal {} is not a user ID.", subject);
+            return null;
+        }
+    }
+}
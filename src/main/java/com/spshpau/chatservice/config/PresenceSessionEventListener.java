@@ -0,0 +1,41 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.services.PresenceRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.UUID;
+
+/**
+ * Opens and closes presence sessions on the STOMP session lifecycle. A disconnect event is published for
+ * every session end, whether the client sent DISCONNECT, the transport closed or heartbeats were missed.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PresenceSessionEventListener {
+
+    private final PresenceRegistry presenceRegistry;
+
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        UUID userId = PresenceChannelInterceptor.userId(event.getUser());
+        if (sessionId == null || userId == null) {
+            log.warn("Ignoring connected session {} without an authenticated user.", sessionId);
+            return;
+        }
+        presenceRegistry.sessionConnected(userId, sessionId);
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        log.debug("Session {} closed with status {}", event.getSessionId(), event.getCloseStatus());
+        presenceRegistry.sessionDisconnected(event.getSessionId());
+    }
+}
@@ -2,6 +2,8 @@ package com.spshpau.chatservice.config;
 
 import com.spshpau.chatservice.JwtAuthConverter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -19,7 +21,10 @@ public class SecurityConfig {
 
     private final JwtAuthConverter jwtAuthConverter;
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(
+            HttpSecurity http,
+            @Value("${chat.security.admin-role:admin}") String adminRole
+    ) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(authorize -> authorize
@@ -28,6 +33,9 @@ public class SecurityConfig {
                                 "/favicon.ico", "/ws/**", "/api/v1/util/ping"
                         ).permitAll()
                         .requestMatchers("/api/v1/chats/**", "/api/v1/messages/**").authenticated()
+                        // Switch tracing at runtime and list other users' sessions, so not for end users.
+                        .requestMatchers(EndpointRequest.to(OutboundTracingEndpoint.class, OutboundBackpressureEndpoint.class))
+                        .hasRole(adminRole)
                         .anyRequest().authenticated()
                 );
 
@@ -0,0 +1,55 @@
+package com.spshpau.chatservice.config;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.*;
+
+/**
+ * Executors for the virtual-thread execution mode, switched by Spring Boot's {@value #PROPERTY}, which also
+ * moves Tomcat request handling onto virtual threads. With it, the STOMP channels and the pools that call the
+ * user service start one virtual thread per task instead of queueing for a few platform threads, so a slow
+ * database or user service only holds up the messages waiting for it. The sources stay on Java 17; the
+ * threads are created through Spring's {@link VirtualThreadTaskExecutor}, and the mode fails at startup on
+ * an older runtime.
+ */
+public final class VirtualThreads {
+
+    public static final String PROPERTY = "spring.threads.virtual.enabled";
+
+    private VirtualThreads() {
+    }
+
+    public static ThreadFactory factory(String namePrefix) {
+        requireRuntime();
+        return new VirtualThreadTaskExecutor(namePrefix).getVirtualThreadFactory();
+    }
+
+    /**
+     * @return An executor service starting a new virtual thread for every task, like
+     * {@code Executors.newVirtualThreadPerTaskExecutor()}.
+     */
+    public static ExecutorService perTaskExecutor(String namePrefix) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                factory(namePrefix));
+    }
+
+    /**
+     * @return A message channel executor starting a virtual thread per message, with at most
+     * {@code concurrencyLimit} running; further messages wait in the sending thread, which holds back reading
+     * from the socket. A negative limit does not limit.
+     */
+    public static Executor channelExecutor(String namePrefix, int concurrencyLimit) {
+        requireRuntime();
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(namePrefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit < 0 ? SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY : concurrencyLimit);
+        return executor;
+    }
+
+    private static void requireRuntime() {
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException(PROPERTY + "=true needs a Java 21 runtime, this is " + Runtime.version());
+        }
+    }
+}
@@ -2,112 +2,126 @@ package com.spshpau.chatservice.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.converter.DefaultContentTypeResolver;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.converter.MessageConverter;
-import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
-import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 import java.util.List;
-import java.util.Map;
 
 @Configuration
 @EnableWebSocketMessageBroker
 @RequiredArgsConstructor
-@Slf4j
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     private final JwtChannelInterceptor jwtChannelInterceptor;
+    private final PresenceChannelInterceptor presenceChannelInterceptor;
+    private final OutboundTracingInterceptor outboundTracingInterceptor;
+    private final OutboundBackpressure outboundBackpressure;
+    private final ObjectMapper objectMapper;
+
+    @Value("${chat.presence.heartbeat-ms:10000}")
+    private long heartbeatMillis;
+
+    @Value("${" + VirtualThreads.PROPERTY + ":false}")
+    private boolean virtualThreads;
+
+    @Value("${chat.websocket.virtual-threads.inbound-concurrency:1000}")
+    private int inboundConcurrency;
+
+    @Value("${chat.websocket.virtual-threads.outbound-concurrency:-1}")
+    private int outboundConcurrency;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic", "/queue");
+        // Heartbeats let the broker close sessions of clients that vanished without DISCONNECT
+        // and keep idle sessions of live clients from being reaped by the presence registry.
+        registry.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[]{heartbeatMillis, heartbeatMillis})
+                .setTaskScheduler(brokerHeartbeatScheduler());
 
         registry.setApplicationDestinationPrefixes("/app");
 
         registry.setUserDestinationPrefix("/user");
+
+        // Hands the frames for a session to the outbound channel one at a time, so they are written in the order
+        // the stripes published them instead of racing on the outbound channel's pool.
+        registry.setPreservePublishOrder(true);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Hands the frames of a session to the inbound channel one at a time, so they reach the chat stripes in
+        // the order the client sent them.
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/ws")
                 .setAllowedOrigins("http://localhost:5173", "http://192.168.1.121:5173")
                 .withSockJS()
                 .setSessionCookieNeeded(false);
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Frames are queued per session by OutboundBackpressure, so sends reach Spring's session buffer at once
+        // and these limits only apply when it is disabled.
+        registration.setSendTimeLimit((int) Math.min(Integer.MAX_VALUE, outboundBackpressure.getSendTimeLimitMillis()))
+                .setSendBufferSizeLimit((int) Math.min(Integer.MAX_VALUE, outboundBackpressure.getMaxBytes()))
+                .addDecoratorFactory(outboundBackpressure);
+    }
+
     @Override
     public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(jsonMessageConverter(objectMapper));
+
+        return false;
+    }
+
+    /**
+     * The STOMP payload converter. It uses the application's ObjectMapper so that notifications are written
+     * like REST responses, e.g. {@code Instant}s as ISO-8601 strings.
+     */
+    public static MappingJackson2MessageConverter jsonMessageConverter(ObjectMapper objectMapper) {
         DefaultContentTypeResolver resolver = new DefaultContentTypeResolver();
         resolver.setDefaultMimeType(MimeTypeUtils.APPLICATION_JSON);
 
         MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
-        converter.setObjectMapper(new ObjectMapper());
+        converter.setObjectMapper(objectMapper);
         converter.setContentTypeResolver(resolver);
-
-        messageConverters.add(converter);
-
-        return false;
+        return converter;
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(jwtChannelInterceptor);
+        registration.interceptors(jwtChannelInterceptor, presenceChannelInterceptor);
+        if (virtualThreads) {
+            // Handlers block on Mongo and the user service; a bounded platform pool would cap all sockets at its size.
+            registration.executor(VirtualThreads.channelExecutor("ws-inbound-", inboundConcurrency));
+        }
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler brokerHeartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-heartbeat-");
+        scheduler.setDaemon(true);
+        return scheduler;
     }
 
     @Override
     public void configureClientOutboundChannel(ChannelRegistration registration) {
-        registration.interceptors(new ChannelInterceptor() {
-            @Override
-            public Message<?> preSend(Message<?> message, MessageChannel channel) {
-                Map<String, Object> headers = message.getHeaders();
-                Object destination = headers.get(SimpMessageHeaderAccessor.DESTINATION_HEADER);
-                Object sessionId = headers.get(SimpMessageHeaderAccessor.SESSION_ID_HEADER);
-                Object messageType = headers.get(SimpMessageHeaderAccessor.MESSAGE_TYPE_HEADER); // STOMP command or MESSAGE
-                Object userHeader = headers.get(SimpMessageHeaderAccessor.USER_HEADER);
-                String userName = "null";
-
-                if (userHeader instanceof org.springframework.security.core.Authentication) {
-                    userName = ((org.springframework.security.core.Authentication) userHeader).getName();
-                } else if (userHeader != null) {
-                    userName = userHeader.toString();
-                }
-
-                log.info(">>>> OUTBOUND MSG (RAW): Type: {}, Dest: {}, SessionId: {}, User: {}",
-                        messageType, destination, sessionId, userName);
-
-                // Additional detailed logging with StompHeaderAccessor
-                try {
-                    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
-                    String detailedUser = "null";
-                    if (accessor.getUser() != null) {
-                        detailedUser = accessor.getUser().getName();
-                    }
-                    // For server-to-client MESSAGE frames, accessor.getCommand() will be null.
-                    // accessor.getMessageType() gives the STOMP command for client-to-server frames,
-                    // or SimpMessageType.MESSAGE for server-to-client data.
-                    log.info(">>>> OUTBOUND MSG (STOMP WRAPPED): Dest: {}, SessionId: {}, User: {}, MessageType: {}, STOMP Command: {}, NativeHeaders: {}",
-                            accessor.getDestination(),
-                            accessor.getSessionId(),
-                            detailedUser,
-                            accessor.getMessageType(), // More specific than trying to get command for outbound
-                            accessor.getCommand(),    // Will often be null for server-to-client
-                            accessor.toNativeHeaderMap()
-                    );
-                } catch (Exception e) {
-                    log.error("Error wrapping outbound message with StompHeaderAccessor. Raw Dest: {}, Raw SessionId: {}", destination, sessionId, e);
-                }
-                return message;
-            }
-        });
+        registration.interceptors(outboundTracingInterceptor);
+        if (virtualThreads) {
+            registration.executor(VirtualThreads.channelExecutor("ws-outbound-", outboundConcurrency));
+        }
     }
 }
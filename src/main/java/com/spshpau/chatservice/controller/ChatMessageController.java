@@ -1,10 +1,14 @@
 package com.spshpau.chatservice.controller;
 
+import com.spshpau.chatservice.controller.dto.ChatSyncDto;
 import com.spshpau.chatservice.controller.dto.MarkAsReadPayloadDto;
 import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
@@ -12,6 +16,9 @@ public interface ChatMessageController {
 
     /**
      * Finds and retrieves chat messages between a sender and a recipient.
+     * Returns at most the latest {@code chat.messages.legacy-history-cap} messages (default 500), oldest first.
+     * Prefer {@link #findChatHistory} for paging through long conversations.
+     * The {@code X-Chat-Sync-Cursor} response header holds a cursor for {@link #syncChat}.
      *
      * @param senderId    The UUID of the sender.
      * @param recipientId The UUID of the recipient.
@@ -46,12 +53,92 @@ public interface ChatMessageController {
      */
     ResponseEntity<List<ChatMessage>> findChatMessages (UUID senderId, UUID recipientId);
 
+    /**
+     * Retrieves one page of chat history between a sender and a recipient using a (sentAt, id) keyset cursor.
+     * The page is streamed from a MongoDB cursor directly into the response.
+     * With direction OLDER (default) messages are returned newest first, with NEWER oldest first.
+     * Pass {@code nextCursor} back with the same direction to continue; it is null when there are no more messages.
+     * Pass {@code prevCursor} with the opposite direction to page back the other way.
+     * {@code syncCursor} can be passed to {@link #syncChat} to receive the changes made after this page was read.
+     *
+     * @param senderId    The UUID of the sender.
+     * @param recipientId The UUID of the recipient.
+     * @param cursor      Optional opaque cursor from a previous page.
+     * @param direction   OLDER or NEWER.
+     * @param at          Optional ISO-8601 timestamp to jump to when no cursor is given.
+     * @param limit       Page size, default 50, capped at {@code chat.messages.history.max-page-size} (default 200).
+     * @return A ResponseEntity streaming the page, or 400 Bad Request if the cursor is malformed.
+     * Example Response (200 OK):
+     * <pre>{@code
+     * {
+     * "direction": "OLDER",
+     * "messages": [
+     * {
+     * "id": "b2c3d4e5-f6a7-8901-2345-678901bcdef0",
+     * "senderId": "123e4567-e89b-12d3-a456-426614174001",
+     * "content": "Hi!",
+     * "status": "SENT",
+     * "sentAt": "2023-10-26T10:02:00Z",
+     * "statusTimestamp": "2023-10-26T10:02:00Z"
+     * },
+     * {
+     * "id": "a1b2c3d4-e5f6-7890-1234-567890abcdef",
+     * "senderId": "123e4567-e89b-12d3-a456-426614174000",
+     * "content": "Hello there!",
+     * "status": "READ",
+     * "sentAt": "2023-10-26T10:00:00Z",
+     * "statusTimestamp": "2023-10-26T10:01:00Z"
+     * }
+     * ],
+     * "nextCursor": "MTY5ODMxNDQwMDAwMF9hMWIyYzNkNC1lNWY2LTc4OTAtMTIzNC01Njc4OTBhYmNkZWY",
+     * "prevCursor": "MTY5ODMxNDUyMDAwMF9iMmMzZDRlNS1mNmE3LTg5MDEtMjM0NS02Nzg5MDFiY2RlZjA",
+     * "syncCursor": "MjAyMy0xMC0yNlQxMDowMjowMFpfZmZmZmZmZmYtZmZmZi1mZmZmLWZmZmYtZmZmZmZmZmZmZmZm"
+     * }
+     * }</pre>
+     */
+    ResponseEntity<StreamingResponseBody> findChatHistory(UUID senderId, UUID recipientId, String cursor,
+                                                          HistoryDirection direction, Instant at, int limit);
+
+    /**
+     * Returns the messages between a sender and a recipient that were sent or changed status after a sync
+     * cursor, oldest change first, so a client can keep an open chat current without downloading it again.
+     * Apply each change by message id and pass the returned {@code cursor} to the next call; when
+     * {@code hasMore} is true, call again right away. Changes from the last {@code chat.messages.sync.settle-ms}
+     * may be returned again.
+     *
+     * @param senderId    The UUID of the sender.
+     * @param recipientId The UUID of the recipient.
+     * @param cursor      The {@code syncCursor} of a history page, the {@code X-Chat-Sync-Cursor} header of the
+     *                    latest messages, or the {@code cursor} of the previous sync.
+     * @param limit       Maximum number of changes, default and cap {@code chat.messages.sync.max-page-size} (200).
+     * @return 304 Not Modified if nothing changed, 400 Bad Request if the cursor is malformed, otherwise the changes.
+     * Example Response (200 OK):
+     * <pre>{@code
+     * {
+     * "changes": [
+     * {
+     * "id": "b2c3d4e5-f6a7-8901-2345-678901bcdef0",
+     * "senderId": "123e4567-e89b-12d3-a456-426614174001",
+     * "content": "Hi!",
+     * "status": "READ",
+     * "sentAt": "2023-10-26T10:02:00Z",
+     * "statusTimestamp": "2023-10-26T10:03:00Z"
+     * }
+     * ],
+     * "cursor": "MjAyMy0xMC0yNlQxMDowMzowMFpfYjJjM2Q0ZTUtZjZhNy04OTAxLTIzNDUtNjc4OTAxYmNkZWYw",
+     * "hasMore": false
+     * }
+     * }</pre>
+     */
+    ResponseEntity<ChatSyncDto> syncChat(UUID senderId, UUID recipientId, String cursor, int limit);
+
     /**
      * Marks messages within a specific chat as read by the recipient.
      * The recipient is identified from the STOMP session.
      * This is a WebSocket message mapping (@MessageMapping).
-     * It sends a {@link com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification}
-     * to the sender via a user-specific queue ("/queue/status-updates").
+     * It sends one {@link com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification}
+     * per original sender, listing all updated message ids (or an {@code upToSentAt} watermark for very large
+     * groups), via a user-specific queue ("/queue/status-updates").
      *
      * @param payload        The payload containing the chatId.
      * Example {@link com.spshpau.chatservice.controller.dto.MarkAsReadPayloadDto}:
@@ -64,10 +151,23 @@ public interface ChatMessageController {
      */
     void markMessagesAsReadByRecipient(MarkAsReadPayloadDto payload, SimpMessageHeaderAccessor headerAccessor);
 
+    /**
+     * Marks the SENT messages of a chat as delivered to the recipient, who acknowledges them after receiving a
+     * message notification for a chat that is not open. The recipient is identified from the STOMP session.
+     * This is a WebSocket message mapping (@MessageMapping) taking the same payload as
+     * {@link #markMessagesAsReadByRecipient}. Original senders are notified like for reads, with
+     * {@code newStatus} DELIVERED.
+     *
+     * @param payload        The payload containing the chatId.
+     * @param headerAccessor The STOMP message header accessor, used to retrieve the authenticated user.
+     */
+    void markMessagesAsDeliveredToRecipient(MarkAsReadPayloadDto payload, SimpMessageHeaderAccessor headerAccessor);
+
     /**
      * Processes an incoming chat message sent via WebSocket.
      * This method is mapped to a message broker destination (e.g., "/app/chat").
-     * After saving the message, it sends a {@link com.spshpau.chatservice.controller.notifications.ChatNotification}
+     * Once the message is persisted (immediately in direct mode, after its batch is flushed in write-behind
+     * mode), it sends a {@link com.spshpau.chatservice.controller.notifications.ChatNotification}
      * to the recipient via a user-specific queue ("/queue/messages").
      *
      * @param chatMessage The ChatMessage object to be processed.
@@ -0,0 +1,29 @@
+package com.spshpau.chatservice.controller;
+
+import com.spshpau.chatservice.controller.dto.ClusterPlacementDto;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+public interface ClusterController {
+
+    /**
+     * Returns the placement hint of the authenticated user: the node a load balancer should pin the user's
+     * WebSocket and REST connections to, from the consistent hash ring of the live nodes. Every node answers
+     * the same once membership has settled.
+     * Requires a valid JWT Bearer token in the Authorization header.
+     *
+     * @param jwt The authenticated user's JWT.
+     * @return A ResponseEntity containing the placement.
+     * Example Response (200 OK):
+     * <pre>{@code
+     * {
+     *   "userId": "a1b2c3d4-e5f6-7890-1234-567890abcdef",
+     *   "nodeId": "chatservice-2",
+     *   "owners": ["chatservice-2"],
+     *   "routing": true
+     * }
+     * }</pre>
+     * Example Response (401 Unauthorized if token is missing or invalid).
+     */
+    ResponseEntity<ClusterPlacementDto> getMyPlacement(Jwt jwt);
+}
@@ -12,9 +12,10 @@ import java.util.List;
 public interface UserController {
 
     /**
-     * Adds a new user to the system or updates an existing user's presence.
-     * This is a WebSocket message mapping (@MessageMapping) and typically sends to "/topic/presence".
-     * The method returns a {@link com.spshpau.chatservice.model.User} object over WebSocket.
+     * Adds a new user to the system or updates an existing user's profile.
+     * This is a WebSocket message mapping (@MessageMapping). Nothing is broadcast: presence is derived from the
+     * WebSocket session, and changes are delivered to the user's connections as batched
+     * {@link com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification}s on "/user/queue/presence".
      *
      * @param payload The UserPayloadDto containing user details.
      * Example {@link com.spshpau.chatservice.controller.dto.UserPayloadDto}:
@@ -26,48 +27,36 @@ public interface UserController {
      * "lastName": "Doe"
      * }
      * }</pre>
-     * @return The User object that was added or updated, sent over WebSocket.
-     * Example returned {@link com.spshpau.chatservice.model.User} over WebSocket:
-     * <pre>{@code
-     * {
-     * "id": "123e4567-e89b-12d3-a456-426614174000",
-     * "username": "john.doe",
-     * "firstName": "John",
-     * "lastName": "Doe",
-     * "status": "ONLINE"
-     * }
-     * }</pre>
      */
-    User addUser(@Payload UserPayloadDto payload);
+    void addUser(@Payload UserPayloadDto payload);
 
     /**
-     * Disconnects a user from the system, typically marking them as offline.
-     * This is a WebSocket message mapping (@MessageMapping) and typically sends to "/topic/presence".
-     * The method returns a {@link com.spshpau.chatservice.model.User} object over WebSocket.
+     * Closes the calling WebSocket session's presence. The user goes OFFLINE once no other session (e.g. another
+     * browser tab) is open, which is delivered to the user's connections on "/user/queue/presence".
+     * This is a WebSocket message mapping (@MessageMapping).
      *
-     * @param payload The UserPayloadDto containing the userId of the user to disconnect.
+     * @param payload   The UserPayloadDto containing the userId of the user to disconnect.
+     * @param sessionId The WebSocket session the message was received on.
      * Example {@link com.spshpau.chatservice.controller.dto.UserPayloadDto}:
      * <pre>{@code
      * {
      * "userId": "123e4567-e89b-12d3-a456-426614174000"
      * }
      * }</pre>
-     * @return The User object that was disconnected, or null if not found, sent over WebSocket.
-     * Example returned {@link com.spshpau.chatservice.model.User} over WebSocket:
+     * Example {@link com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification} received by a connection:
      * <pre>{@code
      * {
-     * "id": "123e4567-e89b-12d3-a456-426614174000",
-     * "username": "john.doe",
-     * "firstName": "John",
-     * "lastName": "Doe",
-     * "status": "OFFLINE"
+     * "changes": [
+     * { "userId": "123e4567-e89b-12d3-a456-426614174000", "status": "OFFLINE", "at": 1698314520000 }
+     * ]
      * }
      * }</pre>
      */
-    User disconnect(@Payload UserPayloadDto payload);
+    void disconnect(@Payload UserPayloadDto payload, String sessionId);
 
     /**
-     * Finds and retrieves a list of all currently connected (online) users.
+     * Finds and retrieves a list of all currently connected (online) users, i.e. users with at least one
+     * open WebSocket session.
      *
      * @return A ResponseEntity containing a list of User objects.
      * Example Response (200 OK):
@@ -121,11 +110,18 @@ public interface UserController {
     ResponseEntity<List<User>> getMyChats(Jwt jwt);
 
     /**
-     * Retrieves a list of chat summaries for the currently authenticated user.
-     * A chat summary includes the chat partner, chat ID, and the count of unread messages.
+     * Retrieves a page of chat summaries for the currently authenticated user, most recently active chat first.
+     * A chat summary includes the chat partner, chat ID, the count of unread messages, a preview of the last
+     * message and the user's last-read marker. Summaries are read from the user's inbox read model.
+     * Connections without any messages yet follow the last conversation, paged like it, with a null chat ID.
      * The authenticated user is identified from the provided JWT.
+     * The response carries a {@code Server-Timing} header with the duration of each assembly stage. If a stage
+     * failed or timed out the summaries are partial and the {@code X-Chat-Summary-Degraded} header lists the
+     * affected stages.
      *
-     * @param jwt The JWT of the authenticated user.
+     * @param jwt  The JWT of the authenticated user.
+     * @param page The zero-based page number (default 0).
+     * @param size The page size (default 50, capped at {@code chat.inbox.max-page-size}).
      * @return A ResponseEntity containing a list of ChatSummaryDto objects.
      * Example Response (200 OK):
      * <pre>{@code
@@ -139,7 +135,11 @@ public interface UserController {
      * "status": "ONLINE"
      * },
      * "chatId": "f0e1d2c3-b4a5-6789-0123-456789abcdef",
-     * "unreadCount": 3
+     * "unreadCount": 3,
+     * "lastMessagePreview": "See you at the studio!",
+     * "lastMessageSenderId": "123e4567-e89b-12d3-a456-426614174001",
+     * "lastMessageAt": "2023-10-26T10:02:00Z",
+     * "lastReadAt": "2023-10-26T09:58:00Z"
      * },
      * {
      * "chatPartner": {
@@ -149,11 +149,15 @@ public interface UserController {
      * "lastName": "Friend",
      * "status": "OFFLINE"
      * },
-     * "chatId": "a0b1c2d3-e4f5-6789-0123-abcdeffedcba",
-     * "unreadCount": 0
+     * "chatId": null,
+     * "unreadCount": 0,
+     * "lastMessagePreview": null,
+     * "lastMessageSenderId": null,
+     * "lastMessageAt": null,
+     * "lastReadAt": null
      * }
      * ]
      * }</pre>
      */
-    ResponseEntity<List<ChatSummaryDto>> getMyChatSummaries(Jwt jwt);
+    ResponseEntity<List<ChatSummaryDto>> getMyChatSummaries(Jwt jwt, int page, int size);
 }
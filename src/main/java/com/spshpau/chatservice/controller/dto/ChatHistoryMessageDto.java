@@ -0,0 +1,23 @@
+package com.spshpau.chatservice.controller.dto;
+
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatHistoryMessageDto {
+    private UUID id;
+    private UUID senderId;
+    private String content;
+    private MessageStatus status;
+    private Instant sentAt;
+    private Instant statusTimestamp;
+}
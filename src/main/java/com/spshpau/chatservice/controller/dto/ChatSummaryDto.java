@@ -2,16 +2,28 @@ package com.spshpau.chatservice.controller.dto;
 
 import com.spshpau.chatservice.model.User;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Data
+@Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class ChatSummaryDto {
     private User chatPartner;
     private UUID chatId;
     private long unreadCount;
+    private String lastMessagePreview;
+    private UUID lastMessageSenderId;
+    private Instant lastMessageAt;
+    private Instant lastReadAt;
+    /**
+     * Version of the inbox entry the summary was built from; updates on "/user/queue/inbox-updates" with a
+     * version not above it are already reflected.
+     */
+    private long version;
 }
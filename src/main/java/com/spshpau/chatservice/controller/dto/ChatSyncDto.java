@@ -0,0 +1,21 @@
+package com.spshpau.chatservice.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The changes of a chat since a sync cursor: messages saved or moved to a new status, in the order they changed.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSyncDto {
+    private List<ChatHistoryMessageDto> changes;
+    private String cursor;
+    private boolean hasMore;
+}
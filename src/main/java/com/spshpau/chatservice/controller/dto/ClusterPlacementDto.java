@@ -0,0 +1,26 @@
+package com.spshpau.chatservice.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterPlacementDto {
+    private UUID userId;
+    /**
+     * The node the user's connections should be pinned to.
+     */
+    private String nodeId;
+    /**
+     * The other nodes the user currently has sessions on, as last announced.
+     */
+    private Set<String> owners;
+    private boolean routing;
+}
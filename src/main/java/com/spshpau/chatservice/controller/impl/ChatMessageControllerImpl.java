@@ -1,13 +1,27 @@
 package com.spshpau.chatservice.controller.impl;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.spshpau.chatservice.controller.ChatMessageController;
+import com.spshpau.chatservice.controller.dto.ChatHistoryMessageDto;
+import com.spshpau.chatservice.controller.dto.ChatSyncDto;
 import com.spshpau.chatservice.controller.dto.MarkAsReadPayloadDto;
 import com.spshpau.chatservice.controller.notifications.ChatNotification;
-import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
 import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
 import com.spshpau.chatservice.services.ChatMessageService;
-import lombok.RequiredArgsConstructor;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import com.spshpau.chatservice.services.impl.ChatRoomIdResolver;
+import com.spshpau.chatservice.services.impl.ChatStripedExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -16,39 +30,88 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
 
 import java.security.Principal;
+import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
 @Controller
-@RequiredArgsConstructor
 @Slf4j
 public class ChatMessageControllerImpl implements ChatMessageController {
+    static final String SYNC_CURSOR_HEADER = "X-Chat-Sync-Cursor";
+
     private final SimpMessagingTemplate messagingTemplate;
     private final ChatMessageService chatMessageService;
+    private final MessageStatusNotifier messageStatusNotifier;
+    private final ObjectMapper objectMapper;
+    private final ChatStripedExecutor stripedExecutor;
+    private final ChatRoomIdResolver chatRoomIdResolver;
+    private final Timer notifyTimer;
+    private final Timer notifyErrorTimer;
+
+    public ChatMessageControllerImpl(SimpMessagingTemplate messagingTemplate, ChatMessageService chatMessageService,
+                                     MessageStatusNotifier messageStatusNotifier, ObjectMapper objectMapper,
+                                     ChatStripedExecutor stripedExecutor, ChatRoomIdResolver chatRoomIdResolver,
+                                     MeterRegistry meterRegistry) {
+        this.messagingTemplate = messagingTemplate;
+        this.chatMessageService = chatMessageService;
+        this.messageStatusNotifier = messageStatusNotifier;
+        this.objectMapper = objectMapper;
+        this.stripedExecutor = stripedExecutor;
+        this.chatRoomIdResolver = chatRoomIdResolver;
+        this.notifyTimer = notifyTimer(meterRegistry, "success");
+        this.notifyErrorTimer = notifyTimer(meterRegistry, "error");
+    }
+
+    private static Timer notifyTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("chat.notifications.send")
+                .description("Time to hand a notification frame to the broker")
+                .tag("type", "message")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
 
     @Override
     @MessageMapping("/chat")
     public void processMessage(@Payload ChatMessage chatMessage) {
-        ChatMessage savedMsg = chatMessageService.save(chatMessage);
-
-        ChatNotification notification = ChatNotification.builder()
-                .id(savedMsg.getId())
-                .senderId(savedMsg.getSenderId())
-                .recipientId(savedMsg.getRecipientId())
-                .content(savedMsg.getContent())
-                .sentAt(savedMsg.getSentAt())
-                .status(savedMsg.getStatus())
-                .chatId(savedMsg.getChatId())
-                .statusTimestamp(savedMsg.getSentAt())
-                .build();
-
-        messagingTemplate.convertAndSendToUser(
-                savedMsg.getRecipientId().toString(),
-                "/queue/messages",
-                notification
-        );
+        // The service derives the chatId from the two users as well, so the one sent by the client is not trusted.
+        UUID chatId = chatMessage.getSenderId() != null && chatMessage.getRecipientId() != null
+                ? chatRoomIdResolver.resolve(chatMessage.getSenderId(), chatMessage.getRecipientId())
+                : null;
+        // With write-behind persistence the stripe is handed back once the message is queued, which keeps the
+        // chat's messages in order; read receipts wait for the write themselves.
+        stripedExecutor.execute(chatId, () -> chatMessageService.submit(chatMessage)
+                .thenAccept(this::notifyRecipient)
+                .exceptionally(e -> {
+                    log.error("Failed to persist message from {} to {}, recipient not notified.",
+                            chatMessage.getSenderId(), chatMessage.getRecipientId(), e);
+                    return null;
+                }));
+    }
+
+    private void notifyRecipient(ChatMessage savedMsg) {
+        ChatNotification notification = ChatNotification.of(savedMsg);
+
+        Timer.Sample sample = Timer.start();
+        try {
+            messagingTemplate.convertAndSendToUser(
+                    savedMsg.getRecipientId().toString(),
+                    "/queue/messages",
+                    notification
+            );
+            sample.stop(notifyTimer);
+        } catch (RuntimeException e) {
+            sample.stop(notifyErrorTimer);
+            throw e;
+        }
         log.info("Attempted to send new message notification {} to user UUID {}", savedMsg.getId(), savedMsg.getRecipientId());
     }
 
@@ -56,44 +119,51 @@ public class ChatMessageControllerImpl implements ChatMessageController {
     @MessageMapping("/chat.markAsRead")
     public void markMessagesAsReadByRecipient(@Payload MarkAsReadPayloadDto payload,
                                               SimpMessageHeaderAccessor headerAccessor) {
+        transitionForRecipient("read", payload, headerAccessor, chatMessageService::markMessagesAsRead);
+    }
+
+    @Override
+    @MessageMapping("/chat.markAsDelivered")
+    public void markMessagesAsDeliveredToRecipient(@Payload MarkAsReadPayloadDto payload,
+                                                   SimpMessageHeaderAccessor headerAccessor) {
+        transitionForRecipient("delivered", payload, headerAccessor, chatMessageService::markMessagesAsDelivered);
+    }
+
+    private void transitionForRecipient(String status, MarkAsReadPayloadDto payload, SimpMessageHeaderAccessor headerAccessor,
+                                        BiFunction<UUID, UUID, List<MessageStatusChange>> transition) {
         Principal principal = headerAccessor.getUser();
         if (principal == null || principal.getName() == null) {
-            log.warn("Cannot mark messages as read: User not authenticated in STOMP session.");
+            log.warn("Cannot mark messages as {}: User not authenticated in STOMP session.", status);
             return;
         }
         if (payload == null || payload.getChatId() == null) {
-            log.warn("Cannot mark messages as read: Received null payload or missing chatId.");
+            log.warn("Cannot mark messages as {}: Received null payload or missing chatId.", status);
             return;
         }
 
+        UUID currentUserUuid;
+        UUID chatId;
         try {
-            UUID currentUserUuid = UUID.fromString(principal.getName());
-            UUID chatId = UUID.fromString(payload.getChatId());
-
-            log.info("User {} marking messages as read for chat {}", currentUserUuid, chatId);
-            List<ChatMessage> updatedMessages = chatMessageService.markMessagesAsRead(chatId, currentUserUuid);
-
-            for (ChatMessage updatedMsg : updatedMessages) {
-                MessageStatusUpdateNotification statusUpdate = MessageStatusUpdateNotification.builder()
-                        .chatId(updatedMsg.getChatId())
-                        .messageIds(List.of(updatedMsg.getId()))
-                        .newStatus(updatedMsg.getStatus())
-                        .statusTimestamp(updatedMsg.getReadAt())
-                        .updatedByUserId(currentUserUuid)
-                        .build();
-
-                messagingTemplate.convertAndSendToUser(
-                        updatedMsg.getSenderId().toString(),
-                        "/queue/status-updates",
-                        statusUpdate
-                );
-                log.info("Sent READ status update for message {} to original sender {}", updatedMsg.getId(), updatedMsg.getSenderId());
-            }
+            currentUserUuid = UUID.fromString(principal.getName());
+            chatId = UUID.fromString(payload.getChatId());
         } catch (IllegalArgumentException e) {
-            log.error("Invalid UUID format for markAsRead: chatId {} or user {}", payload.getChatId(), principal.getName(), e);
-        } catch (Exception e) {
-            log.error("Error marking messages as read for chat {}: {}", payload.getChatId(), e.getMessage(), e);
+            log.error("Invalid UUID format for markAs{}: chatId {} or user {}", status, payload.getChatId(), principal.getName(), e);
+            return;
         }
+
+        // Same stripe as the chat's new messages, so a read receipt never overtakes the message it covers. The
+        // first task holds the stripe until the messages queued before it are written behind.
+        stripedExecutor.executeAsync(chatId, () -> chatMessageService.pendingWrites(chatId));
+        stripedExecutor.execute(chatId, () -> {
+            try {
+                log.info("User {} marking messages as {} for chat {}", currentUserUuid, status, chatId);
+                List<MessageStatusChange> updatedMessages = transition.apply(chatId, currentUserUuid);
+
+                messageStatusNotifier.notifySenders(updatedMessages, currentUserUuid);
+            } catch (Exception e) {
+                log.error("Error marking messages as {} for chat {}: {}", status, chatId, e.getMessage(), e);
+            }
+        });
     }
 
 
@@ -103,6 +173,94 @@ public class ChatMessageControllerImpl implements ChatMessageController {
             @PathVariable("senderId") UUID senderId,
             @PathVariable("recipientId") UUID recipientId
     ) {
-        return ResponseEntity.ok(chatMessageService.findChatMessages(senderId, recipientId));
+        String syncCursor = chatMessageService.currentSyncCursor().encode();
+        return ResponseEntity.ok()
+                .header(SYNC_CURSOR_HEADER, syncCursor)
+                .body(chatMessageService.findChatMessages(senderId, recipientId));
+    }
+
+    @Override
+    @GetMapping("/api/v1/messages/{senderId}/{recipientId}/history")
+    public ResponseEntity<StreamingResponseBody> findChatHistory(
+            @PathVariable("senderId") UUID senderId,
+            @PathVariable("recipientId") UUID recipientId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "direction", defaultValue = "OLDER") HistoryDirection direction,
+            @RequestParam(value = "at", required = false) Instant at,
+            @RequestParam(value = "limit", defaultValue = "50") int limit
+    ) {
+        HistoryCursor startCursor;
+        try {
+            startCursor = cursor != null ? HistoryCursor.decode(cursor)
+                    : at != null ? HistoryCursor.at(at, direction == HistoryDirection.NEWER)
+                    : null;
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejecting history request for {} and {}: invalid cursor '{}'", senderId, recipientId, cursor);
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = chatMessageService.historyPageSize(limit);
+        // Taken before the page is read, so syncing from it cannot miss changes made during the read.
+        String syncCursor = chatMessageService.currentSyncCursor().encode();
+
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<ChatHistoryMessageDto> messages = chatMessageService.streamChatHistory(
+                    senderId, recipientId, startCursor, direction, pageSize + 1);
+                 JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                writeHistoryPage(generator, direction, messages.iterator(), pageSize, syncCursor);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @Override
+    @GetMapping("/api/v1/messages/{senderId}/{recipientId}/sync")
+    public ResponseEntity<ChatSyncDto> syncChat(
+            @PathVariable("senderId") UUID senderId,
+            @PathVariable("recipientId") UUID recipientId,
+            @RequestParam("cursor") String cursor,
+            @RequestParam(value = "limit", defaultValue = "200") int limit
+    ) {
+        SyncCursor since;
+        try {
+            since = SyncCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejecting sync request for {} and {}: invalid cursor '{}'", senderId, recipientId, cursor);
+            return ResponseEntity.badRequest().build();
+        }
+        ChatSyncDto sync = chatMessageService.syncChat(senderId, recipientId, since, limit);
+        if (sync.getChanges().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noStore()).build();
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(sync);
+    }
+
+    private void writeHistoryPage(JsonGenerator generator, HistoryDirection direction,
+                                  Iterator<ChatHistoryMessageDto> messages, int pageSize,
+                                  String syncCursor) throws IOException {
+        ChatHistoryMessageDto first = null;
+        ChatHistoryMessageDto last = null;
+        int written = 0;
+
+        generator.writeStartObject();
+        generator.writeStringField("direction", direction.name());
+        generator.writeArrayFieldStart("messages");
+        while (written < pageSize && messages.hasNext()) {
+            last = messages.next();
+            if (first == null) {
+                first = last;
+            }
+            generator.writeObject(last);
+            written++;
+        }
+        generator.writeEndArray();
+        boolean hasMore = messages.hasNext();
+        generator.writeStringField("nextCursor", hasMore ? cursorOf(last) : null);
+        generator.writeStringField("prevCursor", first != null ? cursorOf(first) : null);
+        generator.writeStringField("syncCursor", syncCursor);
+        generator.writeEndObject();
+    }
+
+    private static String cursorOf(ChatHistoryMessageDto message) {
+        return new HistoryCursor(message.getSentAt(), message.getId()).encode();
     }
 }
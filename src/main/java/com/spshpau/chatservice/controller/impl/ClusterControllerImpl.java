@@ -0,0 +1,53 @@
+package com.spshpau.chatservice.controller.impl;
+
+import com.spshpau.chatservice.controller.ClusterController;
+import com.spshpau.chatservice.controller.dto.ClusterPlacementDto;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import com.spshpau.chatservice.services.impl.ClusterDirectory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/v1/cluster")
+@RequiredArgsConstructor
+@Slf4j
+public class ClusterControllerImpl implements ClusterController {
+
+    private final ClusterDirectory clusterDirectory;
+    private final PresenceRegistry presenceRegistry;
+
+    @Override
+    @GetMapping("/placement")
+    public ResponseEntity<ClusterPlacementDto> getMyPlacement(@AuthenticationPrincipal Jwt jwt) {
+        if (jwt == null) {
+            return ResponseEntity.status(401).build();
+        }
+        try {
+            UUID userId = UUID.fromString(jwt.getClaimAsString(JwtClaimNames.SUB));
+            Set<String> owners = new HashSet<>(clusterDirectory.ownersOf(userId));
+            if (presenceRegistry.isOnline(userId)) {
+                owners.add(clusterDirectory.getNodeId());
+            }
+            return ResponseEntity.ok(ClusterPlacementDto.builder()
+                    .userId(userId)
+                    .nodeId(clusterDirectory.placementOf(userId))
+                    .owners(owners)
+                    .routing(clusterDirectory.isRouting())
+                    .build());
+        } catch (IllegalArgumentException e) {
+            log.error("Error getting the placement due to an invalid user UUID", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.spshpau.chatservice.controller.notifications;
 
+import com.spshpau.chatservice.model.ChatMessage;
 import com.spshpau.chatservice.model.enums.MessageStatus;
 import lombok.*;
 
@@ -20,4 +21,20 @@ public class ChatNotification {
     private MessageStatus status;
     private UUID chatId;
     private Instant statusTimestamp;
+
+    /**
+     * The notification sent to the recipient of a newly saved message.
+     */
+    public static ChatNotification of(ChatMessage savedMsg) {
+        return ChatNotification.builder()
+                .id(savedMsg.getId())
+                .senderId(savedMsg.getSenderId())
+                .recipientId(savedMsg.getRecipientId())
+                .content(savedMsg.getContent())
+                .sentAt(savedMsg.getSentAt())
+                .status(savedMsg.getStatus())
+                .chatId(savedMsg.getChatId())
+                .statusTimestamp(savedMsg.getSentAt())
+                .build();
+    }
 }
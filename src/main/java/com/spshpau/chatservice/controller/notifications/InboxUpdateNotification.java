@@ -0,0 +1,38 @@
+package com.spshpau.chatservice.controller.notifications;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * New state of one entry of the receiving user's chat list, sent to "/user/queue/inbox-updates" when a message
+ * of the chat was saved or read.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboxUpdateNotification {
+    /**
+     * Consecutive per receiving user. A gap means updates were lost and the chat list should be reloaded from
+     * the summary endpoint.
+     */
+    private long seq;
+    private UUID chatId;
+    private UUID partnerId;
+    private long unreadCount;
+    private UUID lastMessageId;
+    private UUID lastMessageSenderId;
+    private String lastMessagePreview;
+    private Instant lastMessageAt;
+    private Instant lastReadAt;
+    /**
+     * Version of the inbox entry; frames may arrive out of order, so a state with a version not above the one
+     * shown is outdated.
+     */
+    private long version;
+}
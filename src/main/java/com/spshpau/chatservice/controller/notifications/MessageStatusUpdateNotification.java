@@ -20,4 +20,9 @@ public class MessageStatusUpdateNotification {
     private MessageStatus newStatus;
     private Instant statusTimestamp;
     private UUID updatedByUserId;
+    /**
+     * Watermark form: when set, every message in the chat sent by the receiving user at or before this
+     * instant has reached at least {@code newStatus}, and {@code messageIds} is empty.
+     */
+    private Instant upToSentAt;
 }
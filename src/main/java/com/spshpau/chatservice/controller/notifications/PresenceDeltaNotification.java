@@ -0,0 +1,38 @@
+package com.spshpau.chatservice.controller.notifications;
+
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Batch of presence changes of the receiving user's connections, sent to "/user/queue/presence".
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PresenceDeltaNotification {
+    private List<Delta> changes;
+    /**
+     * Set when presence deltas for this connection were dropped, so the client should reload the presence of
+     * its connections instead of relying on the changes alone.
+     */
+    private boolean resync;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Delta {
+        private UUID userId;
+        private StatusEnum status;
+        /**
+         * Epoch milliseconds of the transition.
+         */
+        private long at;
+    }
+}
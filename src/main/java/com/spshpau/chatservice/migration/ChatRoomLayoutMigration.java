@@ -0,0 +1,98 @@
+package com.spshpau.chatservice.migration;
+
+import com.spshpau.chatservice.model.ChatRoom;
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import com.spshpau.chatservice.repositories.memory.InMemoryStorageConfig;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Folds the legacy layout of two {@code ChatRoom} documents per pair (random {@code _id}, with
+ * {@code chatId}, {@code senderId} and {@code recipientId} fields) into one document per pair keyed
+ * by the chatId. Runs once all singletons are created, i.e. before the web server accepts traffic.
+ * The migration is idempotent and is a no-op once no legacy documents remain.
+ */
+@Component
+@ConditionalOnProperty(name = InMemoryStorageConfig.ENGINE_PROPERTY, havingValue = InMemoryStorageConfig.ENGINE_MONGO,
+        matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class ChatRoomLayoutMigration implements SmartInitializingSingleton {
+
+    private static final String LEGACY_MARKER_FIELD = "senderId";
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatRoomRepository chatRoomRepository;
+
+    @Value("${chat.rooms.migration.enabled:true}")
+    private boolean enabled;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            log.info("Chat room layout migration is disabled.");
+            return;
+        }
+        try {
+            migrate();
+        } catch (Exception e) {
+            log.error("Chat room layout migration failed; legacy room documents are left in place.", e);
+        }
+    }
+
+    /**
+     * @return The number of chat rooms written in the canonical layout.
+     */
+    public int migrate() {
+        String collection = mongoTemplate.getCollectionName(ChatRoom.class);
+        Query legacyQuery = Query.query(Criteria.where(LEGACY_MARKER_FIELD).exists(true));
+
+        Map<UUID, LegacyChatRoom> roomsByChatId = new LinkedHashMap<>();
+        try (Stream<LegacyChatRoom> legacyRooms = mongoTemplate.stream(legacyQuery, LegacyChatRoom.class, collection)) {
+            legacyRooms
+                    .filter(room -> room.getChatId() != null && room.getSenderId() != null && room.getRecipientId() != null)
+                    .forEach(room -> roomsByChatId.putIfAbsent(room.getChatId(), room));
+        }
+
+        if (roomsByChatId.isEmpty()) {
+            log.debug("No legacy chat room documents found, nothing to migrate.");
+            return 0;
+        }
+
+        log.info("Migrating {} legacy chat room pairs to the single-document layout.", roomsByChatId.size());
+        roomsByChatId.values().forEach(room ->
+                chatRoomRepository.upsertRoom(room.getChatId(), room.getSenderId(), room.getRecipientId()));
+
+        long removed = mongoTemplate.remove(legacyQuery, collection).getDeletedCount();
+        log.info("Chat room migration finished: {} rooms upserted, {} legacy documents removed.",
+                roomsByChatId.size(), removed);
+        return roomsByChatId.size();
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    static class LegacyChatRoom {
+        @Id
+        private UUID id;
+        private UUID chatId;
+        private UUID senderId;
+        private UUID recipientId;
+    }
+}
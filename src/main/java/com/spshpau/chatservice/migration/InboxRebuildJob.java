@@ -0,0 +1,163 @@
+package com.spshpau.chatservice.migration;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.memory.InMemoryStorageConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Regenerates the {@link InboxEntry} read model from {@link ChatMessage}. Messages are streamed in
+ * (chatId, sentAt) order, so only one chat is held in memory at a time, and entries are replaced in
+ * bulk. Runs at startup when the inbox is empty (e.g. right after upgrading) or when forced with
+ * {@code chat.inbox.rebuild.force}; can also be invoked for recovery via {@link #rebuild()}.
+ */
+@Component
+@ConditionalOnProperty(name = InMemoryStorageConfig.ENGINE_PROPERTY, havingValue = InMemoryStorageConfig.ENGINE_MONGO,
+        matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class InboxRebuildJob implements SmartInitializingSingleton {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${chat.inbox.rebuild.on-startup:true}")
+    private boolean rebuildOnStartup = true;
+
+    @Value("${chat.inbox.rebuild.force:false}")
+    private boolean force;
+
+    @Value("${chat.inbox.rebuild.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${chat.inbox.preview-length:120}")
+    private int previewLength = 120;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!rebuildOnStartup) {
+            log.info("Inbox rebuild on startup is disabled.");
+            return;
+        }
+        try {
+            if (!force && mongoTemplate.estimatedCount(InboxEntry.class) > 0) {
+                log.debug("Inbox is populated, skipping rebuild.");
+                return;
+            }
+            rebuild();
+        } catch (Exception e) {
+            log.error("Inbox rebuild failed; chat summaries may be incomplete until it is rerun.", e);
+        }
+    }
+
+    /**
+     * @return The number of inbox entries written.
+     */
+    public int rebuild() {
+        log.info("Rebuilding inbox entries from chat messages.");
+        Query query = new Query().with(Sort.by("chatId", "sentAt", "_id")).allowDiskUse(true);
+        query.fields().include("_id", "chatId", "senderId", "recipientId", "content", "status", "sentAt", "readAt");
+
+        List<InboxEntry> pending = new ArrayList<>();
+        int written = 0;
+        ChatAccumulator current = null;
+        try (Stream<ChatMessage> messages = mongoTemplate.stream(query, ChatMessage.class)) {
+            for (ChatMessage message : (Iterable<ChatMessage>) messages::iterator) {
+                if (message.getChatId() == null || message.getSenderId() == null || message.getRecipientId() == null) {
+                    continue;
+                }
+                if (current == null || !current.chatId.equals(message.getChatId())) {
+                    if (current != null) {
+                        pending.addAll(current.toEntries());
+                    }
+                    if (pending.size() >= batchSize) {
+                        written += write(pending);
+                    }
+                    current = new ChatAccumulator(message.getChatId());
+                }
+                current.add(message);
+            }
+        }
+        if (current != null) {
+            pending.addAll(current.toEntries());
+        }
+        written += write(pending);
+        log.info("Inbox rebuild finished: {} entries written.", written);
+        return written;
+    }
+
+    private int write(List<InboxEntry> entries) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InboxEntry.class);
+        for (InboxEntry entry : entries) {
+            bulkOps.replaceOne(Query.query(Criteria.where("_id").is(entry.getId())), entry, FindAndReplaceOptions.options().upsert());
+        }
+        bulkOps.execute();
+        int count = entries.size();
+        entries.clear();
+        return count;
+    }
+
+    private class ChatAccumulator {
+        private final UUID chatId;
+        private final Map<UUID, Long> unreadByRecipient = new HashMap<>();
+        private final Map<UUID, Instant> lastReadByRecipient = new HashMap<>();
+        private ChatMessage last;
+
+        ChatAccumulator(UUID chatId) {
+            this.chatId = chatId;
+        }
+
+        void add(ChatMessage message) {
+            last = message;
+            if (message.getStatus() == MessageStatus.SENT || message.getStatus() == MessageStatus.DELIVERED) {
+                unreadByRecipient.merge(message.getRecipientId(), 1L, Long::sum);
+            }
+            if (message.getReadAt() != null) {
+                lastReadByRecipient.merge(message.getRecipientId(), message.getReadAt(),
+                        (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+
+        List<InboxEntry> toEntries() {
+            return List.of(entryFor(last.getSenderId(), last.getRecipientId()),
+                    entryFor(last.getRecipientId(), last.getSenderId()));
+        }
+
+        private InboxEntry entryFor(UUID userId, UUID partnerId) {
+            return InboxEntry.builder()
+                    .id(InboxEntry.idFor(userId, chatId))
+                    .userId(userId)
+                    .chatId(chatId)
+                    .partnerId(partnerId)
+                    .unreadCount(unreadByRecipient.getOrDefault(userId, 0L))
+                    .lastMessageId(last.getId())
+                    .lastMessageSenderId(last.getSenderId())
+                    .lastMessagePreview(InboxEntry.preview(last.getContent(), previewLength))
+                    .lastMessageAt(last.getSentAt())
+                    .lastReadAt(lastReadByRecipient.get(userId))
+                    .build();
+        }
+    }
+}
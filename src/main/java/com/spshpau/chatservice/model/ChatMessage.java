@@ -3,6 +3,7 @@ package com.spshpau.chatservice.model;
 import com.spshpau.chatservice.model.enums.MessageStatus;
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -14,7 +15,17 @@ import java.util.UUID;
 @NoArgsConstructor
 @Builder
 @Document
+// History paging and the capped legacy history: chatId equality, ordered by (sentAt, _id).
+@CompoundIndex(name = ChatMessage.INDEX_CHAT_HISTORY, def = "{'chatId': 1, 'sentAt': 1, '_id': 1}")
+// Status transitions and unread counts: recipientId equality and status $in, optionally narrowed to one chat.
+@CompoundIndex(name = ChatMessage.INDEX_RECIPIENT_STATUS, def = "{'recipientId': 1, 'status': 1, 'chatId': 1, 'sentAt': 1}")
+// Delta sync: chatId equality, ordered by (updatedAt, _id).
+@CompoundIndex(name = ChatMessage.INDEX_CHAT_CHANGES, def = "{'chatId': 1, 'updatedAt': 1, '_id': 1}")
 public class ChatMessage {
+    public static final String INDEX_CHAT_HISTORY = "chat_history";
+    public static final String INDEX_RECIPIENT_STATUS = "recipient_status_chat_sent";
+    public static final String INDEX_CHAT_CHANGES = "chat_changes";
+
     @Id
     private UUID id;
     private UUID chatId;
@@ -26,4 +37,9 @@ public class ChatMessage {
     private Instant sentAt;
     private Instant deliveredAt;
     private Instant readAt;
+    /**
+     * When the message was saved or last changed status. Unset on messages that predate delta sync until
+     * their next status change.
+     */
+    private Instant updatedAt;
 }
@@ -4,8 +4,14 @@ import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
 import java.util.UUID;
 
+/**
+ * A single document per conversation, keyed by the deterministic chatId of the participant pair.
+ * The participants are stored in canonical order ({@code firstUserId < secondUserId}).
+ * Rooms are only ever looked up by chatId, so the {@code _id} index is the only one needed.
+ */
 @Getter
 @Setter
 @AllArgsConstructor
@@ -14,8 +20,8 @@ import java.util.UUID;
 @Document
 public class ChatRoom {
     @Id
-    private UUID id;
     private UUID chatId;
-    private UUID senderId;
-    private UUID recipientId;
+    private UUID firstUserId;
+    private UUID secondUserId;
+    private Instant createdAt;
 }
@@ -0,0 +1,26 @@
+package com.spshpau.chatservice.model;
+
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import lombok.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chat summaries together with how they were assembled: the time spent in each stage, in execution order
+ * of the stages, and the stages that failed or timed out. When {@code degradedStages} is not empty the
+ * summaries are partial, e.g. without connections that have no conversation yet.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+public class ChatSummaryResult {
+    private List<ChatSummaryDto> summaries;
+    private Map<String, Duration> stageDurations;
+    private List<String> degradedStages;
+
+    public boolean isPartial() {
+        return !degradedStages.isEmpty();
+    }
+}
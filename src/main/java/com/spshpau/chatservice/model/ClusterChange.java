@@ -0,0 +1,66 @@
+package com.spshpau.chatservice.model;
+
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A change of a {@link ChatMessage} made on one node of the cluster, as seen by the others: the message was
+ * saved, or its status changed. Carries the message's state after the change; the content only for saves.
+ */
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@ToString(exclude = "content")
+public class ClusterChange {
+
+    public enum Kind {
+        SAVED,
+        STATUS
+    }
+
+    private Kind kind;
+    private UUID messageId;
+    private UUID chatId;
+    private UUID senderId;
+    private UUID recipientId;
+    private String content;
+    private MessageStatus status;
+    private Instant sentAt;
+    private Instant deliveredAt;
+    private Instant readAt;
+    private Instant updatedAt;
+
+    public static ClusterChange saved(ChatMessage message) {
+        return new ClusterChange(Kind.SAVED, message.getId(), message.getChatId(), message.getSenderId(),
+                message.getRecipientId(), message.getContent(), message.getStatus(), message.getSentAt(),
+                message.getDeliveredAt(), message.getReadAt(), message.getUpdatedAt());
+    }
+
+    public static ClusterChange status(MessageStatusChange change) {
+        return new ClusterChange(Kind.STATUS, change.getId(), change.getChatId(), change.getSenderId(),
+                change.getRecipientId(), null, change.getStatus(), change.getSentAt(), change.getDeliveredAt(),
+                change.getReadAt(), change.getUpdatedAt());
+    }
+
+    /**
+     * Identifies the message state the change leads to, so the same change seen twice, e.g. once by the node
+     * making it and once from the transport, is delivered once.
+     */
+    public String dedupKey() {
+        return messageId + ":" + status;
+    }
+
+    public ChatMessage toMessage() {
+        return new ChatMessage(messageId, chatId, senderId, recipientId, content, status, sentAt, deliveredAt,
+                readAt, updatedAt);
+    }
+
+    public MessageStatusChange toStatusChange() {
+        return new MessageStatusChange(messageId, chatId, senderId, recipientId, status, sentAt, deliveredAt,
+                readAt, updatedAt);
+    }
+}
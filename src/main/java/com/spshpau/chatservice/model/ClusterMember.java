@@ -0,0 +1,23 @@
+package com.spshpau.chatservice.model;
+
+import lombok.*;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A node of the cluster as it announces itself to the others: the users with a WebSocket session on it and
+ * when it last did so. A member whose heartbeat is older than {@code chat.cluster.routing.member-timeout-ms}
+ * is considered gone.
+ */
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@ToString(exclude = "users")
+public class ClusterMember {
+    private String nodeId;
+    private Set<UUID> users;
+    private Instant heartbeatAt;
+}
@@ -0,0 +1,85 @@
+package com.spshpau.chatservice.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Keyset position in a chat's history: the (sentAt, id) of a message. Encoded as an opaque URL-safe
+ * token for clients. Messages are strictly ordered by sentAt and then by id, so a cursor is stable even
+ * when several messages share a timestamp.
+ */
+@Value
+public class HistoryCursor {
+    private static final UUID MIN_ID = new UUID(0L, 0L);
+    private static final UUID MAX_ID = new UUID(-1L, -1L);
+
+    /**
+     * Ids compared as unsigned, the way Mongo orders binary UUIDs in the STANDARD representation, which
+     * {@code MongoConfig} pins.
+     */
+    public static final Comparator<UUID> ID_ORDER = (a, b) -> {
+        int high = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return high != 0 ? high : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    };
+    /**
+     * The order of a chat's history, oldest first, as Mongo sorts it on (sentAt, _id).
+     */
+    public static final Comparator<ChatMessage> MESSAGE_ORDER = Comparator
+            .comparing(ChatMessage::getSentAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ChatMessage::getId, ID_ORDER);
+
+    Instant sentAt;
+    UUID id;
+
+    /**
+     * @return {@code at} at the millisecond precision Mongo stores and cursors are encoded with, so messages
+     * held in memory sort and page the way their stored copies do.
+     */
+    public static Instant truncate(Instant at) {
+        return at != null ? at.truncatedTo(ChronoUnit.MILLIS) : null;
+    }
+
+    public static HistoryCursor of(ChatMessage message) {
+        return new HistoryCursor(message.getSentAt(), message.getId());
+    }
+
+    /**
+     * A cursor positioned just before all messages sent at {@code at} when paging towards newer
+     * messages, or just after them when paging towards older ones.
+     */
+    public static HistoryCursor at(Instant at, boolean towardsNewer) {
+        return new HistoryCursor(at, towardsNewer ? MIN_ID : MAX_ID);
+    }
+
+    /**
+     * @return A message that sorts at this cursor's position, for comparisons with {@link #MESSAGE_ORDER}.
+     */
+    public ChatMessage toPosition() {
+        return ChatMessage.builder().sentAt(sentAt).id(id).build();
+    }
+
+    public String encode() {
+        String raw = sentAt.toEpochMilli() + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static HistoryCursor decode(String token) {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int separator = raw.indexOf('_');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Malformed history cursor: " + token);
+        }
+        return new HistoryCursor(
+                Instant.ofEpochMilli(Long.parseLong(raw.substring(0, separator))),
+                UUID.fromString(raw.substring(separator + 1)));
+    }
+}
@@ -0,0 +1,58 @@
+package com.spshpau.chatservice.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Read model of one conversation as seen by one of its participants. Maintained incrementally when
+ * messages are saved and read, and regenerable from {@link ChatMessage} by the inbox rebuild job.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Document
+// Chat summaries: one user's conversations, most recently active first.
+@CompoundIndex(name = InboxEntry.INDEX_BY_ACTIVITY, def = "{'userId': 1, 'lastMessageAt': -1}")
+public class InboxEntry {
+    public static final String INDEX_BY_ACTIVITY = "inbox_by_activity";
+
+    @Id
+    private String id;
+    private UUID userId;
+    private UUID chatId;
+    private UUID partnerId;
+
+    private long unreadCount;
+    private UUID lastMessageId;
+    private UUID lastMessageSenderId;
+    private String lastMessagePreview;
+    private Instant lastMessageAt;
+    private Instant lastReadAt;
+    /**
+     * Incremented by every incremental update, so clients can order the entry states pushed to them. Reset by
+     * the inbox rebuild job.
+     */
+    private long version;
+
+    public static String idFor(UUID userId, UUID chatId) {
+        return userId + ":" + chatId;
+    }
+
+    /**
+     * Truncates message content to at most {@code maxLength} characters without splitting a surrogate pair.
+     */
+    public static String preview(String content, int maxLength) {
+        if (content == null || content.length() <= maxLength) {
+            return content;
+        }
+        int end = Character.isHighSurrogate(content.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return content.substring(0, end);
+    }
+}
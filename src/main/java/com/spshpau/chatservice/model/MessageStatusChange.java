@@ -0,0 +1,29 @@
+package com.spshpau.chatservice.model;
+
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Projection of a {@link ChatMessage} without its content, describing the message's state after a status
+ * transition. Used so that bulk status updates never load full message documents.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class MessageStatusChange {
+    private UUID id;
+    private UUID chatId;
+    private UUID senderId;
+    private UUID recipientId;
+
+    private MessageStatus status;
+    private Instant sentAt;
+    private Instant deliveredAt;
+    private Instant readAt;
+    private Instant updatedAt;
+}
@@ -0,0 +1,21 @@
+package com.spshpau.chatservice.model;
+
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Application event published when a user's first session opens or last session closes. Events of the same
+ * user published from different threads may arrive out of order, so listeners that need the current state
+ * should read it from the {@link com.spshpau.chatservice.services.PresenceRegistry}.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+@ToString
+public class PresenceChange {
+    private UUID userId;
+    private boolean online;
+    private Instant at;
+}
@@ -0,0 +1,74 @@
+package com.spshpau.chatservice.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Position in the changes of a chat: the (updatedAt, id) of the last change a client has seen. Encoded as an
+ * opaque URL-safe token like {@link HistoryCursor}. Changes are ordered by updatedAt and then by id, so a cursor
+ * is stable even when several messages changed at the same time.
+ */
+@Value
+public class SyncCursor {
+    private static final UUID MAX_ID = new UUID(-1L, -1L);
+
+    /**
+     * The order of a chat's changes, oldest first, as Mongo sorts them on (updatedAt, _id).
+     */
+    public static final Comparator<ChatMessage> CHANGE_ORDER = Comparator
+            .comparing(ChatMessage::getUpdatedAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ChatMessage::getId, HistoryCursor.ID_ORDER);
+
+    Instant updatedAt;
+    UUID id;
+
+    public static SyncCursor of(ChatMessage message) {
+        return new SyncCursor(message.getUpdatedAt(), message.getId());
+    }
+
+    /**
+     * A cursor positioned after all changes made at or before {@code at}.
+     */
+    public static SyncCursor at(Instant at) {
+        return new SyncCursor(at, MAX_ID);
+    }
+
+    /**
+     * @return A message that sorts at this cursor's position, for comparisons with {@link #CHANGE_ORDER}.
+     */
+    public ChatMessage toPosition() {
+        return ChatMessage.builder().updatedAt(updatedAt).id(id).build();
+    }
+
+    public boolean isAfter(SyncCursor other) {
+        return CHANGE_ORDER.compare(toPosition(), other.toPosition()) > 0;
+    }
+
+    public String encode() {
+        // Full precision: cursors from SyncCursor.at are not rounded to stored timestamps.
+        String raw = updatedAt + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static SyncCursor decode(String token) {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int separator = raw.indexOf('_');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Malformed sync cursor: " + token);
+        }
+        try {
+            return new SyncCursor(Instant.parse(raw.substring(0, separator)), UUID.fromString(raw.substring(separator + 1)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed sync cursor: " + token, e);
+        }
+    }
+}
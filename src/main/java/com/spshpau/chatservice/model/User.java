@@ -4,18 +4,29 @@ import com.spshpau.chatservice.model.enums.StatusEnum;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Set;
 import java.util.UUID;
 
 @Getter
 @Setter
 @Document
 public class User {
+    public static final String INDEX_STATUS = "status";
+    public static final String INDEX_ONLINE_NODES = "online_nodes";
+
     @Id
     private UUID id;
     private String username;
     private String firstName;
     private String lastName;
+    @Indexed(name = INDEX_STATUS)
     private StatusEnum status;
+    /**
+     * The cluster nodes holding a session of the user. The user is ONLINE while any node does.
+     */
+    @Indexed(name = INDEX_ONLINE_NODES)
+    private Set<String> onlineNodes;
 }
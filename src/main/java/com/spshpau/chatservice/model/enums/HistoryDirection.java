@@ -0,0 +1,12 @@
+package com.spshpau.chatservice.model.enums;
+
+public enum HistoryDirection {
+    /**
+     * Towards older messages, newest first.
+     */
+    OLDER,
+    /**
+     * Towards newer messages, oldest first.
+     */
+    NEWER
+}
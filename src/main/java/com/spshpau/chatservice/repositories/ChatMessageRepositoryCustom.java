@@ -0,0 +1,77 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.repositories.indexes.UsesIndex;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public interface ChatMessageRepositoryCustom {
+    /**
+     * Transitions SENT messages addressed to the recipient to DELIVERED with server-side multi-document
+     * updates, processing at most {@code window} messages per round trip. {@code updatedAt} is set to
+     * {@code deliveredAt}.
+     *
+     * @param chatId      The chat to restrict the update to, or null for all of the recipient's chats.
+     * @param recipientId The recipient of the messages.
+     * @param deliveredAt The delivery timestamp to set.
+     * @param window      The maximum number of messages selected and updated per round.
+     * @return The transitioned messages, as content-free projections reflecting their new state.
+     */
+    @UsesIndex(ChatMessage.INDEX_RECIPIENT_STATUS)
+    List<MessageStatusChange> markDelivered(UUID chatId, UUID recipientId, Instant deliveredAt, int window);
+
+    /**
+     * Transitions SENT and DELIVERED messages in the chat addressed to the recipient to READ. Messages
+     * that were still SENT without a delivery timestamp get {@code deliveredAt = readAt} as well.
+     * {@code updatedAt} is set to {@code readAt}.
+     *
+     * @param chatId      The chat to update.
+     * @param recipientId The recipient of the messages.
+     * @param readAt      The read timestamp to set.
+     * @param window      The maximum number of messages selected and updated per round.
+     * @return The transitioned messages, as content-free projections reflecting their new state.
+     */
+    @UsesIndex(ChatMessage.INDEX_RECIPIENT_STATUS)
+    List<MessageStatusChange> markRead(UUID chatId, UUID recipientId, Instant readAt, int window);
+
+    /**
+     * Counts the recipient's SENT and DELIVERED messages per chat without loading them.
+     *
+     * @param recipientId The recipient of the messages.
+     * @return The number of unread messages per chat id; chats without unread messages are absent.
+     */
+    @UsesIndex(ChatMessage.INDEX_RECIPIENT_STATUS)
+    Map<UUID, Long> countUnreadByChat(UUID recipientId);
+
+    /**
+     * Streams one keyset page of a chat's history from a MongoDB cursor, ordered by (sentAt, id) in the
+     * requested direction and starting strictly after the given cursor. Only the fields needed for display
+     * are loaded. The returned stream holds a server cursor and must be closed.
+     *
+     * @param chatId    The chat.
+     * @param cursor    The position to continue from, or null to start at the newest (OLDER) or oldest (NEWER) end.
+     * @param direction The paging direction.
+     * @param limit     The maximum number of messages to return.
+     */
+    @UsesIndex(ChatMessage.INDEX_CHAT_HISTORY)
+    Stream<ChatMessage> streamHistory(UUID chatId, HistoryCursor cursor, HistoryDirection direction, int limit);
+
+    /**
+     * Finds the messages of a chat that were saved or changed status after the cursor, ordered by
+     * (updatedAt, id). Messages without {@code updatedAt} are never returned.
+     *
+     * @param chatId The chat.
+     * @param since  The last change already seen.
+     * @param limit  The maximum number of messages to return.
+     */
+    @UsesIndex(ChatMessage.INDEX_CHAT_CHANGES)
+    List<ChatMessage> findChangedSince(UUID chatId, SyncCursor since, int limit);
+}
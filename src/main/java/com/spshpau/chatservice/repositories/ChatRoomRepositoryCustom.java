@@ -0,0 +1,18 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.repositories.indexes.UsesIndex;
+
+import java.util.UUID;
+
+public interface ChatRoomRepositoryCustom {
+    /**
+     * Idempotently creates the room document for the given pair. Concurrent calls for the same
+     * chatId converge on a single document and never overwrite an existing one.
+     *
+     * @param chatId  The deterministic chatId of the pair.
+     * @param userId1 One participant.
+     * @param userId2 The other participant.
+     */
+    @UsesIndex("_id_")
+    void upsertRoom(UUID chatId, UUID userId1, UUID userId2);
+}
@@ -0,0 +1,14 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.InboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface InboxEntryRepository extends MongoRepository<InboxEntry, String>, InboxEntryRepositoryCustom {
+    List<InboxEntry> findByUserIdOrderByLastMessageAtDesc(UUID userId, Pageable pageable);
+
+    long countByUserId(UUID userId);
+}
@@ -0,0 +1,31 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.repositories.indexes.UsesIndex;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public interface InboxEntryRepositoryCustom {
+    /**
+     * Records a saved message in the inbox entries of both participants, creating them if needed.
+     * The recipient's unread count and the version of both entries are incremented.
+     *
+     * @param message The saved message; chatId, senderId, recipientId and sentAt must be set.
+     * @param preview The preview text to store as the last message.
+     */
+    @UsesIndex("_id_")
+    void recordMessage(ChatMessage message, String preview);
+
+    /**
+     * Records that the reader read {@code count} messages of the chat. Does nothing if the reader has
+     * no entry for the chat. The entry's version is incremented.
+     *
+     * @param chatId   The chat.
+     * @param readerId The user who read the messages.
+     * @param readAt   The read timestamp; the stored marker only moves forward.
+     * @param count    The number of messages that transitioned to READ.
+     */
+    @UsesIndex("_id_")
+    void recordRead(UUID chatId, UUID readerId, Instant readAt, long count);
+}
@@ -0,0 +1,57 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.indexes.UsesIndex;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public interface UserRepositoryCustom {
+    /**
+     * Upserts the profile fields (username, first and last name) of the given users in a single unordered
+     * bulk write. The status is only written for users whose status is set, so partners synced from the
+     * user service never overwrite presence.
+     *
+     * @param users The users to write; ids must be set.
+     */
+    @UsesIndex("_id_")
+    void upsertProfiles(Collection<User> users);
+
+    /**
+     * Writes the statuses the given node sees in a single ordered bulk write. A user ONLINE on the node gets the node
+     * added to {@code onlineNodes} and is set ONLINE. A user OFFLINE on the node loses the node, and is only set
+     * OFFLINE if no other node holds the user. Users without a stored record are skipped.
+     *
+     * @param nodeId   The node the statuses were seen on.
+     * @param statuses The status per user id.
+     */
+    @UsesIndex("_id_")
+    void updateStatuses(String nodeId, Map<UUID, StatusEnum> statuses);
+
+    /**
+     * @return The nodes at least one user is stored as online on.
+     */
+    @UsesIndex(User.INDEX_ONLINE_NODES)
+    List<String> findOnlineNodeIds();
+
+    /**
+     * Removes the given nodes from the {@code onlineNodes} of every user, and sets the users no node holds any
+     * more OFFLINE.
+     *
+     * @return The number of users set OFFLINE.
+     */
+    @UsesIndex({User.INDEX_ONLINE_NODES, User.INDEX_STATUS})
+    long releaseNodes(Collection<String> nodeIds);
+
+    /**
+     * Sets every ONLINE user OFFLINE and clears the {@code onlineNodes} of all users, for a single node that
+     * holds no session yet.
+     *
+     * @return The number of users updated.
+     */
+    @UsesIndex({User.INDEX_STATUS, User.INDEX_ONLINE_NODES})
+    long releaseAllNodes();
+}
@@ -0,0 +1,187 @@
+package com.spshpau.chatservice.repositories.impl;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.ChatMessageRepositoryCustom;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+public class ChatMessageRepositoryCustomImpl implements ChatMessageRepositoryCustom {
+
+    private static final List<MessageStatus> UNREAD_STATUSES = List.of(MessageStatus.SENT, MessageStatus.DELIVERED);
+    /**
+     * Set by each status update to an id of its own, so a window whose updates lost some messages to a concurrent
+     * transition only reports the messages it moved itself. Not mapped on {@link ChatMessage}.
+     */
+    private static final String TRANSITION_ID = "transitionId";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<MessageStatusChange> markDelivered(UUID chatId, UUID recipientId, Instant deliveredAt, int window) {
+        List<MessageStatusChange> changed = new ArrayList<>();
+        List<MessageStatusChange> batch;
+        do {
+            batch = findWindow(chatId, recipientId, List.of(MessageStatus.SENT), window);
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<UUID> ids = batch.stream().map(MessageStatusChange::getId).toList();
+            UUID transitionId = UUID.randomUUID();
+            long modified = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("_id").in(ids).and("status").is(MessageStatus.SENT)),
+                    new Update().set("status", MessageStatus.DELIVERED).set("deliveredAt", deliveredAt)
+                            .set("updatedAt", deliveredAt).set(TRANSITION_ID, transitionId),
+                    ChatMessage.class).getModifiedCount();
+
+            if (modified == batch.size()) {
+                for (MessageStatusChange change : batch) {
+                    change.setStatus(MessageStatus.DELIVERED);
+                    change.setDeliveredAt(deliveredAt);
+                    change.setUpdatedAt(deliveredAt);
+                }
+                changed.addAll(batch);
+            } else {
+                changed.addAll(findTransitioned(ids, transitionId));
+            }
+        } while (batch.size() == window);
+        return changed;
+    }
+
+    @Override
+    public List<MessageStatusChange> markRead(UUID chatId, UUID recipientId, Instant readAt, int window) {
+        List<MessageStatusChange> changed = new ArrayList<>();
+        List<MessageStatusChange> batch;
+        do {
+            batch = findWindow(chatId, recipientId, UNREAD_STATUSES, window);
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<UUID> ids = batch.stream().map(MessageStatusChange::getId).toList();
+            UUID transitionId = UUID.randomUUID();
+            // Ordered: the first update claims never-delivered messages, the second one the rest.
+            long modified = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ChatMessage.class)
+                    .updateMulti(
+                            Query.query(Criteria.where("_id").in(ids)
+                                    .and("status").is(MessageStatus.SENT)
+                                    .and("deliveredAt").is(null)),
+                            new Update().set("status", MessageStatus.READ).set("readAt", readAt).set("deliveredAt", readAt)
+                                    .set("updatedAt", readAt).set(TRANSITION_ID, transitionId))
+                    .updateMulti(
+                            Query.query(Criteria.where("_id").in(ids).and("status").in(UNREAD_STATUSES)),
+                            new Update().set("status", MessageStatus.READ).set("readAt", readAt).set("updatedAt", readAt)
+                                    .set(TRANSITION_ID, transitionId))
+                    .execute()
+                    .getModifiedCount();
+
+            if (modified == batch.size()) {
+                for (MessageStatusChange change : batch) {
+                    if (change.getStatus() == MessageStatus.SENT && change.getDeliveredAt() == null) {
+                        change.setDeliveredAt(readAt);
+                    }
+                    change.setStatus(MessageStatus.READ);
+                    change.setReadAt(readAt);
+                    change.setUpdatedAt(readAt);
+                }
+                changed.addAll(batch);
+            } else {
+                changed.addAll(findTransitioned(ids, transitionId));
+            }
+        } while (batch.size() == window);
+        return changed;
+    }
+
+    @Override
+    public Map<UUID, Long> countUnreadByChat(UUID recipientId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("recipientId").is(recipientId).and("status").in(UNREAD_STATUSES)),
+                Aggregation.group("chatId").count().as("count"));
+        Map<UUID, Long> counts = new LinkedHashMap<>();
+        for (UnreadCount unread : mongoTemplate.aggregate(aggregation, ChatMessage.class, UnreadCount.class)) {
+            counts.put(unread.chatId(), unread.count());
+        }
+        return counts;
+    }
+
+    private record UnreadCount(@Id UUID chatId, long count) {
+    }
+
+    @Override
+    public Stream<ChatMessage> streamHistory(UUID chatId, HistoryCursor cursor, HistoryDirection direction, int limit) {
+        boolean newer = direction == HistoryDirection.NEWER;
+        Criteria criteria = Criteria.where("chatId").is(chatId);
+        if (cursor != null) {
+            criteria.orOperator(
+                    newer ? Criteria.where("sentAt").gt(cursor.getSentAt()) : Criteria.where("sentAt").lt(cursor.getSentAt()),
+                    newer
+                            ? Criteria.where("sentAt").is(cursor.getSentAt()).and("_id").gt(cursor.getId())
+                            : Criteria.where("sentAt").is(cursor.getSentAt()).and("_id").lt(cursor.getId()));
+        }
+
+        Sort.Direction sortDirection = newer ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Query query = Query.query(criteria)
+                .with(Sort.by(sortDirection, "sentAt").and(Sort.by(sortDirection, "_id")))
+                .limit(limit);
+        query.fields().include("_id", "senderId", "content", "status", "sentAt", "deliveredAt", "readAt");
+        return mongoTemplate.stream(query, ChatMessage.class);
+    }
+
+    @Override
+    public List<ChatMessage> findChangedSince(UUID chatId, SyncCursor since, int limit) {
+        Criteria criteria = Criteria.where("chatId").is(chatId).orOperator(
+                Criteria.where("updatedAt").gt(since.getUpdatedAt()),
+                Criteria.where("updatedAt").is(since.getUpdatedAt()).and("_id").gt(since.getId()));
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "updatedAt").and(Sort.by(Sort.Direction.ASC, "_id")))
+                .limit(limit);
+        query.fields().include("_id", "senderId", "content", "status", "sentAt", "deliveredAt", "readAt", "updatedAt");
+        return mongoTemplate.find(query, ChatMessage.class);
+    }
+
+    /**
+     * @return The messages among {@code ids} that the transition {@code transitionId} moved, as they are now,
+     * when a concurrent transition moved some of the others first.
+     */
+    private List<MessageStatusChange> findTransitioned(List<UUID> ids, UUID transitionId) {
+        Query query = Query.query(Criteria.where("_id").in(ids).and(TRANSITION_ID).is(transitionId))
+                .with(Sort.by(Sort.Direction.ASC, "sentAt"));
+        query.fields().include("_id", "chatId", "senderId", "recipientId", "status", "sentAt", "deliveredAt", "readAt",
+                "updatedAt");
+        return mongoTemplate.find(query, MessageStatusChange.class, mongoTemplate.getCollectionName(ChatMessage.class));
+    }
+
+    private List<MessageStatusChange> findWindow(UUID chatId, UUID recipientId, List<MessageStatus> statuses, int window) {
+        Criteria criteria = new Criteria();
+        if (chatId != null) {
+            criteria.and("chatId").is(chatId);
+        }
+        criteria.and("recipientId").is(recipientId).and("status").in(statuses);
+
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "sentAt"))
+                .limit(window);
+        query.fields().include("_id", "chatId", "senderId", "recipientId", "status", "sentAt", "deliveredAt", "readAt",
+                "updatedAt");
+        return mongoTemplate.find(query, MessageStatusChange.class, mongoTemplate.getCollectionName(ChatMessage.class));
+    }
+}
@@ -0,0 +1,37 @@
+package com.spshpau.chatservice.repositories.impl;
+
+import com.spshpau.chatservice.model.ChatRoom;
+import com.spshpau.chatservice.repositories.ChatRoomRepositoryCustom;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@RequiredArgsConstructor
+@Slf4j
+public class ChatRoomRepositoryCustomImpl implements ChatRoomRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void upsertRoom(UUID chatId, UUID userId1, UUID userId2) {
+        boolean inOrder = userId1.compareTo(userId2) < 0;
+        Query query = Query.query(Criteria.where("_id").is(chatId));
+        Update update = new Update()
+                .setOnInsert("firstUserId", inOrder ? userId1 : userId2)
+                .setOnInsert("secondUserId", inOrder ? userId2 : userId1)
+                .setOnInsert("createdAt", Instant.now());
+        try {
+            mongoTemplate.upsert(query, update, ChatRoom.class);
+        } catch (DuplicateKeyException e) {
+            // A concurrent upsert for the same pair won the race; the room exists either way.
+            log.debug("Concurrent upsert for chatId: {} already created the room.", chatId);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.spshpau.chatservice.repositories.impl;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.repositories.InboxEntryRepositoryCustom;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@RequiredArgsConstructor
+public class InboxEntryRepositoryCustomImpl implements InboxEntryRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Each entry is upserted with the unread count and version, then the last message fields are only written
+     * if the message is newer than the one the entry shows, so a message recorded late never moves it back.
+     */
+    @Override
+    public void recordMessage(ChatMessage message, String preview) {
+        UUID chatId = message.getChatId();
+        UUID senderId = message.getSenderId();
+        UUID recipientId = message.getRecipientId();
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, InboxEntry.class);
+        bulkOps.upsert(byId(senderId, chatId), entryUpsert(message, preview, senderId, recipientId));
+        bulkOps.updateOne(olderThan(senderId, message), lastMessageUpdate(message, preview));
+        bulkOps.upsert(byId(recipientId, chatId), entryUpsert(message, preview, recipientId, senderId)
+                .inc("unreadCount", 1));
+        bulkOps.updateOne(olderThan(recipientId, message), lastMessageUpdate(message, preview));
+        bulkOps.execute();
+    }
+
+    @Override
+    public void recordRead(UUID chatId, UUID readerId, Instant readAt, long count) {
+        Update update = new Update()
+                .inc("unreadCount", -count)
+                .max("lastReadAt", readAt)
+                .inc("version", 1);
+        mongoTemplate.updateFirst(byId(readerId, chatId), update, InboxEntry.class);
+    }
+
+    private static Query byId(UUID userId, UUID chatId) {
+        return Query.query(Criteria.where("_id").is(InboxEntry.idFor(userId, chatId)));
+    }
+
+    private static Query olderThan(UUID userId, ChatMessage message) {
+        return Query.query(Criteria.where("_id").is(InboxEntry.idFor(userId, message.getChatId()))
+                .and("lastMessageAt").lt(message.getSentAt()));
+    }
+
+    private static Update entryUpsert(ChatMessage message, String preview, UUID userId, UUID partnerId) {
+        return new Update()
+                .setOnInsert("userId", userId)
+                .setOnInsert("chatId", message.getChatId())
+                .setOnInsert("partnerId", partnerId)
+                .setOnInsert("lastMessageId", message.getId())
+                .setOnInsert("lastMessageSenderId", message.getSenderId())
+                .setOnInsert("lastMessagePreview", preview)
+                .setOnInsert("lastMessageAt", message.getSentAt())
+                .inc("version", 1);
+    }
+
+    private static Update lastMessageUpdate(ChatMessage message, String preview) {
+        return new Update()
+                .set("lastMessageId", message.getId())
+                .set("lastMessageSenderId", message.getSenderId())
+                .set("lastMessagePreview", preview)
+                .set("lastMessageAt", message.getSentAt());
+    }
+}
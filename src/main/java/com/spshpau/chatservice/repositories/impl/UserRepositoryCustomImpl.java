@@ -0,0 +1,89 @@
+package com.spshpau.chatservice.repositories.impl;
+
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.UserRepositoryCustom;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@RequiredArgsConstructor
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private static final String ONLINE_NODES = "onlineNodes";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void upsertProfiles(Collection<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        for (User user : users) {
+            Update update = new Update()
+                    .set("username", user.getUsername())
+                    .set("firstName", user.getFirstName())
+                    .set("lastName", user.getLastName());
+            if (user.getStatus() != null) {
+                update.set("status", user.getStatus());
+            }
+            bulkOps.upsert(Query.query(Criteria.where("_id").is(user.getId())), update);
+        }
+        bulkOps.execute();
+    }
+
+    @Override
+    public void updateStatuses(String nodeId, Map<UUID, StatusEnum> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        // Ordered, so a user's node is removed before the check whether any node still holds the user.
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, User.class);
+        statuses.forEach((userId, status) -> {
+            Query byId = Query.query(Criteria.where("_id").is(userId));
+            if (status == StatusEnum.ONLINE) {
+                bulkOps.updateOne(byId, new Update().addToSet(ONLINE_NODES, nodeId).set("status", StatusEnum.ONLINE));
+            } else {
+                bulkOps.updateOne(byId, new Update().pull(ONLINE_NODES, nodeId));
+                bulkOps.updateOne(Query.query(Criteria.where("_id").is(userId).and(ONLINE_NODES + ".0").exists(false)),
+                        Update.update("status", status));
+            }
+        });
+        bulkOps.execute();
+    }
+
+    @Override
+    public List<String> findOnlineNodeIds() {
+        return mongoTemplate.findDistinct(new Query(), ONLINE_NODES, User.class, String.class);
+    }
+
+    @Override
+    public long releaseNodes(Collection<String> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            return 0;
+        }
+        mongoTemplate.updateMulti(Query.query(Criteria.where(ONLINE_NODES).in(nodeIds)),
+                new Update().pullAll(ONLINE_NODES, nodeIds.toArray()), User.class);
+        return mongoTemplate.updateMulti(Query.query(Criteria.where("status").is(StatusEnum.ONLINE)
+                        .and(ONLINE_NODES + ".0").exists(false)),
+                Update.update("status", StatusEnum.OFFLINE), User.class).getModifiedCount();
+    }
+
+    @Override
+    public long releaseAllNodes() {
+        return mongoTemplate.updateMulti(Query.query(new Criteria().orOperator(
+                                Criteria.where("status").is(StatusEnum.ONLINE),
+                                Criteria.where(ONLINE_NODES + ".0").exists(true))),
+                        Update.update("status", StatusEnum.OFFLINE).unset(ONLINE_NODES), User.class)
+                .getModifiedCount();
+    }
+}
@@ -0,0 +1,19 @@
+package com.spshpau.chatservice.repositories.indexes;
+
+/**
+ * What {@link MongoIndexReconciler} does with the declared indexes at startup.
+ */
+public enum IndexManagementMode {
+    /**
+     * Create missing indexes, rebuild declared indexes whose definition changed, then report.
+     */
+    RECONCILE,
+    /**
+     * Only report missing, mismatched, undeclared and unused indexes.
+     */
+    REPORT,
+    /**
+     * Do nothing.
+     */
+    OFF
+}
@@ -0,0 +1,187 @@
+package com.spshpau.chatservice.repositories.indexes;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.ChatRoom;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.repositories.memory.InMemoryStorageConfig;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Owns the indexes of the service's collections. The indexes are declared on the entities with
+ * {@code @CompoundIndex}/{@code @Indexed}; Spring's automatic index creation stays off and this component
+ * creates them instead, so that changed definitions are rebuilt and the state is reported in one place.
+ * Runs once all singletons are created, i.e. before the web server accepts traffic.
+ */
+@Component
+@ConditionalOnProperty(name = InMemoryStorageConfig.ENGINE_PROPERTY, havingValue = InMemoryStorageConfig.ENGINE_MONGO,
+        matchIfMissing = true)
+@Slf4j
+public class MongoIndexReconciler implements SmartInitializingSingleton {
+
+    static final String ID_INDEX = "_id_";
+    static final List<Class<?>> MANAGED_ENTITIES = List.of(ChatMessage.class, ChatRoom.class, User.class, InboxEntry.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final IndexManagementMode mode;
+
+    public MongoIndexReconciler(MongoTemplate mongoTemplate,
+                                @Value("${chat.indexes.mode:RECONCILE}") IndexManagementMode mode) {
+        this.mongoTemplate = mongoTemplate;
+        this.mode = mode;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (mode == IndexManagementMode.OFF) {
+            log.info("Index management is disabled.");
+            return;
+        }
+        try {
+            Report report = reconcile();
+            report.logSummary();
+        } catch (Exception e) {
+            log.error("Index reconciliation failed; queries may run without their indexes.", e);
+        }
+    }
+
+    public Report reconcile() {
+        IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+        Report report = new Report();
+
+        for (Class<?> entity : MANAGED_ENTITIES) {
+            String collection = mongoTemplate.getCollectionName(entity);
+            IndexOperations indexOps = mongoTemplate.indexOps(entity);
+            Map<String, IndexInfo> existingByName = indexOps.getIndexInfo().stream()
+                    .collect(Collectors.toMap(IndexInfo::getName, info -> info, (a, b) -> a, LinkedHashMap::new));
+            Set<String> accountedFor = new HashSet<>(Set.of(ID_INDEX));
+
+            for (IndexDefinition declared : resolver.resolveIndexFor(entity)) {
+                String name = declared.getIndexOptions().getString("name");
+                String keys = keySignature(declared.getIndexKeys());
+                boolean unique = declared.getIndexOptions().getBoolean("unique", false);
+                String qualifiedName = collection + "." + name;
+
+                IndexInfo sameKeys = existingByName.values().stream()
+                        .filter(info -> keySignature(info).equals(keys) && info.isUnique() == unique)
+                        .findFirst().orElse(null);
+                if (sameKeys != null) {
+                    accountedFor.add(sameKeys.getName());
+                    if (!sameKeys.getName().equals(name)) {
+                        log.warn("Declared index {} exists under the name {}.", qualifiedName, sameKeys.getName());
+                    }
+                    continue;
+                }
+
+                IndexInfo sameName = existingByName.get(name);
+                if (mode == IndexManagementMode.REPORT) {
+                    (sameName != null ? report.mismatched : report.missing).add(qualifiedName);
+                    if (sameName != null) {
+                        accountedFor.add(name);
+                    }
+                    continue;
+                }
+                if (sameName != null) {
+                    log.info("Rebuilding index {}: definition changed from {} to {}.", qualifiedName, keySignature(sameName), keys);
+                    indexOps.dropIndex(name);
+                    report.rebuilt.add(qualifiedName);
+                } else {
+                    log.info("Creating index {} on {}.", qualifiedName, keys);
+                    report.created.add(qualifiedName);
+                }
+                indexOps.ensureIndex(declared);
+                accountedFor.add(name);
+            }
+
+            existingByName.keySet().stream()
+                    .filter(name -> !accountedFor.contains(name))
+                    .forEach(name -> report.undeclared.add(collection + "." + name));
+            findUnusedIndexes(collection).stream()
+                    .filter(existingByName::containsKey)
+                    .filter(name -> !report.rebuilt.contains(collection + "." + name))
+                    .forEach(name -> report.unused.add(collection + "." + name));
+        }
+        return report;
+    }
+
+    private List<String> findUnusedIndexes(String collection) {
+        List<String> unused = new ArrayList<>();
+        try {
+            for (Document stats : mongoTemplate.getCollection(collection)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))) {
+                Document accesses = stats.get("accesses", Document.class);
+                Number ops = accesses != null ? accesses.get("ops", Number.class) : null;
+                String name = stats.getString("name");
+                if (ops != null && ops.longValue() == 0 && !ID_INDEX.equals(name)) {
+                    unused.add(name);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Could not read $indexStats for collection {}: {}", collection, e.getMessage());
+        }
+        return unused;
+    }
+
+    static String keySignature(Document keys) {
+        return keys.entrySet().stream()
+                .map(entry -> entry.getKey() + ":" + entry.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    static String keySignature(IndexInfo info) {
+        return info.getIndexFields().stream()
+                .map(field -> field.getKey() + ":" + direction(field))
+                .collect(Collectors.joining(","));
+    }
+
+    private static String direction(IndexField field) {
+        if (field.getDirection() == null) {
+            return field.isGeo() ? "geo" : field.isText() ? "text" : "other";
+        }
+        return field.getDirection() == Sort.Direction.ASC ? "1" : "-1";
+    }
+
+    /**
+     * Outcome of one reconciliation run, as {@code collection.index} names.
+     */
+    @Getter
+    public static class Report {
+        private final List<String> created = new ArrayList<>();
+        private final List<String> rebuilt = new ArrayList<>();
+        private final List<String> missing = new ArrayList<>();
+        private final List<String> mismatched = new ArrayList<>();
+        private final List<String> undeclared = new ArrayList<>();
+        private final List<String> unused = new ArrayList<>();
+
+        void logSummary() {
+            log.info("Index report: created={}, rebuilt={}, missing={}, mismatched={}, undeclared={}, unused={}",
+                    created, rebuilt, missing, mismatched, undeclared, unused);
+            if (!missing.isEmpty() || !mismatched.isEmpty()) {
+                log.warn("Declared indexes are missing or out of date: {} {}. Queries using them will scan the collection.",
+                        missing, mismatched);
+            }
+            if (!undeclared.isEmpty()) {
+                log.warn("Indexes not declared by any entity (still maintained on every write): {}", undeclared);
+            }
+            if (!unused.isEmpty()) {
+                log.info("Indexes with no recorded use since the server's statistics were last reset: {}", unused);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.spshpau.chatservice.repositories.indexes;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares which index a hand-written repository query relies on. Derived finders are checked against
+ * the declared indexes by parsing their names; custom fragment methods cannot be, so every method of a
+ * {@code *RepositoryCustom} interface must name its index here. Use {@code "_id_"} for lookups by id.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface UsesIndex {
+    /**
+     * The names of the indexes the query can be served by.
+     */
+    String[] value();
+}
@@ -0,0 +1,141 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The messages of one chat in an array ordered by (sentAt, id). Messages nearly always arrive in time order, so
+ * adding one is an append; a late message is inserted at its position by binary search. Range reads copy the
+ * references they need under an optimistic read, so readers never block writers of the same chat.
+ */
+final class ChatSegment {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Comparator<ChatMessage> order;
+    private final StampedLock lock = new StampedLock();
+    private ChatMessage[] messages = new ChatMessage[INITIAL_CAPACITY];
+    private int size;
+
+    ChatSegment(Comparator<ChatMessage> order) {
+        this.order = order;
+    }
+
+    void add(ChatMessage message) {
+        long stamp = lock.writeLock();
+        try {
+            if (size == messages.length) {
+                messages = Arrays.copyOf(messages, size * 2);
+            }
+            if (size == 0 || order.compare(messages[size - 1], message) <= 0) {
+                messages[size++] = message;
+                return;
+            }
+            int position = insertionPoint(message);
+            System.arraycopy(messages, position, messages, position + 1, size - position);
+            messages[position] = message;
+            size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void remove(ChatMessage message) {
+        long stamp = lock.writeLock();
+        try {
+            int position = Arrays.binarySearch(messages, 0, size, message, order);
+            if (position >= 0 && messages[position] == message) {
+                System.arraycopy(messages, position + 1, messages, position, size - position - 1);
+                messages[--size] = null;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param after     The exclusive position to start from, or null to start at the matching end.
+     * @param ascending Whether to return messages oldest first (after the position) or newest first (before it).
+     * @param limit     The maximum number of messages to return.
+     */
+    List<ChatMessage> range(ChatMessage after, boolean ascending, int limit) {
+        long stamp = lock.tryOptimisticRead();
+        List<ChatMessage> result = readRange(after, ascending, limit);
+        if (lock.validate(stamp)) {
+            return result;
+        }
+        stamp = lock.readLock();
+        try {
+            return readRange(after, ascending, limit);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private List<ChatMessage> readRange(ChatMessage after, boolean ascending, int limit) {
+        ChatMessage[] snapshot = messages;
+        int count = Math.min(size, snapshot.length);
+        List<ChatMessage> result = new ArrayList<>(Math.min(Math.max(limit, 0), count));
+        if (ascending) {
+            int start = after == null ? 0 : upperBound(snapshot, count, after);
+            for (int i = start; i < count && result.size() < limit; i++) {
+                result.add(snapshot[i]);
+            }
+        } else {
+            int start = after == null ? count - 1 : lowerBound(snapshot, count, after) - 1;
+            for (int i = start; i >= 0 && result.size() < limit; i--) {
+                result.add(snapshot[i]);
+            }
+        }
+        return result;
+    }
+
+    private int insertionPoint(ChatMessage message) {
+        return upperBound(messages, size, message);
+    }
+
+    /**
+     * @return The index of the first message ordered after {@code key}.
+     */
+    private int upperBound(ChatMessage[] array, int count, ChatMessage key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            ChatMessage candidate = array[mid];
+            if (candidate != null && order.compare(candidate, key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The index of the first message not ordered before {@code key}.
+     */
+    private int lowerBound(ChatMessage[] array, int count, ChatMessage key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            ChatMessage candidate = array[mid];
+            if (candidate != null && order.compare(candidate, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,263 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * In-memory chat messages. Each chat keeps its messages in a {@link ChatSegment} ordered by (sentAt, id),
+ * standing in for {@link ChatMessage#INDEX_CHAT_HISTORY}, and in a second one ordered by (updatedAt, id),
+ * standing in for {@link ChatMessage#INDEX_CHAT_CHANGES}. Each recipient has an index of their SENT and
+ * DELIVERED messages, standing in for {@link ChatMessage#INDEX_RECIPIENT_STATUS}, and their unread count per
+ * chat in a {@link UuidCounterMap}, so unread counts are read without visiting messages. Ids are compared as
+ * unsigned, the way Mongo orders binary UUIDs, so {@link HistoryCursor#at} behaves as it does against Mongo.
+ * Timestamps are stored at millisecond precision, like Mongo dates, so a cursor taken from a returned message
+ * keeps its position.
+ * <p>
+ * Status transitions hold the recipient's index while they change the stored messages, each under its own
+ * monitor, and are applied in one pass, so the {@code window} of the Mongo implementation has no effect here.
+ */
+public class InMemoryChatMessageRepository extends InMemoryMongoRepository<ChatMessage, UUID> implements ChatMessageRepository {
+
+    private static final Comparator<ChatMessage> HISTORY_ORDER = HistoryCursor.MESSAGE_ORDER;
+
+    private final ConcurrentMap<UUID, ChatSegment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, ChatSegment> changes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, RecipientIndex> recipients = new ConcurrentHashMap<>();
+
+    public InMemoryChatMessageRepository() {
+        super(ChatMessage.class, UUID.class);
+    }
+
+    @Override
+    protected UUID idOf(ChatMessage message) {
+        return message.getId();
+    }
+
+    @Override
+    protected ChatMessage copy(ChatMessage message) {
+        synchronized (message) {
+            return new ChatMessage(message.getId(), message.getChatId(), message.getSenderId(), message.getRecipientId(),
+                    message.getContent(), message.getStatus(), millis(message.getSentAt()),
+                    millis(message.getDeliveredAt()), millis(message.getReadAt()), millis(message.getUpdatedAt()));
+        }
+    }
+
+    private static Instant millis(Instant at) {
+        return at != null ? at.truncatedTo(ChronoUnit.MILLIS) : null;
+    }
+
+    @Override
+    protected void onStored(ChatMessage previous, ChatMessage stored) {
+        if (previous != null) {
+            onRemoved(previous);
+        }
+        segments.computeIfAbsent(stored.getChatId(), id -> new ChatSegment(HISTORY_ORDER)).add(stored);
+        changes.computeIfAbsent(stored.getChatId(), id -> new ChatSegment(SyncCursor.CHANGE_ORDER)).add(stored);
+        if (isUnread(stored.getStatus())) {
+            RecipientIndex index = recipients.computeIfAbsent(stored.getRecipientId(), id -> new RecipientIndex());
+            synchronized (index) {
+                index.add(stored);
+            }
+        }
+    }
+
+    @Override
+    protected void onRemoved(ChatMessage removed) {
+        ChatSegment segment = segments.get(removed.getChatId());
+        if (segment != null) {
+            segment.remove(removed);
+        }
+        ChatSegment changeSegment = changes.get(removed.getChatId());
+        if (changeSegment != null) {
+            changeSegment.remove(removed);
+        }
+        RecipientIndex index = recipients.get(removed.getRecipientId());
+        if (index != null) {
+            synchronized (index) {
+                index.remove(removed);
+            }
+        }
+    }
+
+    private static boolean isUnread(MessageStatus status) {
+        return status == MessageStatus.SENT || status == MessageStatus.DELIVERED;
+    }
+
+    @Override
+    public List<ChatMessage> findByChatIdOrderBySentAtDesc(UUID chatId, Limit limit) {
+        ChatSegment segment = segments.get(chatId);
+        if (segment == null) {
+            return List.of();
+        }
+        return segment.range(null, false, limit.isLimited() ? limit.max() : Integer.MAX_VALUE).stream()
+                .map(this::copy)
+                .toList();
+    }
+
+    @Override
+    public List<ChatMessage> findByRecipientIdAndStatusIn(UUID recipientId, List<MessageStatus> statuses) {
+        if (!statuses.stream().allMatch(InMemoryChatMessageRepository::isUnread)) {
+            return documents.values().stream()
+                    .map(this::copy)
+                    .filter(message -> recipientId.equals(message.getRecipientId()) && statuses.contains(message.getStatus()))
+                    .toList();
+        }
+        RecipientIndex index = recipients.get(recipientId);
+        if (index == null) {
+            return List.of();
+        }
+        List<ChatMessage> found = new ArrayList<>();
+        synchronized (index) {
+            if (statuses.contains(MessageStatus.SENT)) {
+                index.sent.forEach(message -> found.add(copy(message)));
+            }
+            if (statuses.contains(MessageStatus.DELIVERED)) {
+                index.delivered.forEach(message -> found.add(copy(message)));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Map<UUID, Long> countUnreadByChat(UUID recipientId) {
+        RecipientIndex index = recipients.get(recipientId);
+        if (index == null) {
+            return Map.of();
+        }
+        synchronized (index) {
+            return index.unreadByChat.toMap();
+        }
+    }
+
+    @Override
+    public List<MessageStatusChange> markDelivered(UUID chatId, UUID recipientId, Instant at, int window) {
+        Instant deliveredAt = millis(at);
+        RecipientIndex index = recipients.get(recipientId);
+        if (index == null) {
+            return List.of();
+        }
+        synchronized (index) {
+            return transition(index, candidates(index.sent, chatId), message -> {
+                message.setStatus(MessageStatus.DELIVERED);
+                message.setDeliveredAt(deliveredAt);
+                message.setUpdatedAt(deliveredAt);
+            });
+        }
+    }
+
+    @Override
+    public List<MessageStatusChange> markRead(UUID chatId, UUID recipientId, Instant at, int window) {
+        Instant readAt = millis(at);
+        RecipientIndex index = recipients.get(recipientId);
+        if (index == null) {
+            return List.of();
+        }
+        synchronized (index) {
+            List<ChatMessage> candidates = candidates(index.sent, chatId);
+            candidates.addAll(candidates(index.delivered, chatId));
+            return transition(index, candidates, message -> {
+                if (message.getStatus() == MessageStatus.SENT && message.getDeliveredAt() == null) {
+                    message.setDeliveredAt(readAt);
+                }
+                message.setStatus(MessageStatus.READ);
+                message.setReadAt(readAt);
+                message.setUpdatedAt(readAt);
+            });
+        }
+    }
+
+    private static List<ChatMessage> candidates(Set<ChatMessage> messages, UUID chatId) {
+        List<ChatMessage> candidates = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            if (chatId == null || chatId.equals(message.getChatId())) {
+                candidates.add(message);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Applies {@code update} to the candidates in history order and moves them within the index and their chat's
+     * changes. Must be called holding the index.
+     */
+    private List<MessageStatusChange> transition(RecipientIndex index, List<ChatMessage> candidates,
+                                                 Consumer<ChatMessage> update) {
+        candidates.sort(HISTORY_ORDER);
+        List<MessageStatusChange> changed = new ArrayList<>(candidates.size());
+        for (ChatMessage message : candidates) {
+            ChatSegment changeSegment = changes.get(message.getChatId());
+            index.remove(message);
+            changeSegment.remove(message);
+            synchronized (message) {
+                update.accept(message);
+                journalStored(message);
+                changed.add(new MessageStatusChange(message.getId(), message.getChatId(), message.getSenderId(),
+                        message.getRecipientId(), message.getStatus(), message.getSentAt(), message.getDeliveredAt(),
+                        message.getReadAt(), message.getUpdatedAt()));
+            }
+            changeSegment.add(message);
+            index.add(message);
+        }
+        return changed;
+    }
+
+    @Override
+    public Stream<ChatMessage> streamHistory(UUID chatId, HistoryCursor cursor, HistoryDirection direction, int limit) {
+        ChatSegment segment = segments.get(chatId);
+        if (segment == null) {
+            return Stream.empty();
+        }
+        ChatMessage position = cursor != null ? cursor.toPosition() : null;
+        return segment.range(position, direction == HistoryDirection.NEWER, limit).stream().map(this::copy);
+    }
+
+    @Override
+    public List<ChatMessage> findChangedSince(UUID chatId, SyncCursor since, int limit) {
+        ChatSegment segment = changes.get(chatId);
+        if (segment == null) {
+            return List.of();
+        }
+        return segment.range(since.toPosition(), true, limit).stream().map(this::copy).toList();
+    }
+
+    /**
+     * One recipient's SENT and DELIVERED messages, in arrival order, and their number per chat. Guarded by its
+     * own monitor.
+     */
+    private static final class RecipientIndex {
+        private final Set<ChatMessage> sent = new LinkedHashSet<>();
+        private final Set<ChatMessage> delivered = new LinkedHashSet<>();
+        private final UuidCounterMap unreadByChat = new UuidCounterMap();
+
+        void add(ChatMessage message) {
+            Set<ChatMessage> target = switch (message.getStatus()) {
+                case SENT -> sent;
+                case DELIVERED -> delivered;
+                default -> null;
+            };
+            if (target != null && target.add(message)) {
+                unreadByChat.add(message.getChatId(), 1);
+            }
+        }
+
+        void remove(ChatMessage message) {
+            if (sent.remove(message) || delivered.remove(message)) {
+                unreadByChat.add(message.getChatId(), -1);
+            }
+        }
+    }
+}
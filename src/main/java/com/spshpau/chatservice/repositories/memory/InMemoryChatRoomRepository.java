@@ -0,0 +1,34 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatRoom;
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public class InMemoryChatRoomRepository extends InMemoryMongoRepository<ChatRoom, UUID> implements ChatRoomRepository {
+
+    public InMemoryChatRoomRepository() {
+        super(ChatRoom.class, UUID.class);
+    }
+
+    @Override
+    protected UUID idOf(ChatRoom room) {
+        return room.getChatId();
+    }
+
+    @Override
+    protected ChatRoom copy(ChatRoom room) {
+        return new ChatRoom(room.getChatId(), room.getFirstUserId(), room.getSecondUserId(), room.getCreatedAt());
+    }
+
+    @Override
+    public void upsertRoom(UUID chatId, UUID userId1, UUID userId2) {
+        boolean inOrder = userId1.compareTo(userId2) < 0;
+        journaled(() -> documents.computeIfAbsent(chatId, id -> {
+            ChatRoom room = new ChatRoom(id, inOrder ? userId1 : userId2, inOrder ? userId2 : userId1, Instant.now());
+            journalStored(room);
+            return room;
+        }));
+    }
+}
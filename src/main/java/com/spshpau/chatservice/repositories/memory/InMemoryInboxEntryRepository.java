@@ -0,0 +1,130 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inbox entries with a per-user index standing in for {@link InboxEntry#INDEX_BY_ACTIVITY}. Entries
+ * are replaced rather than changed in place, so readers never see a half-applied update.
+ */
+public class InMemoryInboxEntryRepository extends InMemoryMongoRepository<InboxEntry, String> implements InboxEntryRepository {
+
+    private static final Comparator<InboxEntry> BY_ACTIVITY = Comparator.comparing(InboxEntry::getLastMessageAt,
+            Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final ConcurrentMap<UUID, Set<String>> idsByUser = new ConcurrentHashMap<>();
+
+    public InMemoryInboxEntryRepository() {
+        super(InboxEntry.class, String.class);
+    }
+
+    @Override
+    protected String idOf(InboxEntry entry) {
+        return entry.getId();
+    }
+
+    @Override
+    protected InboxEntry copy(InboxEntry entry) {
+        return new InboxEntry(entry.getId(), entry.getUserId(), entry.getChatId(), entry.getPartnerId(),
+                entry.getUnreadCount(), entry.getLastMessageId(), entry.getLastMessageSenderId(),
+                entry.getLastMessagePreview(), entry.getLastMessageAt(), entry.getLastReadAt(), entry.getVersion());
+    }
+
+    @Override
+    protected void onStored(InboxEntry previous, InboxEntry stored) {
+        if (previous != null && !Objects.equals(previous.getUserId(), stored.getUserId())) {
+            onRemoved(previous);
+        }
+        if (stored.getUserId() != null) {
+            idsByUser.computeIfAbsent(stored.getUserId(), id -> ConcurrentHashMap.newKeySet()).add(stored.getId());
+        }
+    }
+
+    @Override
+    protected void onRemoved(InboxEntry removed) {
+        if (removed.getUserId() != null) {
+            idsByUser.computeIfPresent(removed.getUserId(), (id, ids) -> {
+                ids.remove(removed.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    @Override
+    public List<InboxEntry> findByUserIdOrderByLastMessageAtDesc(UUID userId, Pageable pageable) {
+        Stream<InboxEntry> entries = entriesOf(userId).sorted(BY_ACTIVITY);
+        if (pageable.isPaged()) {
+            entries = entries.skip(pageable.getOffset()).limit(pageable.getPageSize());
+        }
+        return entries.map(this::copy).toList();
+    }
+
+    @Override
+    public long countByUserId(UUID userId) {
+        return entriesOf(userId).count();
+    }
+
+    private Stream<InboxEntry> entriesOf(UUID userId) {
+        Set<String> ids = idsByUser.get(userId);
+        if (ids == null) {
+            return Stream.empty();
+        }
+        return ids.stream().map(documents::get).filter(Objects::nonNull);
+    }
+
+    @Override
+    public void recordMessage(ChatMessage message, String preview) {
+        recordLastMessage(message, preview, message.getSenderId(), message.getRecipientId(), 0);
+        recordLastMessage(message, preview, message.getRecipientId(), message.getSenderId(), 1);
+    }
+
+    private void recordLastMessage(ChatMessage message, String preview, UUID userId, UUID partnerId, long unread) {
+        String id = InboxEntry.idFor(userId, message.getChatId());
+        journaled(() -> documents.compute(id, (key, stored) -> {
+            InboxEntry updated = stored != null ? copy(stored) : InboxEntry.builder()
+                    .id(key)
+                    .userId(userId)
+                    .chatId(message.getChatId())
+                    .partnerId(partnerId)
+                    .build();
+            updated.setUnreadCount(updated.getUnreadCount() + unread);
+            // A message recorded late never moves the entry back to an older one.
+            if (updated.getLastMessageAt() == null || updated.getLastMessageAt().isBefore(message.getSentAt())) {
+                updated.setLastMessageId(message.getId());
+                updated.setLastMessageSenderId(message.getSenderId());
+                updated.setLastMessagePreview(preview);
+                updated.setLastMessageAt(message.getSentAt());
+            }
+            updated.setVersion(updated.getVersion() + 1);
+            journalStored(updated);
+            return updated;
+        }));
+        idsByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    @Override
+    public void recordRead(UUID chatId, UUID readerId, Instant readAt, long count) {
+        journaled(() -> documents.computeIfPresent(InboxEntry.idFor(readerId, chatId), (key, stored) -> {
+            InboxEntry updated = copy(stored);
+            updated.setUnreadCount(updated.getUnreadCount() - count);
+            if (updated.getLastReadAt() == null || updated.getLastReadAt().isBefore(readAt)) {
+                updated.setLastReadAt(readAt);
+            }
+            updated.setVersion(updated.getVersion() + 1);
+            journalStored(updated);
+            return updated;
+        }));
+    }
+}
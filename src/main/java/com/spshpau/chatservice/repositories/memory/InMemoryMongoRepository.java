@@ -0,0 +1,279 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.query.FluentQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Map-backed base of the in-memory repositories. Documents are stored and returned as copies, so callers
+ * cannot change stored state without going through the repository, as with Mongo. Subclasses keep their
+ * secondary indexes current through {@link #onStored} and {@link #onRemoved}, and report every change of a
+ * stored document to the {@link MemoryStoreJournal}, if one is attached, while they still hold the document's
+ * lock, so the journal sees the changes of one document in the order they were made. Query-by-example and
+ * sorted or paged {@code findAll} are not used by the service and not supported.
+ */
+abstract class InMemoryMongoRepository<T, ID> implements MongoRepository<T, ID> {
+
+    protected final ConcurrentMap<ID, T> documents = new ConcurrentHashMap<>();
+
+    private final Class<T> documentType;
+    private final Class<ID> idType;
+    private volatile MemoryStoreJournal journal;
+
+    protected InMemoryMongoRepository(Class<T> documentType, Class<ID> idType) {
+        this.documentType = documentType;
+        this.idType = idType;
+    }
+
+    protected abstract ID idOf(T document);
+
+    protected abstract T copy(T document);
+
+    /**
+     * Called after {@code stored} replaced {@code previous}, which is null for new documents.
+     */
+    protected void onStored(T previous, T stored) {
+    }
+
+    protected void onRemoved(T removed) {
+    }
+
+    String collection() {
+        return documentType.getSimpleName();
+    }
+
+    Class<T> documentType() {
+        return documentType;
+    }
+
+    Class<ID> idType() {
+        return idType;
+    }
+
+    void attach(MemoryStoreJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Runs a change that logs a document and then publishes it in {@link #documents}.
+     */
+    protected <R> R journaled(Supplier<R> change) {
+        MemoryStoreJournal current = journal;
+        return current != null ? current.guard(change) : change.get();
+    }
+
+    protected void journalStored(T stored) {
+        MemoryStoreJournal current = journal;
+        if (current != null) {
+            current.stored(collection(), stored);
+        }
+    }
+
+    protected void journalRemoved(ID id) {
+        MemoryStoreJournal current = journal;
+        if (current != null) {
+            current.removed(collection(), id);
+        }
+    }
+
+    /**
+     * The stored documents themselves, for snapshots. Callers must not change them.
+     */
+    Collection<T> storedDocuments() {
+        return documents.values();
+    }
+
+    /**
+     * Stores a document read back from the journal, without journaling it again.
+     */
+    void restore(T document) {
+        T previous = documents.put(idOf(document), document);
+        onStored(previous, document);
+    }
+
+    void restoreRemoval(ID id) {
+        T removed = documents.remove(id);
+        if (removed != null) {
+            onRemoved(removed);
+        }
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        T stored = copy(entity);
+        List<T> previous = new ArrayList<>(1);
+        journaled(() -> documents.compute(idOf(entity), (id, existing) -> {
+            if (existing != null) {
+                previous.add(existing);
+            }
+            journalStored(stored);
+            return stored;
+        }));
+        onStored(previous.isEmpty() ? null : previous.get(0), stored);
+        return entity;
+    }
+
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        entities.forEach(entity -> saved.add(save(entity)));
+        return saved;
+    }
+
+    @Override
+    public <S extends T> S insert(S entity) {
+        T stored = copy(entity);
+        boolean[] inserted = {false};
+        journaled(() -> documents.computeIfAbsent(idOf(entity), id -> {
+            inserted[0] = true;
+            journalStored(stored);
+            return stored;
+        }));
+        if (!inserted[0]) {
+            throw new DuplicateKeyException("Document with id " + idOf(entity) + " already exists");
+        }
+        onStored(null, stored);
+        return entity;
+    }
+
+    @Override
+    public <S extends T> List<S> insert(Iterable<S> entities) {
+        List<S> inserted = new ArrayList<>();
+        entities.forEach(entity -> inserted.add(insert(entity)));
+        return inserted;
+    }
+
+    @Override
+    public Optional<T> findById(ID id) {
+        return Optional.ofNullable(documents.get(id)).map(this::copy);
+    }
+
+    @Override
+    public boolean existsById(ID id) {
+        return documents.containsKey(id);
+    }
+
+    @Override
+    public List<T> findAll() {
+        return documents.values().stream().map(this::copy).toList();
+    }
+
+    @Override
+    public List<T> findAllById(Iterable<ID> ids) {
+        List<T> found = new ArrayList<>();
+        for (ID id : ids) {
+            T document = documents.get(id);
+            if (document != null) {
+                found.add(copy(document));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return documents.size();
+    }
+
+    @Override
+    public void deleteById(ID id) {
+        List<T> removed = new ArrayList<>(1);
+        journaled(() -> documents.computeIfPresent(id, (key, existing) -> {
+            removed.add(existing);
+            journalRemoved(key);
+            return null;
+        }));
+        if (!removed.isEmpty()) {
+            onRemoved(removed.get(0));
+        }
+    }
+
+    @Override
+    public void delete(T entity) {
+        deleteById(idOf(entity));
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends ID> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends T> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        List.copyOf(documents.keySet()).forEach(this::deleteById);
+    }
+
+    @Override
+    public List<T> findAll(Sort sort) {
+        if (sort.isUnsorted()) {
+            return findAll();
+        }
+        throw unsupported("findAll(Sort)");
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(findAll());
+        }
+        throw unsupported("findAll(Pageable)");
+    }
+
+    @Override
+    public <S extends T> Optional<S> findOne(Example<S> example) {
+        throw unsupported("findOne(Example)");
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example) {
+        throw unsupported("findAll(Example)");
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example, Sort sort) {
+        throw unsupported("findAll(Example, Sort)");
+    }
+
+    @Override
+    public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw unsupported("findAll(Example, Pageable)");
+    }
+
+    @Override
+    public <S extends T> long count(Example<S> example) {
+        throw unsupported("count(Example)");
+    }
+
+    @Override
+    public <S extends T> boolean exists(Example<S> example) {
+        throw unsupported("exists(Example)");
+    }
+
+    @Override
+    public <S extends T, R> R findBy(Example<S> example, Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw unsupported("findBy(Example)");
+    }
+
+    private UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException(operation + " is not supported by the in-memory storage engine");
+    }
+}
@@ -0,0 +1,71 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.impl.ChatMessageWriteBehindBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+
+/**
+ * Replaces the Mongo repositories with the {@link InMemoryStore} when {@code chat.storage.engine=memory}, for
+ * load tests, development and small single-node deployments. Data is only kept across restarts when
+ * {@code chat.storage.memory.data-dir} is set. Mongo repository scanning should be switched off with
+ * {@code spring.data.mongodb.repositories.type=none}; the Mongo-only startup jobs are skipped in this mode.
+ */
+@Configuration
+@ConditionalOnProperty(name = InMemoryStorageConfig.ENGINE_PROPERTY, havingValue = InMemoryStorageConfig.ENGINE_MEMORY)
+public class InMemoryStorageConfig {
+
+    public static final String ENGINE_PROPERTY = "chat.storage.engine";
+    public static final String ENGINE_MEMORY = "memory";
+    public static final String ENGINE_MONGO = "mongo";
+
+    public InMemoryStorageConfig(@Value("${chat.messages.persistence.mode:direct}") String persistenceMode) {
+        if (ChatMessageWriteBehindBuffer.MODE_WRITE_BEHIND.equalsIgnoreCase(persistenceMode)) {
+            throw new IllegalStateException("chat.messages.persistence.mode=write-behind writes to Mongo directly and "
+                    + "cannot be combined with " + ENGINE_PROPERTY + "=" + ENGINE_MEMORY);
+        }
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public InMemoryStore inMemoryStore(
+            MeterRegistry meterRegistry,
+            @Value("${chat.storage.memory.data-dir:}") String dataDirectory,
+            @Value("${chat.storage.memory.flush-interval-ms:1000}") long flushIntervalMillis,
+            @Value("${chat.storage.memory.snapshot-interval-ms:600000}") long snapshotIntervalMillis
+    ) throws IOException {
+        return new InMemoryStore(meterRegistry, dataDirectory, flushIntervalMillis, snapshotIntervalMillis);
+    }
+
+    @Bean
+    @Primary
+    public ChatMessageRepository inMemoryChatMessageRepository(InMemoryStore store) {
+        return store.chatMessages();
+    }
+
+    @Bean
+    @Primary
+    public ChatRoomRepository inMemoryChatRoomRepository(InMemoryStore store) {
+        return store.chatRooms();
+    }
+
+    @Bean
+    @Primary
+    public InboxEntryRepository inMemoryInboxEntryRepository(InMemoryStore store) {
+        return store.inboxEntries();
+    }
+
+    @Bean
+    @Primary
+    public UserRepository inMemoryUserRepository(InMemoryStore store) {
+        return store.users();
+    }
+}
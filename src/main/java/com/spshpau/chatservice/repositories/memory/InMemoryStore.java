@@ -0,0 +1,149 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory storage engine: one repository per collection and, when a data directory is configured, a
+ * {@link MemoryStoreJournal} that is recovered at startup, flushed every {@code flush-interval-ms} and
+ * compacted into a snapshot every {@code snapshot-interval-ms} and on shutdown. Without a data directory
+ * nothing outlives the process.
+ */
+@Slf4j
+public class InMemoryStore {
+
+    private final InMemoryChatMessageRepository chatMessages = new InMemoryChatMessageRepository();
+    private final InMemoryChatRoomRepository chatRooms = new InMemoryChatRoomRepository();
+    private final InMemoryInboxEntryRepository inboxEntries = new InMemoryInboxEntryRepository();
+    private final InMemoryUserRepository users = new InMemoryUserRepository();
+
+    private final MemoryStoreJournal journal;
+    private final ScheduledExecutorService scheduler;
+    private final Counter journalCounter;
+    private final Timer snapshotTimer;
+
+    public InMemoryStore(MeterRegistry meterRegistry, String dataDirectory, long flushIntervalMillis,
+                         long snapshotIntervalMillis) throws IOException {
+        this(meterRegistry, dataDirectory == null || dataDirectory.isBlank() ? null : Path.of(dataDirectory));
+        if (journal != null) {
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            if (snapshotIntervalMillis > 0) {
+                scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    InMemoryStore(MeterRegistry meterRegistry, Path dataDirectory) throws IOException {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.journalCounter = Counter.builder("chat.storage.memory.journal.records")
+                .description("Changes written to the in-memory store journal")
+                .register(meterRegistry);
+        this.snapshotTimer = Timer.builder("chat.storage.memory.snapshot")
+                .description("Writing a snapshot of the in-memory store")
+                .register(meterRegistry);
+        for (InMemoryMongoRepository<?, ?> repository : repositories()) {
+            Gauge.builder("chat.storage.memory.documents", repository, InMemoryMongoRepository::count)
+                    .description("Documents held by the in-memory store")
+                    .tag("collection", repository.collection())
+                    .register(meterRegistry);
+        }
+
+        if (dataDirectory == null) {
+            this.journal = null;
+            log.warn("In-memory store without a data directory; chat data is lost on restart.");
+            return;
+        }
+        this.journal = new MemoryStoreJournal(dataDirectory);
+        repositories().forEach(journal::register);
+        journal.recover();
+    }
+
+    public InMemoryChatMessageRepository chatMessages() {
+        return chatMessages;
+    }
+
+    public InMemoryChatRoomRepository chatRooms() {
+        return chatRooms;
+    }
+
+    public InMemoryInboxEntryRepository inboxEntries() {
+        return inboxEntries;
+    }
+
+    public InMemoryUserRepository users() {
+        return users;
+    }
+
+    private List<InMemoryMongoRepository<?, ?>> repositories() {
+        return List.of(chatMessages, chatRooms, inboxEntries, users);
+    }
+
+    /**
+     * Writes buffered journal records to disk. Does nothing without a data directory.
+     */
+    public void flush() throws IOException {
+        if (journal != null) {
+            journalCounter.increment(journal.flush());
+        }
+    }
+
+    /**
+     * Writes a snapshot and drops the journal it replaces. Does nothing without a data directory.
+     */
+    public void snapshot() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long documents = journal.snapshot();
+        long elapsed = System.nanoTime() - start;
+        snapshotTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("In-memory store: wrote a snapshot of {} documents in {} ms.", documents,
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (journal == null) {
+            return;
+        }
+        snapshotQuietly();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("In-memory store: failed to close the journal.", e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("In-memory store: flushing the journal failed.", e);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("In-memory store: writing a snapshot failed, the journal is kept.", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.UserRepository;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+public class InMemoryUserRepository extends InMemoryMongoRepository<User, UUID> implements UserRepository {
+
+    public InMemoryUserRepository() {
+        super(User.class, UUID.class);
+    }
+
+    @Override
+    protected UUID idOf(User user) {
+        return user.getId();
+    }
+
+    @Override
+    protected User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setFirstName(user.getFirstName());
+        copy.setLastName(user.getLastName());
+        copy.setStatus(user.getStatus());
+        copy.setOnlineNodes(user.getOnlineNodes() != null ? new TreeSet<>(user.getOnlineNodes()) : null);
+        return copy;
+    }
+
+    @Override
+    public List<User> findAllByStatus(StatusEnum status) {
+        return documents.values().stream()
+                .filter(user -> user.getStatus() == status)
+                .map(this::copy)
+                .toList();
+    }
+
+    @Override
+    public void upsertProfiles(Collection<User> users) {
+        for (User user : users) {
+            journaled(() -> documents.compute(user.getId(), (id, stored) -> {
+                User updated = stored != null ? copy(stored) : new User();
+                updated.setId(id);
+                updated.setUsername(user.getUsername());
+                updated.setFirstName(user.getFirstName());
+                updated.setLastName(user.getLastName());
+                if (user.getStatus() != null) {
+                    updated.setStatus(user.getStatus());
+                }
+                journalStored(updated);
+                return updated;
+            }));
+        }
+    }
+
+    @Override
+    public void updateStatuses(String nodeId, Map<UUID, StatusEnum> statuses) {
+        statuses.forEach((userId, status) -> journaled(() -> documents.computeIfPresent(userId, (id, stored) -> {
+            User updated = copy(stored);
+            Set<String> nodes = updated.getOnlineNodes() != null ? updated.getOnlineNodes() : new TreeSet<>();
+            if (status == StatusEnum.ONLINE) {
+                nodes.add(nodeId);
+            } else {
+                nodes.remove(nodeId);
+            }
+            updated.setOnlineNodes(nodes);
+            if (status == StatusEnum.ONLINE || nodes.isEmpty()) {
+                updated.setStatus(status);
+            }
+            journalStored(updated);
+            return updated;
+        })));
+    }
+
+    @Override
+    public List<String> findOnlineNodeIds() {
+        return documents.values().stream()
+                .filter(user -> user.getOnlineNodes() != null)
+                .flatMap(user -> user.getOnlineNodes().stream())
+                .distinct()
+                .toList();
+    }
+
+    @Override
+    public long releaseNodes(Collection<String> nodeIds) {
+        return release(user -> {
+            Set<String> nodes = user.getOnlineNodes() != null ? user.getOnlineNodes() : new TreeSet<>();
+            nodes.removeAll(nodeIds);
+            user.setOnlineNodes(nodes);
+            return user.getStatus() == StatusEnum.ONLINE && nodes.isEmpty();
+        });
+    }
+
+    @Override
+    public long releaseAllNodes() {
+        return release(user -> {
+            boolean online = user.getStatus() == StatusEnum.ONLINE;
+            user.setOnlineNodes(null);
+            return online;
+        });
+    }
+
+    /**
+     * Applies {@code release} to a copy of every user, storing those it returns true for as OFFLINE and the
+     * others only if their nodes changed.
+     *
+     * @return The number of users set OFFLINE.
+     */
+    private long release(Predicate<User> release) {
+        long released = 0;
+        for (UUID userId : documents.keySet()) {
+            boolean[] changed = {false};
+            journaled(() -> documents.computeIfPresent(userId, (id, stored) -> {
+                User updated = copy(stored);
+                if (release.test(updated)) {
+                    updated.setStatus(StatusEnum.OFFLINE);
+                    changed[0] = true;
+                } else if (Objects.equals(updated.getOnlineNodes(), stored.getOnlineNodes())) {
+                    return stored;
+                }
+                journalStored(updated);
+                return updated;
+            }));
+            if (changed[0]) {
+                released++;
+            }
+        }
+        return released;
+    }
+}
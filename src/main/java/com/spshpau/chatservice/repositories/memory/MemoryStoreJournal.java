@@ -0,0 +1,269 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Makes the in-memory store survive restarts. Every change of a stored document is appended to a log as the
+ * document's full new state (or its removal), one JSON line per change, so replaying a log is idempotent. A
+ * snapshot first switches to a new log and then writes all documents; since changes made while it is written
+ * are in the new log as well, replaying that log on top of the snapshot restores the latest state, and older
+ * logs can be deleted.
+ * <p>
+ * Changes that replace a document in a map run through {@link #guard}, so a snapshot cannot switch logs between
+ * a change being logged and it becoming visible in the map. Changes made in place are logged after they are
+ * applied, under the document's monitor, and need no guard.
+ * <p>
+ * Appends are buffered and written out by {@link #flush()}, which the store calls on an interval, so a crash
+ * loses at most the changes of the last interval.
+ */
+@Slf4j
+class MemoryStoreJournal implements Closeable {
+
+    static final String SNAPSHOT_FILE = "snapshot.jsonl";
+    private static final Pattern LOG_FILE = Pattern.compile("journal-(\\d+)\\.log");
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final Map<String, InMemoryMongoRepository<?, ?>> repositories = new LinkedHashMap<>();
+
+    private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final Object writeLock = new Object();
+    private BufferedWriter writer;
+    private long logSequence;
+    private long pendingRecords;
+
+    MemoryStoreJournal(Path directory) {
+        this.directory = directory;
+        this.objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    void register(InMemoryMongoRepository<?, ?> repository) {
+        repositories.put(repository.collection(), repository);
+    }
+
+    /**
+     * Loads the snapshot and replays the logs written after it into the registered repositories, then opens a
+     * new log and attaches the journal to the repositories.
+     *
+     * @return The number of records read.
+     */
+    long recover() throws IOException {
+        Files.createDirectories(directory);
+        long records = 0;
+        long firstLog = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+                firstLog = objectMapper.readTree(reader.readLine()).path("logSequence").asLong();
+                records += replay(reader, snapshot);
+            }
+        }
+        long lastLog = firstLog - 1;
+        for (Map.Entry<Long, Path> log : logFiles().entrySet()) {
+            if (log.getKey() >= firstLog) {
+                try (BufferedReader reader = Files.newBufferedReader(log.getValue(), StandardCharsets.UTF_8)) {
+                    records += replay(reader, log.getValue());
+                }
+            }
+            lastLog = Math.max(lastLog, log.getKey());
+        }
+
+        synchronized (writeLock) {
+            // Never append to a log that may end in a torn record.
+            logSequence = lastLog + 1;
+            writer = openLog(logSequence);
+        }
+        repositories.values().forEach(repository -> repository.attach(this));
+        log.info("In-memory store: recovered {} journal records from {}.", records, directory.toAbsolutePath());
+        return records;
+    }
+
+    <R> R guard(Supplier<R> change) {
+        rotationLock.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+    }
+
+    void stored(String collection, Object document) {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("c", collection);
+        record.set("doc", objectMapper.valueToTree(document));
+        append(record);
+    }
+
+    void removed(String collection, Object id) {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("c", collection);
+        record.set("del", objectMapper.valueToTree(id));
+        append(record);
+    }
+
+    private void append(ObjectNode record) {
+        String line = record.toString();
+        synchronized (writeLock) {
+            try {
+                writer.write(line);
+                writer.newLine();
+                pendingRecords++;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to append to the in-memory store journal", e);
+            }
+        }
+    }
+
+    /**
+     * Writes buffered records to the log file.
+     *
+     * @return The number of records written.
+     */
+    long flush() throws IOException {
+        synchronized (writeLock) {
+            long flushed = pendingRecords;
+            writer.flush();
+            pendingRecords = 0;
+            return flushed;
+        }
+    }
+
+    /**
+     * Writes a snapshot of all documents and deletes the logs it covers.
+     *
+     * @return The number of documents written.
+     */
+    long snapshot() throws IOException {
+        long snapshotSequence;
+        rotationLock.writeLock().lock();
+        try {
+            synchronized (writeLock) {
+                writer.flush();
+                writer.close();
+                snapshotSequence = ++logSequence;
+                writer = openLog(snapshotSequence);
+                pendingRecords = 0;
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        long documents = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            out.write(objectMapper.createObjectNode().put("logSequence", snapshotSequence).toString());
+            out.newLine();
+            for (InMemoryMongoRepository<?, ?> repository : repositories.values()) {
+                for (Object document : repository.storedDocuments()) {
+                    ObjectNode record = objectMapper.createObjectNode();
+                    record.put("c", repository.collection());
+                    synchronized (document) {
+                        record.set("doc", objectMapper.valueToTree(document));
+                    }
+                    out.write(record.toString());
+                    out.newLine();
+                    documents++;
+                }
+            }
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        for (Map.Entry<Long, Path> log : logFiles().entrySet()) {
+            if (log.getKey() < snapshotSequence) {
+                Files.deleteIfExists(log.getValue());
+            }
+        }
+        return documents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    private long replay(BufferedReader reader, Path file) throws IOException {
+        long records = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode record;
+            try {
+                record = objectMapper.readTree(line);
+            } catch (IOException e) {
+                log.warn("In-memory store: ignoring torn record at the end of {}.", file);
+                break;
+            }
+            apply(record);
+            records++;
+        }
+        return records;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, ID> void apply(JsonNode record) throws IOException {
+        InMemoryMongoRepository<T, ID> repository =
+                (InMemoryMongoRepository<T, ID>) repositories.get(record.path("c").asText());
+        if (repository == null) {
+            log.warn("In-memory store: skipping record of unknown collection {}.", record.path("c").asText());
+            return;
+        }
+        if (record.has("del")) {
+            repository.restoreRemoval(objectMapper.treeToValue(record.get("del"), repository.idType()));
+        } else {
+            repository.restore(objectMapper.treeToValue(record.get("doc"), repository.documentType()));
+        }
+    }
+
+    private Map<Long, Path> logFiles() throws IOException {
+        Map<Long, Path> logs = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = LOG_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    logs.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        return logs;
+    }
+
+    private BufferedWriter openLog(long sequence) throws IOException {
+        return Files.newBufferedWriter(directory.resolve("journal-" + sequence + ".log"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
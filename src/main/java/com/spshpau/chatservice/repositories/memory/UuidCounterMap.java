@@ -0,0 +1,145 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Open-addressing map from UUID to a non-negative long counter, storing keys as their two halves in primitive
+ * arrays so that counting needs neither boxed values nor per-entry objects. Entries whose counter drops to zero
+ * are removed. Not thread-safe; callers guard it with their own lock.
+ */
+final class UuidCounterMap {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] high;
+    private long[] low;
+    private long[] counts;
+    private boolean[] used;
+    private int size;
+
+    UuidCounterMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(UUID key) {
+        int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+        return slot >= 0 ? counts[slot] : 0;
+    }
+
+    /**
+     * Adds {@code delta} to the key's counter, never going below zero.
+     *
+     * @return The new value of the counter.
+     */
+    long add(UUID key, long delta) {
+        long h = key.getMostSignificantBits();
+        long l = key.getLeastSignificantBits();
+        int slot = find(h, l);
+        if (slot >= 0) {
+            long updated = Math.max(0, counts[slot] + delta);
+            if (updated == 0) {
+                removeAt(slot);
+            } else {
+                counts[slot] = updated;
+            }
+            return updated;
+        }
+        if (delta <= 0) {
+            return 0;
+        }
+        if ((size + 1) * 4 > used.length * 3) {
+            resize(used.length * 2);
+        }
+        insert(h, l, delta);
+        return delta;
+    }
+
+    Map<UUID, Long> toMap() {
+        Map<UUID, Long> map = new HashMap<>(size * 2);
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                map.put(new UUID(high[slot], low[slot]), counts[slot]);
+            }
+        }
+        return map;
+    }
+
+    private int find(long h, long l) {
+        int mask = used.length - 1;
+        for (int slot = hash(h, l) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (high[slot] == h && low[slot] == l) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long h, long l, long count) {
+        int mask = used.length - 1;
+        int slot = hash(h, l) & mask;
+        while (used[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        high[slot] = h;
+        low[slot] = l;
+        counts[slot] = count;
+        size++;
+    }
+
+    /**
+     * Removes the entry at {@code slot} and shifts later entries of the same probe run back, so lookups never
+     * need tombstones.
+     */
+    private void removeAt(int slot) {
+        int mask = used.length - 1;
+        used[slot] = false;
+        size--;
+        int next = (slot + 1) & mask;
+        while (used[next]) {
+            int home = hash(high[next], low[next]) & mask;
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                used[slot] = true;
+                high[slot] = high[next];
+                low[slot] = low[next];
+                counts[slot] = counts[next];
+                used[next] = false;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldHigh = high;
+        long[] oldLow = low;
+        long[] oldCounts = counts;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (oldUsed[slot]) {
+                insert(oldHigh[slot], oldLow[slot], oldCounts[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        high = new long[capacity];
+        low = new long[capacity];
+        counts = new long[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
+    private static int hash(long h, long l) {
+        long mixed = (h ^ l) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
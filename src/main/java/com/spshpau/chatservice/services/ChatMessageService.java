@@ -1,18 +1,81 @@
 package com.spshpau.chatservice.services;
 
+import com.spshpau.chatservice.controller.dto.ChatHistoryMessageDto;
+import com.spshpau.chatservice.controller.dto.ChatSyncDto;
 import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
 
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface ChatMessageService {
     ChatMessage save(ChatMessage chatMessage);
+
+    /**
+     * Persists a new chat message using the configured persistence mode. In direct mode the message is
+     * written before this method returns; in write-behind mode it is queued and written in a batch.
+     *
+     * @param chatMessage The incoming message.
+     * @return A future completing with the saved message once it is acknowledged, or exceptionally if
+     * it could not be persisted.
+     */
+    CompletableFuture<ChatMessage> submit(ChatMessage chatMessage);
+
+    /**
+     * @return A future completing once every message submitted to the chat so far has been written or has
+     * failed. Already complete when none is queued, and always in direct mode.
+     */
+    CompletableFuture<Void> pendingWrites(UUID chatId);
+
+    /**
+     * Returns the latest messages between the two users in chronological order, capped at
+     * {@code chat.messages.legacy-history-cap} messages.
+     */
     List<ChatMessage> findChatMessages(UUID senderId, UUID recipientId);
 
-    List<ChatMessage> markMessagesAsDelivered(UUID chatId, UUID recipientIdOfMessages);
-    List<ChatMessage> markMessagesAsRead(UUID chatId, UUID recipientIdOfMessages);
+    /**
+     * @return The history page size served for a requested size: at least one and at most
+     * {@code chat.messages.history.max-page-size}.
+     */
+    int historyPageSize(int requested);
+
+    /**
+     * Streams one keyset page of the chat history between the two users. The stream is backed by a
+     * MongoDB cursor and must be closed by the caller.
+     *
+     * @param cursor    The position to continue after, or null to start at the end matching the direction.
+     * @param direction OLDER returns newest-first messages before the cursor, NEWER oldest-first after it.
+     * @param limit     The requested page size, clamped to {@code chat.messages.history.max-page-size} plus one
+     *                  look-ahead row.
+     */
+    Stream<ChatHistoryMessageDto> streamChatHistory(UUID senderId, UUID recipientId, HistoryCursor cursor,
+                                                    HistoryDirection direction, int limit);
+
+    /**
+     * @return A sync cursor to read changes from once a full history read started now has completed. It lags
+     * {@code chat.messages.sync.settle-ms} behind the clock, so changes that commit late are not skipped.
+     */
+    SyncCursor currentSyncCursor();
+
+    /**
+     * Returns the messages between the two users that were saved or changed status after the cursor, oldest
+     * change first. Changes younger than {@code chat.messages.sync.settle-ms} stay after the returned cursor and
+     * are sent again on the next sync, unless the page is full.
+     *
+     * @param since The cursor returned by the previous sync or by {@link #currentSyncCursor()}.
+     * @param limit The requested page size, clamped to {@code chat.messages.sync.max-page-size}.
+     */
+    ChatSyncDto syncChat(UUID senderId, UUID recipientId, SyncCursor since, int limit);
+
+    List<MessageStatusChange> markMessagesAsDelivered(UUID chatId, UUID recipientIdOfMessages);
+    List<MessageStatusChange> markMessagesAsRead(UUID chatId, UUID recipientIdOfMessages);
 
-    List<ChatMessage> markSentMessagesToUserAsDelivered(UUID recipientUserId);
+    List<MessageStatusChange> markSentMessagesToUserAsDelivered(UUID recipientUserId);
     Map<UUID, Long> getUnreadMessageCountsPerChatForUser(UUID recipientUserId);
 }
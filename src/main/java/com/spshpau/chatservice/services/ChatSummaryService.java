@@ -0,0 +1,28 @@
+package com.spshpau.chatservice.services;
+
+import com.spshpau.chatservice.model.ChatSummaryResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.util.UUID;
+
+public interface ChatSummaryService {
+    /**
+     * Assembles one page of chat summaries. The independent stages run in parallel, each bounded by its
+     * own timeout:
+     * <ul>
+     *     <li>{@code delivered} - marks messages sent to the user as DELIVERED and notifies their senders,</li>
+     *     <li>{@code connections} - fetches and syncs the user's connections from the user service,</li>
+     *     <li>{@code inbox} - reads the page of inbox entries,</li>
+     * </ul>
+     * after which {@code assemble} joins connections and inbox entries. A stage that fails or times out
+     * does not fail the request; its result is replaced by an empty one and the stage is reported as
+     * degraded.
+     *
+     * @param jwt    The JWT of the user.
+     * @param userId The user's ID, taken from the JWT subject.
+     * @param page   The zero-based page number.
+     * @param size   The page size.
+     * @return The summaries with a per-stage latency breakdown.
+     */
+    ChatSummaryResult assembleSummaries(Jwt jwt, UUID userId, int page, int size);
+}
@@ -0,0 +1,58 @@
+package com.spshpau.chatservice.services;
+
+import com.spshpau.chatservice.model.ClusterChange;
+import com.spshpau.chatservice.model.ClusterMember;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Carries message changes between the nodes of a cluster, so each node can notify the users connected to it.
+ * Selected by {@code chat.cluster.transport}.
+ */
+public interface ClusterTransport {
+    /**
+     * Hands changes made on this node to the transport. Transports that observe the database themselves
+     * ignore them.
+     *
+     * @param changes The changes, in the order they were made.
+     */
+    void publish(List<ClusterChange> changes);
+
+    /**
+     * Hands changes made on this node to the transport for the given nodes only. Transports that cannot
+     * address single nodes pass them to all; transports that observe the database ignore them and instead
+     * only pass each node the changes of the users it last {@link #announce announced}.
+     *
+     * @param changes The changes, in the order they were made.
+     * @param nodeIds The nodes to pass them to.
+     */
+    default void publish(List<ClusterChange> changes, Set<String> nodeIds) {
+        publish(changes);
+    }
+
+    /**
+     * Starts passing the changes of all nodes, possibly including this one, to the listener, in batches and
+     * from a single thread at a time. A transport that can resume continues after the last batch the listener
+     * returned from before the previous stop or crash, so changes may be passed again but are not skipped.
+     *
+     * @param listener Receives the batches; an exception it throws is logged and the batch counts as passed.
+     */
+    void start(Consumer<List<ClusterChange>> listener);
+
+    void stop();
+
+    /**
+     * Shares this node's membership with the other nodes, replacing what it announced before.
+     */
+    default void announce(ClusterMember self) {
+    }
+
+    /**
+     * @return The last announcement of every node, this one included, expired ones possibly among them.
+     */
+    default List<ClusterMember> members() {
+        return List.of();
+    }
+}
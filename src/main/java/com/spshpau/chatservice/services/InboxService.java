@@ -0,0 +1,67 @@
+package com.spshpau.chatservice.services;
+
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+public interface InboxService {
+    /**
+     * Updates the inbox entries of both participants after a message was persisted.
+     * Failures are logged and not propagated; the inbox can be regenerated by the rebuild job.
+     *
+     * @param message The persisted message.
+     */
+    void recordMessage(ChatMessage message);
+
+    /**
+     * Updates the reader's inbox entry after messages of the chat were marked as READ.
+     *
+     * @param chatId   The chat.
+     * @param readerId The user who read the messages.
+     * @param readAt   The read timestamp.
+     * @param count    The number of messages that transitioned to READ.
+     */
+    void recordRead(UUID chatId, UUID readerId, Instant readAt, long count);
+
+    /**
+     * Builds one page of chat summaries from the user's inbox, most recently active chat first.
+     * Connections the user has not exchanged any message with yet follow the last conversation, paged
+     * like it, with no chatId and an unread count of 0.
+     *
+     * @param userId      The user.
+     * @param connections The user's connections, used for partner details and chats not started yet.
+     * @param page        The zero-based page number.
+     * @param size        The page size, capped at {@code chat.inbox.max-page-size}.
+     * @return The summaries of the page.
+     */
+    List<ChatSummaryDto> findChatSummaries(UUID userId, List<User> connections, int page, int size);
+
+    /**
+     * Reads one page of the user's inbox entries, most recently active chat first. Together with
+     * {@link #toChatSummaries} this splits {@link #findChatSummaries} so the inbox can be read while the
+     * connections are still being fetched.
+     *
+     * @param userId The user.
+     * @param page   The zero-based page number.
+     * @param size   The page size, capped at {@code chat.inbox.max-page-size}.
+     * @return The entries of the page.
+     */
+    List<InboxEntry> findInboxPage(UUID userId, int page, int size);
+
+    /**
+     * Builds the chat summaries of an inbox page read with {@link #findInboxPage}.
+     *
+     * @param userId      The user.
+     * @param entries     The entries of the page.
+     * @param connections The user's connections, used for partner details and chats not started yet.
+     * @param page        The zero-based page number the entries were read for.
+     * @param size        The page size the entries were read with.
+     * @return The summaries of the page.
+     */
+    List<ChatSummaryDto> toChatSummaries(UUID userId, List<InboxEntry> entries, List<User> connections, int page, int size);
+}
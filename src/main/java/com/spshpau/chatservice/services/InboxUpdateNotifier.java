@@ -0,0 +1,28 @@
+package com.spshpau.chatservice.services;
+
+import com.spshpau.chatservice.model.InboxEntry;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface InboxUpdateNotifier {
+    /**
+     * Whether updates of the user's inbox would be delivered, so callers can skip reading entries nobody
+     * receives.
+     *
+     * @param userId The owner of the inbox.
+     * @return True if the user has an open session.
+     */
+    boolean hasAudience(UUID userId);
+
+    /**
+     * Sends the state of each entry to its owner as an
+     * {@link com.spshpau.chatservice.controller.notifications.InboxUpdateNotification} on
+     * "/queue/inbox-updates", numbered consecutively per owner. Entries of offline owners are skipped, and a
+     * failed send is logged and leaves a gap in the owner's numbering.
+     *
+     * @param entries The changed entries.
+     * @return The number of notification frames sent.
+     */
+    int notifyOwners(List<InboxEntry> entries);
+}
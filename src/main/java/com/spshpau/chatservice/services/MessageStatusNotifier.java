@@ -0,0 +1,20 @@
+package com.spshpau.chatservice.services;
+
+import com.spshpau.chatservice.model.MessageStatusChange;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface MessageStatusNotifier {
+    /**
+     * Notifies the original senders about status transitions of their messages. Changes are grouped by
+     * (senderId, chatId, newStatus) and each group is sent as a single
+     * {@link com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification} to the
+     * sender's "/queue/status-updates". Groups above the configured threshold are sent in watermark form.
+     *
+     * @param changes         The transitioned messages.
+     * @param updatedByUserId The user whose action caused the transition (the recipient of the messages).
+     * @return The number of notification frames sent.
+     */
+    int notifySenders(List<MessageStatusChange> changes, UUID updatedByUserId);
+}
@@ -0,0 +1,25 @@
+package com.spshpau.chatservice.services;
+
+import java.util.Collection;
+import java.util.UUID;
+
+public interface PresenceNotifier {
+    /**
+     * Replaces the set of users whose presence changes are delivered to {@code watcherId}, typically the
+     * connections returned by the user service. Registrations are dropped when the watcher goes offline.
+     *
+     * @param watcherId The user receiving presence changes.
+     * @param userIds   The users to watch.
+     */
+    void registerConnections(UUID watcherId, Collection<UUID> userIds);
+
+    /**
+     * Sends the presence changes collected since the last flush. A user's change is only sent if their
+     * current state differs from the last state sent, so flapping within one interval is suppressed. Every
+     * online watcher receives at most one {@link com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification}
+     * on "/queue/presence".
+     *
+     * @return The number of notification frames sent.
+     */
+    int flush();
+}
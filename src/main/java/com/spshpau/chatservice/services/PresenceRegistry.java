@@ -0,0 +1,58 @@
+package com.spshpau.chatservice.services;
+
+import java.util.Set;
+import java.util.UUID;
+
+public interface PresenceRegistry {
+    /**
+     * Registers a WebSocket session of the user. Publishes a
+     * {@link com.spshpau.chatservice.model.PresenceChange} if it is the user's first open session.
+     *
+     * @param userId    The user.
+     * @param sessionId The WebSocket session ID.
+     * @return True if the user came online.
+     */
+    boolean sessionConnected(UUID userId, String sessionId);
+
+    /**
+     * Removes a WebSocket session. Publishes a {@link com.spshpau.chatservice.model.PresenceChange} if it was
+     * the user's last open session. Unknown sessions are ignored.
+     *
+     * @param sessionId The WebSocket session ID.
+     * @return True if the user went offline.
+     */
+    boolean sessionDisconnected(String sessionId);
+
+    /**
+     * Records activity (any inbound frame, including heartbeats) on a session so it is not reaped. Only
+     * registered sessions are refreshed; a session that is unknown, e.g. because it was reaped or already
+     * disconnected, is ignored, since only a CONNECT may register it.
+     *
+     * @param sessionId The WebSocket session ID.
+     */
+    void touch(String sessionId);
+
+    /**
+     * Removes sessions without activity for longer than {@code chat.presence.session-timeout-ms}.
+     *
+     * @return The number of sessions removed.
+     */
+    int reapStaleSessions();
+
+    /**
+     * @return The user the session belongs to, or null if the session is not registered.
+     */
+    UUID getSessionUser(String sessionId);
+
+    boolean isOnline(UUID userId);
+
+    /**
+     * @return The number of open sessions of the user, e.g. one per browser tab.
+     */
+    int getSessionCount(UUID userId);
+
+    /**
+     * @return A snapshot of the users with at least one open session.
+     */
+    Set<UUID> getOnlineUserIds();
+}
@@ -8,8 +8,9 @@ import java.util.UUID;
 
 public interface UserService {
     /**
-     * Saves or updates a user based on JWT details, marking them as ONLINE.
-     * Creates the user if they don't exist based on userId (from JWT sub).
+     * Saves or updates a user's profile based on JWT details. Creates the user if they don't exist based on
+     * userId (from JWT sub). The stored status is left to the presence snapshot; the returned user carries
+     * the user's current presence.
      *
      * @param userId      The user's unique ID (from JWT sub claim).
      * @param username    The user's username (from JWT preferred_username claim).
@@ -17,16 +18,20 @@ public interface UserService {
      * @param lastName    The user's last name (from JWT family_name claim, can be null).
      * @return The saved or updated User object.
      */
-    User saveUser(UUID userId, String username, String firstName, String lastName, boolean fetch);
+    User saveUser(UUID userId, String username, String firstName, String lastName);
 
     /**
-     * Marks a user as OFFLINE based on their ID.
+     * Closes the user's presence session. The user becomes OFFLINE once they have no other open session.
      *
-     * @param userId The unique ID of the user to disconnect.
-     * @return The User object after marking as OFFLINE, or null if user not found.
+     * @param userId    The unique ID of the user to disconnect.
+     * @param sessionId The WebSocket session to close; ignored unless it belongs to the user.
+     * @return The User object with their resulting status, or null if user not found.
      */
-    User disconnect(UUID userId);
+    User disconnect(UUID userId, String sessionId);
 
+    /**
+     * @return The users with at least one open WebSocket session, read from the in-memory presence registry.
+     */
     List<User> findConnectedUsers();
 
     List<User> findMyChats(Jwt jwt);
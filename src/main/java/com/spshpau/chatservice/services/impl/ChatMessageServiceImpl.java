@@ -1,38 +1,176 @@
 package com.spshpau.chatservice.services.impl;
 
+import com.spshpau.chatservice.controller.dto.ChatHistoryMessageDto;
+import com.spshpau.chatservice.controller.dto.ChatSyncDto;
 import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
 import com.spshpau.chatservice.model.enums.MessageStatus;
 import com.spshpau.chatservice.repositories.ChatMessageRepository;
 import com.spshpau.chatservice.services.ChatMessageService;
 import com.spshpau.chatservice.services.ChatRoomService;
-import lombok.RequiredArgsConstructor;
+import com.spshpau.chatservice.services.InboxService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ChatMessageServiceImpl implements ChatMessageService {
     private final ChatMessageRepository chatMessageRepository;
     private final ChatRoomService chatRoomService;
+    private final ChatMessageWriteBehindBuffer writeBehindBuffer;
+    private final InboxService inboxService;
+    private final ChatTailCache tailCache;
+    private final ClusterFanout clusterFanout;
+    private final ConcurrentMap<UUID, CompletableFuture<?>> pendingWritesByChat = new ConcurrentHashMap<>();
+
+    private final Timer directSaveTimer;
+    private final Timer directSaveErrorTimer;
+    private final Timer writeBehindSaveTimer;
+    private final Timer writeBehindSaveErrorTimer;
+    private final TransitionMeters deliveredInChat;
+    private final TransitionMeters readInChat;
+    private final TransitionMeters deliveredToUser;
+    private final Counter syncChangedCounter;
+    private final Counter syncUnchangedCounter;
+
+    @Value("${chat.messages.status-transition.window:500}")
+    private int statusTransitionWindow = 500;
+
+    @Value("${chat.messages.legacy-history-cap:500}")
+    private int legacyHistoryCap = 500;
+
+    @Value("${chat.messages.history.max-page-size:200}")
+    private int maxHistoryPageSize = 200;
+
+    @Value("${chat.messages.sync.max-page-size:200}")
+    private int maxSyncPageSize = 200;
+
+    @Value("${chat.messages.sync.settle-ms:2000}")
+    private long syncSettleMillis = 2000;
+
+    public ChatMessageServiceImpl(ChatMessageRepository chatMessageRepository, ChatRoomService chatRoomService,
+                                  ChatMessageWriteBehindBuffer writeBehindBuffer, InboxService inboxService,
+                                  ChatTailCache tailCache, ClusterFanout clusterFanout, MeterRegistry meterRegistry) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.chatRoomService = chatRoomService;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.inboxService = inboxService;
+        this.tailCache = tailCache;
+        this.clusterFanout = clusterFanout;
+        this.directSaveTimer = saveTimer(meterRegistry, "direct", "success");
+        this.directSaveErrorTimer = saveTimer(meterRegistry, "direct", "error");
+        this.writeBehindSaveTimer = saveTimer(meterRegistry, "write-behind", "success");
+        this.writeBehindSaveErrorTimer = saveTimer(meterRegistry, "write-behind", "error");
+        this.deliveredInChat = TransitionMeters.register(meterRegistry, MessageStatus.DELIVERED, "chat");
+        this.readInChat = TransitionMeters.register(meterRegistry, MessageStatus.READ, "chat");
+        this.deliveredToUser = TransitionMeters.register(meterRegistry, MessageStatus.DELIVERED, "user");
+        this.syncChangedCounter = syncCounter(meterRegistry, "changed");
+        this.syncUnchangedCounter = syncCounter(meterRegistry, "unchanged");
+    }
+
+    private static Counter syncCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.messages.sync.requests")
+                .description("Delta sync requests by whether the chat changed since the cursor")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Timer saveTimer(MeterRegistry meterRegistry, String path, String outcome) {
+        return Timer.builder("chat.messages.save")
+                .description("Time from accepting a message until it is persisted and recorded in the inbox")
+                .tag("path", path)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
 
     @Override
     public ChatMessage save(ChatMessage chatMessage) {
         log.info("Attempting to save chat message from senderId: {} to recipientId: {}",
                 chatMessage.getSenderId(), chatMessage.getRecipientId());
+        Timer.Sample sample = Timer.start();
+        try {
+            prepareForSave(chatMessage);
+            ChatMessage savedMessage = chatMessageRepository.save(chatMessage);
+            log.info("Saved message {} with status SENT. ChatId: {}", savedMessage.getId(), savedMessage.getChatId());
+            inboxService.recordMessage(savedMessage);
+            tailCache.append(savedMessage);
+            clusterFanout.messageSaved(savedMessage);
+            sample.stop(directSaveTimer);
+            return savedMessage;
+        } catch (RuntimeException e) {
+            sample.stop(directSaveErrorTimer);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ChatMessage> submit(ChatMessage chatMessage) {
+        if (!writeBehindBuffer.isEnabled()) {
+            try {
+                return CompletableFuture.completedFuture(save(chatMessage));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        log.debug("Queueing chat message from senderId: {} to recipientId: {} for write-behind persistence",
+                chatMessage.getSenderId(), chatMessage.getRecipientId());
+        Timer.Sample sample = Timer.start();
+        try {
+            prepareForSave(chatMessage);
+        } catch (RuntimeException e) {
+            sample.stop(writeBehindSaveErrorTimer);
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<ChatMessage> written = writeBehindBuffer.enqueue(chatMessage).thenApply(savedMessage -> {
+            inboxService.recordMessage(savedMessage);
+            tailCache.append(savedMessage);
+            clusterFanout.messageSaved(savedMessage);
+            return savedMessage;
+        }).whenComplete((savedMessage, e) -> sample.stop(e == null ? writeBehindSaveTimer : writeBehindSaveErrorTimer));
+        UUID chatId = chatMessage.getChatId();
+        CompletableFuture<?> pending = pendingWritesByChat.compute(chatId,
+                (id, earlier) -> earlier == null ? written : CompletableFuture.allOf(earlier, written));
+        pending.whenComplete((result, e) -> pendingWritesByChat.remove(chatId, pending));
+        return written;
+    }
+
+    @Override
+    public CompletableFuture<Void> pendingWrites(UUID chatId) {
+        CompletableFuture<?> pending = chatId != null ? pendingWritesByChat.get(chatId) : null;
+        return pending != null ? pending.handle((result, e) -> null) : CompletableFuture.completedFuture(null);
+    }
+
+    private void prepareForSave(ChatMessage chatMessage) {
         if (chatMessage.getId() == null) {
             chatMessage.setId(UUID.randomUUID());
             log.debug("Generated new ID for chat message: {}", chatMessage.getId());
         }
         chatMessage.setStatus(MessageStatus.SENT);
+        // At the precision Mongo stores, so the saved message pages and takes status changes like its stored copy.
+        chatMessage.setUpdatedAt(HistoryCursor.truncate(Instant.now()));
         if (chatMessage.getSentAt() == null) {
             chatMessage.setSentAt(Instant.now());
             log.debug("Set sentAt timestamp for message ID {}: {}", chatMessage.getId(), chatMessage.getSentAt());
         }
+        chatMessage.setSentAt(HistoryCursor.truncate(chatMessage.getSentAt()));
 
         var chatId = chatRoomService.getChatRoomId(
                         chatMessage.getSenderId(),
@@ -49,9 +187,6 @@ public class ChatMessageServiceImpl implements ChatMessageService {
                 chatId, chatMessage.getSenderId(), chatMessage.getRecipientId());
 
         chatMessage.setChatId(chatId);
-        ChatMessage savedMessage = chatMessageRepository.save(chatMessage);
-        log.info("Saved message {} with status SENT. ChatId: {}", savedMessage.getId(), savedMessage.getChatId());
-        return savedMessage;
     }
 
     @Override
@@ -65,100 +200,207 @@ public class ChatMessageServiceImpl implements ChatMessageService {
         }
         UUID chatId = optChatId.get();
         log.debug("Found chatId: {} for senderId: {} and recipientId: {}. Fetching messages.", chatId, senderId, recipientId);
-        List<ChatMessage> messages = chatMessageRepository.findByChatId(chatId);
+        List<ChatMessage> messages = new ArrayList<>(cachedPage(senderId, recipientId, chatId, null, HistoryDirection.OLDER, legacyHistoryCap)
+                .orElseGet(() -> chatMessageRepository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(legacyHistoryCap))));
+        Collections.reverse(messages);
+        if (messages.size() == legacyHistoryCap) {
+            log.info("Chat {} history truncated to the latest {} messages.", chatId, legacyHistoryCap);
+        }
         log.info("Found {} messages for chatId: {}", messages.size(), chatId);
         return messages;
     }
 
     @Override
-    public List<ChatMessage> markMessagesAsDelivered(UUID chatId, UUID recipientIdOfMessages) {
+    public int historyPageSize(int requested) {
+        return Math.max(1, Math.min(requested, maxHistoryPageSize));
+    }
+
+    @Override
+    public Stream<ChatHistoryMessageDto> streamChatHistory(UUID senderId, UUID recipientId, HistoryCursor cursor,
+                                                           HistoryDirection direction, int limit) {
+        var optChatId = chatRoomService.getChatRoomId(senderId, recipientId, false);
+        if (optChatId.isEmpty()) {
+            log.debug("No chat room found between senderId: {} and recipientId: {}. Returning empty history.", senderId, recipientId);
+            return Stream.empty();
+        }
+        // One row above the page cap is allowed so callers can look ahead for a next page.
+        int pageSize = Math.max(1, Math.min(limit, maxHistoryPageSize + 1));
+        Optional<List<ChatMessage>> cached = cachedPage(senderId, recipientId, optChatId.get(), cursor, direction, pageSize);
+        if (cached.isPresent()) {
+            log.debug("Serving {} history of chatId: {} from cursor {} (limit {}) from the cached tail", direction, optChatId.get(), cursor, pageSize);
+            return cached.get().stream().map(this::toHistoryDto);
+        }
+        log.debug("Streaming {} history of chatId: {} from cursor {} (limit {})", direction, optChatId.get(), cursor, pageSize);
+        return chatMessageRepository.streamHistory(optChatId.get(), cursor, direction, pageSize)
+                .map(this::toHistoryDto);
+    }
+
+    /**
+     * Reads the page from the tail cache, unless this node does not receive every change of the chat.
+     */
+    private Optional<List<ChatMessage>> cachedPage(UUID senderId, UUID recipientId, UUID chatId, HistoryCursor cursor,
+                                                   HistoryDirection direction, int limit) {
+        if (!clusterFanout.receivesChangesOf(senderId, recipientId)) {
+            return Optional.empty();
+        }
+        return tailCache.page(chatId, cursor, direction, limit);
+    }
+
+    @Override
+    public SyncCursor currentSyncCursor() {
+        return SyncCursor.at(Instant.now().minusMillis(syncSettleMillis));
+    }
+
+    @Override
+    public ChatSyncDto syncChat(UUID senderId, UUID recipientId, SyncCursor since, int limit) {
+        var optChatId = chatRoomService.getChatRoomId(senderId, recipientId, false);
+        int pageSize = Math.max(1, Math.min(limit, maxSyncPageSize));
+        // One row above the page size tells whether there are more changes.
+        List<ChatMessage> changed = optChatId.isEmpty() ? List.of()
+                : chatMessageRepository.findChangedSince(optChatId.get(), since, pageSize + 1);
+        boolean hasMore = changed.size() > pageSize;
+        if (hasMore) {
+            changed = changed.subList(0, pageSize);
+        }
+
+        SyncCursor next = since;
+        if (!changed.isEmpty()) {
+            SyncCursor last = SyncCursor.of(changed.get(changed.size() - 1));
+            SyncCursor settled = currentSyncCursor();
+            // A write can commit after a later one (write-behind batches, other instances), so the cursor only
+            // moves past changes once they are older than the settle window. A full page always moves it.
+            if (hasMore || settled.isAfter(last)) {
+                next = last;
+            } else if (settled.isAfter(since)) {
+                next = settled;
+            }
+            syncChangedCounter.increment();
+            log.debug("Sync between {} and {} returned {} changes since {}.", senderId, recipientId, changed.size(), since);
+        } else {
+            syncUnchangedCounter.increment();
+        }
+        return ChatSyncDto.builder()
+                .changes(changed.stream().map(this::toHistoryDto).toList())
+                .cursor(next.encode())
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private ChatHistoryMessageDto toHistoryDto(ChatMessage message) {
+        Instant statusTimestamp = message.getReadAt() != null ? message.getReadAt()
+                : message.getDeliveredAt() != null ? message.getDeliveredAt()
+                : message.getSentAt();
+        return ChatHistoryMessageDto.builder()
+                .id(message.getId())
+                .senderId(message.getSenderId())
+                .content(message.getContent())
+                .status(message.getStatus())
+                .sentAt(message.getSentAt())
+                .statusTimestamp(statusTimestamp)
+                .build();
+    }
+
+    @Override
+    public List<MessageStatusChange> markMessagesAsDelivered(UUID chatId, UUID recipientIdOfMessages) {
         log.info("Attempting to mark messages as DELIVERED for chatId: {} and recipientId: {}", chatId, recipientIdOfMessages);
-        List<ChatMessage> messagesToUpdate = chatMessageRepository.findByChatIdAndRecipientIdAndStatus(
-                chatId, recipientIdOfMessages, MessageStatus.SENT);
+        List<MessageStatusChange> updatedMessages = transition(deliveredInChat, () -> chatMessageRepository.markDelivered(
+                chatId, recipientIdOfMessages, Instant.now(), statusTransitionWindow));
 
-        if (messagesToUpdate.isEmpty()) {
+        if (updatedMessages.isEmpty()) {
             log.info("No messages found with status SENT for chatId: {} and recipientId: {} to mark as DELIVERED.", chatId, recipientIdOfMessages);
             return Collections.emptyList();
         }
-
-        List<ChatMessage> updatedMessages = new ArrayList<>();
-        Instant deliveredTime = Instant.now();
-        for (ChatMessage msg : messagesToUpdate) {
-            msg.setStatus(MessageStatus.DELIVERED);
-            msg.setDeliveredAt(deliveredTime);
-            updatedMessages.add(chatMessageRepository.save(msg));
-            log.debug("Marked messageId: {} as DELIVERED at {}", msg.getId(), deliveredTime);
-        }
         log.info("Marked {} messages in chatId: {} for recipientId: {} as DELIVERED", updatedMessages.size(), chatId, recipientIdOfMessages);
         return updatedMessages;
     }
 
     @Override
-    public List<ChatMessage> markMessagesAsRead(UUID chatId, UUID recipientIdOfMessages) {
+    public List<MessageStatusChange> markMessagesAsRead(UUID chatId, UUID recipientIdOfMessages) {
         log.info("Attempting to mark messages as READ for chatId: {} and recipientId: {}", chatId, recipientIdOfMessages);
-        List<MessageStatus> statusesToMarkAsRead = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-        List<ChatMessage> messagesToUpdate = chatMessageRepository.findByChatIdAndRecipientIdAndStatusIn(
-                chatId, recipientIdOfMessages, statusesToMarkAsRead);
+        Instant readAt = Instant.now();
+        List<MessageStatusChange> updatedMessages = transition(readInChat, () -> chatMessageRepository.markRead(
+                chatId, recipientIdOfMessages, readAt, statusTransitionWindow));
 
-        if (messagesToUpdate.isEmpty()) {
+        if (updatedMessages.isEmpty()) {
             log.info("No messages found with status SENT or DELIVERED for chatId: {} and recipientId: {} to mark as READ.", chatId, recipientIdOfMessages);
             return Collections.emptyList();
         }
-
-        List<ChatMessage> updatedMessages = new ArrayList<>();
-        Instant readTime = Instant.now();
-        for (ChatMessage msg : messagesToUpdate) {
-            if (msg.getStatus() == MessageStatus.SENT && msg.getDeliveredAt() == null) {
-                msg.setDeliveredAt(readTime);
-                log.debug("MessageId: {} was SENT, also setting deliveredAt: {}", msg.getId(), readTime);
-            }
-            msg.setStatus(MessageStatus.READ);
-            msg.setReadAt(readTime);
-            updatedMessages.add(chatMessageRepository.save(msg));
-            log.debug("Marked messageId: {} as READ at {}", msg.getId(), readTime);
-        }
         log.info("Marked {} messages in chatId: {} for recipientId: {} as READ", updatedMessages.size(), chatId, recipientIdOfMessages);
+        inboxService.recordRead(chatId, recipientIdOfMessages, readAt, updatedMessages.size());
         return updatedMessages;
     }
 
     @Override
-    public List<ChatMessage> markSentMessagesToUserAsDelivered(UUID recipientUserId) {
+    public List<MessageStatusChange> markSentMessagesToUserAsDelivered(UUID recipientUserId) {
         log.info("Attempting to mark all SENT messages to recipientUserId: {} as DELIVERED across all chats.", recipientUserId);
-        List<ChatMessage> messagesToUpdate = chatMessageRepository.findByRecipientIdAndStatus(recipientUserId, MessageStatus.SENT);
+        List<MessageStatusChange> updatedMessages = transition(deliveredToUser, () -> chatMessageRepository.markDelivered(
+                null, recipientUserId, Instant.now(), statusTransitionWindow));
 
-        if (messagesToUpdate.isEmpty()) {
+        if (updatedMessages.isEmpty()) {
             log.info("No messages found with status SENT for recipientUserId: {} to mark as DELIVERED.", recipientUserId);
             return Collections.emptyList();
         }
-
-        List<ChatMessage> updatedMessages = new ArrayList<>();
-        Instant deliveredTime = Instant.now();
-        for (ChatMessage msg : messagesToUpdate) {
-            msg.setStatus(MessageStatus.DELIVERED);
-            msg.setDeliveredAt(deliveredTime);
-            updatedMessages.add(chatMessageRepository.save(msg));
-            log.debug("Marked messageId: {} (chatId: {}) for recipientId: {} as DELIVERED at {}",
-                    msg.getId(), msg.getChatId(), recipientUserId, deliveredTime);
-        }
         log.info("Marked {} messages for recipientUserId: {} across all chats as DELIVERED", updatedMessages.size(), recipientUserId);
         return updatedMessages;
     }
 
+    private List<MessageStatusChange> transition(TransitionMeters meters, Supplier<List<MessageStatusChange>> update) {
+        Timer.Sample sample = Timer.start();
+        try {
+            List<MessageStatusChange> changes = update.get();
+            sample.stop(meters.success());
+            meters.batchSize().record(changes.size());
+            tailCache.applyStatusChanges(changes);
+            clusterFanout.statusChanged(changes);
+            return changes;
+        } catch (RuntimeException e) {
+            sample.stop(meters.error());
+            throw e;
+        }
+    }
+
     @Override
     public Map<UUID, Long> getUnreadMessageCountsPerChatForUser(UUID recipientUserId) {
         log.info("Getting unread message counts per chat for recipientUserId: {}", recipientUserId);
-        List<MessageStatus> unreadStatuses = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-        List<ChatMessage> allUnreadMessagesForUser = chatMessageRepository.findByRecipientIdAndStatusIn(recipientUserId, unreadStatuses);
+        Map<UUID, Long> unreadCounts = chatMessageRepository.countUnreadByChat(recipientUserId);
 
-        if (allUnreadMessagesForUser.isEmpty()) {
+        if (unreadCounts.isEmpty()) {
             log.info("No unread messages found for recipientUserId: {}.", recipientUserId);
             return Collections.emptyMap();
         }
 
-        Map<UUID, Long> unreadCounts = allUnreadMessagesForUser.stream()
-                .collect(Collectors.groupingBy(ChatMessage::getChatId, Collectors.counting()));
-
         log.info("Calculated unread message counts for recipientUserId: {}. Counts: {}", recipientUserId, unreadCounts);
         return unreadCounts;
     }
+
+    /**
+     * Meters of one status transition, tagged by target status and by scope: a single chat, or all chats of
+     * a recipient.
+     */
+    private record TransitionMeters(Timer success, Timer error, DistributionSummary batchSize) {
+
+        static TransitionMeters register(MeterRegistry meterRegistry, MessageStatus status, String scope) {
+            return new TransitionMeters(
+                    transitionTimer(meterRegistry, status, scope, "success"),
+                    transitionTimer(meterRegistry, status, scope, "error"),
+                    DistributionSummary.builder("chat.messages.status.batch")
+                            .description("Messages changed by one status transition")
+                            .baseUnit("messages")
+                            .tag("status", status.name())
+                            .tag("scope", scope)
+                            .minimumExpectedValue(1.0)
+                            .maximumExpectedValue(10_000.0)
+                            .register(meterRegistry));
+        }
+
+        private static Timer transitionTimer(MeterRegistry meterRegistry, MessageStatus status, String scope,
+                                             String outcome) {
+            return Timer.builder("chat.messages.status.transition")
+                    .description("Time to apply one status transition in the database")
+                    .tag("status", status.name())
+                    .tag("scope", scope)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
 }
@@ -0,0 +1,260 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import com.spshpau.chatservice.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit pipeline for new chat messages. Messages are queued in a bounded buffer and a single
+ * flusher thread writes them with unordered {@code insertMany} batches, flushing when a batch is full
+ * or when the oldest queued message has waited {@code max-delay-ms}. Each message gets a future that
+ * completes according to the configured {@link WriteBehindAckMode}.
+ * <p>
+ * Only active when {@code chat.messages.persistence.mode=write-behind}; otherwise
+ * {@link ChatMessageServiceImpl} writes every message directly.
+ */
+@Component
+@Slf4j
+public class ChatMessageWriteBehindBuffer {
+
+    public static final String MODE_WRITE_BEHIND = "write-behind";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final long offerTimeoutMillis;
+    private final WriteBehindAckMode ackMode;
+    private final BlockingQueue<PendingWrite> queue;
+
+    private final DistributionSummary batchSizeSummary;
+    private final Timer flushTimer;
+    private final Timer ackLatencyTimer;
+    private final Counter overflowCounter;
+    private final Counter failedCounter;
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public ChatMessageWriteBehindBuffer(
+            MongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${chat.messages.persistence.mode:direct}") String persistenceMode,
+            @Value("${chat.messages.write-behind.batch-size:256}") int batchSize,
+            @Value("${chat.messages.write-behind.max-delay-ms:20}") long maxDelayMillis,
+            @Value("${chat.messages.write-behind.capacity:10000}") int capacity,
+            @Value("${chat.messages.write-behind.offer-timeout-ms:50}") long offerTimeoutMillis,
+            @Value("${chat.messages.write-behind.ack:ON_FLUSH}") WriteBehindAckMode ackMode
+    ) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = MODE_WRITE_BEHIND.equalsIgnoreCase(persistenceMode);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.ackMode = ackMode;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.batchSizeSummary = DistributionSummary.builder("chat.messages.writebehind.batch.size")
+                .description("Number of messages written per insertMany batch")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.messages.writebehind.flush")
+                .description("Duration of a single insertMany batch")
+                .register(meterRegistry);
+        this.ackLatencyTimer = Timer.builder("chat.messages.writebehind.latency")
+                .description("Time from enqueue until the message is persisted")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("chat.messages.writebehind.overflow")
+                .description("Messages written synchronously because the buffer was full")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.messages.writebehind.failed")
+                .description("Messages whose write failed")
+                .register(meterRegistry);
+        Gauge.builder("chat.messages.writebehind.queue.depth", queue, BlockingQueue::size)
+                .description("Messages waiting to be flushed")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::runFlushLoop, "chat-write-behind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Write-behind message persistence started. batchSize={}, maxDelayMs={}, capacity={}, ack={}",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(maxDelayNanos), queue.remainingCapacity() + queue.size(), ackMode);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("Flushing {} remaining queued messages on shutdown.", remaining.size());
+            flush(remaining);
+        }
+    }
+
+    /**
+     * Queues a fully prepared message (id, chatId, status and sentAt already set) for persistence.
+     * If the buffer stays full for longer than {@code offer-timeout-ms}, the message is written
+     * synchronously on the calling thread instead, so backpressure never drops messages.
+     *
+     * @return A future completing with the message once it is acknowledged per the ack mode.
+     */
+    public CompletableFuture<ChatMessage> enqueue(ChatMessage chatMessage) {
+        PendingWrite pendingWrite = new PendingWrite(chatMessage, new CompletableFuture<>(), System.nanoTime());
+        boolean accepted;
+        try {
+            accepted = queue.offer(pendingWrite, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+
+        if (!accepted) {
+            overflowCounter.increment();
+            log.warn("Write-behind buffer full, writing message {} synchronously.", chatMessage.getId());
+            flush(List.of(pendingWrite));
+            return pendingWrite.future();
+        }
+        if (ackMode == WriteBehindAckMode.ON_ENQUEUE) {
+            return CompletableFuture.completedFuture(chatMessage);
+        }
+        return pendingWrite.future();
+    }
+
+    private void runFlushLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAtNanos() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Write-behind flusher interrupted.");
+                running = false;
+            } catch (Exception e) {
+                log.error("Unexpected error in write-behind flusher.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    void flush(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Integer, BulkWriteError> errorsByIndex = new HashMap<>();
+        Exception batchFailure = null;
+        long start = System.nanoTime();
+        try {
+            List<Document> documents = new ArrayList<>(batch.size());
+            for (PendingWrite pendingWrite : batch) {
+                Document document = new Document();
+                mongoTemplate.getConverter().write(pendingWrite.message(), document);
+                documents.add(document);
+            }
+            collection().insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            e.getWriteErrors().forEach(error -> errorsByIndex.put(error.getIndex(), error));
+            log.error("Write-behind batch of {} messages had {} failed writes.", batch.size(), errorsByIndex.size());
+        } catch (Exception e) {
+            batchFailure = e;
+            log.error("Write-behind batch of {} messages failed.", batch.size(), e);
+        }
+        long end = System.nanoTime();
+        flushTimer.record(end - start, TimeUnit.NANOSECONDS);
+        batchSizeSummary.record(batch.size());
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite pendingWrite = batch.get(i);
+            BulkWriteError error = errorsByIndex.get(i);
+            if (batchFailure == null && error == null) {
+                ackLatencyTimer.record(end - pendingWrite.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+                pendingWrite.future().complete(pendingWrite.message());
+                continue;
+            }
+            failedCounter.increment();
+            Exception cause = batchFailure != null
+                    ? batchFailure
+                    : new IllegalStateException("Failed to persist message " + pendingWrite.message().getId()
+                        + ": " + error.getMessage());
+            if (ackMode == WriteBehindAckMode.ON_ENQUEUE) {
+                log.error("Message {} was acknowledged on enqueue but could not be persisted.",
+                        pendingWrite.message().getId(), cause);
+            }
+            pendingWrite.future().completeExceptionally(cause);
+        }
+    }
+
+    private MongoCollection<Document> collection() {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(ChatMessage.class));
+        if (ackMode == WriteBehindAckMode.ON_JOURNAL) {
+            return collection.withWriteConcern(WriteConcern.MAJORITY.withJournal(true));
+        }
+        return collection;
+    }
+
+    record PendingWrite(ChatMessage message, CompletableFuture<ChatMessage> future, long enqueuedAtNanos) {
+    }
+}
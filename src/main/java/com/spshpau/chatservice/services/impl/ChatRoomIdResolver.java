@@ -0,0 +1,52 @@
+package com.spshpau.chatservice.services.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes chatIds without any I/O and remembers which rooms are known to be persisted,
+ * so that the common path of {@link ChatRoomServiceImpl} never touches MongoDB.
+ */
+@Component
+@Slf4j
+public class ChatRoomIdResolver {
+
+    private final Set<UUID> knownRooms = ConcurrentHashMap.newKeySet();
+    private final int maxKnownRooms;
+
+    public ChatRoomIdResolver(@Value("${chat.rooms.known-cache-size:100000}") int maxKnownRooms) {
+        this.maxKnownRooms = maxKnownRooms;
+    }
+
+    /**
+     * Derives the chatId shared by both users. The result does not depend on argument order.
+     */
+    public UUID resolve(UUID userId1, UUID userId2) {
+        String combinedString;
+        if (userId1.compareTo(userId2) < 0) {
+            combinedString = userId1 + "|" + userId2;
+        } else {
+            combinedString = userId2 + "|" + userId1;
+        }
+        return UUID.nameUUIDFromBytes(combinedString.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean isKnown(UUID chatId) {
+        return knownRooms.contains(chatId);
+    }
+
+    public void markKnown(UUID chatId) {
+        if (knownRooms.size() >= maxKnownRooms) {
+            // Losing entries only costs one extra existence check per room, so a coarse reset is enough.
+            log.debug("Known chat room set reached {} entries, clearing.", maxKnownRooms);
+            knownRooms.clear();
+        }
+        knownRooms.add(chatId);
+    }
+}
@@ -1,22 +1,45 @@
 package com.spshpau.chatservice.services.impl;
 
-import com.spshpau.chatservice.model.ChatRoom;
 import com.spshpau.chatservice.repositories.ChatRoomRepository;
 import com.spshpau.chatservice.services.ChatRoomService;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.UUID;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ChatRoomServiceImpl implements ChatRoomService {
 
     private final ChatRoomRepository chatRoomRepository;
+    private final ChatRoomIdResolver chatRoomIdResolver;
+
+    private final Timer cachedTimer;
+    private final Timer upsertedTimer;
+    private final Timer foundTimer;
+    private final Timer absentTimer;
+    private final Timer errorTimer;
+
+    public ChatRoomServiceImpl(ChatRoomRepository chatRoomRepository, ChatRoomIdResolver chatRoomIdResolver,
+                               MeterRegistry meterRegistry) {
+        this.chatRoomRepository = chatRoomRepository;
+        this.chatRoomIdResolver = chatRoomIdResolver;
+        this.cachedTimer = resolveTimer(meterRegistry, "cached");
+        this.upsertedTimer = resolveTimer(meterRegistry, "upserted");
+        this.foundTimer = resolveTimer(meterRegistry, "found");
+        this.absentTimer = resolveTimer(meterRegistry, "absent");
+        this.errorTimer = resolveTimer(meterRegistry, "error");
+    }
+
+    private static Timer resolveTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("chat.rooms.resolve")
+                .description("Chat room id resolution, by where the room was found")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
 
     @Override
     public Optional<UUID> getChatRoomId (
@@ -24,63 +47,38 @@ public class ChatRoomServiceImpl implements ChatRoomService {
             UUID recipientId,
             boolean createNewRoomIfNotExists
     ) {
-        log.info("Attempting to get ChatRoomId for senderId: {} and recipientId: {}. Create if not exists: {}",
+        log.debug("Attempting to get ChatRoomId for senderId: {} and recipientId: {}. Create if not exists: {}",
                 senderId, recipientId, createNewRoomIfNotExists);
 
-        Optional<ChatRoom> existingRoom = chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId);
+        Timer.Sample sample = Timer.start();
+        Timer timer = errorTimer;
+        try {
+            UUID chatId = chatRoomIdResolver.resolve(senderId, recipientId);
+            if (chatRoomIdResolver.isKnown(chatId)) {
+                timer = cachedTimer;
+                return Optional.of(chatId);
+            }
 
-        if (existingRoom.isPresent()) {
-            UUID chatId = existingRoom.get().getChatId();
-            log.debug("Found existing ChatRoom with chatId: {} for senderId: {} and recipientId: {}",
-                    chatId, senderId, recipientId);
-            return Optional.of(chatId);
-        } else {
-            log.debug("No existing ChatRoom found for senderId: {} and recipientId: {}.", senderId, recipientId);
             if (createNewRoomIfNotExists) {
-                log.info("createNewRoomIfNotExists is true. Proceeding to create new chat room entries.");
-                var chatId = createChatRoomEntries(senderId, recipientId);
+                chatRoomRepository.upsertRoom(chatId, senderId, recipientId);
+                chatRoomIdResolver.markKnown(chatId);
+                log.info("Ensured ChatRoom with chatId: {} for senderId: {} and recipientId: {}", chatId, senderId, recipientId);
+                timer = upsertedTimer;
                 return Optional.of(chatId);
             }
-            log.info("createNewRoomIfNotExists is false. Returning empty Optional for ChatRoomId.");
-            return Optional.empty();
-        }
-    }
 
-    private UUID createChatRoomEntries(UUID senderId, UUID recipientId) {
-        log.debug("Creating chat room entries for senderId: {} and recipientId: {}", senderId, recipientId);
-        String combinedString;
-        if (senderId.compareTo(recipientId) < 0) {
-            combinedString = senderId.toString() + "|" + recipientId.toString();
-        } else {
-            combinedString = recipientId.toString() + "|" + senderId.toString();
+            if (chatRoomRepository.existsById(chatId)) {
+                chatRoomIdResolver.markKnown(chatId);
+                log.debug("Found existing ChatRoom with chatId: {} for senderId: {} and recipientId: {}",
+                        chatId, senderId, recipientId);
+                timer = foundTimer;
+                return Optional.of(chatId);
+            }
+            log.debug("No existing ChatRoom found for senderId: {} and recipientId: {}.", senderId, recipientId);
+            timer = absentTimer;
+            return Optional.empty();
+        } finally {
+            sample.stop(timer);
         }
-        byte[] bytes = combinedString.getBytes(StandardCharsets.UTF_8);
-        UUID chatId = UUID.nameUUIDFromBytes(bytes);
-        log.debug("Generated deterministic chatId: {} from combined string: {}", chatId, combinedString);
-
-        UUID senderRecipientDocId = UUID.randomUUID();
-        ChatRoom senderRecipient = ChatRoom.builder()
-                .id(senderRecipientDocId)
-                .chatId(chatId)
-                .senderId(senderId)
-                .recipientId(recipientId)
-                .build();
-
-        UUID recipientSenderDocId = UUID.randomUUID();
-        ChatRoom recipientSender = ChatRoom.builder()
-                .id(recipientSenderDocId)
-                .chatId(chatId)
-                .senderId(recipientId)
-                .recipientId(senderId)
-                .build();
-
-        chatRoomRepository.save(senderRecipient);
-        log.info("Saved ChatRoom entry: Id={}, ChatId={}, SenderId={}, RecipientId={}",
-                senderRecipientDocId, chatId, senderId, recipientId);
-        chatRoomRepository.save(recipientSender);
-        log.info("Saved ChatRoom entry: Id={}, ChatId={}, SenderId={}, RecipientId={}",
-                recipientSenderDocId, chatId, recipientId, senderId);
-
-        return chatId;
     }
 }
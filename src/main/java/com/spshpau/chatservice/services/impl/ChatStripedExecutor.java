@@ -0,0 +1,233 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.config.VirtualThreads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs the work of a chat in submission order while different chats run in parallel. Chats are hashed onto
+ * {@code count} stripes, each a bounded queue drained by at most one worker at a time, so two messages sent
+ * quickly into the same chat are persisted and delivered in the order they were received. A worker hands its
+ * stripe back after {@code drain-batch} tasks, so a chat with heavy traffic only holds one worker and yields
+ * it to the other stripes regularly.
+ * <p>
+ * A task that only starts asynchronous work, such as a message queued for write-behind persistence, is
+ * submitted with {@link #executeAsync}: its stripe stays held until the returned stage completes, so the next
+ * task of the chat, e.g. a read receipt, only runs once the message is persisted.
+ * <p>
+ * If a stripe stays full for longer than {@code offer-timeout-ms}, the task runs on the calling thread, so
+ * backpressure never drops messages; such a task may overtake the ones still queued on its stripe.
+ */
+@Component
+@Slf4j
+public class ChatStripedExecutor {
+
+    private final Stripe[] stripes;
+    private final int drainBatch;
+    private final long offerTimeoutMillis;
+    private final ExecutorService workers;
+
+    private final Timer waitTimer;
+    private final Counter overflowCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public ChatStripedExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${chat.stripes.count:64}") int stripeCount,
+            @Value("${chat.stripes.threads:0}") int threads,
+            @Value("${chat.stripes.queue-capacity:1000}") int queueCapacity,
+            @Value("${chat.stripes.drain-batch:32}") int drainBatch,
+            @Value("${chat.stripes.offer-timeout-ms:1000}") long offerTimeoutMillis,
+            @Value("${" + VirtualThreads.PROPERTY + ":false}") boolean virtualThreads
+    ) {
+        this(meterRegistry, stripeCount, queueCapacity, drainBatch, offerTimeoutMillis,
+                virtualThreads
+                        ? VirtualThreads.perTaskExecutor("chat-stripe-")
+                        : Executors.newFixedThreadPool(
+                                threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors(), runnable -> {
+                                    Thread thread = new Thread(runnable, "chat-stripe");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }));
+    }
+
+    ChatStripedExecutor(MeterRegistry meterRegistry, int stripeCount, int queueCapacity, int drainBatch,
+                        long offerTimeoutMillis, ExecutorService workers) {
+        this.drainBatch = Math.max(1, drainBatch);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.workers = workers;
+
+        this.waitTimer = Timer.builder("chat.stripes.wait")
+                .description("Time tasks waited in their stripe queue")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("chat.stripes.overflow")
+                .description("Tasks run on the calling thread because their stripe was full")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.stripes.failed")
+                .description("Tasks that threw an exception")
+                .register(meterRegistry);
+
+        this.stripes = new Stripe[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i, queueCapacity, meterRegistry);
+        }
+    }
+
+    /**
+     * Queues a task on the stripe of the chat. Tasks without a chat share one stripe.
+     */
+    public void execute(UUID chatId, Runnable task) {
+        executeAsync(chatId, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues a task on the stripe of the chat that holds the stripe until the stage it returns completes. The
+     * stage must complete eventually, successfully or not, or the stripe stays blocked.
+     *
+     * @param task Starts the work; returns the stage that completes when it is done, or null if it is done.
+     */
+    public void executeAsync(UUID chatId, Supplier<? extends CompletionStage<?>> task) {
+        Stripe stripe = stripeOf(chatId);
+        QueuedTask queuedTask = new QueuedTask(task, System.nanoTime());
+        boolean accepted;
+        try {
+            accepted = stripe.queue.offer(queuedTask, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+
+        if (!accepted) {
+            overflowCounter.increment();
+            log.warn("Stripe {} full, running task for chat {} on the calling thread.", stripe.index, chatId);
+            stripe.run(queuedTask);
+            return;
+        }
+        stripe.schedule();
+    }
+
+    int stripeIndex(UUID chatId) {
+        int hash = Objects.hashCode(chatId);
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    private Stripe stripeOf(UUID chatId) {
+        return stripes[stripeIndex(chatId)];
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Stripe workers did not finish within 10s, interrupting.");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private final class Stripe implements Runnable {
+        private final int index;
+        private final BlockingQueue<QueuedTask> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Counter taskCounter;
+
+        Stripe(int index, int capacity, MeterRegistry meterRegistry) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+            this.taskCounter = Counter.builder("chat.stripes.tasks")
+                    .description("Tasks run on the stripe")
+                    .tag("stripe", Integer.toString(index))
+                    .register(meterRegistry);
+            Gauge.builder("chat.stripes.queue.depth", queue, BlockingQueue::size)
+                    .description("Tasks waiting on the stripe")
+                    .tag("stripe", Integer.toString(index))
+                    .register(meterRegistry);
+        }
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.warn("Stripe workers stopped, running {} tasks of stripe {} on the calling thread.",
+                        queue.size(), index);
+                QueuedTask task;
+                while ((task = queue.poll()) != null) {
+                    run(task);
+                }
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            CompletionStage<?> pending = null;
+            try {
+                for (int i = 0; i < drainBatch && pending == null; i++) {
+                    QueuedTask task = queue.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    pending = run(task);
+                }
+            } finally {
+                if (pending != null) {
+                    // The stripe stays scheduled, so nothing else of it runs before the pending work completes.
+                    pending.whenComplete((result, e) -> release());
+                } else {
+                    release();
+                }
+            }
+        }
+
+        private void release() {
+            // Tasks queued after the last poll saw the stripe still scheduled, so pick them up here.
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * @return The stage the task's work is still pending on, or null if it is done.
+         */
+        CompletionStage<?> run(QueuedTask task) {
+            waitTimer.record(System.nanoTime() - task.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+            taskCounter.increment();
+            try {
+                CompletionStage<?> stage = task.task().get();
+                return stage == null || stage.toCompletableFuture().isDone() ? null : stage;
+            } catch (RuntimeException e) {
+                failedCounter.increment();
+                log.error("Task on stripe {} failed.", index, e);
+                return null;
+            }
+        }
+    }
+
+    private record QueuedTask(Supplier<? extends CompletionStage<?>> task, long enqueuedAtNanos) {
+    }
+}
@@ -0,0 +1,195 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.config.VirtualThreads;
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import com.spshpau.chatservice.model.ChatSummaryResult;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.services.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+@Service
+@Slf4j
+public class ChatSummaryServiceImpl implements ChatSummaryService {
+
+    static final String STAGE_DELIVERED = "delivered";
+    static final String STAGE_CONNECTIONS = "connections";
+    static final String STAGE_INBOX = "inbox";
+    static final String STAGE_ASSEMBLE = "assemble";
+
+    private final ChatMessageService chatMessageService;
+    private final MessageStatusNotifier messageStatusNotifier;
+    private final UserService userService;
+    private final InboxService inboxService;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    private final long deliveredTimeoutMillis;
+    private final long connectionsTimeoutMillis;
+    private final long inboxTimeoutMillis;
+
+    @Autowired
+    public ChatSummaryServiceImpl(
+            ChatMessageService chatMessageService,
+            MessageStatusNotifier messageStatusNotifier,
+            UserService userService,
+            InboxService inboxService,
+            MeterRegistry meterRegistry,
+            @Value("${chat.summary.threads:16}") int threads,
+            @Value("${chat.summary.queue-capacity:256}") int queueCapacity,
+            @Value("${chat.summary.timeout.delivered-ms:2000}") long deliveredTimeoutMillis,
+            @Value("${chat.summary.timeout.connections-ms:3000}") long connectionsTimeoutMillis,
+            @Value("${chat.summary.timeout.inbox-ms:2000}") long inboxTimeoutMillis,
+            @Value("${" + VirtualThreads.PROPERTY + ":false}") boolean virtualThreads
+    ) {
+        this(chatMessageService, messageStatusNotifier, userService, inboxService, meterRegistry,
+                virtualThreads
+                        ? VirtualThreads.perTaskExecutor("chat-summary-")
+                        : new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                new ArrayBlockingQueue<>(queueCapacity),
+                                runnable -> {
+                                    Thread thread = new Thread(runnable, "chat-summary");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                },
+                                new ThreadPoolExecutor.CallerRunsPolicy()),
+                deliveredTimeoutMillis, connectionsTimeoutMillis, inboxTimeoutMillis);
+    }
+
+    ChatSummaryServiceImpl(ChatMessageService chatMessageService, MessageStatusNotifier messageStatusNotifier,
+                           UserService userService, InboxService inboxService, MeterRegistry meterRegistry,
+                           ExecutorService executor, long deliveredTimeoutMillis, long connectionsTimeoutMillis,
+                           long inboxTimeoutMillis) {
+        this.chatMessageService = chatMessageService;
+        this.messageStatusNotifier = messageStatusNotifier;
+        this.userService = userService;
+        this.inboxService = inboxService;
+        this.meterRegistry = meterRegistry;
+        this.executor = executor;
+        this.deliveredTimeoutMillis = deliveredTimeoutMillis;
+        this.connectionsTimeoutMillis = connectionsTimeoutMillis;
+        this.inboxTimeoutMillis = inboxTimeoutMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public ChatSummaryResult assembleSummaries(Jwt jwt, UUID userId, int page, int size) {
+        long started = System.nanoTime();
+        log.info("Assembling chat summaries for user {}", userId);
+
+        Stage<List<User>> connections = submit(STAGE_CONNECTIONS, connectionsTimeoutMillis, () -> userService.findMyChats(jwt));
+        Stage<List<InboxEntry>> inbox = submit(STAGE_INBOX, inboxTimeoutMillis, () -> inboxService.findInboxPage(userId, page, size));
+        Stage<Integer> delivered = submit(STAGE_DELIVERED, deliveredTimeoutMillis, () -> {
+            List<MessageStatusChange> newlyDelivered = chatMessageService.markSentMessagesToUserAsDelivered(userId);
+            return messageStatusNotifier.notifySenders(newlyDelivered, userId);
+        });
+
+        Map<String, Duration> durations = new LinkedHashMap<>();
+        List<String> degraded = new ArrayList<>();
+        List<User> connectionUsers = await(connections, List.of(), durations, degraded);
+        List<InboxEntry> entries = await(inbox, List.of(), durations, degraded);
+        await(delivered, 0, durations, degraded);
+
+        long assembleStarted = System.nanoTime();
+        List<ChatSummaryDto> summaries = inboxService.toChatSummaries(
+                userId, entries, connectionUsers != null ? connectionUsers : List.of(), page, size);
+        long assembleNanos = System.nanoTime() - assembleStarted;
+        durations.put(STAGE_ASSEMBLE, Duration.ofNanos(assembleNanos));
+        recordStage(STAGE_ASSEMBLE, "success", assembleNanos);
+
+        long totalNanos = System.nanoTime() - started;
+        Timer.builder("chat.summary.assembly")
+                .description("Total duration of chat summary assembly")
+                .tag("partial", String.valueOf(!degraded.isEmpty()))
+                .register(meterRegistry)
+                .record(totalNanos, TimeUnit.NANOSECONDS);
+        if (degraded.isEmpty()) {
+            log.info("Assembled {} chat summaries for user {} in {} ms: {}", summaries.size(), userId,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), durations);
+        } else {
+            log.warn("Assembled {} partial chat summaries for user {} in {} ms, degraded stages {}: {}",
+                    summaries.size(), userId, TimeUnit.NANOSECONDS.toMillis(totalNanos), degraded, durations);
+        }
+        return ChatSummaryResult.builder()
+                .summaries(summaries)
+                .stageDurations(durations)
+                .degradedStages(degraded)
+                .build();
+    }
+
+    private <T> Stage<T> submit(String name, long timeoutMillis, Supplier<T> work) {
+        long submittedAt = System.nanoTime();
+        CompletableFuture<Outcome<T>> future = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return new Outcome<>(work.get(), null, System.nanoTime() - start);
+            } catch (Throwable e) {
+                return new Outcome<>(null, e, System.nanoTime() - start);
+            }
+        }, executor);
+        return new Stage<>(name, future, submittedAt, timeoutMillis);
+    }
+
+    /**
+     * Waits for the stage until its deadline, counted from submission, and records its duration. Queueing
+     * time is included on timeout but not on completion, so a saturated executor shows up as timeouts
+     * rather than as slow dependencies.
+     */
+    private <T> T await(Stage<T> stage, T fallback, Map<String, Duration> durations, List<String> degraded) {
+        long deadline = stage.submittedAt() + TimeUnit.MILLISECONDS.toNanos(stage.timeoutMillis());
+        try {
+            Outcome<T> outcome = stage.future().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            durations.put(stage.name(), Duration.ofNanos(outcome.nanos()));
+            if (outcome.error() == null) {
+                recordStage(stage.name(), "success", outcome.nanos());
+                return outcome.value();
+            }
+            recordStage(stage.name(), "error", outcome.nanos());
+            log.error("Chat summary stage '{}' failed, continuing without it.", stage.name(), outcome.error());
+        } catch (TimeoutException e) {
+            long elapsed = System.nanoTime() - stage.submittedAt();
+            durations.put(stage.name(), Duration.ofNanos(elapsed));
+            recordStage(stage.name(), "timeout", elapsed);
+            log.warn("Chat summary stage '{}' timed out after {} ms, continuing without it.", stage.name(), stage.timeoutMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for chat summary stage '{}'.", stage.name());
+        } catch (ExecutionException e) {
+            log.error("Chat summary stage '{}' failed, continuing without it.", stage.name(), e.getCause());
+        }
+        degraded.add(stage.name());
+        return fallback;
+    }
+
+    private void recordStage(String stage, String outcome, long nanos) {
+        Timer.builder("chat.summary.stage")
+                .description("Duration of the stages of chat summary assembly")
+                .tag("stage", stage)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private record Stage<T>(String name, CompletableFuture<Outcome<T>> future, long submittedAt, long timeoutMillis) {
+    }
+
+    private record Outcome<T>(T value, Throwable error, long nanos) {
+    }
+}
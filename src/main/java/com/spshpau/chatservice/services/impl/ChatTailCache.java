@@ -0,0 +1,367 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * The latest {@code messages-per-chat} messages of recently read chats, so reloading a chat's latest history
+ * does not read the chat from the database each time. A tail is loaded on the first read of a chat's latest
+ * messages and then kept current by write-through: saved messages are appended and status changes applied
+ * to the cached copies. Pages that reach past the oldest cached message of a longer chat are read from the
+ * repository.
+ * <p>
+ * The cache is bounded by the estimated size of the cached messages, {@code max-bytes}, and evicts the least
+ * recently used chats first. Writes that arrive while a tail is loading mark it stale, and a stale tail is
+ * answered from once and then dropped rather than cached. Like presence, the cache is local to this
+ * instance; writes made through other instances only reach it through the {@link ClusterFanout}, when a
+ * cluster transport is configured.
+ */
+@Component
+@Slf4j
+public class ChatTailCache {
+
+    /**
+     * Estimated size of a cached message besides its content: the object, its UUIDs, instants and the list
+     * slot.
+     */
+    static final int MESSAGE_OVERHEAD_BYTES = 240;
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final boolean enabled;
+    private final int messagesPerChat;
+    private final long maxBytes;
+
+    private final Map<UUID, Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final Counter hitCounter;
+    private final Counter loadCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    @Autowired
+    public ChatTailCache(
+            ChatMessageRepository chatMessageRepository,
+            MeterRegistry meterRegistry,
+            @Value("${chat.messages.tail-cache.enabled:true}") boolean enabled,
+            @Value("${chat.messages.tail-cache.messages-per-chat:500}") int messagesPerChat,
+            @Value("${chat.messages.tail-cache.max-bytes:67108864}") long maxBytes
+    ) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.enabled = enabled;
+        this.messagesPerChat = Math.max(1, messagesPerChat);
+        this.maxBytes = maxBytes;
+
+        this.hitCounter = requestCounter(meterRegistry, "hit");
+        this.loadCounter = requestCounter(meterRegistry, "load");
+        this.missCounter = requestCounter(meterRegistry, "miss");
+        this.evictionCounter = Counter.builder("chat.messages.tail.evictions")
+                .description("Chats evicted because the cached messages exceeded the size limit")
+                .register(meterRegistry);
+        Gauge.builder("chat.messages.tail.bytes", this, ChatTailCache::getBytes)
+                .description("Estimated size of the cached messages")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.messages.tail.chats", this, ChatTailCache::size)
+                .description("Chats with a cached tail")
+                .register(meterRegistry);
+        Gauge.builder("chat.messages.tail.hit.ratio", this, ChatTailCache::getHitRatio)
+                .description("Share of history reads answered from a tail that was already cached")
+                .register(meterRegistry);
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.messages.tail.requests")
+                .description("History reads by cache result: hit, load (tail loaded and cached) or miss")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads a page of a chat's history from the cached tail. A read of the latest messages of an uncached chat
+     * loads its tail first.
+     *
+     * @param cursor    Position to page from, exclusive, or null to start at the newest (OLDER) or oldest
+     *                  (NEWER) message.
+     * @param direction OLDER for newest first, NEWER for oldest first.
+     * @return The page, or empty if it is not fully covered by the tail and must be read from the repository.
+     */
+    public Optional<List<ChatMessage>> page(UUID chatId, HistoryCursor cursor, HistoryDirection direction, int limit) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        boolean latest = cursor == null && direction == HistoryDirection.OLDER;
+        Tail tail;
+        List<ChatMessage> cached = null;
+        boolean loading = false;
+        synchronized (tails) {
+            tail = tails.get(chatId);
+            if (tail == null && latest) {
+                tail = new Tail();
+                tails.put(chatId, tail);
+                loading = true;
+            } else if (tail != null && tail.loaded) {
+                cached = tail.page(cursor, direction, limit);
+            }
+        }
+        if (cached != null) {
+            hitCounter.increment();
+            return Optional.of(copies(cached));
+        }
+        if (!loading) {
+            missCounter.increment();
+            return Optional.empty();
+        }
+
+        List<ChatMessage> newestFirst;
+        try {
+            newestFirst = chatMessageRepository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(messagesPerChat));
+        } catch (RuntimeException e) {
+            synchronized (tails) {
+                tails.remove(chatId, tail);
+            }
+            throw e;
+        }
+        loadCounter.increment();
+        Tail loaded = new Tail();
+        loaded.fill(newestFirst, messagesPerChat);
+        List<ChatMessage> page = loaded.page(null, HistoryDirection.OLDER, limit);
+        synchronized (tails) {
+            if (tail.stale || tails.get(chatId) != tail) {
+                log.debug("Tail of chat {} changed while it was loaded, not caching it.", chatId);
+                tails.remove(chatId, tail);
+            } else {
+                tails.put(chatId, loaded);
+                bytes += loaded.bytes;
+                evict();
+            }
+        }
+        return Optional.ofNullable(page).map(ChatTailCache::copies);
+    }
+
+    /**
+     * Adds a saved message to the tail of its chat, if cached.
+     */
+    public void append(ChatMessage message) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (tails) {
+            Tail tail = tails.get(message.getChatId());
+            if (tail == null) {
+                return;
+            }
+            if (!tail.loaded) {
+                tail.stale = true;
+                return;
+            }
+            long before = tail.bytes;
+            tail.put(copy(message), messagesPerChat);
+            bytes += tail.bytes - before;
+            evict();
+        }
+    }
+
+    /**
+     * Applies status transitions to the cached copies of the changed messages. A change never moves a cached
+     * message back to an earlier status, so transitions applied out of order keep the latest state.
+     */
+    public void applyStatusChanges(List<MessageStatusChange> changes) {
+        if (!enabled || changes.isEmpty()) {
+            return;
+        }
+        synchronized (tails) {
+            for (MessageStatusChange change : changes) {
+                Tail tail = tails.get(change.getChatId());
+                if (tail == null) {
+                    continue;
+                }
+                if (!tail.loaded) {
+                    tail.stale = true;
+                    continue;
+                }
+                tail.apply(change);
+            }
+        }
+    }
+
+    public void invalidate(UUID chatId) {
+        synchronized (tails) {
+            Tail tail = tails.remove(chatId);
+            if (tail != null) {
+                bytes -= tail.bytes;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached chats of a user, and the cached empty chats, whose participants are not known.
+     */
+    public void invalidateUser(UUID userId) {
+        synchronized (tails) {
+            Iterator<Tail> iterator = tails.values().iterator();
+            while (iterator.hasNext()) {
+                Tail tail = iterator.next();
+                ChatMessage any = tail.messages.isEmpty() ? null : tail.messages.get(0);
+                if (any == null || userId.equals(any.getSenderId()) || userId.equals(any.getRecipientId())) {
+                    iterator.remove();
+                    bytes -= tail.bytes;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (tails) {
+            return tails.size();
+        }
+    }
+
+    public long getBytes() {
+        synchronized (tails) {
+            return bytes;
+        }
+    }
+
+    public double getHitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + loadCounter.count() + missCounter.count();
+        return total > 0 ? hits / total : 0;
+    }
+
+    private void evict() {
+        Iterator<Tail> eldest = tails.values().iterator();
+        // The most recently used tail is kept even if it alone exceeds the limit.
+        while (bytes > maxBytes && tails.size() > 1 && eldest.hasNext()) {
+            Tail tail = eldest.next();
+            eldest.remove();
+            bytes -= tail.bytes;
+            evictionCounter.increment();
+        }
+    }
+
+    static long estimateBytes(ChatMessage message) {
+        return MESSAGE_OVERHEAD_BYTES + (message.getContent() != null ? 2L * message.getContent().length() : 0);
+    }
+
+    private static List<ChatMessage> copies(List<ChatMessage> messages) {
+        List<ChatMessage> copies = new ArrayList<>(messages.size());
+        messages.forEach(message -> copies.add(copy(message)));
+        return copies;
+    }
+
+    /**
+     * Copies at the precision of the stored messages, so cursors and status changes find cached messages.
+     */
+    private static ChatMessage copy(ChatMessage message) {
+        return new ChatMessage(message.getId(), message.getChatId(), message.getSenderId(), message.getRecipientId(),
+                message.getContent(), message.getStatus(), HistoryCursor.truncate(message.getSentAt()),
+                HistoryCursor.truncate(message.getDeliveredAt()), HistoryCursor.truncate(message.getReadAt()),
+                HistoryCursor.truncate(message.getUpdatedAt()));
+    }
+
+    /**
+     * The latest messages of one chat, oldest first. {@code complete} when they are all of the chat's messages.
+     * Guarded by the cache's monitor.
+     */
+    private static final class Tail {
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private boolean loaded;
+        private boolean complete;
+        private boolean stale;
+        private long bytes;
+
+        void fill(List<ChatMessage> newestFirst, int capacity) {
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                ChatMessage message = copy(newestFirst.get(i));
+                messages.add(message);
+                bytes += estimateBytes(message);
+            }
+            complete = newestFirst.size() < capacity;
+            loaded = true;
+        }
+
+        void put(ChatMessage message, int capacity) {
+            int index = Collections.binarySearch(messages, message, HistoryCursor.MESSAGE_ORDER);
+            if (index >= 0) {
+                bytes += estimateBytes(message) - estimateBytes(messages.set(index, message));
+                return;
+            }
+            int insertAt = -index - 1;
+            if (insertAt == 0 && !complete && !messages.isEmpty()) {
+                // Older than the oldest cached message: there may be uncached messages in between.
+                return;
+            }
+            messages.add(insertAt, message);
+            bytes += estimateBytes(message);
+            if (messages.size() > capacity) {
+                bytes -= estimateBytes(messages.remove(0));
+                complete = false;
+            }
+        }
+
+        void apply(MessageStatusChange change) {
+            ChatMessage position = new HistoryCursor(HistoryCursor.truncate(change.getSentAt()), change.getId()).toPosition();
+            int index = Collections.binarySearch(messages, position, HistoryCursor.MESSAGE_ORDER);
+            if (index < 0) {
+                return;
+            }
+            ChatMessage cached = messages.get(index);
+            if (cached.getStatus() != null && change.getStatus().compareTo(cached.getStatus()) < 0) {
+                return;
+            }
+            // Replaced rather than changed in place, so pages handed out under the monitor can be copied outside it.
+            ChatMessage updated = copy(cached);
+            updated.setStatus(change.getStatus());
+            updated.setDeliveredAt(HistoryCursor.truncate(change.getDeliveredAt()));
+            updated.setReadAt(HistoryCursor.truncate(change.getReadAt()));
+            updated.setUpdatedAt(HistoryCursor.truncate(change.getUpdatedAt()));
+            messages.set(index, updated);
+        }
+
+        /**
+         * @return The page, or null if it reaches past the oldest cached message of a longer chat.
+         */
+        List<ChatMessage> page(HistoryCursor cursor, HistoryDirection direction, int limit) {
+            if (direction == HistoryDirection.OLDER) {
+                int end = cursor == null ? messages.size() : lowerBound(cursor.toPosition());
+                if (end < limit && !complete) {
+                    return null;
+                }
+                List<ChatMessage> page = new ArrayList<>(messages.subList(Math.max(0, end - limit), end));
+                Collections.reverse(page);
+                return page;
+            }
+            boolean covered = complete || (cursor != null && !messages.isEmpty()
+                    && HistoryCursor.MESSAGE_ORDER.compare(messages.get(0), cursor.toPosition()) <= 0);
+            if (!covered) {
+                return null;
+            }
+            int start = cursor == null ? 0 : upperBound(cursor.toPosition());
+            return new ArrayList<>(messages.subList(start, Math.min(messages.size(), start + limit)));
+        }
+
+        private int lowerBound(ChatMessage position) {
+            int index = Collections.binarySearch(messages, position, HistoryCursor.MESSAGE_ORDER);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        private int upperBound(ChatMessage position) {
+            int index = Collections.binarySearch(messages, position, HistoryCursor.MESSAGE_ORDER);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+}
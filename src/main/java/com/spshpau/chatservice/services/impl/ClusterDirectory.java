@@ -0,0 +1,212 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ClusterMember;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.services.ClusterTransport;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Which node holds the WebSocket sessions of each user, so the {@link ClusterFanout} can route a change to the
+ * nodes of its user instead of to every node. Every {@code heartbeat-ms} each node announces the users of its
+ * {@link PresenceRegistry} through the {@link ClusterTransport} and reads the announcements of the others;
+ * a node not heard from within {@code member-timeout-ms} is dropped. A user coming online or going offline is
+ * announced after {@code announce-delay-ms}, coalescing a burst of connects into one announcement.
+ * <p>
+ * The live nodes also form a {@link ConsistentHashRing} that gives each user a placement node, which a load
+ * balancer can pin the user's connections to. A user's changes go to the nodes the user is announced on, or
+ * to the placement node if there are none yet, which covers a user who just connected there.
+ * <p>
+ * With routing a node only sees the changes of the chats of its own users, so the {@link ChatTailCache} is
+ * only kept current for them: other chats are not served from it, the cached chats of a user are dropped
+ * when the user comes online on or leaves this node, and REST reads should reach the node the user's
+ * sessions are on, which pinning by placement gives.
+ * Enabled by {@code chat.cluster.routing.enabled} with a cluster transport configured.
+ */
+@Component
+@Slf4j
+public class ClusterDirectory {
+
+    private final ClusterTransport transport;
+    private final PresenceRegistry presenceRegistry;
+    private final ChatTailCache tailCache;
+    private final String nodeId;
+    private final boolean enabled;
+    private final long memberTimeoutMillis;
+    private final long announceDelayMillis;
+    private final int virtualNodes;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicBoolean announcePending = new AtomicBoolean();
+    private volatile Map<UUID, Set<String>> owners = Map.of();
+    private volatile ConsistentHashRing ring;
+    private volatile boolean membershipKnown;
+
+    @Autowired
+    public ClusterDirectory(
+            Optional<ClusterTransport> transport,
+            PresenceRegistry presenceRegistry,
+            ChatTailCache tailCache,
+            MeterRegistry meterRegistry,
+            @Value("${chat.cluster.node-id:${HOSTNAME:chatservice}}") String nodeId,
+            @Value("${chat.cluster.routing.enabled:false}") boolean routing,
+            @Value("${chat.cluster.routing.heartbeat-ms:1000}") long heartbeatMillis,
+            @Value("${chat.cluster.routing.member-timeout-ms:5000}") long memberTimeoutMillis,
+            @Value("${chat.cluster.routing.announce-delay-ms:100}") long announceDelayMillis,
+            @Value("${chat.cluster.routing.virtual-nodes:128}") int virtualNodes
+    ) {
+        this(transport.orElse(null), presenceRegistry, tailCache, meterRegistry, nodeId, routing, memberTimeoutMillis,
+                announceDelayMillis, virtualNodes, Clock.systemUTC(),
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chat-cluster-directory");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::heartbeatQuietly, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+            log.info("Routing cluster changes by user as node {}.", nodeId);
+        }
+    }
+
+    ClusterDirectory(ClusterTransport transport, PresenceRegistry presenceRegistry, ChatTailCache tailCache,
+                     MeterRegistry meterRegistry, String nodeId, boolean routing, long memberTimeoutMillis,
+                     long announceDelayMillis, int virtualNodes, Clock clock, ScheduledExecutorService scheduler) {
+        this.transport = transport;
+        this.presenceRegistry = presenceRegistry;
+        this.tailCache = tailCache;
+        this.nodeId = nodeId;
+        this.enabled = routing && transport != null;
+        this.memberTimeoutMillis = memberTimeoutMillis;
+        this.announceDelayMillis = announceDelayMillis;
+        this.virtualNodes = virtualNodes;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.ring = new ConsistentHashRing(List.of(nodeId), virtualNodes);
+
+        Gauge.builder("chat.cluster.members", this, directory -> directory.ring.getNodeIds().size())
+                .description("Live cluster nodes known to this node, itself included")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isRouting() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Set<String> getMemberIds() {
+        return ring.getNodeIds();
+    }
+
+    /**
+     * @return True once a heartbeat has read the other members, so {@link #getMemberIds()} is no longer just
+     * this node.
+     */
+    public boolean isMembershipKnown() {
+        return membershipKnown;
+    }
+
+    /**
+     * @return The nodes other than this one the user was last announced on.
+     */
+    public Set<String> ownersOf(UUID userId) {
+        return owners.getOrDefault(userId, Set.of());
+    }
+
+    /**
+     * @return The node the user's connections should be pinned to.
+     */
+    public String placementOf(UUID userId) {
+        return ring.nodeFor(userId);
+    }
+
+    /**
+     * @return The nodes other than this one a change of the user has to reach: those the user is announced on,
+     * else the user's placement node.
+     */
+    public Set<String> routeTo(UUID userId) {
+        Set<String> userOwners = ownersOf(userId);
+        if (!userOwners.isEmpty()) {
+            return userOwners;
+        }
+        String placement = placementOf(userId);
+        return placement == null || placement.equals(nodeId) ? Set.of() : Set.of(placement);
+    }
+
+    @EventListener
+    public void onPresenceChange(PresenceChange change) {
+        if (!enabled) {
+            return;
+        }
+        // Changes of the user's chats only reached this node while the user was on it.
+        tailCache.invalidateUser(change.getUserId());
+        if (announcePending.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                announcePending.set(false);
+                heartbeatQuietly();
+            }, announceDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Announces this node's users and refreshes the other members from their last announcements.
+     */
+    void heartbeat() {
+        Instant now = clock.instant();
+        transport.announce(new ClusterMember(nodeId, presenceRegistry.getOnlineUserIds(), now));
+
+        Instant cutoff = now.minusMillis(memberTimeoutMillis);
+        Set<String> live = new TreeSet<>();
+        live.add(nodeId);
+        Map<UUID, Set<String>> byUser = new HashMap<>();
+        for (ClusterMember member : transport.members()) {
+            if (member.getNodeId().equals(nodeId) || member.getHeartbeatAt() == null
+                    || member.getHeartbeatAt().isBefore(cutoff)) {
+                continue;
+            }
+            live.add(member.getNodeId());
+            if (member.getUsers() != null) {
+                for (UUID userId : member.getUsers()) {
+                    byUser.computeIfAbsent(userId, id -> new HashSet<>(2)).add(member.getNodeId());
+                }
+            }
+        }
+        owners = byUser;
+        if (!live.equals(ring.getNodeIds())) {
+            ring = new ConsistentHashRing(live, virtualNodes);
+            log.info("Cluster members changed: {}", live);
+        }
+        membershipKnown = true;
+    }
+
+    private void heartbeatQuietly() {
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            log.error("Cluster heartbeat of node {} failed.", nodeId, e);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.ChatNotification;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.ClusterChange;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.services.ClusterTransport;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Notifies the users connected to this node about message changes made on other nodes. The STOMP broker is
+ * local to each node, so the node a message is sent or read on can only notify its own sessions; every other
+ * node learns about the change from the {@link ClusterTransport} and delivers it to the sessions it holds:
+ * new messages to their recipients, status changes to the senders. Changes of users without a session on
+ * this node are skipped. Remote changes are also applied to the {@link ChatTailCache}.
+ * <p>
+ * The node making a change remembers it, and every node remembers the changes it delivered, in a bounded set
+ * of {@link ClusterChange#dedupKey()}s, so a change coming back from the transport or passed again after a
+ * resume is delivered once. Without {@code chat.cluster.transport} this does nothing.
+ * <p>
+ * When the {@link ClusterDirectory} routes, a change is only published to the nodes of its sender and its
+ * recipient. That reaches the node of the user it is delivered to (the recipient of a new message, the sender
+ * of a status change) and every node that may cache the chat's tail. A node only receives the changes of a
+ * chat while a participant is connected to it, so it only serves the chat from its tail cache then, see
+ * {@link #receivesChangesOf}.
+ */
+@Component
+@Slf4j
+public class ClusterFanout {
+
+    private final ClusterTransport transport;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageStatusNotifier messageStatusNotifier;
+    private final PresenceRegistry presenceRegistry;
+    private final ChatTailCache tailCache;
+    private final ClusterDirectory directory;
+    private final int dedupCapacity;
+
+    private final Map<String, Boolean> seen;
+
+    private final Counter publishedCounter;
+    private final Counter deliveredCounter;
+    private final Counter duplicateCounter;
+    private final Counter skippedCounter;
+    private final Timer lagTimer;
+    private final DistributionSummary targetsSummary;
+
+    public ClusterFanout(
+            Optional<ClusterTransport> transport,
+            SimpMessagingTemplate messagingTemplate,
+            MessageStatusNotifier messageStatusNotifier,
+            PresenceRegistry presenceRegistry,
+            ChatTailCache tailCache,
+            ClusterDirectory directory,
+            MeterRegistry meterRegistry,
+            @Value("${chat.cluster.dedup-capacity:100000}") int dedupCapacity
+    ) {
+        this.transport = transport.orElse(null);
+        this.messagingTemplate = messagingTemplate;
+        this.messageStatusNotifier = messageStatusNotifier;
+        this.presenceRegistry = presenceRegistry;
+        this.tailCache = tailCache;
+        this.directory = directory;
+        this.dedupCapacity = Math.max(1, dedupCapacity);
+        this.seen = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > ClusterFanout.this.dedupCapacity;
+            }
+        };
+
+        this.publishedCounter = Counter.builder("chat.cluster.published")
+                .description("Message changes made on this node and handed to the cluster transport")
+                .register(meterRegistry);
+        this.deliveredCounter = receivedCounter(meterRegistry, "delivered");
+        this.duplicateCounter = receivedCounter(meterRegistry, "duplicate");
+        this.skippedCounter = receivedCounter(meterRegistry, "skipped");
+        this.lagTimer = Timer.builder("chat.cluster.lag")
+                .description("Time from a message change until another node received it")
+                .register(meterRegistry);
+        this.targetsSummary = DistributionSummary.builder("chat.cluster.route.targets")
+                .description("Other nodes a message change was routed to")
+                .register(meterRegistry);
+    }
+
+    private static Counter receivedCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.cluster.received")
+                .description("Message changes received from the cluster transport: delivered, duplicate, or "
+                        + "skipped because the user has no session on this node")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return transport != null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (transport != null) {
+            transport.start(this::receive);
+            log.info("Cluster fan-out started with {}.", transport.getClass().getSimpleName());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (transport != null) {
+            transport.stop();
+        }
+    }
+
+    /**
+     * Publishes a message saved on this node. The node notifies its own sessions itself.
+     */
+    public void messageSaved(ChatMessage message) {
+        if (transport != null) {
+            publish(List.of(ClusterChange.saved(message)));
+        }
+    }
+
+    /**
+     * Publishes status transitions made on this node. The node notifies its own sessions itself.
+     */
+    public void statusChanged(List<MessageStatusChange> changes) {
+        if (transport != null && !changes.isEmpty()) {
+            publish(changes.stream().map(ClusterChange::status).toList());
+        }
+    }
+
+    /**
+     * @return Whether this node receives every change of the chat between the two users, so their chat may be
+     * served from and kept in the {@link ChatTailCache}: always without routing, else while one of them has a
+     * session on this node.
+     */
+    public boolean receivesChangesOf(UUID userId, UUID partnerId) {
+        return transport == null || directory == null || !directory.isRouting()
+                || presenceRegistry.isOnline(userId) || presenceRegistry.isOnline(partnerId);
+    }
+
+    private void publish(List<ClusterChange> changes) {
+        synchronized (seen) {
+            changes.forEach(change -> seen.put(change.dedupKey(), Boolean.TRUE));
+        }
+        try {
+            if (directory != null && directory.isRouting()) {
+                route(changes);
+            } else {
+                transport.publish(changes);
+            }
+            publishedCounter.increment(changes.size());
+        } catch (RuntimeException e) {
+            log.error("Failed to publish {} message changes to the cluster; other nodes do not notify their sessions.",
+                    changes.size(), e);
+        }
+    }
+
+    private void route(List<ClusterChange> changes) {
+        Map<Set<String>, List<ClusterChange>> byTargets = new LinkedHashMap<>();
+        for (ClusterChange change : changes) {
+            Set<String> targets = new TreeSet<>(directory.routeTo(change.getSenderId()));
+            targets.addAll(directory.routeTo(change.getRecipientId()));
+            targetsSummary.record(targets.size());
+            if (!targets.isEmpty()) {
+                byTargets.computeIfAbsent(targets, nodes -> new ArrayList<>()).add(change);
+            }
+        }
+        byTargets.forEach((targets, routed) -> transport.publish(routed, targets));
+    }
+
+    /**
+     * Delivers a batch of changes received from the transport to the sessions of this node.
+     */
+    void receive(List<ClusterChange> changes) {
+        List<ClusterChange> fresh = new ArrayList<>(changes.size());
+        synchronized (seen) {
+            for (ClusterChange change : changes) {
+                if (seen.put(change.dedupKey(), Boolean.TRUE) == null) {
+                    fresh.add(change);
+                } else {
+                    duplicateCounter.increment();
+                }
+            }
+        }
+
+        Instant now = Instant.now();
+        Map<UUID, List<MessageStatusChange>> statusByReader = new LinkedHashMap<>();
+        List<MessageStatusChange> statusChanges = new ArrayList<>();
+        for (ClusterChange change : fresh) {
+            if (change.getUpdatedAt() != null) {
+                lagTimer.record(Duration.between(change.getUpdatedAt(), now).abs());
+            }
+            if (change.getKind() == ClusterChange.Kind.SAVED) {
+                ChatMessage message = change.toMessage();
+                tailCache.append(message);
+                if (presenceRegistry.isOnline(message.getRecipientId())) {
+                    notifyRecipient(message);
+                    deliveredCounter.increment();
+                } else {
+                    skippedCounter.increment();
+                }
+            } else {
+                MessageStatusChange statusChange = change.toStatusChange();
+                statusChanges.add(statusChange);
+                if (presenceRegistry.isOnline(statusChange.getSenderId())) {
+                    statusByReader.computeIfAbsent(statusChange.getRecipientId(), id -> new ArrayList<>()).add(statusChange);
+                    deliveredCounter.increment();
+                } else {
+                    skippedCounter.increment();
+                }
+            }
+        }
+
+        tailCache.applyStatusChanges(statusChanges);
+        statusByReader.forEach((readerId, readerChanges) -> messageStatusNotifier.notifySenders(readerChanges, readerId));
+        if (!fresh.isEmpty()) {
+            log.debug("Received {} message changes from the cluster, {} duplicates.", fresh.size(), changes.size() - fresh.size());
+        }
+    }
+
+    private void notifyRecipient(ChatMessage message) {
+        messagingTemplate.convertAndSendToUser(message.getRecipientId().toString(), "/queue/messages",
+                ChatNotification.of(message));
+        log.debug("Sent message {} saved on another node to user {}", message.getId(), message.getRecipientId());
+    }
+}
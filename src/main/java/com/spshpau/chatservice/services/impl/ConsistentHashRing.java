@@ -0,0 +1,55 @@
+package com.spshpau.chatservice.services.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Places users on nodes so that adding or removing a node only moves the users of that node: every node is
+ * put on a ring of 64 bit hashes at {@code virtualNodes} points, and a user belongs to the first point at or
+ * after the hash of the user ID. The hash is FNV-1a of the UTF-8 string, followed by the SplitMix64
+ * finalizer, so a load balancer can compute the same placement from the node IDs. Immutable.
+ */
+public final class ConsistentHashRing {
+
+    private final NavigableMap<Long, String> points;
+    private final Set<String> nodeIds;
+
+    public ConsistentHashRing(Collection<String> nodeIds, int virtualNodes) {
+        int replicas = Math.max(1, virtualNodes);
+        TreeMap<Long, String> ring = new TreeMap<>();
+        // Sorted, so nodes colliding on a point resolve the same way on every node.
+        for (String nodeId : new TreeSet<>(nodeIds)) {
+            for (int i = 0; i < replicas; i++) {
+                ring.putIfAbsent(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+        this.points = Collections.unmodifiableNavigableMap(ring);
+        this.nodeIds = Set.copyOf(nodeIds);
+    }
+
+    /**
+     * @return The node the user is placed on, or null if the ring has no nodes.
+     */
+    public String nodeFor(UUID userId) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(userId.toString()));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    public Set<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
@@ -0,0 +1,167 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.InboxService;
+import com.spshpau.chatservice.services.InboxUpdateNotifier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class InboxServiceImpl implements InboxService {
+
+    private final InboxEntryRepository inboxEntryRepository;
+    private final UserRepository userRepository;
+    private final ChatRoomIdResolver chatRoomIdResolver;
+    private final InboxUpdateNotifier inboxUpdateNotifier;
+
+    @Value("${chat.inbox.preview-length:120}")
+    private int previewLength = 120;
+
+    @Value("${chat.inbox.max-page-size:100}")
+    private int maxPageSize = 100;
+
+    @Override
+    public void recordMessage(ChatMessage message) {
+        try {
+            inboxEntryRepository.recordMessage(message, InboxEntry.preview(message.getContent(), previewLength));
+            log.debug("Recorded message {} in the inbox of chat {}", message.getId(), message.getChatId());
+        } catch (Exception e) {
+            log.error("Failed to record message {} in the inbox of chat {}; inbox stays stale until rebuilt.",
+                    message.getId(), message.getChatId(), e);
+            return;
+        }
+        publish(message.getChatId(), message.getSenderId(), message.getRecipientId());
+    }
+
+    @Override
+    public void recordRead(UUID chatId, UUID readerId, Instant readAt, long count) {
+        if (count <= 0) {
+            return;
+        }
+        try {
+            inboxEntryRepository.recordRead(chatId, readerId, readAt, count);
+            log.debug("Recorded {} read messages in the inbox of user {} for chat {}", count, readerId, chatId);
+        } catch (Exception e) {
+            log.error("Failed to record {} read messages in the inbox of user {} for chat {}; inbox stays stale until rebuilt.",
+                    count, readerId, chatId, e);
+            return;
+        }
+        publish(chatId, readerId);
+    }
+
+    /**
+     * Pushes the changed entries of the users that are online. Entries are read back after the update rather
+     * than returned by it, so the Mongo update stays a single bulk write for both participants; a read that
+     * already sees a later update just sends that state, with its higher version.
+     */
+    private void publish(UUID chatId, UUID... userIds) {
+        try {
+            List<String> ids = Arrays.stream(userIds)
+                    .filter(inboxUpdateNotifier::hasAudience)
+                    .map(userId -> InboxEntry.idFor(userId, chatId))
+                    .toList();
+            if (ids.isEmpty()) {
+                return;
+            }
+            List<InboxEntry> entries = new ArrayList<>(ids.size());
+            inboxEntryRepository.findAllById(ids).forEach(entries::add);
+            inboxUpdateNotifier.notifyOwners(entries);
+        } catch (Exception e) {
+            log.error("Failed to push inbox updates of chat {}; chat lists stay stale until reloaded.", chatId, e);
+        }
+    }
+
+    @Override
+    public List<ChatSummaryDto> findChatSummaries(UUID userId, List<User> connections, int page, int size) {
+        return toChatSummaries(userId, findInboxPage(userId, page, size), connections, page, size);
+    }
+
+    @Override
+    public List<InboxEntry> findInboxPage(UUID userId, int page, int size) {
+        int pageSize = pageSize(size);
+        int pageNumber = Math.max(0, page);
+        log.info("Reading inbox page {} (size {}) for user {}", pageNumber, pageSize, userId);
+        return inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(pageNumber, pageSize));
+    }
+
+    @Override
+    public List<ChatSummaryDto> toChatSummaries(UUID userId, List<InboxEntry> entries, List<User> connections, int page, int size) {
+        int pageSize = pageSize(size);
+        int pageNumber = Math.max(0, page);
+
+        Map<UUID, User> partners = connections.stream()
+                .filter(user -> user.getId() != null && !user.getId().equals(userId))
+                .collect(Collectors.toMap(User::getId, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+        List<UUID> unknownPartnerIds = entries.stream()
+                .map(InboxEntry::getPartnerId)
+                .filter(partnerId -> !partners.containsKey(partnerId))
+                .distinct()
+                .toList();
+        Map<UUID, User> otherPartners = new HashMap<>();
+        if (!unknownPartnerIds.isEmpty()) {
+            userRepository.findAllById(unknownPartnerIds).forEach(user -> otherPartners.put(user.getId(), user));
+        }
+
+        List<ChatSummaryDto> summaries = new ArrayList<>(entries.size());
+        for (InboxEntry entry : entries) {
+            User partner = partners.getOrDefault(entry.getPartnerId(), otherPartners.get(entry.getPartnerId()));
+            if (partner == null) {
+                log.warn("Inbox entry {} refers to unknown partner {}, skipping.", entry.getId(), entry.getPartnerId());
+                continue;
+            }
+            summaries.add(ChatSummaryDto.builder()
+                    .chatPartner(partner)
+                    .chatId(entry.getChatId())
+                    .unreadCount(Math.max(0, entry.getUnreadCount()))
+                    .lastMessagePreview(entry.getLastMessagePreview())
+                    .lastMessageSenderId(entry.getLastMessageSenderId())
+                    .lastMessageAt(entry.getLastMessageAt())
+                    .lastReadAt(entry.getLastReadAt())
+                    .version(entry.getVersion())
+                    .build());
+        }
+
+        if (entries.size() < pageSize && !partners.isEmpty()) {
+            // The connections without a conversation continue the list after the last inbox entry.
+            long skip = Math.max(0, (long) pageNumber * pageSize - inboxEntryRepository.countByUserId(userId));
+            appendConnectionsWithoutConversation(userId, partners, skip, pageSize - entries.size(), summaries);
+        }
+        log.info("Built {} chat summaries for user {}", summaries.size(), userId);
+        return summaries;
+    }
+
+    private int pageSize(int size) {
+        return Math.max(1, Math.min(size, maxPageSize));
+    }
+
+    private void appendConnectionsWithoutConversation(UUID userId, Map<UUID, User> partners, long skip, int limit,
+                                                      List<ChatSummaryDto> summaries) {
+        Map<String, User> partnersByEntryId = new LinkedHashMap<>();
+        partners.values().forEach(partner -> partnersByEntryId.put(
+                InboxEntry.idFor(userId, chatRoomIdResolver.resolve(userId, partner.getId())), partner));
+
+        Set<String> existing = new HashSet<>();
+        inboxEntryRepository.findAllById(partnersByEntryId.keySet()).forEach(entry -> existing.add(entry.getId()));
+
+        partnersByEntryId.entrySet().stream()
+                .filter(partner -> !existing.contains(partner.getKey()))
+                .skip(skip)
+                .limit(limit)
+                .forEach(partner -> summaries.add(ChatSummaryDto.builder().chatPartner(partner.getValue()).build()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.InboxUpdateNotification;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.services.InboxUpdateNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes changed chat list entries to their owners, so clients keep their chat list current without polling
+ * the summary endpoint. Updates are numbered per owner while the owner is online; the numbering restarts after
+ * the owner's last session closed, when their client loads the chat list again on reconnect anyway.
+ */
+@Service
+@Slf4j
+public class InboxUpdateNotifierImpl implements InboxUpdateNotifier {
+
+    static final String DESTINATION = "/queue/inbox-updates";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceRegistry presenceRegistry;
+    private final ConcurrentMap<UUID, AtomicLong> sequences = new ConcurrentHashMap<>();
+    private final Timer sendTimer;
+    private final Timer sendErrorTimer;
+
+    public InboxUpdateNotifierImpl(SimpMessagingTemplate messagingTemplate, PresenceRegistry presenceRegistry,
+                                   MeterRegistry meterRegistry) {
+        this.messagingTemplate = messagingTemplate;
+        this.presenceRegistry = presenceRegistry;
+        this.sendTimer = sendTimer(meterRegistry, "success");
+        this.sendErrorTimer = sendTimer(meterRegistry, "error");
+    }
+
+    private static Timer sendTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("chat.notifications.send")
+                .description("Time to hand a notification frame to the broker")
+                .tag("type", "inbox")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean hasAudience(UUID userId) {
+        return presenceRegistry.isOnline(userId);
+    }
+
+    @Override
+    public int notifyOwners(List<InboxEntry> entries) {
+        int sent = 0;
+        for (InboxEntry entry : entries) {
+            UUID ownerId = entry.getUserId();
+            if (ownerId == null || !presenceRegistry.isOnline(ownerId)) {
+                continue;
+            }
+            AtomicLong sequence = sequences.computeIfAbsent(ownerId, id -> new AtomicLong());
+            // Numbers are handed to the broker in order, so only the outbound channel can reorder them.
+            synchronized (sequence) {
+                InboxUpdateNotification update = toNotification(sequence.incrementAndGet(), entry);
+                Timer.Sample sample = Timer.start();
+                try {
+                    messagingTemplate.convertAndSendToUser(ownerId.toString(), DESTINATION, update);
+                    sample.stop(sendTimer);
+                    sent++;
+                } catch (RuntimeException e) {
+                    sample.stop(sendErrorTimer);
+                    log.error("Failed to send inbox update {} of chat {} to user {}; the client reloads its chat list on the gap.",
+                            update.getSeq(), entry.getChatId(), ownerId, e);
+                    continue;
+                }
+                log.debug("Sent inbox update {} of chat {} (version {}) to user {}",
+                        update.getSeq(), entry.getChatId(), entry.getVersion(), ownerId);
+            }
+        }
+        return sent;
+    }
+
+    @EventListener
+    public void onPresenceChange(PresenceChange change) {
+        if (!change.isOnline() && !presenceRegistry.isOnline(change.getUserId())) {
+            sequences.remove(change.getUserId());
+        }
+    }
+
+    private static InboxUpdateNotification toNotification(long seq, InboxEntry entry) {
+        return InboxUpdateNotification.builder()
+                .seq(seq)
+                .chatId(entry.getChatId())
+                .partnerId(entry.getPartnerId())
+                .unreadCount(Math.max(0, entry.getUnreadCount()))
+                .lastMessageId(entry.getLastMessageId())
+                .lastMessageSenderId(entry.getLastMessageSenderId())
+                .lastMessagePreview(entry.getLastMessagePreview())
+                .lastMessageAt(entry.getLastMessageAt())
+                .lastReadAt(entry.getLastReadAt())
+                .version(entry.getVersion())
+                .build();
+    }
+}
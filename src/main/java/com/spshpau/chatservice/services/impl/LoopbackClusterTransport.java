@@ -0,0 +1,96 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ClusterChange;
+import com.spshpau.chatservice.model.ClusterMember;
+import com.spshpau.chatservice.services.ClusterTransport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process transport: every change published by a node is passed, on the publishing thread, to all started
+ * nodes of the same {@link Hub}, the publishing node included, or to the addressed nodes only. Members
+ * announce themselves on the hub. Lets tests run several nodes in one JVM; with
+ * {@code chat.cluster.transport=loopback} the single node only sees its own changes.
+ */
+@Slf4j
+public class LoopbackClusterTransport implements ClusterTransport {
+
+    /**
+     * The nodes that see each other's changes, like nodes sharing a database.
+     */
+    public static final class Hub {
+        private final CopyOnWriteArrayList<LoopbackClusterTransport> nodes = new CopyOnWriteArrayList<>();
+        private final ConcurrentMap<String, ClusterMember> members = new ConcurrentHashMap<>();
+    }
+
+    private final Hub hub;
+    private final String nodeId;
+    private volatile Consumer<List<ClusterChange>> listener;
+
+    public LoopbackClusterTransport(Hub hub, String nodeId) {
+        this.hub = hub;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public void publish(List<ClusterChange> changes) {
+        List<ClusterChange> batch = List.copyOf(changes);
+        for (LoopbackClusterTransport node : hub.nodes) {
+            node.deliver(batch);
+        }
+    }
+
+    @Override
+    public void publish(List<ClusterChange> changes, Set<String> nodeIds) {
+        List<ClusterChange> batch = List.copyOf(changes);
+        for (LoopbackClusterTransport node : hub.nodes) {
+            if (nodeIds.contains(node.nodeId)) {
+                node.deliver(batch);
+            }
+        }
+    }
+
+    private void deliver(List<ClusterChange> batch) {
+        Consumer<List<ClusterChange>> current = listener;
+        if (current == null) {
+            return;
+        }
+        // One batch at a time per node, as the transport contract promises.
+        synchronized (this) {
+            try {
+                current.accept(batch);
+            } catch (RuntimeException e) {
+                log.error("Cluster listener failed on a batch of {} changes.", batch.size(), e);
+            }
+        }
+    }
+
+    @Override
+    public void start(Consumer<List<ClusterChange>> listener) {
+        this.listener = listener;
+        hub.nodes.addIfAbsent(this);
+    }
+
+    @Override
+    public void stop() {
+        hub.nodes.remove(this);
+        hub.members.remove(nodeId);
+        listener = null;
+    }
+
+    @Override
+    public void announce(ClusterMember self) {
+        hub.members.put(self.getNodeId(), self);
+    }
+
+    @Override
+    public List<ClusterMember> members() {
+        return List.copyOf(hub.members.values());
+    }
+}
@@ -0,0 +1,109 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Service
+@Slf4j
+public class MessageStatusNotifierImpl implements MessageStatusNotifier {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int watermarkThreshold;
+    private final Timer sendTimer;
+    private final Timer sendErrorTimer;
+
+    public MessageStatusNotifierImpl(SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry,
+                                     @Value("${chat.notifications.status-watermark-threshold:200}") int watermarkThreshold) {
+        this.messagingTemplate = messagingTemplate;
+        this.watermarkThreshold = watermarkThreshold;
+        this.sendTimer = sendTimer(meterRegistry, "success");
+        this.sendErrorTimer = sendTimer(meterRegistry, "error");
+    }
+
+    private static Timer sendTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("chat.notifications.send")
+                .description("Time to hand a notification frame to the broker")
+                .tag("type", "status")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public int notifySenders(List<MessageStatusChange> changes, UUID updatedByUserId) {
+        if (changes.isEmpty()) {
+            return 0;
+        }
+
+        Map<GroupKey, List<MessageStatusChange>> groups = new LinkedHashMap<>();
+        for (MessageStatusChange change : changes) {
+            GroupKey key = new GroupKey(change.getSenderId(), change.getChatId(), change.getStatus());
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(change);
+        }
+
+        for (Map.Entry<GroupKey, List<MessageStatusChange>> group : groups.entrySet()) {
+            GroupKey key = group.getKey();
+            MessageStatusUpdateNotification statusUpdate = toNotification(key, group.getValue(), updatedByUserId);
+            Timer.Sample sample = Timer.start();
+            try {
+                messagingTemplate.convertAndSendToUser(
+                        key.senderId().toString(),
+                        "/queue/status-updates",
+                        statusUpdate
+                );
+                sample.stop(sendTimer);
+            } catch (RuntimeException e) {
+                sample.stop(sendErrorTimer);
+                throw e;
+            }
+            log.info("Sent {} status update for {} messages in chat {} to original sender {}{}",
+                    key.status(), group.getValue().size(), key.chatId(), key.senderId(),
+                    statusUpdate.getUpToSentAt() != null ? " as watermark " + statusUpdate.getUpToSentAt() : "");
+        }
+        return groups.size();
+    }
+
+    private MessageStatusUpdateNotification toNotification(GroupKey key, List<MessageStatusChange> changes, UUID updatedByUserId) {
+        Instant statusTimestamp = null;
+        Instant upToSentAt = null;
+        for (MessageStatusChange change : changes) {
+            statusTimestamp = max(statusTimestamp, key.status() == MessageStatus.READ ? change.getReadAt() : change.getDeliveredAt());
+            upToSentAt = max(upToSentAt, change.getSentAt());
+        }
+
+        MessageStatusUpdateNotification.MessageStatusUpdateNotificationBuilder builder = MessageStatusUpdateNotification.builder()
+                .chatId(key.chatId())
+                .newStatus(key.status())
+                .statusTimestamp(statusTimestamp)
+                .updatedByUserId(updatedByUserId);
+
+        if (watermarkThreshold > 0 && changes.size() >= watermarkThreshold && upToSentAt != null) {
+            return builder.messageIds(List.of()).upToSentAt(upToSentAt).build();
+        }
+        return builder.messageIds(changes.stream().map(MessageStatusChange::getId).toList()).build();
+    }
+
+    private static Instant max(Instant current, Instant candidate) {
+        if (candidate == null) {
+            return current;
+        }
+        return current == null || candidate.isAfter(current) ? candidate : current;
+    }
+
+    private record GroupKey(UUID senderId, UUID chatId, MessageStatus status) {
+    }
+}
@@ -0,0 +1,323 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.ClusterChange;
+import com.spshpau.chatservice.model.ClusterMember;
+import com.spshpau.chatservice.services.ClusterTransport;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.function.Consumer;
+
+/**
+ * Tails a change stream of the chat message collection: inserts become {@link ClusterChange.Kind#SAVED} and
+ * updates of the status {@link ClusterChange.Kind#STATUS} changes, read from the current document. Messages
+ * written by any node, including write-behind batches, are seen without being published, so
+ * {@link #publish} does nothing. Requires a replica set or sharded cluster.
+ * <p>
+ * The resume token of the last batch the listener returned from is stored per node in
+ * {@value #RESUME_TOKENS}, at most every {@code tokenIntervalMillis} and on stop, and the stream is resumed
+ * from it after a restart or a lost connection. Changes after the stored token are passed again. If the
+ * oplog no longer reaches back to the token, the stream restarts at the current time and the changes in
+ * between are not delivered; their users see them on their next sync.
+ * <p>
+ * Members are announced in {@value #NODES}, one document per node. Once a node announced its users, it only
+ * passes on the changes sent by or to them. Its stream matches them on the server, by a set of users that may
+ * be larger than the announced one, and the listener only gets the changes of the announced users. The stream
+ * is reopened when users were announced that its set lacks, or when the set is more than twice as large as
+ * needed, but at most every {@code reopenIntervalMillis}, so connects and disconnects do not churn it. A reopen
+ * for new users resumes from the token the stream was at when they were noticed, so their changes in between
+ * are passed too, and already delivered ones are dropped as duplicates. With more than {@code maxFilterUsers}
+ * announced users, the stream matches every change and the users are only filtered on the node.
+ */
+@Slf4j
+public class MongoChangeStreamClusterTransport implements ClusterTransport {
+
+    static final String RESUME_TOKENS = "cluster_resume_tokens";
+    static final String NODES = "cluster_nodes";
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final String nodeId;
+    private final int batchSize;
+    private final long tokenIntervalMillis;
+    private final long maxAwaitMillis;
+    private final long reopenIntervalMillis;
+    private final int maxFilterUsers;
+
+    private volatile boolean running;
+    private Thread thread;
+    private BsonDocument resumeToken;
+    private BsonDocument storedToken;
+    private long storedAtMillis;
+    private long openedAtMillis;
+    private BsonDocument rewindToken;
+    private volatile Set<UUID> interest;
+
+    public MongoChangeStreamClusterTransport(MongoTemplate mongoTemplate, String nodeId, int batchSize,
+                                             long tokenIntervalMillis, long maxAwaitMillis,
+                                             long reopenIntervalMillis, int maxFilterUsers) {
+        this.mongoTemplate = mongoTemplate;
+        this.nodeId = nodeId;
+        this.batchSize = Math.max(1, batchSize);
+        this.tokenIntervalMillis = tokenIntervalMillis;
+        this.maxAwaitMillis = Math.max(1, maxAwaitMillis);
+        this.reopenIntervalMillis = reopenIntervalMillis;
+        this.maxFilterUsers = maxFilterUsers;
+    }
+
+    @Override
+    public void publish(List<ClusterChange> changes) {
+        // Observed in the database.
+    }
+
+    @Override
+    public synchronized void start(Consumer<List<ClusterChange>> listener) {
+        if (running) {
+            return;
+        }
+        resumeToken = loadResumeToken();
+        storedToken = resumeToken;
+        running = true;
+        thread = new Thread(() -> run(listener), "chat-cluster-changes");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Tailing chat message changes as node {}{}.", nodeId, resumeToken != null ? ", resuming" : "");
+    }
+
+    @Override
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        if (current == null) {
+            return;
+        }
+        current.interrupt();
+        try {
+            current.join(maxAwaitMillis + 5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        storeResumeToken(true);
+        if (interest != null) {
+            try {
+                mongoTemplate.getCollection(NODES).deleteOne(Filters.eq("_id", nodeId));
+            } catch (MongoException e) {
+                log.warn("Failed to remove the membership of node {}; it expires on the other nodes.", nodeId, e);
+            }
+        }
+    }
+
+    @Override
+    public void announce(ClusterMember self) {
+        List<String> users = self.getUsers().stream().map(UUID::toString).toList();
+        mongoTemplate.getCollection(NODES).replaceOne(Filters.eq("_id", nodeId),
+                new Document("_id", nodeId).append("users", users)
+                        .append("heartbeatAt", Date.from(self.getHeartbeatAt())),
+                new ReplaceOptions().upsert(true));
+        if (!self.getUsers().equals(interest)) {
+            interest = Set.copyOf(self.getUsers());
+        }
+    }
+
+    @Override
+    public List<ClusterMember> members() {
+        List<ClusterMember> members = new ArrayList<>();
+        for (Document node : mongoTemplate.getCollection(NODES).find()) {
+            List<String> users = node.getList("users", String.class, List.of());
+            Date heartbeatAt = node.getDate("heartbeatAt");
+            members.add(new ClusterMember(node.getString("_id"),
+                    users.stream().map(UUID::fromString).collect(Collectors.toSet()),
+                    heartbeatAt != null ? heartbeatAt.toInstant() : null));
+        }
+        return members;
+    }
+
+    private void run(Consumer<List<ClusterChange>> listener) {
+        long backoffMillis = 500;
+        while (running) {
+            Set<UUID> opened = serverFilter(interest);
+            if (rewindToken != null) {
+                resumeToken = rewindToken;
+                rewindToken = null;
+            }
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open(opened)) {
+                openedAtMillis = System.currentTimeMillis();
+                backoffMillis = 500;
+                while (running && !shouldReopen(opened)) {
+                    poll(cursor, listener);
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                    log.warn("The oplog no longer holds the resume token of node {}; restarting the change stream "
+                            + "now, changes in between are not delivered.", nodeId);
+                    resumeToken = null;
+                    continue;
+                }
+                backoffMillis = pause(e, backoffMillis);
+            } catch (MongoException e) {
+                backoffMillis = pause(e, backoffMillis);
+            }
+        }
+    }
+
+    /**
+     * @return The users to match on the server, or null to match every change.
+     */
+    private Set<UUID> serverFilter(Set<UUID> users) {
+        return users != null && users.size() <= maxFilterUsers ? users : null;
+    }
+
+    /**
+     * Notes the position to rewind to once announced users are missing from the opened stream, and tells
+     * whether it is time to reopen it.
+     */
+    private boolean shouldReopen(Set<UUID> opened) {
+        Set<UUID> current = interest;
+        if (current == null) {
+            return false;
+        }
+        Set<UUID> wanted = serverFilter(current);
+        boolean missing = opened != null && (wanted == null || !opened.containsAll(wanted));
+        if (missing && rewindToken == null) {
+            rewindToken = resumeToken;
+        }
+        boolean oversized = wanted != null && (opened == null || opened.size() > 2 * wanted.size());
+        return (missing || oversized) && System.currentTimeMillis() - openedAtMillis >= reopenIntervalMillis;
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(Set<UUID> users) {
+        Bson inserts = Filters.eq("operationType", OperationType.INSERT.getValue());
+        Bson statusUpdates = Filters.and(
+                Filters.eq("operationType", OperationType.UPDATE.getValue()),
+                Filters.exists("updateDescription.updatedFields.status"));
+        if (users != null) {
+            List<Object> ids = users.stream().map(id -> mongoTemplate.getConverter().convertToMongoType(id)).toList();
+            // Either participant, so the chats of the announced users are kept current in the tail cache.
+            Bson participants = Filters.or(Filters.in("fullDocument.senderId", ids), Filters.in("fullDocument.recipientId", ids));
+            inserts = Filters.and(inserts, participants);
+            statusUpdates = Filters.and(statusUpdates, participants);
+        }
+        var stream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(ChatMessage.class))
+                .watch(List.of(Aggregates.match(Filters.or(inserts, statusUpdates))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .batchSize(batchSize)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+        return stream.cursor();
+    }
+
+    private void poll(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor,
+                      Consumer<List<ClusterChange>> listener) {
+        List<ClusterChange> batch = new ArrayList<>();
+        Set<UUID> users = interest;
+        ChangeStreamDocument<Document> event = cursor.tryNext();
+        while (event != null) {
+            ClusterChange change = toChange(event);
+            if (change != null && (users == null || users.contains(change.getSenderId())
+                    || users.contains(change.getRecipientId()))) {
+                batch.add(change);
+            }
+            event = batch.size() < batchSize && cursor.available() > 0 ? cursor.tryNext() : null;
+        }
+        if (!batch.isEmpty()) {
+            try {
+                listener.accept(batch);
+            } catch (RuntimeException e) {
+                log.error("Cluster listener failed on a batch of {} changes.", batch.size(), e);
+            }
+        }
+        // Also moves past filtered out events while the collection is idle.
+        BsonDocument token = cursor.getResumeToken();
+        if (token != null) {
+            resumeToken = token;
+        }
+        storeResumeToken(false);
+    }
+
+    private ClusterChange toChange(ChangeStreamDocument<Document> event) {
+        Document document = event.getFullDocument();
+        if (document == null) {
+            // Deleted before the update was looked up.
+            return null;
+        }
+        ChatMessage message = mongoTemplate.getConverter().read(ChatMessage.class, document);
+        if (event.getOperationType() == OperationType.INSERT) {
+            return ClusterChange.saved(message);
+        }
+        return ClusterChange.builder()
+                .kind(ClusterChange.Kind.STATUS)
+                .messageId(message.getId())
+                .chatId(message.getChatId())
+                .senderId(message.getSenderId())
+                .recipientId(message.getRecipientId())
+                .status(message.getStatus())
+                .sentAt(message.getSentAt())
+                .deliveredAt(message.getDeliveredAt())
+                .readAt(message.getReadAt())
+                .updatedAt(message.getUpdatedAt())
+                .build();
+    }
+
+    private BsonDocument loadResumeToken() {
+        Document stored = mongoTemplate.getCollection(RESUME_TOKENS).find(Filters.eq("_id", nodeId)).first();
+        if (stored == null || stored.get("token") == null) {
+            return null;
+        }
+        return stored.get("token", Document.class).toBsonDocument();
+    }
+
+    private void storeResumeToken(boolean force) {
+        BsonDocument token = resumeToken;
+        long now = System.currentTimeMillis();
+        if (token == null || token.equals(storedToken) || (!force && now - storedAtMillis < tokenIntervalMillis)) {
+            return;
+        }
+        try {
+            mongoTemplate.getCollection(RESUME_TOKENS).replaceOne(Filters.eq("_id", nodeId),
+                    new Document("_id", nodeId).append("token", token).append("updatedAt", new Date(now)),
+                    new ReplaceOptions().upsert(true));
+            storedToken = token;
+            storedAtMillis = now;
+        } catch (MongoException e) {
+            log.warn("Failed to store the change stream resume token of node {}; a restart passes more changes again.",
+                    nodeId, e);
+        }
+    }
+
+    private long pause(MongoException e, long backoffMillis) {
+        if (!running) {
+            return backoffMillis;
+        }
+        log.error("Chat message change stream failed, reopening in {} ms.", backoffMillis, e);
+        try {
+            Thread.sleep(backoffMillis);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+        return Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+    }
+}
@@ -0,0 +1,174 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.services.PresenceNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers presence changes only to the users that hold the changed user as a connection. Watchers are
+ * learned from the connections fetched from the user service; changes are collected per user and sent every
+ * {@code chat.presence.fanout.interval-ms} as one batched frame per watcher.
+ */
+@Service
+@Slf4j
+public class PresenceNotifierImpl implements PresenceNotifier {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceRegistry presenceRegistry;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object audienceLock = new Object();
+    private final Map<UUID, Set<UUID>> watchersByUser = new HashMap<>();
+    private final Map<UUID, Set<UUID>> watchedByWatcher = new HashMap<>();
+
+    private final ConcurrentMap<UUID, Long> pending = new ConcurrentHashMap<>();
+    private final Set<UUID> publishedOnline = ConcurrentHashMap.newKeySet();
+
+    private final Counter frameCounter;
+    private final Counter deltaCounter;
+    private final Counter suppressedCounter;
+
+    @Autowired
+    public PresenceNotifierImpl(
+            SimpMessagingTemplate messagingTemplate,
+            PresenceRegistry presenceRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${chat.presence.fanout.interval-ms:1000}") long intervalMillis
+    ) {
+        this(messagingTemplate, presenceRegistry, meterRegistry,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chat-presence-fanout");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    PresenceNotifierImpl(SimpMessagingTemplate messagingTemplate, PresenceRegistry presenceRegistry,
+                         MeterRegistry meterRegistry, ScheduledExecutorService scheduler) {
+        this.messagingTemplate = messagingTemplate;
+        this.presenceRegistry = presenceRegistry;
+        this.scheduler = scheduler;
+        this.frameCounter = Counter.builder("chat.presence.fanout.frames")
+                .description("Presence notification frames sent to watchers")
+                .register(meterRegistry);
+        this.deltaCounter = Counter.builder("chat.presence.fanout.deltas")
+                .description("Presence changes delivered, counted once per watcher")
+                .register(meterRegistry);
+        this.suppressedCounter = Counter.builder("chat.presence.fanout.suppressed")
+                .description("Presence changes not sent because the user was back in the last sent state")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void registerConnections(UUID watcherId, Collection<UUID> userIds) {
+        Set<UUID> watched = new HashSet<>(userIds);
+        watched.remove(watcherId);
+        synchronized (audienceLock) {
+            Set<UUID> previous = watchedByWatcher.put(watcherId, watched);
+            if (previous != null) {
+                previous.stream().filter(userId -> !watched.contains(userId))
+                        .forEach(userId -> removeWatcher(userId, watcherId));
+            }
+            watched.forEach(userId -> watchersByUser.computeIfAbsent(userId, id -> new HashSet<>()).add(watcherId));
+        }
+        log.debug("User {} now watches the presence of {} connections.", watcherId, watched.size());
+    }
+
+    @EventListener
+    public void onPresenceChange(PresenceChange change) {
+        pending.put(change.getUserId(), change.getAt().toEpochMilli());
+    }
+
+    @Override
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Map<UUID, List<PresenceDeltaNotification.Delta>> deltasByWatcher = new LinkedHashMap<>();
+        for (UUID userId : new ArrayList<>(pending.keySet())) {
+            Long at = pending.remove(userId);
+            boolean online = presenceRegistry.isOnline(userId);
+            if (!online) {
+                unregister(userId);
+            }
+            boolean changed = online ? publishedOnline.add(userId) : publishedOnline.remove(userId);
+            if (!changed) {
+                suppressedCounter.increment();
+                continue;
+            }
+            PresenceDeltaNotification.Delta delta = new PresenceDeltaNotification.Delta(
+                    userId, online ? StatusEnum.ONLINE : StatusEnum.OFFLINE, at);
+            for (UUID watcherId : watchersOf(userId)) {
+                if (presenceRegistry.isOnline(watcherId)) {
+                    deltasByWatcher.computeIfAbsent(watcherId, id -> new ArrayList<>()).add(delta);
+                }
+            }
+        }
+
+        deltasByWatcher.forEach((watcherId, deltas) -> {
+            messagingTemplate.convertAndSendToUser(watcherId.toString(), "/queue/presence",
+                    PresenceDeltaNotification.builder().changes(deltas).build());
+            deltaCounter.increment(deltas.size());
+        });
+        frameCounter.increment(deltasByWatcher.size());
+        if (!deltasByWatcher.isEmpty()) {
+            log.debug("Sent presence changes to {} watchers.", deltasByWatcher.size());
+        }
+        return deltasByWatcher.size();
+    }
+
+    private List<UUID> watchersOf(UUID userId) {
+        synchronized (audienceLock) {
+            Set<UUID> watchers = watchersByUser.get(userId);
+            return watchers != null ? List.copyOf(watchers) : List.of();
+        }
+    }
+
+    private void unregister(UUID watcherId) {
+        synchronized (audienceLock) {
+            Set<UUID> watched = watchedByWatcher.remove(watcherId);
+            if (watched != null) {
+                watched.forEach(userId -> removeWatcher(userId, watcherId));
+            }
+        }
+    }
+
+    private void removeWatcher(UUID userId, UUID watcherId) {
+        Set<UUID> watchers = watchersByUser.get(userId);
+        if (watchers != null && watchers.remove(watcherId) && watchers.isEmpty()) {
+            watchersByUser.remove(userId);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Sending presence changes failed.", e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authoritative, in-memory presence: the open WebSocket sessions per user. A user is online while at least
+ * one session is open, so several tabs do not go offline when one of them closes. Sessions are added and
+ * removed on STOMP session events and kept alive by inbound frames; sessions whose disconnect event was lost
+ * are reaped once idle for longer than {@code chat.presence.session-timeout-ms}.
+ */
+@Service
+@Slf4j
+public class PresenceRegistryImpl implements PresenceRegistry {
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final Clock clock;
+    private final long sessionTimeoutMillis;
+    private final ScheduledExecutorService reaper;
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<String>> sessionsByUser = new ConcurrentHashMap<>();
+
+    private final Counter reapedCounter;
+
+    @Autowired
+    public PresenceRegistryImpl(
+            ApplicationEventPublisher eventPublisher,
+            MeterRegistry meterRegistry,
+            @Value("${chat.presence.session-timeout-ms:60000}") long sessionTimeoutMillis,
+            @Value("${chat.presence.reap-interval-ms:15000}") long reapIntervalMillis
+    ) {
+        this(eventPublisher, meterRegistry, sessionTimeoutMillis, Clock.systemUTC(),
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chat-presence-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        reaper.scheduleWithFixedDelay(this::reapQuietly, reapIntervalMillis, reapIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    PresenceRegistryImpl(ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry,
+                         long sessionTimeoutMillis, Clock clock, ScheduledExecutorService reaper) {
+        this.eventPublisher = eventPublisher;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+        this.clock = clock;
+        this.reaper = reaper;
+
+        this.reapedCounter = Counter.builder("chat.presence.sessions.reaped")
+                .description("Sessions removed because no frame was received within the session timeout")
+                .register(meterRegistry);
+        Gauge.builder("chat.presence.sessions", sessions, Map::size)
+                .description("Open WebSocket sessions")
+                .register(meterRegistry);
+        Gauge.builder("chat.presence.online.users", sessionsByUser, Map::size)
+                .description("Users with at least one open WebSocket session")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+
+    @Override
+    public boolean sessionConnected(UUID userId, String sessionId) {
+        Session previous = sessions.put(sessionId, new Session(userId, clock.millis()));
+        if (previous != null && !previous.userId().equals(userId)) {
+            removeFromUser(previous.userId(), sessionId);
+        }
+
+        boolean[] cameOnline = {false};
+        sessionsByUser.compute(userId, (id, userSessions) -> {
+            if (userSessions == null) {
+                userSessions = ConcurrentHashMap.newKeySet();
+                cameOnline[0] = true;
+            }
+            userSessions.add(sessionId);
+            return userSessions;
+        });
+        log.debug("Session {} of user {} registered, {} open.", sessionId, userId, getSessionCount(userId));
+        if (cameOnline[0]) {
+            log.info("User {} is online.", userId);
+            eventPublisher.publishEvent(new PresenceChange(userId, true, clock.instant()));
+        }
+        return cameOnline[0];
+    }
+
+    @Override
+    public boolean sessionDisconnected(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        boolean wentOffline = removeFromUser(session.userId(), sessionId);
+        log.debug("Session {} of user {} removed, {} open.", sessionId, session.userId(), getSessionCount(session.userId()));
+        if (wentOffline) {
+            log.info("User {} is offline.", session.userId());
+            eventPublisher.publishEvent(new PresenceChange(session.userId(), false, clock.instant()));
+        }
+        return wentOffline;
+    }
+
+    private boolean removeFromUser(UUID userId, String sessionId) {
+        boolean[] wentOffline = {false};
+        sessionsByUser.computeIfPresent(userId, (id, userSessions) -> {
+            userSessions.remove(sessionId);
+            if (userSessions.isEmpty()) {
+                wentOffline[0] = true;
+                return null;
+            }
+            return userSessions;
+        });
+        return wentOffline[0];
+    }
+
+    @Override
+    public void touch(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            session.touch(clock.millis());
+        } else {
+            log.debug("Ignoring activity on unregistered session {}.", sessionId);
+        }
+    }
+
+    @Override
+    public int reapStaleSessions() {
+        long cutoff = clock.millis() - sessionTimeoutMillis;
+        int reaped = 0;
+        for (var entry : sessions.entrySet()) {
+            if (entry.getValue().lastSeen() < cutoff && sessions.remove(entry.getKey(), entry.getValue())) {
+                Session session = entry.getValue();
+                log.info("Reaping session {} of user {}, idle for {} ms.", entry.getKey(), session.userId(),
+                        clock.millis() - session.lastSeen());
+                if (removeFromUser(session.userId(), entry.getKey())) {
+                    log.info("User {} is offline.", session.userId());
+                    eventPublisher.publishEvent(new PresenceChange(session.userId(), false, clock.instant()));
+                }
+                reaped++;
+            }
+        }
+        reapedCounter.increment(reaped);
+        return reaped;
+    }
+
+    private void reapQuietly() {
+        try {
+            reapStaleSessions();
+        } catch (Exception e) {
+            log.error("Reaping stale presence sessions failed.", e);
+        }
+    }
+
+    @Override
+    public UUID getSessionUser(String sessionId) {
+        Session session = sessions.get(sessionId);
+        return session != null ? session.userId() : null;
+    }
+
+    @Override
+    public boolean isOnline(UUID userId) {
+        return sessionsByUser.containsKey(userId);
+    }
+
+    @Override
+    public int getSessionCount(UUID userId) {
+        Set<String> userSessions = sessionsByUser.get(userId);
+        return userSessions != null ? userSessions.size() : 0;
+    }
+
+    @Override
+    public Set<UUID> getOnlineUserIds() {
+        return Set.copyOf(sessionsByUser.keySet());
+    }
+
+    private static final class Session {
+        private final UUID userId;
+        private volatile long lastSeen;
+
+        Session(UUID userId, long lastSeen) {
+            this.userId = userId;
+            this.lastSeen = lastSeen;
+        }
+
+        UUID userId() {
+            return userId;
+        }
+
+        long lastSeen() {
+            return lastSeen;
+        }
+
+        void touch(long now) {
+            lastSeen = now;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.ClusterTransport;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists presence from the {@link PresenceRegistry} to {@code User.status} for consumers that read it from
+ * Mongo. Changes are only collected when they happen and written every {@code chat.presence.snapshot.interval-ms}
+ * in one bulk write, with the state the user is in at that time, so a user flapping between tabs costs at most
+ * one write per interval.
+ * <p>
+ * Each node only writes what it sees: it adds itself to {@code User.onlineNodes} of its online users and
+ * removes itself again, and a user is only set OFFLINE once no node holds them. Since no session survives a
+ * restart, a node releases the users it left ONLINE in its previous run at startup; a single node without a
+ * cluster transport releases all users. With cluster routing, the nodes the directory no longer sees are
+ * released as well.
+ */
+@Component
+@Slf4j
+public class PresenceSnapshotWriter implements SmartInitializingSingleton {
+
+    private final PresenceRegistry presenceRegistry;
+    private final UserRepository userRepository;
+    private final ClusterDirectory clusterDirectory;
+    private final boolean enabled;
+    private final boolean resetOnStartup;
+    private final boolean clustered;
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    private final Counter writeCounter;
+    private volatile Set<String> releasedMembers = Set.of();
+
+    @Autowired
+    public PresenceSnapshotWriter(
+            PresenceRegistry presenceRegistry,
+            UserRepository userRepository,
+            ClusterDirectory clusterDirectory,
+            Optional<ClusterTransport> clusterTransport,
+            MeterRegistry meterRegistry,
+            @Value("${chat.presence.snapshot.enabled:true}") boolean enabled,
+            @Value("${chat.presence.snapshot.interval-ms:5000}") long intervalMillis,
+            @Value("${chat.presence.snapshot.reset-on-startup:true}") boolean resetOnStartup
+    ) {
+        this(presenceRegistry, userRepository, clusterDirectory, meterRegistry, enabled, resetOnStartup,
+                clusterTransport.isPresent(),
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "chat-presence-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    PresenceSnapshotWriter(PresenceRegistry presenceRegistry, UserRepository userRepository,
+                           ClusterDirectory clusterDirectory, MeterRegistry meterRegistry, boolean enabled,
+                           boolean resetOnStartup, boolean clustered, ScheduledExecutorService scheduler) {
+        this.presenceRegistry = presenceRegistry;
+        this.userRepository = userRepository;
+        this.clusterDirectory = clusterDirectory;
+        this.enabled = enabled;
+        this.resetOnStartup = resetOnStartup;
+        this.clustered = clustered;
+        this.scheduler = scheduler;
+        this.writeCounter = Counter.builder("chat.presence.snapshot.writes")
+                .description("User statuses written by the presence snapshot")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled || !resetOnStartup) {
+            return;
+        }
+        try {
+            long reset = clustered
+                    ? userRepository.releaseNodes(List.of(clusterDirectory.getNodeId()))
+                    : userRepository.releaseAllNodes();
+            log.info("Presence snapshot: reset {} users left ONLINE by the previous run of node {}.",
+                    reset, clusterDirectory.getNodeId());
+        } catch (Exception e) {
+            log.error("Presence snapshot: failed to reset stale ONLINE statuses.", e);
+        }
+    }
+
+    @EventListener
+    public void onPresenceChange(PresenceChange change) {
+        if (enabled) {
+            dirty.add(change.getUserId());
+        }
+    }
+
+    /**
+     * Writes the current status of every user whose presence changed since the last flush.
+     *
+     * @return The number of statuses written.
+     */
+    public int flush() {
+        releaseDepartedNodes();
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        Map<UUID, StatusEnum> statuses = new LinkedHashMap<>();
+        for (UUID userId : dirty) {
+            dirty.remove(userId);
+            statuses.put(userId, presenceRegistry.isOnline(userId) ? StatusEnum.ONLINE : StatusEnum.OFFLINE);
+        }
+        try {
+            userRepository.updateStatuses(clusterDirectory.getNodeId(), statuses);
+        } catch (RuntimeException e) {
+            dirty.addAll(statuses.keySet());
+            throw e;
+        }
+        writeCounter.increment(statuses.size());
+        log.debug("Presence snapshot: wrote {} statuses.", statuses.size());
+        return statuses.size();
+    }
+
+    /**
+     * Releases the users of nodes that are stored as holding sessions but are no longer cluster members, each
+     * time the membership changes.
+     */
+    void releaseDepartedNodes() {
+        if (!enabled || !resetOnStartup || !clusterDirectory.isRouting() || !clusterDirectory.isMembershipKnown()) {
+            return;
+        }
+        Set<String> members = clusterDirectory.getMemberIds();
+        if (members.equals(releasedMembers)) {
+            return;
+        }
+        try {
+            Set<String> departed = new TreeSet<>(userRepository.findOnlineNodeIds());
+            departed.removeAll(members);
+            if (!departed.isEmpty()) {
+                long reset = userRepository.releaseNodes(departed);
+                log.info("Presence snapshot: reset {} users left ONLINE by departed nodes {}.", reset, departed);
+            }
+            releasedMembers = members;
+        } catch (RuntimeException e) {
+            log.warn("Presence snapshot: failed to release departed nodes, retrying on the next interval: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Presence snapshot failed, retrying on the next interval: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+}
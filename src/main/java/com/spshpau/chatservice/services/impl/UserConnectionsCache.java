@@ -0,0 +1,233 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.config.VirtualThreads;
+import com.spshpau.chatservice.controller.dto.UserSummaryDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Per-user cache of the connections returned by the user service.
+ * <ul>
+ *     <li>Entries younger than {@code ttl-ms} are served directly.</li>
+ *     <li>Entries older than that but younger than {@code max-stale-ms} are served while a background refresh
+ *     runs (stale-while-revalidate).</li>
+ *     <li>Older or missing entries are loaded on the calling thread; if that load fails, any entry still held
+ *     is served instead, however old, so summaries keep working while the user service is down.</li>
+ * </ul>
+ * Concurrent loads for the same user are coalesced into one call. The cache holds at most {@code max-size}
+ * users and evicts the least recently used.
+ */
+@Component
+@Slf4j
+public class UserConnectionsCache {
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+    private final int maxSize;
+    private final Clock clock;
+    private final ExecutorService refreshExecutor;
+
+    private final Map<UUID, Entry> entries;
+    private final ConcurrentMap<UUID, CompletableFuture<List<UserSummaryDto>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter staleCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+    private final Counter staleOnErrorCounter;
+    private final Counter evictionCounter;
+    private final Counter loadFailureCounter;
+    private final Timer loadTimer;
+
+    @Autowired
+    public UserConnectionsCache(
+            MeterRegistry meterRegistry,
+            @Value("${chat.connections.cache.enabled:true}") boolean enabled,
+            @Value("${chat.connections.cache.ttl-ms:30000}") long ttlMillis,
+            @Value("${chat.connections.cache.max-stale-ms:300000}") long maxStaleMillis,
+            @Value("${chat.connections.cache.max-size:10000}") int maxSize,
+            @Value("${chat.connections.cache.refresh-threads:2}") int refreshThreads,
+            @Value("${" + VirtualThreads.PROPERTY + ":false}") boolean virtualThreads
+    ) {
+        this(meterRegistry, enabled, ttlMillis, maxStaleMillis, maxSize, Clock.systemUTC(),
+                virtualThreads
+                        ? VirtualThreads.perTaskExecutor("chat-connections-refresh-")
+                        : Executors.newFixedThreadPool(refreshThreads, runnable -> {
+                            Thread thread = new Thread(runnable, "chat-connections-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }));
+    }
+
+    UserConnectionsCache(MeterRegistry meterRegistry, boolean enabled, long ttlMillis, long maxStaleMillis,
+                         int maxSize, Clock clock, ExecutorService refreshExecutor) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = Math.max(ttlMillis, maxStaleMillis);
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
+
+        this.evictionCounter = Counter.builder("chat.connections.cache.evictions")
+                .description("Users evicted because the cache was full")
+                .register(meterRegistry);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                if (size() > UserConnectionsCache.this.maxSize) {
+                    evictionCounter.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.hitCounter = requestCounter(meterRegistry, "hit");
+        this.staleCounter = requestCounter(meterRegistry, "stale");
+        this.missCounter = requestCounter(meterRegistry, "miss");
+        this.coalescedCounter = Counter.builder("chat.connections.cache.coalesced")
+                .description("Loads that joined a load already in flight for the same user")
+                .register(meterRegistry);
+        this.staleOnErrorCounter = Counter.builder("chat.connections.cache.stale.on.error")
+                .description("Requests served from an expired entry because the user service call failed")
+                .register(meterRegistry);
+        this.loadFailureCounter = Counter.builder("chat.connections.cache.load.failures")
+                .description("Failed calls to the user service")
+                .register(meterRegistry);
+        this.loadTimer = Timer.builder("chat.connections.cache.load")
+                .description("Duration of calls to the user service")
+                .register(meterRegistry);
+        Gauge.builder("chat.connections.cache.size", this, UserConnectionsCache::size)
+                .description("Users with cached connections")
+                .register(meterRegistry);
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.connections.cache.requests")
+                .description("Connection lookups by cache result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the user's connections, loading them with {@code loader} when needed. The loader must be
+     * safe to run on a background thread, i.e. capture the caller's credentials rather than read them
+     * from thread-bound state.
+     *
+     * @throws RuntimeException from the loader if the connections had to be loaded, the load failed and
+     *                          nothing is cached for the user.
+     */
+    public List<UserSummaryDto> get(UUID userId, Supplier<List<UserSummaryDto>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        Entry entry = lookup(userId);
+        long age = entry != null ? clock.millis() - entry.loadedAt() : Long.MAX_VALUE;
+        if (age < ttlMillis) {
+            hitCounter.increment();
+            return entry.connections();
+        }
+        if (age < maxStaleMillis) {
+            staleCounter.increment();
+            log.debug("Serving connections of user {} aged {} ms, refreshing in the background.", userId, age);
+            load(userId, loader, true);
+            return entry.connections();
+        }
+
+        missCounter.increment();
+        try {
+            return load(userId, loader, false).join();
+        } catch (CompletionException e) {
+            if (entry != null) {
+                staleOnErrorCounter.increment();
+                log.warn("Loading connections of user {} failed, serving cached connections aged {} ms.", userId, age);
+                return entry.connections();
+            }
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    public void invalidate(UUID userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private Entry lookup(UUID userId) {
+        synchronized (entries) {
+            return entries.get(userId);
+        }
+    }
+
+    private CompletableFuture<List<UserSummaryDto>> load(UUID userId, Supplier<List<UserSummaryDto>> loader, boolean async) {
+        CompletableFuture<List<UserSummaryDto>> created = new CompletableFuture<>();
+        CompletableFuture<List<UserSummaryDto>> existing = inFlight.putIfAbsent(userId, created);
+        if (existing != null) {
+            coalescedCounter.increment();
+            return existing;
+        }
+
+        Runnable task = () -> {
+            Timer.Sample sample = Timer.start();
+            try {
+                List<UserSummaryDto> connections = List.copyOf(loader.get());
+                synchronized (entries) {
+                    entries.put(userId, new Entry(connections, clock.millis()));
+                }
+                created.complete(connections);
+            } catch (Throwable e) {
+                loadFailureCounter.increment();
+                if (async) {
+                    log.warn("Background refresh of connections for user {} failed: {}", userId, e.getMessage());
+                }
+                created.completeExceptionally(e);
+            } finally {
+                sample.stop(loadTimer);
+                inFlight.remove(userId, created);
+            }
+        };
+
+        if (!async) {
+            task.run();
+            return created;
+        }
+        try {
+            refreshExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(userId, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private record Entry(List<UserSummaryDto> connections, long loadedAt) {
+    }
+}
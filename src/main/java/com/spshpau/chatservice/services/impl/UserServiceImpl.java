@@ -5,72 +5,115 @@ import com.spshpau.chatservice.model.User;
 import com.spshpau.chatservice.model.enums.StatusEnum;
 import com.spshpau.chatservice.otherservices.UserClient;
 import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.PresenceNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
 import com.spshpau.chatservice.services.UserService;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class UserServiceImpl implements UserService {
 
     private final UserRepository userRepository;
     private final UserClient userClient;
+    private final UserConnectionsCache userConnectionsCache;
+    private final PresenceRegistry presenceRegistry;
+    private final PresenceNotifier presenceNotifier;
+
+    private final Counter insertCounter;
+    private final Counter updateCounter;
+    private final Counter skippedCounter;
+    private final Timer connectionsTimer;
+    private final Timer connectionsErrorTimer;
+
+    public UserServiceImpl(UserRepository userRepository, UserClient userClient,
+                           UserConnectionsCache userConnectionsCache, PresenceRegistry presenceRegistry,
+                           PresenceNotifier presenceNotifier, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.userClient = userClient;
+        this.userConnectionsCache = userConnectionsCache;
+        this.presenceRegistry = presenceRegistry;
+        this.presenceNotifier = presenceNotifier;
+        this.insertCounter = syncCounter(meterRegistry, "insert");
+        this.updateCounter = syncCounter(meterRegistry, "update");
+        this.skippedCounter = Counter.builder("chat.users.sync.skipped")
+                .description("Synced users left unwritten because their profile was unchanged")
+                .register(meterRegistry);
+        this.connectionsTimer = userClientTimer(meterRegistry, "connections", "success");
+        this.connectionsErrorTimer = userClientTimer(meterRegistry, "connections", "error");
+    }
 
-    @Override
-    public User saveUser(UUID userId, String username, String firstName, String lastName, boolean fetch) {
-        log.info("Attempting to save or update user with ID: {}, Username: {}", userId, username);
-        User user = userRepository.findById(userId)
-                .orElse(new User());
+    private static Timer userClientTimer(MeterRegistry meterRegistry, String operation, String outcome) {
+        return Timer.builder("chat.userclient.requests")
+                .description("Calls to the user service")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
 
-        boolean isNewUser = user.getId() == null;
-        if (isNewUser) {
-            log.debug("User with ID: {} not found, creating new user.", userId);
-            user.setId(userId);
-        } else {
-            log.debug("User with ID: {} found, updating existing user.", userId);
-        }
+    private static Counter syncCounter(MeterRegistry meterRegistry, String type) {
+        return Counter.builder("chat.users.sync.writes")
+                .description("Users written while syncing connections from the user service")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
 
-        user.setUsername(username);
-        user.setFirstName(firstName);
-        user.setLastName(lastName);
-        if (!fetch) {
-            user.setStatus(StatusEnum.ONLINE);
+    private List<UserSummaryDto> fetchConnections(String bearerToken) {
+        Timer.Sample sample = Timer.start();
+        try {
+            List<UserSummaryDto> connections = userClient.findConnectionsByJwt(bearerToken);
+            sample.stop(connectionsTimer);
+            return connections;
+        } catch (RuntimeException e) {
+            sample.stop(connectionsErrorTimer);
+            throw e;
         }
+    }
 
-        User savedUser = userRepository.save(user);
-        log.info("{} user with ID: {}, Username: {} successfully. Status set to ONLINE.",
-                isNewUser ? "Saved new" : "Updated", savedUser.getId(), savedUser.getUsername());
-        return savedUser;
+    @Override
+    public User saveUser(UUID userId, String username, String firstName, String lastName) {
+        log.info("Attempting to save or update user with ID: {}, Username: {}", userId, username);
+        User user = profile(userId, username, firstName, lastName);
+        userRepository.upsertProfiles(List.of(user));
+        user.setStatus(presenceStatus(userId));
+        log.info("Saved profile of user with ID: {}, Username: {}. Presence is {}.", userId, username, user.getStatus());
+        return user;
     }
 
     @Override
-    public User disconnect(UUID userId) {
-        log.info("Attempting to disconnect user with ID: {}", userId);
-        User storedUser = userRepository.findById(userId)
-                .orElse(null);
-
-        if (storedUser != null) {
-            storedUser.setStatus(StatusEnum.OFFLINE);
-            User savedUser = userRepository.save(storedUser);
-            log.info("User with ID: {} successfully disconnected. Status set to OFFLINE.", userId);
-            return savedUser;
+    public User disconnect(UUID userId, String sessionId) {
+        log.info("Attempting to disconnect session {} of user with ID: {}", sessionId, userId);
+        if (sessionId != null && userId.equals(presenceRegistry.getSessionUser(sessionId))) {
+            presenceRegistry.sessionDisconnected(sessionId);
         } else {
+            log.warn("Session {} does not belong to user {}, leaving presence unchanged.", sessionId, userId);
+        }
+
+        User storedUser = userRepository.findById(userId).orElse(null);
+        if (storedUser == null) {
             log.warn("User with ID: {} not found for disconnection.", userId);
             return null;
         }
+        storedUser.setStatus(presenceStatus(userId));
+        log.info("User with ID: {} disconnected session {}, now {}.", userId, sessionId, storedUser.getStatus());
+        return storedUser;
     }
 
     @Override
     public List<User> findConnectedUsers() {
         log.info("Fetching all connected (ONLINE) users.");
-        List<User> connectedUsers = userRepository.findAllByStatus(StatusEnum.ONLINE);
+        List<User> connectedUsers = new ArrayList<>();
+        userRepository.findAllById(presenceRegistry.getOnlineUserIds()).forEach(user -> {
+            user.setStatus(StatusEnum.ONLINE);
+            connectedUsers.add(user);
+        });
         log.info("Found {} connected users.", connectedUsers.size());
         return connectedUsers;
     }
@@ -97,8 +140,7 @@ public class UserServiceImpl implements UserService {
             return new ArrayList<>();
         }
 
-        log.debug("Ensuring local user record exists for user ID: {}, Username: {}", keycloakUuid, username);
-        saveUser(keycloakUuid, username, firstName, lastName, false);
+        User self = profile(keycloakUuid, username, firstName, lastName);
 
         String tokenValue = jwt.getTokenValue();
         String bearerToken = "Bearer " + tokenValue;
@@ -106,25 +148,99 @@ public class UserServiceImpl implements UserService {
         log.debug("Calling UserClient to find connections for user ID: {}", keycloakUuid);
         List<UserSummaryDto> connections;
         try {
-            connections = userClient.findConnectionsByJwt(bearerToken);
+            connections = userConnectionsCache.get(keycloakUuid, () -> fetchConnections(bearerToken));
             log.info("Received {} connections from UserClient for user ID: {}", connections.size(), keycloakUuid);
         } catch (Exception e) {
             log.error("Error calling UserClient to find connections for user ID: {}.", keycloakUuid, e);
+            syncUsers(List.of(self));
             return new ArrayList<>();
         }
 
-        List<User> chats = new ArrayList<>();
+        List<User> desired = new ArrayList<>(connections.size() + 1);
+        Set<UUID> seen = new HashSet<>();
+        desired.add(self);
+        seen.add(keycloakUuid);
         for ( UserSummaryDto dto : connections ) {
             if (dto.getId() == null) {
                 log.warn("Skipping connection with null ID: {}", dto);
                 continue;
             }
-            log.debug("Processing connection DTO: ID={}, Username={}", dto.getId(), dto.getUsername());
-            User chatPartner = saveUser(dto.getId(), dto.getUsername(), dto.getFirstName(), dto.getLastName(), true);
-            chats.add(chatPartner);
+            if (!seen.add(dto.getId())) {
+                continue;
+            }
+            desired.add(profile(dto.getId(), dto.getUsername(), dto.getFirstName(), dto.getLastName()));
         }
 
+        List<User> synced = syncUsers(desired);
+        List<User> chats = new ArrayList<>(synced.subList(1, synced.size()));
+        chats.forEach(partner -> partner.setStatus(presenceStatus(partner.getId())));
+        presenceNotifier.registerConnections(keycloakUuid, chats.stream().map(User::getId).toList());
         log.info("Successfully processed {} chat partners for user ID: {}", chats.size(), keycloakUuid);
         return chats;
     }
+
+    /**
+     * Brings the local records of the given users in line with the desired profiles using one {@code $in}
+     * read and at most one unordered bulk write. Users whose username, first and last name already match are
+     * not written. Status is owned by the presence snapshot and never written here.
+     *
+     * @return The resulting users, in the order given.
+     */
+    private List<User> syncUsers(List<User> desired) {
+        Map<UUID, User> existingById = new HashMap<>();
+        userRepository.findAllById(desired.stream().map(User::getId).toList())
+                .forEach(user -> existingById.put(user.getId(), user));
+
+        Map<UUID, User> toWrite = new LinkedHashMap<>();
+        List<User> result = new ArrayList<>(desired.size());
+        int inserts = 0;
+        for (User wanted : desired) {
+            User existing = existingById.get(wanted.getId());
+            if (existing == null) {
+                toWrite.put(wanted.getId(), wanted);
+                result.add(wanted);
+                inserts++;
+                continue;
+            }
+            if (ProfileFingerprint.of(existing).equals(ProfileFingerprint.of(wanted))) {
+                result.add(existing);
+                continue;
+            }
+            existing.setUsername(wanted.getUsername());
+            existing.setFirstName(wanted.getFirstName());
+            existing.setLastName(wanted.getLastName());
+            toWrite.put(existing.getId(), wanted);
+            result.add(existing);
+        }
+
+        if (!toWrite.isEmpty()) {
+            userRepository.upsertProfiles(toWrite.values());
+        }
+        int updates = toWrite.size() - inserts;
+        int skipped = desired.size() - toWrite.size();
+        insertCounter.increment(inserts);
+        updateCounter.increment(updates);
+        skippedCounter.increment(skipped);
+        log.debug("User sync: {} inserted, {} updated, {} unchanged.", inserts, updates, skipped);
+        return result;
+    }
+
+    private StatusEnum presenceStatus(UUID userId) {
+        return presenceRegistry.isOnline(userId) ? StatusEnum.ONLINE : StatusEnum.OFFLINE;
+    }
+
+    private static User profile(UUID id, String username, String firstName, String lastName) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+
+    private record ProfileFingerprint(String username, String firstName, String lastName) {
+        static ProfileFingerprint of(User user) {
+            return new ProfileFingerprint(user.getUsername(), user.getFirstName(), user.getLastName());
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package com.spshpau.chatservice.services.impl;
+
+/**
+ * When a message accepted by the write-behind pipeline counts as persisted, i.e. when its future
+ * completes and the recipient gets notified.
+ */
+public enum WriteBehindAckMode {
+    /**
+     * Acknowledged as soon as the message is queued. Lowest latency, but a crash or a failed flush
+     * loses messages the recipient was already notified about.
+     */
+    ON_ENQUEUE,
+    /**
+     * Acknowledged once the batch containing the message is written with the default write concern.
+     */
+    ON_FLUSH,
+    /**
+     * Acknowledged once the batch is journaled on a majority of the replica set.
+     */
+    ON_JOURNAL
+}
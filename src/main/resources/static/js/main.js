@@ -41,10 +41,20 @@ let selectedChatId = null;
 let currentUser = null;
 
 let chatRefreshIntervalId = null;
-let chatListRefreshIntervalId = null;
 const REFRESH_INTERVAL_MS = 5000;
+const INBOX_GAP_GRACE_MS = 3000; // frames may be reordered on the way; only a gap that persists means loss
+const HISTORY_PAGE_SIZE = 100;
 
 let isFetchingChatHistory = false;
+let chatSyncCursor = null; // position in the active chat's changes, from the history page or the last sync
+
+// Chat list updates pushed on /user/queue/inbox-updates, numbered consecutively per user
+let inboxExpectedSeq = null;
+let inboxEarlySeqs = new Set();
+let inboxGapTimerId = null;
+let isLoadingChatList = false;
+let chatListReloadQueued = false;
+let bufferedInboxUpdates = [];
 
 // --- Authentication & Initialization ---
 async function getUser() {
@@ -76,11 +86,7 @@ async function logoutUser() {
         chatRefreshIntervalId = null;
         console.log('Cleared active chat refresh interval.');
     }
-    if (chatListRefreshIntervalId) {
-        clearInterval(chatListRefreshIntervalId);
-        chatListRefreshIntervalId = null;
-        console.log('Cleared chat list refresh interval.');
-    }
+    resetInboxUpdates();
 
     if (stompClient && stompClient.connected && userUUID) {
         const disconnectPayload = { userId: userUUID };
@@ -172,7 +178,9 @@ function onConnected() {
 
     stompClient.subscribe(`/user/${userUUID}/queue/messages`, onMessageReceived);
     stompClient.subscribe(`/user/${userUUID}/queue/status-updates`, onMessageStatusUpdate);
-    stompClient.subscribe(`/topic/presence`, onPresenceUpdate);
+    stompClient.subscribe(`/user/${userUUID}/queue/presence`, onPresenceUpdate);
+    resetInboxUpdates();
+    stompClient.subscribe(`/user/${userUUID}/queue/inbox-updates`, onInboxUpdate);
 
     if (userUUID && username) {
         const connectPayload = {
@@ -184,12 +192,11 @@ function onConnected() {
         stompClient.send("/app/user.addUser", {}, JSON.stringify(connectPayload));
     }
 
+    // Loaded once; afterwards the list follows the pushed updates and is only reloaded after a gap.
     findAndDisplayChatSummaries().then(() => {
-        if (chatListRefreshIntervalId) clearInterval(chatListRefreshIntervalId);
-        chatListRefreshIntervalId = setInterval(findAndDisplayChatSummaries, REFRESH_INTERVAL_MS);
-        console.log('Initial chat list displayed and summary refresh interval started.');
+        console.log('Initial chat list displayed.');
     }).catch(error => {
-        console.error("Error during initial chat list display or starting interval:", error);
+        console.error("Error during initial chat list display:", error);
     });
 }
 
@@ -203,22 +210,26 @@ function onError(error) {
         chatRefreshIntervalId = null;
         console.log('Cleared active chat refresh interval due to WebSocket error.');
     }
-    if (chatListRefreshIntervalId) {
-        clearInterval(chatListRefreshIntervalId);
-        chatListRefreshIntervalId = null;
-        console.log('Cleared chat list refresh interval due to WebSocket error.');
-    }
+    resetInboxUpdates();
 }
 
 // --- Presence & Status Updates ---
 function onPresenceUpdate(payload) {
     try {
-        const updatedUser = JSON.parse(payload.body);
-        if (!updatedUser || !updatedUser.id) return;
-        const listItem = connectedUsersList.querySelector(`[data-user-id="${updatedUser.id}"]`);
-        if (listItem) {
-            updateOnlineIndicator(listItem, updatedUser.status === 'ONLINE');
+        const presenceUpdate = JSON.parse(payload.body);
+        if (!presenceUpdate) return;
+        if (presenceUpdate.resync) {
+            // Deltas were dropped while this connection was behind; the summaries carry the current presence.
+            findAndDisplayChatSummaries();
+            return;
         }
+        if (!presenceUpdate.changes) return;
+        presenceUpdate.changes.forEach(change => {
+            const listItem = connectedUsersList.querySelector(`[data-user-id="${change.userId}"]`);
+            if (listItem) {
+                updateOnlineIndicator(listItem, change.status === 'ONLINE');
+            }
+        });
     } catch (e) { console.error("Error processing presence update:", e); }
 }
 
@@ -226,12 +237,26 @@ function onMessageStatusUpdate(payload) {
     console.log('Message status update received:', payload);
     try {
         const statusUpdate = JSON.parse(payload.body);
-        if (!statusUpdate || !statusUpdate.messageIds || !statusUpdate.newStatus) return;
+        if (!statusUpdate || !statusUpdate.newStatus) return;
+
+        // Watermark form: every own message in the chat sent up to the timestamp has reached newStatus.
+        if (statusUpdate.upToSentAt) {
+            if (statusUpdate.chatId !== selectedChatId) return;
+            const watermark = new Date(statusUpdate.upToSentAt).getTime();
+            chatArea.querySelectorAll('.message.sender').forEach(messageElement => {
+                const sentAt = Number(messageElement.dataset.sentAt);
+                if (!Number.isNaN(sentAt) && sentAt <= watermark) {
+                    advanceMessageStatus(messageElement, statusUpdate.newStatus);
+                }
+            });
+            return;
+        }
 
+        if (!statusUpdate.messageIds) return;
         statusUpdate.messageIds.forEach(messageId => {
             const messageElement = chatArea.querySelector(`[data-message-id="${messageId}"]`);
             if (messageElement) {
-                updateMessageStatusIndicator(messageElement, statusUpdate.newStatus);
+                advanceMessageStatus(messageElement, statusUpdate.newStatus);
             }
         });
     } catch (e) { console.error("Error processing message status update:", e); }
@@ -239,6 +264,27 @@ function onMessageStatusUpdate(payload) {
 
 // --- Chat List & Summaries ---
 async function findAndDisplayChatSummaries() {
+    if (isLoadingChatList) {
+        chatListReloadQueued = true;
+        return;
+    }
+    isLoadingChatList = true;
+    try {
+        await loadChatSummaries();
+    } finally {
+        isLoadingChatList = false;
+        // Updates received while loading may or may not be in the summaries; their versions sort it out.
+        const buffered = bufferedInboxUpdates;
+        bufferedInboxUpdates = [];
+        buffered.forEach(applyInboxUpdate);
+        if (chatListReloadQueued) {
+            chatListReloadQueued = false;
+            findAndDisplayChatSummaries();
+        }
+    }
+}
+
+async function loadChatSummaries() {
     const accessToken = await getAccessToken();
     if (!accessToken) {
         connectedUsersList.innerHTML = '<li>Authentication error.</li>';
@@ -282,6 +328,11 @@ function appendChatPartnerElement(summary, list) {
     listItem.dataset.userId = partner.id;
     listItem.dataset.username = partner.username;
     listItem.dataset.chatId = summary.chatId;
+    listItem.dataset.version = summary.version || 0;
+    listItem.dataset.lastMessageAt = summary.lastMessageAt ? new Date(summary.lastMessageAt).getTime() : 0;
+    if (partner.id === selectedUserUuid) {
+        listItem.classList.add('active');
+    }
 
     const userImage = document.createElement('img');
     userImage.src = '../img/user_icon.png';
@@ -302,17 +353,104 @@ function appendChatPartnerElement(summary, list) {
     // Unread Messages Count
     const unreadMsgsSpan = document.createElement('span');
     unreadMsgsSpan.classList.add('nbr-msg');
-    if (summary.unreadCount > 0) {
-        unreadMsgsSpan.textContent = summary.unreadCount;
-    } else {
-        unreadMsgsSpan.classList.add('hidden');
-    }
     listItem.appendChild(unreadMsgsSpan);
+    updateUnreadCount(listItem, summary.unreadCount);
 
     listItem.addEventListener('click', userItemClick);
     list.appendChild(listItem);
 }
 
+function updateUnreadCount(listItem, unreadCount) {
+    const unreadMsgsSpan = listItem.querySelector('.nbr-msg');
+    if (!unreadMsgsSpan) return;
+    if (unreadCount > 0) {
+        unreadMsgsSpan.textContent = unreadCount;
+        unreadMsgsSpan.classList.remove('hidden');
+    } else {
+        unreadMsgsSpan.textContent = '0';
+        unreadMsgsSpan.classList.add('hidden');
+    }
+}
+
+// --- Pushed Chat List Updates ---
+function resetInboxUpdates() {
+    if (inboxGapTimerId) {
+        clearTimeout(inboxGapTimerId);
+        inboxGapTimerId = null;
+    }
+    inboxExpectedSeq = null;
+    inboxEarlySeqs = new Set();
+    bufferedInboxUpdates = [];
+}
+
+function onInboxUpdate(payload) {
+    try {
+        const update = JSON.parse(payload.body);
+        if (!update || !update.chatId) return;
+        trackInboxSeq(update.seq);
+        if (isLoadingChatList) {
+            bufferedInboxUpdates.push(update);
+        } else {
+            applyInboxUpdate(update);
+        }
+    } catch (e) { console.error("Error processing inbox update:", e); }
+}
+
+// Detects lost updates: a number that stays missing for the grace period triggers a reload of the chat list.
+function trackInboxSeq(seq) {
+    if (inboxExpectedSeq === null) {
+        inboxExpectedSeq = seq + 1;
+        return;
+    }
+    if (seq < inboxExpectedSeq) return; // late, already accounted for
+    if (seq === inboxExpectedSeq) {
+        inboxExpectedSeq++;
+        while (inboxEarlySeqs.delete(inboxExpectedSeq)) inboxExpectedSeq++;
+    } else {
+        inboxEarlySeqs.add(seq);
+    }
+
+    if (inboxEarlySeqs.size === 0) {
+        if (inboxGapTimerId) {
+            clearTimeout(inboxGapTimerId);
+            inboxGapTimerId = null;
+        }
+    } else if (!inboxGapTimerId) {
+        inboxGapTimerId = setTimeout(onInboxGap, INBOX_GAP_GRACE_MS);
+    }
+}
+
+function onInboxGap() {
+    inboxGapTimerId = null;
+    console.warn(`Inbox update ${inboxExpectedSeq} was lost, reloading the chat list.`);
+    // The reload covers everything up to now, so numbering continues after the newest update seen.
+    inboxExpectedSeq = Math.max(...inboxEarlySeqs) + 1;
+    inboxEarlySeqs = new Set();
+    findAndDisplayChatSummaries();
+}
+
+function applyInboxUpdate(update) {
+    const listItem = connectedUsersList.querySelector(`[data-chat-id="${update.chatId}"]`)
+        || connectedUsersList.querySelector(`[data-user-id="${update.partnerId}"]`);
+    if (!listItem) {
+        // A chat with someone not in the list yet; their details only come with the summaries.
+        findAndDisplayChatSummaries();
+        return;
+    }
+    if (Number(listItem.dataset.version || 0) >= update.version) return; // outdated or already shown
+
+    listItem.dataset.version = update.version;
+    listItem.dataset.chatId = update.chatId;
+    // The active chat is marked as read as messages arrive, so its count is about to drop to 0 anyway.
+    updateUnreadCount(listItem, update.chatId === selectedChatId ? 0 : update.unreadCount);
+
+    const lastMessageAt = update.lastMessageAt ? new Date(update.lastMessageAt).getTime() : 0;
+    if (lastMessageAt > Number(listItem.dataset.lastMessageAt || 0)) {
+        listItem.dataset.lastMessageAt = lastMessageAt;
+        connectedUsersList.prepend(listItem);
+    }
+}
+
 function updateOnlineIndicator(listItem, isOnline, indicatorElement) {
     let indicator = indicatorElement || listItem.querySelector('.online-indicator');
     if (isOnline) {
@@ -356,12 +494,9 @@ async function userItemClick(event) {
 
     selectedUserUuid = newSelectedUserUuid;
     selectedChatId = newSelectedChatId;
+    chatSyncCursor = null;
 
-    const unreadMsgsSpan = clickedUserElement.querySelector('.nbr-msg');
-    if (unreadMsgsSpan) {
-        unreadMsgsSpan.textContent = '0';
-        unreadMsgsSpan.classList.add('hidden');
-    }
+    updateUnreadCount(clickedUserElement, 0);
 
     await fetchAndDisplayUserChat(selectedUserUuid, selectedChatId);
 
@@ -386,7 +521,11 @@ async function refreshActiveChat(refreshForUserUuid, refreshForChatId) {
         !messageForm.classList.contains('hidden')) {
 
         console.log(`Refreshing active chat with ${refreshForUserUuid} (Chat ID: ${refreshForChatId})`);
-        await fetchAndDisplayUserChat(refreshForUserUuid, refreshForChatId);
+        if (chatSyncCursor) {
+            await syncUserChat(refreshForUserUuid);
+        } else {
+            await fetchAndDisplayUserChat(refreshForUserUuid, refreshForChatId);
+        }
 
         if (refreshForChatId && refreshForChatId !== "null" && refreshForChatId !== "undefined") {
             markMessagesAsRead(refreshForChatId);
@@ -417,7 +556,7 @@ async function fetchAndDisplayUserChat(targetUserUuid, targetChatId) {
     }
 
     try {
-        const response = await fetch(`/api/v1/messages/${userUUID}/${targetUserUuid}`, {
+        const response = await fetch(`/api/v1/messages/${userUUID}/${targetUserUuid}/history?direction=OLDER&limit=${HISTORY_PAGE_SIZE}`, {
             headers: { 'Authorization': 'Bearer ' + accessToken }
         });
         console.log('fetchAndDisplayUserChat - Response status:', response.status, 'for target:', targetUserUuid);
@@ -433,10 +572,12 @@ async function fetchAndDisplayUserChat(targetUserUuid, targetChatId) {
             throw new Error(`HTTP error! status: ${response.status}`);
         }
 
-        const messages = await response.json();
+        const page = await response.json();
+        const messages = page.messages.slice().reverse();
         console.log('fetchAndDisplayUserChat - Received messages:', messages, 'for target:', targetUserUuid);
 
         if (targetUserUuid === selectedUserUuid) {
+            chatSyncCursor = page.syncCursor;
             chatArea.innerHTML = '';
             if (messages.length === 0) {
                 const selectedUserElement = connectedUsersList.querySelector(`[data-user-id="${targetUserUuid}"]`);
@@ -444,7 +585,7 @@ async function fetchAndDisplayUserChat(targetUserUuid, targetChatId) {
                 chatArea.innerHTML = `<p>No messages with ${selectedUsernameDisplay} yet.</p>`;
             } else {
                 messages.forEach(msg => {
-                    displayMessage(msg.senderId, msg.content, msg.id, msg.status, msg.sentAt, msg.readAt || msg.deliveredAt || msg.sentAt);
+                    displayMessage(msg.senderId, msg.content, msg.id, msg.status, msg.sentAt, msg.statusTimestamp);
                 });
             }
             chatArea.scrollTop = chatArea.scrollHeight;
@@ -463,6 +604,74 @@ async function fetchAndDisplayUserChat(targetUserUuid, targetChatId) {
     }
 }
 
+// Applies the changes made to the active chat since chatSyncCursor instead of downloading it again.
+// The server answers 304 when nothing changed; a rejected cursor falls back to a full reload on the next refresh.
+async function syncUserChat(targetUserUuid) {
+    if (isFetchingChatHistory) {
+        console.log("syncUserChat: Already fetching history, skipping this call.");
+        return;
+    }
+    isFetchingChatHistory = true;
+    try {
+        const accessToken = await getAccessToken();
+        if (!accessToken) {
+            console.error("syncUserChat: Failed to get access token.");
+            return;
+        }
+        let hasMore = true;
+        while (hasMore && chatSyncCursor && targetUserUuid === selectedUserUuid) {
+            const response = await fetch(`/api/v1/messages/${userUUID}/${targetUserUuid}/sync?cursor=${encodeURIComponent(chatSyncCursor)}`, {
+                headers: { 'Authorization': 'Bearer ' + accessToken },
+                cache: 'no-store'
+            });
+            if (response.status === 304) {
+                return;
+            }
+            if (!response.ok) {
+                console.warn(`syncUserChat - HTTP error! Status: ${response.status}, reloading the chat on the next refresh.`);
+                chatSyncCursor = null;
+                if (response.status === 401) { await login(); }
+                return;
+            }
+            const sync = await response.json();
+            if (targetUserUuid !== selectedUserUuid) {
+                return;
+            }
+            sync.changes.forEach(applyChatChange);
+            chatSyncCursor = sync.cursor;
+            hasMore = sync.hasMore;
+            console.log(`syncUserChat - Applied ${sync.changes.length} changes for target ${targetUserUuid}.`);
+        }
+    } catch (error) {
+        console.error('Error in syncUserChat:', error);
+    } finally {
+        isFetchingChatHistory = false;
+    }
+}
+
+function applyChatChange(msg) {
+    let messageElement = chatArea.querySelector(`[data-message-id="${msg.id}"]`);
+    if (!messageElement && msg.senderId === userUUID) {
+        // Own messages are shown under a temporary id until the server has assigned one.
+        messageElement = Array.from(chatArea.querySelectorAll('.message.sender[data-message-id^="temp-"]'))
+            .find(candidate => candidate.querySelector('p').firstChild.textContent === msg.content);
+        if (messageElement) {
+            messageElement.dataset.messageId = msg.id;
+        }
+    }
+    if (messageElement) {
+        if (messageElement.classList.contains('sender')) {
+            advanceMessageStatus(messageElement, msg.status);
+        }
+        return;
+    }
+    const emptyChatNotice = chatArea.querySelector(':scope > p');
+    if (emptyChatNotice) {
+        emptyChatNotice.remove();
+    }
+    displayMessage(msg.senderId, msg.content, msg.id, msg.status, msg.sentAt, msg.statusTimestamp);
+}
+
 function sendMessage(event) {
     event.preventDefault();
     const messageContent = messageInput.value.trim();
@@ -492,14 +701,8 @@ function onMessageReceived(payload) {
             console.log("New message is for active chat, marking as read immediately.");
             markMessagesAsRead(selectedChatId);
         } else if (notification.recipientId === userUUID) {
-            const senderListItem = connectedUsersList.querySelector(`[data-user-id="${notification.senderId}"]`);
-            if (senderListItem) {
-                const unreadMsgsSpan = senderListItem.querySelector('.nbr-msg');
-                if (unreadMsgsSpan) {
-                    unreadMsgsSpan.classList.remove('hidden');
-                    unreadMsgsSpan.textContent = (parseInt(unreadMsgsSpan.textContent) || 0) + 1;
-                }
-            }
+            // The unread count arrives with the inbox update; acknowledge delivery to the sender.
+            markMessagesAsDelivered(notification.chatId);
         }
     } catch (e) { console.error("Error processing received message:", e); }
 }
@@ -508,6 +711,7 @@ function displayMessage(senderId, content, messageId, status, sentAt, statusTime
     const messageContainer = document.createElement('div');
     messageContainer.classList.add('message');
     messageContainer.dataset.messageId = messageId;
+    messageContainer.dataset.sentAt = new Date(sentAt).getTime();
 
     const messageText = document.createElement('p');
     messageText.textContent = content;
@@ -533,8 +737,18 @@ function displayMessage(senderId, content, messageId, status, sentAt, statusTime
     chatArea.scrollTop = chatArea.scrollHeight;
 }
 
+const STATUS_RANK = { SENT: 0, DELIVERED: 1, READ: 2 };
+
+// Applies a status only if it moves the message forward (a late DELIVERED must not undo READ)
+function advanceMessageStatus(messageElement, newStatus) {
+    const currentRank = STATUS_RANK[messageElement.dataset.status];
+    if (currentRank !== undefined && STATUS_RANK[newStatus] <= currentRank) return;
+    updateMessageStatusIndicator(messageElement, newStatus);
+}
+
 // Helper to update status indicator on a message element
 function updateMessageStatusIndicator(messageElement, newStatus) {
+    messageElement.dataset.status = newStatus;
     let statusSpan = messageElement.querySelector('.message-status');
     if (!statusSpan && messageElement.classList.contains('sender')) {
         statusSpan = document.createElement('span');
@@ -582,6 +796,13 @@ function markMessagesAsRead(chatIdToMark) {
     }
 }
 
+function markMessagesAsDelivered(chatIdToMark) {
+    if (stompClient && stompClient.connected && chatIdToMark) {
+        const payload = { chatId: chatIdToMark };
+        stompClient.send("/app/chat.markAsDelivered", {}, JSON.stringify(payload));
+    }
+}
+
 // --- Event Listeners & App Start ---
 messageForm.addEventListener('submit', sendMessage, true);
 logout.addEventListener('click', logoutUser, true);
@@ -0,0 +1,58 @@
+package com.spshpau.chatservice.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsConfigTest {
+
+    private SimpleMeterRegistry registry(boolean histogram, double[] percentiles, long[] sloMillis) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(new MetricsConfig()
+                .chatDistributionMeterFilter(histogram, percentiles, sloMillis, 120_000));
+        return registry;
+    }
+
+    @Test
+    void chatTimers_getConfiguredPercentilesAndSlos() {
+        SimpleMeterRegistry registry = registry(false, new double[]{0.5, 0.99}, new long[]{50, 250});
+
+        Timer timer = registry.timer("chat.messages.save");
+        timer.record(Duration.ofMillis(10));
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+
+        assertEquals(2, snapshot.percentileValues().length);
+        assertEquals(2, snapshot.histogramCounts().length);
+        assertEquals(Duration.ofMillis(50).toNanos(), snapshot.histogramCounts()[0].bucket());
+    }
+
+    @Test
+    void otherMeters_areLeftAlone() {
+        SimpleMeterRegistry registry = registry(true, new double[]{0.5}, new long[]{50});
+
+        Timer timer = registry.timer("http.server.requests");
+        timer.record(Duration.ofMillis(10));
+
+        assertEquals(0, timer.takeSnapshot().percentileValues().length);
+        assertEquals(0, timer.takeSnapshot().histogramCounts().length);
+    }
+
+    @Test
+    void explicitMeterSettings_takePrecedence() {
+        SimpleMeterRegistry registry = registry(true, new double[0], new long[0]);
+
+        DistributionSummary summary = DistributionSummary.builder("chat.messages.status.batch")
+                .publishPercentiles(0.9)
+                .register(registry);
+        summary.record(3);
+
+        assertEquals(1, summary.takeSnapshot().percentileValues().length);
+        assertEquals(0.9, summary.takeSnapshot().percentileValues()[0].percentile());
+    }
+}
@@ -0,0 +1,373 @@
+package com.spshpau.chatservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spshpau.chatservice.controller.notifications.ChatNotification;
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OutboundBackpressureTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+    private ExecutorService senders;
+    private WebSocketSession socket;
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch firstSendStarted = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+        senders = Executors.newSingleThreadExecutor();
+        socket = mock(WebSocketSession.class);
+        when(socket.getId()).thenReturn("session-1");
+        when(socket.isOpen()).thenReturn(true);
+        // The first frame stays on the wire until released, like a client that stopped reading.
+        doAnswer(invocation -> {
+            firstSendStarted.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            sent.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(socket).sendMessage(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        senders.shutdown();
+    }
+
+    private OutboundBackpressure backpressure(int maxFrames, long maxBytes) {
+        return new OutboundBackpressure(objectMapper, meterRegistry, true, maxFrames, maxBytes, 5_000, 10_000, 64,
+                clock, senders, mock(ScheduledExecutorService.class));
+    }
+
+    private WebSocketSession connect(OutboundBackpressure backpressure) throws Exception {
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+        backpressure.decorate(handler).afterConnectionEstablished(socket);
+        ArgumentCaptor<WebSocketSession> session = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler).afterConnectionEstablished(session.capture());
+        return session.getValue();
+    }
+
+    /**
+     * Sends a first frame and waits until it is being written, so the following frames queue up behind it.
+     */
+    private void stall(WebSocketSession session) throws Exception {
+        session.sendMessage(frame("/user/queue/inbox-updates", "{}"));
+        assertTrue(firstSendStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private TextMessage frame(String destination, Object body) throws Exception {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId(UUID.randomUUID().toString());
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        byte[] payload = body instanceof String json ? json.getBytes(StandardCharsets.UTF_8) : objectMapper.writeValueAsBytes(body);
+        return new TextMessage(new StompEncoder().encode(MessageBuilder.createMessage(payload, accessor.getMessageHeaders())));
+    }
+
+    private TextMessage message(String content) throws Exception {
+        return frame("/user/queue/messages", ChatNotification.builder().id(UUID.randomUUID()).content(content).build());
+    }
+
+    private TextMessage status(UUID chatId, MessageStatus status, UUID... messageIds) throws Exception {
+        return frame("/user/queue/status-updates", MessageStatusUpdateNotification.builder().chatId(chatId)
+                .newStatus(status).messageIds(List.of(messageIds)).statusTimestamp(Instant.now()).build());
+    }
+
+    private TextMessage presence(PresenceDeltaNotification.Delta... deltas) throws Exception {
+        return frame("/user/queue/presence", PresenceDeltaNotification.builder().changes(List.of(deltas)).build());
+    }
+
+    private static StompHeaderAccessor headers(Message<byte[]> frame) {
+        return StompHeaderAccessor.wrap(frame);
+    }
+
+    private List<Message<byte[]>> awaitSent(int frames) throws InterruptedException {
+        awaitTrue(() -> sent.size() >= frames);
+        return sent.stream()
+                .map(text -> new StompDecoder().decode(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))).get(0))
+                .toList();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private double counter(String name, String tag, String value) {
+        return meterRegistry.get(name).tag(tag, value).counter().count();
+    }
+
+    @Test
+    void classify_readsCommandAndDestination() throws Exception {
+        assertEquals(OutboundFrameClass.MESSAGE, OutboundFrameClass.of(message("hi").getPayload()));
+        assertEquals(OutboundFrameClass.STATUS, OutboundFrameClass.of(status(UUID.randomUUID(), MessageStatus.READ).getPayload()));
+        assertEquals(OutboundFrameClass.PRESENCE, OutboundFrameClass.of(presence().getPayload()));
+        assertEquals(OutboundFrameClass.OTHER, OutboundFrameClass.of(frame("/user/queue/inbox-updates", "{}").getPayload()));
+        assertEquals(OutboundFrameClass.OTHER, OutboundFrameClass.of("CONNECTED\nversion:1.2\nheart-beat:0,0\n\n\0"));
+        assertEquals(OutboundFrameClass.OTHER, OutboundFrameClass.of("\n"));
+    }
+
+    @Test
+    void slowSession_mergesStatusUpdatesOfAChatAndKeepsEveryMessage() throws Exception {
+        WebSocketSession session = connect(backpressure(100, 1 << 20));
+        stall(session);
+        UUID chatA = UUID.randomUUID();
+        UUID chatB = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        session.sendMessage(message("one"));
+        session.sendMessage(status(chatA, MessageStatus.READ, first));
+        session.sendMessage(message("two"));
+        session.sendMessage(status(chatB, MessageStatus.READ, UUID.randomUUID()));
+        session.sendMessage(status(chatA, MessageStatus.READ, second));
+        release.countDown();
+
+        List<Message<byte[]>> frames = awaitSent(5);
+        assertEquals(5, frames.size());
+        assertEquals("/user/queue/inbox-updates", headers(frames.get(0)).getDestination());
+        assertEquals("one", objectMapper.readValue(frames.get(1).getPayload(), ChatNotification.class).getContent());
+        assertEquals("two", objectMapper.readValue(frames.get(2).getPayload(), ChatNotification.class).getContent());
+        assertEquals(chatB, objectMapper.readValue(frames.get(3).getPayload(), MessageStatusUpdateNotification.class).getChatId());
+        MessageStatusUpdateNotification merged = objectMapper.readValue(frames.get(4).getPayload(),
+                MessageStatusUpdateNotification.class);
+        assertEquals(chatA, merged.getChatId());
+        assertEquals(List.of(first, second), merged.getMessageIds(), "merged in place of the later update");
+        assertEquals(frames.get(4).getPayload().length, headers(frames.get(4)).getContentLength());
+        assertEquals("sub-0", headers(frames.get(4)).getSubscriptionId());
+        assertEquals(1, counter("chat.ws.outbound.coalesced", "class", "status"));
+    }
+
+    @Test
+    void slowSession_mergesPresenceKeepingTheLatestChangePerUser() throws Exception {
+        WebSocketSession session = connect(backpressure(100, 1 << 20));
+        stall(session);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        session.sendMessage(presence(new PresenceDeltaNotification.Delta(alice, StatusEnum.ONLINE, 1)));
+        session.sendMessage(presence(new PresenceDeltaNotification.Delta(alice, StatusEnum.OFFLINE, 2),
+                new PresenceDeltaNotification.Delta(bob, StatusEnum.ONLINE, 2)));
+        release.countDown();
+
+        List<Message<byte[]>> frames = awaitSent(2);
+        assertEquals(2, frames.size());
+        PresenceDeltaNotification merged = objectMapper.readValue(frames.get(1).getPayload(), PresenceDeltaNotification.class);
+        assertEquals(List.of(new PresenceDeltaNotification.Delta(alice, StatusEnum.OFFLINE, 2),
+                new PresenceDeltaNotification.Delta(bob, StatusEnum.ONLINE, 2)), merged.getChanges());
+        assertEquals(1, counter("chat.ws.outbound.coalesced", "class", "presence"));
+    }
+
+    @Test
+    void overBudget_dropsPresenceButNeverMessagesAndAsksForAResync() throws Exception {
+        OutboundBackpressure backpressure = backpressure(3, 1 << 20);
+        WebSocketSession session = connect(backpressure);
+        stall(session);
+
+        session.sendMessage(presence(new PresenceDeltaNotification.Delta(UUID.randomUUID(), StatusEnum.ONLINE, 1)));
+        session.sendMessage(message("one"));
+        session.sendMessage(message("two"));
+        session.sendMessage(message("three"));
+        session.sendMessage(presence(new PresenceDeltaNotification.Delta(UUID.randomUUID(), StatusEnum.ONLINE, 2)));
+        session.sendMessage(message("four"));
+
+        OutboundSessionStats stats = backpressure.getSessionStats(10).get(0);
+        assertEquals(4, stats.frames());
+        assertEquals(2, stats.dropped());
+        assertEquals(2, counter("chat.ws.outbound.dropped", "class", "presence"));
+        assertEquals(1.0, meterRegistry.get("chat.ws.outbound.sessions.over.budget").gauge().value());
+        release.countDown();
+
+        List<Message<byte[]>> frames = awaitSent(6);
+        assertEquals(6, frames.size());
+        assertEquals(List.of("one", "two", "three", "four"), frames.subList(1, 5).stream()
+                .map(frame -> readContent(frame.getPayload()))
+                .toList());
+        PresenceDeltaNotification resync = objectMapper.readValue(frames.get(5).getPayload(), PresenceDeltaNotification.class);
+        assertTrue(resync.isResync(), "the dropped deltas are replaced by a resync request");
+        assertEquals(List.of(), resync.getChanges());
+        assertEquals("/user/queue/presence", headers(frames.get(5)).getDestination());
+        assertEquals("sub-0", headers(frames.get(5)).getSubscriptionId());
+        awaitTrue(() -> backpressure.getSessionStats(10).get(0).frames() == 0);
+        assertEquals(0.0, meterRegistry.get("chat.ws.outbound.sessions.over.budget").gauge().value());
+        verify(socket, never()).close(any());
+    }
+
+    private String readContent(byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, ChatNotification.class).getContent();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void sessionOverBudgetPastTheGracePeriod_isDisconnected() throws Exception {
+        OutboundBackpressure backpressure = backpressure(2, 1 << 20);
+        WebSocketSession session = connect(backpressure);
+        stall(session);
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(message("m" + i));
+        }
+
+        backpressure.sweep();
+        verify(socket, never()).close(any());
+        clock.advance(5_001);
+        backpressure.sweep();
+
+        verify(socket).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, counter("chat.ws.outbound.disconnects", "reason", "over-budget"));
+        assertEquals(0, backpressure.getSessionCount());
+        session.sendMessage(message("after close"));
+        assertEquals(0, meterRegistry.get("chat.ws.outbound.queued.frames").gauge().value());
+    }
+
+    @Test
+    void sessionFarOverBudget_isDisconnectedRightAway() throws Exception {
+        OutboundBackpressure backpressure = backpressure(100, 2_000);
+        WebSocketSession session = connect(backpressure);
+        stall(session);
+        String content = "x".repeat(500);
+
+        for (int i = 0; i < 10; i++) {
+            session.sendMessage(message(content));
+        }
+
+        verify(socket).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, counter("chat.ws.outbound.disconnects", "reason", "over-budget"));
+    }
+
+    @Test
+    void sendTakingLongerThanTheLimit_disconnects() throws Exception {
+        OutboundBackpressure backpressure = backpressure(100, 1 << 20);
+        WebSocketSession session = connect(backpressure);
+        stall(session);
+
+        clock.advance(10_001);
+        backpressure.sweep();
+
+        verify(socket).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, counter("chat.ws.outbound.disconnects", "reason", "send-time"));
+    }
+
+    @Test
+    void moreStalledSessionsThanSenders_waitForTheStalledOnesToBeDisconnected() throws Exception {
+        senders.shutdown();
+        senders = OutboundBackpressure.senderPool(2);
+        OutboundBackpressure backpressure = backpressure(100, 1 << 20);
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+        WebSocketHandler decorated = backpressure.decorate(handler);
+        CountDownLatch stalled = new CountDownLatch(2);
+        for (int i = 0; i < 3; i++) {
+            // Each write blocks until its session is closed, like a client that stopped reading.
+            WebSocketSession stalledSocket = mock(WebSocketSession.class);
+            CountDownLatch closed = new CountDownLatch(1);
+            when(stalledSocket.getId()).thenReturn("stalled-" + i);
+            doAnswer(invocation -> {
+                stalled.countDown();
+                closed.await(10, TimeUnit.SECONDS);
+                return null;
+            }).when(stalledSocket).sendMessage(any());
+            doAnswer(invocation -> {
+                closed.countDown();
+                return null;
+            }).when(stalledSocket).close(any());
+            decorated.afterConnectionEstablished(stalledSocket);
+        }
+        WebSocketSession healthySocket = mock(WebSocketSession.class);
+        when(healthySocket.getId()).thenReturn("healthy");
+        decorated.afterConnectionEstablished(healthySocket);
+        ArgumentCaptor<WebSocketSession> sessions = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler, times(4)).afterConnectionEstablished(sessions.capture());
+
+        for (WebSocketSession session : sessions.getAllValues().subList(0, 3)) {
+            session.sendMessage(message("stuck"));
+        }
+        assertTrue(stalled.await(5, TimeUnit.SECONDS), "both senders are held by stalled sessions");
+        sessions.getAllValues().get(3).sendMessage(message("hello"));
+        Thread.sleep(100);
+        verify(healthySocket, never()).sendMessage(any());
+        assertEquals(2, ((ThreadPoolExecutor) senders).getLargestPoolSize(), "no sender beyond the bound");
+
+        clock.advance(10_001);
+        backpressure.sweep();
+
+        verify(healthySocket, timeout(5_000)).sendMessage(any());
+        assertEquals(2, counter("chat.ws.outbound.disconnects", "reason", "send-time"));
+        assertEquals(2, ((ThreadPoolExecutor) senders).getLargestPoolSize());
+    }
+
+    @Test
+    void disabled_leavesTheHandlerAsIs() {
+        OutboundBackpressure backpressure = new OutboundBackpressure(objectMapper, meterRegistry, false, 100, 1 << 20,
+                5_000, 10_000, 64, clock, senders, mock(ScheduledExecutorService.class));
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+
+        assertSame(handler, backpressure.decorate(handler));
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(long millis) {
+            now = now.plusMillis(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.spshpau.chatservice.config;
+
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboundTracingInterceptorTest {
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    private SimpleMeterRegistry meterRegistry;
+    private OutboundTracingInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        interceptor = new OutboundTracingInterceptor(presenceRegistry, meterRegistry,
+                OutboundTraceMode.OFF, 1000, Set.of());
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, int size) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/user/queue/messages");
+        return MessageBuilder.createMessage(new byte[size], accessor.getMessageHeaders());
+    }
+
+    @Test
+    void preSend_countsFramesAndBytesPerType() {
+        Message<byte[]> message = frame(SimpMessageType.MESSAGE, "s1", 100);
+
+        assertSame(message, interceptor.preSend(message, null));
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 20), null);
+        interceptor.preSend(frame(SimpMessageType.HEARTBEAT, "s1", 0), null);
+
+        Map<String, OutboundTracingInterceptor.FrameCount> counts = interceptor.getFrameCounts();
+        assertEquals(new OutboundTracingInterceptor.FrameCount(2, 120), counts.get("MESSAGE"));
+        assertEquals(new OutboundTracingInterceptor.FrameCount(1, 0), counts.get("HEARTBEAT"));
+        assertEquals(2.0, meterRegistry.get("chat.ws.outbound.frames").tag("type", "MESSAGE").functionCounter().count());
+        assertEquals(120.0, meterRegistry.get("chat.ws.outbound.bytes").tag("type", "MESSAGE").functionCounter().count());
+        verifyNoInteractions(presenceRegistry);
+    }
+
+    @Test
+    void sizeHistogram_usesPowerOfTwoBuckets() {
+        assertEquals(0, OutboundTracingInterceptor.sizeBucket(0));
+        assertEquals(1, OutboundTracingInterceptor.sizeBucket(1));
+        assertEquals(7, OutboundTracingInterceptor.sizeBucket(100));
+        assertEquals(8, OutboundTracingInterceptor.sizeBucket(128));
+        assertEquals(31, OutboundTracingInterceptor.sizeBucket(Integer.MAX_VALUE));
+
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 100), null);
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 127), null);
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 128), null);
+
+        assertEquals(Map.of(128L, 2L, 256L, 1L), interceptor.getSizeHistogram());
+    }
+
+    @Test
+    void usersMode_resolvesSessionUserOnlyWhenUsersAreSelected() {
+        UUID traced = UUID.randomUUID();
+        interceptor.configure(OutboundTraceMode.USERS, 1000, Set.of());
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 10), null);
+        verifyNoInteractions(presenceRegistry);
+
+        interceptor.configure(OutboundTraceMode.USERS, 1000, Set.of(traced));
+        when(presenceRegistry.getSessionUser("s1")).thenReturn(traced);
+        interceptor.preSend(frame(SimpMessageType.MESSAGE, "s1", 10), null);
+
+        verify(presenceRegistry).getSessionUser("s1");
+    }
+
+    @Test
+    void configure_normalizesSettings() {
+        interceptor.configure(null, 0, null);
+
+        OutboundTracingInterceptor.Settings settings = interceptor.getSettings();
+        assertEquals(OutboundTraceMode.OFF, settings.mode());
+        assertEquals(1, settings.sampleRate());
+        assertTrue(settings.users().isEmpty());
+    }
+
+    @Test
+    void endpoint_keepsUnspecifiedSettings() {
+        UUID traced = UUID.randomUUID();
+        OutboundTracingEndpoint endpoint = new OutboundTracingEndpoint(interceptor);
+        interceptor.configure(OutboundTraceMode.USERS, 50, Set.of(traced));
+
+        OutboundTracingInterceptor.Settings settings = endpoint.configure(OutboundTraceMode.SAMPLED, null, null);
+
+        assertEquals(new OutboundTracingInterceptor.Settings(OutboundTraceMode.SAMPLED, 50, Set.of(traced)), settings);
+        assertTrue(endpoint.trace().containsKey("sizeHistogram"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.spshpau.chatservice.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadsTest {
+
+    private static boolean isVirtual(Thread thread) {
+        return thread.getClass().getName().equals("java.lang.VirtualThread");
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void perTaskExecutor_shouldRunEveryTaskOnItsOwnVirtualThread() throws Exception {
+        ExecutorService executor = VirtualThreads.perTaskExecutor("test-");
+        try {
+            Thread first = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            Thread second = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+
+            assertTrue(isVirtual(first));
+            assertTrue(first.getName().startsWith("test-"));
+            assertNotSame(first, second);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void channelExecutor_shouldHoldBackTasksBeyondTheLimit() throws Exception {
+        Executor executor = VirtualThreads.channelExecutor("ws-test-", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Thread> blocked = new CompletableFuture<>();
+        executor.execute(() -> {
+            blocked.complete(Thread.currentThread());
+            awaitQuietly(release);
+        });
+        CompletableFuture<Void> submitted = CompletableFuture.runAsync(() -> executor.execute(() -> { }));
+
+        assertTrue(isVirtual(blocked.get(5, TimeUnit.SECONDS)));
+        assertThrows(TimeoutException.class, () -> submitted.get(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        submitted.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    void beforeJava21_shouldFailWithTheProperty() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> VirtualThreads.factory("test-"));
+        assertTrue(e.getMessage().contains(VirtualThreads.PROPERTY));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.repository.Repository;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Replaces the identity provider for load tests: tokens are signed with a key generated per run and verified
+ * with the matching {@link JwtDecoder}, so REST calls and STOMP CONNECT go through the real security chain.
+ * With {@code chat.loadtest.storage-latency-ms} every repository call of the in-memory storage engine blocks
+ * that long first, like a round trip to MongoDB.
+ */
+@TestConfiguration(proxyBeanMethods = false)
+class LoadTestConfiguration {
+
+    static final long STORAGE_LATENCY_MS = Long.getLong("chat.loadtest.storage-latency-ms", 0);
+
+    @Bean
+    static BeanPostProcessor loadTestStorageLatency() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (STORAGE_LATENCY_MS <= 0 || !(bean instanceof Repository<?, ?>)) {
+                    return bean;
+                }
+                ProxyFactory proxy = new ProxyFactory(bean);
+                proxy.addAdvice((MethodInterceptor) invocation -> {
+                    pause(STORAGE_LATENCY_MS);
+                    return invocation.proceed();
+                });
+                return proxy.getProxy();
+            }
+        };
+    }
+
+    static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Bean
+    TokenIssuer loadTestTokenIssuer() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return new TokenIssuer(generator.generateKeyPair());
+    }
+
+    @Bean
+    JwtDecoder loadTestJwtDecoder(TokenIssuer tokenIssuer) {
+        return NimbusJwtDecoder.withPublicKey(tokenIssuer.publicKey()).build();
+    }
+
+    static class TokenIssuer {
+        private final KeyPair keyPair;
+        private final NimbusJwtEncoder encoder;
+
+        TokenIssuer(KeyPair keyPair) {
+            this.keyPair = keyPair;
+            RSAKey key = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                    .privateKey((RSAPrivateKey) keyPair.getPrivate())
+                    .build();
+            this.encoder = new NimbusJwtEncoder(new ImmutableJWKSet<>(new JWKSet(key)));
+        }
+
+        RSAPublicKey publicKey() {
+            return (RSAPublicKey) keyPair.getPublic();
+        }
+
+        String issue(LoadTestUsers.SimulatedUser user, Duration validity) {
+            Instant now = Instant.now();
+            JwtClaimsSet claims = JwtClaimsSet.builder()
+                    .subject(user.id().toString())
+                    .issuedAt(now)
+                    .expiresAt(now.plus(validity))
+                    .claim("preferred_username", user.username())
+                    .claim("given_name", "Load")
+                    .claim("family_name", user.username())
+                    .build();
+            JwsHeader header = JwsHeader.with(SignatureAlgorithm.RS256).build();
+            return encoder.encode(JwtEncoderParameters.from(header, claims)).getTokenValue();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects what a load run measures: end-to-end latencies as Micrometer timers with client-side percentiles,
+ * operation counters, and heap and GC samples of the JVM hosting both the service and the clients.
+ */
+class LoadTestReport {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    final Timer connectLatency = timer("connect");
+    final Timer messageLatency = timer("message.e2e");
+    final Timer statusLatency = timer("status.e2e");
+    final Timer summaryLatency = timer("summary");
+
+    final Counter connectFailures = registry.counter("loadtest.connect.failures");
+    final Counter messagesSent = registry.counter("loadtest.messages.sent");
+    final Counter messagesReceived = registry.counter("loadtest.messages.received");
+    final Counter readsSent = registry.counter("loadtest.reads.sent");
+    final Counter statusUpdatesReceived = registry.counter("loadtest.status.received");
+    final Counter summaryFailures = registry.counter("loadtest.summary.failures");
+    final Counter errors = registry.counter("loadtest.errors");
+
+    private final AtomicLong heapUsedMax = new AtomicLong();
+    private final AtomicLong heapUsedSum = new AtomicLong();
+    private final AtomicLong heapSamples = new AtomicLong();
+    private long heapUsedAtStart;
+    private long gcCountAtStart;
+    private long gcMillisAtStart;
+    private long startNanos;
+    private long endNanos;
+
+    private Timer timer(String name) {
+        return Timer.builder("loadtest." + name)
+                .publishPercentiles(PERCENTILES)
+                .distributionStatisticExpiry(Duration.ofHours(1))
+                .distributionStatisticBufferLength(1)
+                .register(registry);
+    }
+
+    void start() {
+        heapUsedAtStart = memory.getHeapMemoryUsage().getUsed();
+        gcCountAtStart = gcCount();
+        gcMillisAtStart = gcMillis();
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    void sampleHeap() {
+        long used = memory.getHeapMemoryUsage().getUsed();
+        heapUsedMax.accumulateAndGet(used, Math::max);
+        heapUsedSum.addAndGet(used);
+        heapSamples.incrementAndGet();
+    }
+
+    Map<String, Object> toMap(Map<String, Object> settings) {
+        double seconds = (endNanos - startNanos) / 1e9;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("durationSeconds", seconds);
+
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("messagesSentPerSecond", messagesSent.count() / seconds);
+        throughput.put("messagesReceivedPerSecond", messagesReceived.count() / seconds);
+        throughput.put("statusUpdatesPerSecond", statusUpdatesReceived.count() / seconds);
+        throughput.put("summariesPerSecond", summaryLatency.count() / seconds);
+        report.put("throughput", throughput);
+
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("connectFailures", (long) connectFailures.count());
+        counts.put("messagesSent", (long) messagesSent.count());
+        counts.put("messagesReceived", (long) messagesReceived.count());
+        counts.put("readsSent", (long) readsSent.count());
+        counts.put("statusUpdatesReceived", (long) statusUpdatesReceived.count());
+        counts.put("summaryFailures", (long) summaryFailures.count());
+        counts.put("errors", (long) errors.count());
+        report.put("counts", counts);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        for (Timer timer : List.of(connectLatency, messageLatency, statusLatency, summaryLatency)) {
+            latency.put(timer.getId().getName().substring("loadtest.".length()), latencyOf(timer));
+        }
+        report.put("latencyMillis", latency);
+
+        Map<String, Object> heap = new LinkedHashMap<>();
+        long samples = Math.max(1, heapSamples.get());
+        heap.put("usedAtStartMb", megabytes(heapUsedAtStart));
+        heap.put("usedMaxMb", megabytes(heapUsedMax.get()));
+        heap.put("usedMeanMb", megabytes(heapUsedSum.get() / samples));
+        heap.put("usedAtEndMb", megabytes(memory.getHeapMemoryUsage().getUsed()));
+        heap.put("committedMb", megabytes(memory.getHeapMemoryUsage().getCommitted()));
+        heap.put("gcCount", gcCount() - gcCountAtStart);
+        heap.put("gcMillis", gcMillis() - gcMillisAtStart);
+        report.put("heap", heap);
+        return report;
+    }
+
+    Path write(Path file, Map<String, Object> settings) throws IOException {
+        Files.createDirectories(file.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), toMap(settings));
+        return file;
+    }
+
+    /**
+     * Formats the headline figures of a platform-thread and a virtual-thread report side by side.
+     */
+    static String compare(ObjectMapper objectMapper, Path platform, Path virtual) throws IOException {
+        Map<?, ?> left = objectMapper.readValue(platform.toFile(), Map.class);
+        Map<?, ?> right = objectMapper.readValue(virtual.toFile(), Map.class);
+        String[][] rows = {
+                {"throughput", "messagesReceivedPerSecond"},
+                {"throughput", "statusUpdatesPerSecond"},
+                {"throughput", "summariesPerSecond"},
+                {"latencyMillis", "message.e2e", "p50"},
+                {"latencyMillis", "message.e2e", "p99"},
+                {"latencyMillis", "status.e2e", "p99"},
+                {"latencyMillis", "summary", "p99"},
+                {"latencyMillis", "connect", "p99"},
+                {"counts", "connectFailures"},
+                {"counts", "errors"},
+                {"heap", "usedMaxMb"},
+        };
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%-40s %12s %12s%n", "", "platform", "virtual"));
+        for (String[] path : rows) {
+            table.append(String.format(Locale.ROOT, "%-40s %12.1f %12.1f%n", String.join(".", path),
+                    valueAt(left, path), valueAt(right, path)));
+        }
+        return table.toString();
+    }
+
+    private static double valueAt(Map<?, ?> report, String[] path) {
+        Object value = report;
+        for (String key : path) {
+            value = value instanceof Map<?, ?> map ? map.get(key) : null;
+        }
+        return value instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+
+    private static Map<String, Object> latencyOf(Timer timer) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", timer.count());
+        latency.put("mean", timer.mean(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+            latency.put("p" + percentileLabel(percentile.percentile()), percentile.value(TimeUnit.MILLISECONDS));
+        }
+        latency.put("max", timer.max(TimeUnit.MILLISECONDS));
+        return latency;
+    }
+
+    private static String percentileLabel(double percentile) {
+        String digits = Double.toString(percentile * 100);
+        return digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits;
+    }
+
+    private static long megabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+    }
+}
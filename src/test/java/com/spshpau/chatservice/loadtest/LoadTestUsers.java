@@ -0,0 +1,56 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.spshpau.chatservice.controller.dto.UserSummaryDto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The simulated user population. Users sit on a ring and each one is connected to the {@code partners}
+ * users that follow it and the ones that precede it, so every connection is mutual.
+ */
+class LoadTestUsers {
+
+    private final List<SimulatedUser> users = new ArrayList<>();
+    private final Map<UUID, Integer> indexById = new HashMap<>();
+    private final int partners;
+
+    LoadTestUsers(int count, int partners) {
+        this.partners = Math.min(partners, (count - 1) / 2);
+        for (int i = 0; i < count; i++) {
+            SimulatedUser user = new SimulatedUser(UUID.nameUUIDFromBytes(("loadtest-user-" + i).getBytes()),
+                    "load" + i);
+            users.add(user);
+            indexById.put(user.id(), i);
+        }
+    }
+
+    List<SimulatedUser> all() {
+        return users;
+    }
+
+    List<SimulatedUser> partnersOf(UUID userId) {
+        Integer index = indexById.get(userId);
+        if (index == null) {
+            return List.of();
+        }
+        List<SimulatedUser> result = new ArrayList<>(2 * partners);
+        for (int offset = 1; offset <= partners; offset++) {
+            result.add(users.get(Math.floorMod(index + offset, users.size())));
+            result.add(users.get(Math.floorMod(index - offset, users.size())));
+        }
+        return result;
+    }
+
+    List<UserSummaryDto> connectionsOf(UUID userId) {
+        return partnersOf(userId).stream()
+                .map(partner -> new UserSummaryDto(partner.id(), partner.username(), "Load", partner.username(), null))
+                .toList();
+    }
+
+    record SimulatedUser(UUID id, String username) {
+    }
+}
@@ -0,0 +1,225 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.spshpau.chatservice.controller.dto.MarkAsReadPayloadDto;
+import com.spshpau.chatservice.controller.notifications.ChatNotification;
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.model.ChatMessage;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One simulated user holding a SockJS/STOMP session. It sends chat messages to random partners with its send
+ * time in the content, marks a chat as read after every {@code readEvery} messages received in it, and polls
+ * its chat summaries over REST. Clients and service share a JVM, so {@link System#nanoTime()} stamps can be
+ * compared across them to get end-to-end latency.
+ */
+class SimulatedClient extends StompSessionHandlerAdapter {
+
+    private static final String LATENCY_PREFIX = "lt:";
+
+    private final LoadTestUsers.SimulatedUser user;
+    private final List<LoadTestUsers.SimulatedUser> partners;
+    private final String token;
+    private final int readEvery;
+    private final LoadTestReport report;
+    private final ConcurrentMap<String, Long> pendingReads;
+    private final Executor executor;
+
+    private final ConcurrentMap<UUID, AtomicInteger> receivedSinceRead = new ConcurrentHashMap<>();
+    private volatile StompSession session;
+
+    SimulatedClient(LoadTestUsers.SimulatedUser user, List<LoadTestUsers.SimulatedUser> partners, String token,
+                    int readEvery, LoadTestReport report, ConcurrentMap<String, Long> pendingReads, Executor executor) {
+        this.user = user;
+        this.partners = partners;
+        this.token = token;
+        this.readEvery = readEvery;
+        this.report = report;
+        this.pendingReads = pendingReads;
+        this.executor = executor;
+    }
+
+    CompletableFuture<StompSession> connect(WebSocketStompClient stompClient, String url) {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        long start = System.nanoTime();
+        return stompClient.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, this)
+                .whenComplete((connected, e) -> {
+                    if (e == null) {
+                        report.connectLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    } else {
+                        report.connectFailures.increment();
+                    }
+                });
+    }
+
+    @Override
+    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+        this.session = session;
+        session.subscribe("/user/queue/messages", new Handler(ChatNotification.class) {
+            @Override
+            void handle(Object payload) {
+                onMessage((ChatNotification) payload);
+            }
+        });
+        session.subscribe("/user/queue/status-updates", new Handler(MessageStatusUpdateNotification.class) {
+            @Override
+            void handle(Object payload) {
+                onStatusUpdate((MessageStatusUpdateNotification) payload);
+            }
+        });
+    }
+
+    boolean isConnected() {
+        StompSession current = session;
+        return current != null && current.isConnected();
+    }
+
+    void sendMessage() {
+        if (!isConnected() || partners.isEmpty()) {
+            return;
+        }
+        LoadTestUsers.SimulatedUser partner = partners.get(ThreadLocalRandom.current().nextInt(partners.size()));
+        ChatMessage message = ChatMessage.builder()
+                .senderId(user.id())
+                .recipientId(partner.id())
+                .content(LATENCY_PREFIX + System.nanoTime())
+                .build();
+        if (send("/app/chat", message)) {
+            report.messagesSent.increment();
+        }
+    }
+
+    void pollSummaries(HttpClient httpClient, URI summaryUri) {
+        HttpRequest request = HttpRequest.newBuilder(summaryUri)
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e == null && response.statusCode() == 200) {
+                report.summaryLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } else {
+                report.summaryFailures.increment();
+            }
+        });
+    }
+
+    void disconnect() {
+        StompSession current = session;
+        if (current != null && current.isConnected()) {
+            synchronized (this) {
+                current.disconnect();
+            }
+        }
+    }
+
+    private void onMessage(ChatNotification notification) {
+        report.messagesReceived.increment();
+        String content = notification.getContent();
+        if (content != null && content.startsWith(LATENCY_PREFIX)) {
+            long sentNanos = Long.parseLong(content.substring(LATENCY_PREFIX.length()));
+            report.messageLatency.record(System.nanoTime() - sentNanos, TimeUnit.NANOSECONDS);
+        }
+
+        UUID chatId = notification.getChatId();
+        if (readEvery > 0 && chatId != null) {
+            int received = receivedSinceRead.computeIfAbsent(chatId, id -> new AtomicInteger()).incrementAndGet();
+            if (received >= readEvery) {
+                receivedSinceRead.get(chatId).addAndGet(-received);
+                executor.execute(() -> markAsRead(chatId));
+            }
+        }
+    }
+
+    private void markAsRead(UUID chatId) {
+        pendingReads.putIfAbsent(readKey(chatId, user.id()), System.nanoTime());
+        if (send("/app/chat.markAsRead", new MarkAsReadPayloadDto(chatId.toString()))) {
+            report.readsSent.increment();
+        }
+    }
+
+    private void onStatusUpdate(MessageStatusUpdateNotification update) {
+        report.statusUpdatesReceived.increment();
+        if (update.getChatId() != null && update.getUpdatedByUserId() != null) {
+            Long readNanos = pendingReads.remove(readKey(update.getChatId(), update.getUpdatedByUserId()));
+            if (readNanos != null) {
+                report.statusLatency.record(System.nanoTime() - readNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    static String readKey(UUID chatId, UUID readerId) {
+        return chatId + ":" + readerId;
+    }
+
+    /**
+     * Sends are serialized per client because the underlying WebSocket session does not allow concurrent writes.
+     */
+    private boolean send(String destination, Object payload) {
+        StompSession current = session;
+        if (current == null || !current.isConnected()) {
+            return false;
+        }
+        try {
+            synchronized (this) {
+                current.send(destination, payload);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            report.errors.increment();
+            return false;
+        }
+    }
+
+    @Override
+    public void handleException(StompSession session, StompCommand command, StompHeaders headers, byte[] payload,
+                                Throwable exception) {
+        report.errors.increment();
+    }
+
+    @Override
+    public void handleTransportError(StompSession session, Throwable exception) {
+        report.errors.increment();
+    }
+
+    private abstract static class Handler implements StompFrameHandler {
+        private final Class<?> payloadType;
+
+        Handler(Class<?> payloadType) {
+            this.payloadType = payloadType;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return payloadType;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            handle(payload);
+        }
+
+        abstract void handle(Object payload);
+    }
+}
@@ -0,0 +1,195 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jwt.SignedJWT;
+import com.spshpau.chatservice.config.VirtualThreads;
+import com.spshpau.chatservice.config.WebSocketConfig;
+import com.spshpau.chatservice.otherservices.UserClient;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.convention.TestBean;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end load run against the full service on the in-memory storage engine: thousands of SockJS/STOMP
+ * clients chat with their connections, mark chats as read and poll their summaries, while latency, throughput
+ * and heap usage are recorded to {@code target/loadtest-report.json}. Only runs when a client count is given, e.g.
+ * {@code mvn test -Dtest=StompLoadTest -Dchat.loadtest.clients=2000 -Dchat.loadtest.duration-s=60}
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.cloud.config.import-check.enabled=false"
+})
+@ActiveProfiles("loadtest")
+@Import(LoadTestConfiguration.class)
+@Tag("loadtest")
+@EnabledIfSystemProperty(named = "chat.loadtest.clients", matches = ".+")
+class StompLoadTest {
+
+    private static final int CLIENTS = Integer.getInteger("chat.loadtest.clients", 100);
+    private static final int DURATION_SECONDS = Integer.getInteger("chat.loadtest.duration-s", 30);
+    private static final int PARTNERS = Integer.getInteger("chat.loadtest.partners", 5);
+    private static final int MESSAGE_INTERVAL_MS = Integer.getInteger("chat.loadtest.message-interval-ms", 1000);
+    private static final int READ_EVERY = Integer.getInteger("chat.loadtest.read-every", 5);
+    private static final int SUMMARY_INTERVAL_MS = Integer.getInteger("chat.loadtest.summary-interval-ms", 10000);
+    private static final int CONNECT_CONCURRENCY = Integer.getInteger("chat.loadtest.connect-concurrency", 64);
+    private static final int DRIVER_THREADS = Integer.getInteger("chat.loadtest.driver-threads",
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private static final long USER_SERVICE_LATENCY_MS = Long.getLong("chat.loadtest.user-service-latency-ms", 0);
+    private static final Path REPORT = Path.of(System.getProperty("chat.loadtest.report", "target/loadtest-report.json"));
+    private static final Path VIRTUAL_REPORT = Path.of(System.getProperty("chat.loadtest.virtual-report",
+            "target/loadtest-report-virtual.json"));
+
+    private static final LoadTestUsers USERS = new LoadTestUsers(Math.max(2, CLIENTS), PARTNERS);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private LoadTestConfiguration.TokenIssuer tokenIssuer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${" + VirtualThreads.PROPERTY + ":false}")
+    private boolean virtualThreads;
+
+    @TestBean
+    private UserClient userClient;
+
+    static UserClient userClient() {
+        return bearerToken -> {
+            LoadTestConfiguration.pause(USER_SERVICE_LATENCY_MS);
+            return USERS.connectionsOf(subjectOf(bearerToken));
+        };
+    }
+
+
+    private static UUID subjectOf(String bearerToken) {
+        try {
+            // The service has already verified the token; the stub only needs to know whose roster to return.
+            return UUID.fromString(SignedJWT.parse(bearerToken.substring("Bearer ".length())).getJWTClaimsSet().getSubject());
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Not a JWT: " + bearerToken, e);
+        }
+    }
+
+    @Test
+    void sustainsChatLoad() throws Exception {
+        LoadTestReport report = new LoadTestReport();
+        ConcurrentMap<String, Long> pendingReads = new ConcurrentHashMap<>();
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(DRIVER_THREADS);
+        HttpClient httpClient = HttpClient.newHttpClient();
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setMessageConverter(WebSocketConfig.jsonMessageConverter(objectMapper));
+
+        List<SimulatedClient> clients = new ArrayList<>(CLIENTS);
+        for (LoadTestUsers.SimulatedUser user : USERS.all().subList(0, CLIENTS)) {
+            clients.add(new SimulatedClient(user, USERS.partnersOf(user.id()),
+                    tokenIssuer.issue(user, Duration.ofSeconds(DURATION_SECONDS).plusMinutes(10)),
+                    READ_EVERY, report, pendingReads, driver));
+        }
+
+        try {
+            connectAll(clients, stompClient);
+            List<SimulatedClient> connected = clients.stream().filter(SimulatedClient::isConnected).toList();
+            System.out.printf("Connected %d of %d clients.%n", connected.size(), CLIENTS);
+
+            report.start();
+            driver.scheduleAtFixedRate(report::sampleHeap, 0, 1, TimeUnit.SECONDS);
+            URI summaryUri = URI.create("http://localhost:" + port + "/api/v1/chats/summary?size=20");
+            for (SimulatedClient client : connected) {
+                driver.scheduleAtFixedRate(client::sendMessage,
+                        ThreadLocalRandom.current().nextInt(MESSAGE_INTERVAL_MS), MESSAGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (SUMMARY_INTERVAL_MS > 0) {
+                    driver.scheduleAtFixedRate(() -> client.pollSummaries(httpClient, summaryUri),
+                            ThreadLocalRandom.current().nextInt(SUMMARY_INTERVAL_MS), SUMMARY_INTERVAL_MS,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(DURATION_SECONDS));
+        } finally {
+            driver.shutdownNow();
+            report.stop();
+            // Let in-flight notifications arrive before the sessions go away.
+            Thread.sleep(1000);
+            clients.forEach(SimulatedClient::disconnect);
+            stompClient.stop();
+        }
+
+        Path written = report.write(virtualThreads ? VIRTUAL_REPORT : REPORT, settings());
+        System.out.println("Load test report written to " + written.toAbsolutePath());
+        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report.toMap(settings())));
+        if (Files.exists(REPORT) && Files.exists(VIRTUAL_REPORT)) {
+            System.out.println(LoadTestReport.compare(objectMapper, REPORT, VIRTUAL_REPORT));
+        }
+
+        assertThat(report.connectFailures.count()).isLessThan(CLIENTS);
+        assertThat(report.messagesReceived.count()).isPositive();
+    }
+
+    private void connectAll(List<SimulatedClient> clients, WebSocketStompClient stompClient) throws InterruptedException {
+        String url = "http://localhost:" + port + "/ws";
+        Semaphore permits = new Semaphore(CONNECT_CONCURRENCY);
+        List<CompletableFuture<?>> connecting = new ArrayList<>(clients.size());
+        for (SimulatedClient client : clients) {
+            permits.acquire();
+            connecting.add(client.connect(stompClient, url).whenComplete((session, e) -> permits.release()));
+        }
+        try {
+            CompletableFuture.allOf(connecting.toArray(new CompletableFuture[0])).get(5, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            System.out.println("Some clients failed to connect: " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("clients", CLIENTS);
+        settings.put("durationSeconds", DURATION_SECONDS);
+        settings.put("partnersPerSide", PARTNERS);
+        settings.put("messageIntervalMs", MESSAGE_INTERVAL_MS);
+        settings.put("readEvery", READ_EVERY);
+        settings.put("summaryIntervalMs", SUMMARY_INTERVAL_MS);
+        settings.put("connectConcurrency", CONNECT_CONCURRENCY);
+        settings.put("userServiceLatencyMs", USER_SERVICE_LATENCY_MS);
+        settings.put("storageLatencyMs", LoadTestConfiguration.STORAGE_LATENCY_MS);
+        settings.put("virtualThreads", virtualThreads);
+        return settings;
+    }
+}
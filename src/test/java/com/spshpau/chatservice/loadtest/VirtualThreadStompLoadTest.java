@@ -0,0 +1,18 @@
+package com.spshpau.chatservice.loadtest;
+
+import com.spshpau.chatservice.config.VirtualThreads;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * {@link StompLoadTest} with {@value VirtualThreads#PROPERTY}: the STOMP channels, Tomcat and the user service
+ * calls run on virtual threads. Writes {@code target/loadtest-report-virtual.json} and, when both reports
+ * exist, prints them side by side, e.g. after
+ * {@code mvn test -Dtest='*StompLoadTest' -Dchat.loadtest.clients=2000 -Dchat.loadtest.storage-latency-ms=20}
+ * on JDK 21.
+ */
+@TestPropertySource(properties = VirtualThreads.PROPERTY + "=true")
+@EnabledForJreRange(min = JRE.JAVA_21)
+class VirtualThreadStompLoadTest extends StompLoadTest {
+}
@@ -0,0 +1,95 @@
+package com.spshpau.chatservice.migration;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxRebuildJobTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @InjectMocks
+    private InboxRebuildJob job;
+
+    private static ChatMessage message(UUID chatId, UUID from, UUID to, MessageStatus status, Instant sentAt, Instant readAt) {
+        return ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(from).recipientId(to)
+                .content("at " + sentAt).status(status).sentAt(sentAt).readAt(readAt).build();
+    }
+
+    @Test
+    void rebuild_shouldWriteOneEntryPerParticipantWithUnreadCountsAndLastMessage() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID carol = UUID.randomUUID();
+        UUID chatAb = UUID.randomUUID();
+        UUID chatAc = UUID.randomUUID();
+        Instant t0 = Instant.parse("2024-01-01T10:00:00Z");
+
+        when(mongoTemplate.stream(any(Query.class), eq(ChatMessage.class))).thenReturn(Stream.of(
+                message(chatAb, alice, bob, MessageStatus.READ, t0, t0.plusSeconds(5)),
+                message(chatAb, bob, alice, MessageStatus.DELIVERED, t0.plusSeconds(10), null),
+                message(chatAb, bob, alice, MessageStatus.SENT, t0.plusSeconds(20), null),
+                message(chatAc, carol, alice, MessageStatus.READ, t0.plusSeconds(30), t0.plusSeconds(40))));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InboxEntry.class)).thenReturn(bulkOperations);
+
+        int written = job.rebuild();
+
+        assertEquals(4, written);
+        ArgumentCaptor<InboxEntry> captor = ArgumentCaptor.forClass(InboxEntry.class);
+        verify(bulkOperations, times(4)).replaceOne(any(Query.class), captor.capture(), any(FindAndReplaceOptions.class));
+        verify(bulkOperations).execute();
+        Map<String, InboxEntry> entries = captor.getAllValues().stream()
+                .collect(Collectors.toMap(InboxEntry::getId, Function.identity()));
+
+        InboxEntry aliceWithBob = entries.get(InboxEntry.idFor(alice, chatAb));
+        assertEquals(2, aliceWithBob.getUnreadCount());
+        assertEquals(bob, aliceWithBob.getPartnerId());
+        assertEquals(bob, aliceWithBob.getLastMessageSenderId());
+        assertEquals(t0.plusSeconds(20), aliceWithBob.getLastMessageAt());
+        assertNull(aliceWithBob.getLastReadAt());
+
+        InboxEntry bobWithAlice = entries.get(InboxEntry.idFor(bob, chatAb));
+        assertEquals(0, bobWithAlice.getUnreadCount());
+        assertEquals(t0.plusSeconds(5), bobWithAlice.getLastReadAt());
+
+        InboxEntry aliceWithCarol = entries.get(InboxEntry.idFor(alice, chatAc));
+        assertEquals(0, aliceWithCarol.getUnreadCount());
+        assertEquals(t0.plusSeconds(40), aliceWithCarol.getLastReadAt());
+        assertEquals(alice, entries.get(InboxEntry.idFor(carol, chatAc)).getPartnerId());
+    }
+
+    @Test
+    void rebuild_whenNoMessages_shouldWriteNothing() {
+        when(mongoTemplate.stream(any(Query.class), eq(ChatMessage.class))).thenReturn(Stream.empty());
+
+        assertEquals(0, job.rebuild());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(InboxEntry.class));
+    }
+}
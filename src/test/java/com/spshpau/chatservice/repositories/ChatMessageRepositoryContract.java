@@ -0,0 +1,311 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link ChatMessageRepository} backend must share. Subclasses supply an empty repository.
+ */
+public abstract class ChatMessageRepositoryContract {
+
+    protected abstract ChatMessageRepository emptyRepository();
+
+    private ChatMessageRepository repository;
+    private UUID chatId;
+    private UUID otherChatId;
+    private UUID senderId;
+    private UUID recipientId;
+    private Instant base;
+
+    @BeforeEach
+    void setUpContract() {
+        repository = emptyRepository();
+        chatId = UUID.randomUUID();
+        otherChatId = UUID.randomUUID();
+        senderId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
+        base = Instant.parse("2025-01-01T00:00:00Z");
+    }
+
+    private ChatMessage save(UUID chat, UUID id, Instant sentAt, MessageStatus status) {
+        return repository.save(ChatMessage.builder()
+                .id(id)
+                .chatId(chat)
+                .senderId(senderId)
+                .recipientId(recipientId)
+                .content("message " + sentAt)
+                .status(status)
+                .sentAt(sentAt)
+                .updatedAt(sentAt)
+                .build());
+    }
+
+    private ChatMessage save(Instant sentAt, MessageStatus status) {
+        return save(chatId, UUID.randomUUID(), sentAt, status);
+    }
+
+    private static List<UUID> ids(List<MessageStatusChange> changes) {
+        return changes.stream().map(MessageStatusChange::getId).toList();
+    }
+
+    @Test
+    void save_thenFindById_returnsStoredMessage() {
+        ChatMessage saved = save(base, MessageStatus.SENT);
+
+        ChatMessage found = repository.findById(saved.getId()).orElseThrow();
+
+        assertEquals(chatId, found.getChatId());
+        assertEquals(recipientId, found.getRecipientId());
+        assertEquals(saved.getContent(), found.getContent());
+        assertEquals(MessageStatus.SENT, found.getStatus());
+        assertEquals(base, found.getSentAt());
+    }
+
+    @Test
+    void markDelivered_transitionsSentMessagesOfTheChatInSendOrder() {
+        ChatMessage first = save(base, MessageStatus.SENT);
+        ChatMessage second = save(base.plusSeconds(1), MessageStatus.SENT);
+        save(base.plusSeconds(2), MessageStatus.READ);
+        ChatMessage otherChat = save(otherChatId, UUID.randomUUID(), base, MessageStatus.SENT);
+
+        Instant deliveredAt = base.plusSeconds(10);
+        List<MessageStatusChange> changes = repository.markDelivered(chatId, recipientId, deliveredAt, 100);
+
+        assertEquals(List.of(first.getId(), second.getId()), ids(changes));
+        assertTrue(changes.stream().allMatch(change ->
+                change.getStatus() == MessageStatus.DELIVERED && deliveredAt.equals(change.getDeliveredAt())
+                        && deliveredAt.equals(change.getUpdatedAt())));
+        assertEquals(MessageStatus.DELIVERED, repository.findById(first.getId()).orElseThrow().getStatus());
+        assertEquals(deliveredAt, repository.findById(first.getId()).orElseThrow().getUpdatedAt());
+        assertEquals(MessageStatus.SENT, repository.findById(otherChat.getId()).orElseThrow().getStatus());
+        assertTrue(repository.markDelivered(chatId, recipientId, deliveredAt, 100).isEmpty());
+    }
+
+    @Test
+    void markDelivered_withoutChat_coversAllChatsOfTheRecipient() {
+        save(base, MessageStatus.SENT);
+        save(otherChatId, UUID.randomUUID(), base.plusSeconds(1), MessageStatus.SENT);
+
+        assertEquals(2, repository.markDelivered(null, recipientId, base.plusSeconds(5), 100).size());
+        assertTrue(repository.markDelivered(null, UUID.randomUUID(), base, 100).isEmpty());
+    }
+
+    @Test
+    void markRead_setsDeliveredAtOnlyForNeverDeliveredMessages() {
+        ChatMessage delivered = save(base, MessageStatus.SENT);
+        repository.markDelivered(chatId, recipientId, base.plusSeconds(1), 100);
+        ChatMessage neverDelivered = save(base.plusSeconds(2), MessageStatus.SENT);
+
+        Instant readAt = base.plusSeconds(3);
+        List<MessageStatusChange> changes = repository.markRead(chatId, recipientId, readAt, 100);
+
+        assertEquals(List.of(delivered.getId(), neverDelivered.getId()), ids(changes));
+        assertEquals(base.plusSeconds(1), changes.get(0).getDeliveredAt());
+        assertEquals(readAt, changes.get(1).getDeliveredAt());
+        assertTrue(changes.stream().allMatch(change ->
+                change.getStatus() == MessageStatus.READ && readAt.equals(change.getReadAt())));
+        ChatMessage stored = repository.findById(neverDelivered.getId()).orElseThrow();
+        assertEquals(MessageStatus.READ, stored.getStatus());
+        assertEquals(readAt, stored.getDeliveredAt());
+        assertTrue(repository.markRead(chatId, recipientId, readAt, 100).isEmpty());
+    }
+
+    @Test
+    void markRead_withSmallWindow_stillTransitionsEveryMessage() {
+        for (int i = 0; i < 5; i++) {
+            save(base.plusSeconds(i), MessageStatus.SENT);
+        }
+
+        assertEquals(5, repository.markRead(chatId, recipientId, base.plusSeconds(10), 2).size());
+        assertTrue(repository.countUnreadByChat(recipientId).isEmpty());
+    }
+
+    @Test
+    void concurrentMarkRead_reportsEveryMessageOnce() throws Exception {
+        List<UUID> sent = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sent.add(save(base.plusSeconds(i), i % 2 == 0 ? MessageStatus.SENT : MessageStatus.DELIVERED).getId());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<MessageStatusChange>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Instant readAt = base.plusSeconds(100 + i);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return repository.markRead(chatId, recipientId, readAt, 7);
+                }));
+            }
+            start.countDown();
+
+            List<UUID> reported = new ArrayList<>();
+            for (Future<List<MessageStatusChange>> result : results) {
+                reported.addAll(ids(result.get(10, TimeUnit.SECONDS)));
+            }
+            assertEquals(sent.size(), reported.size());
+            assertEquals(Set.copyOf(sent), Set.copyOf(reported));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void countUnreadByChat_countsSentAndDeliveredMessagesPerChat() {
+        save(base, MessageStatus.SENT);
+        save(base.plusSeconds(1), MessageStatus.DELIVERED);
+        save(base.plusSeconds(2), MessageStatus.READ);
+        save(otherChatId, UUID.randomUUID(), base, MessageStatus.SENT);
+
+        assertEquals(Map.of(chatId, 2L, otherChatId, 1L), repository.countUnreadByChat(recipientId));
+
+        repository.markRead(chatId, recipientId, base.plusSeconds(5), 100);
+
+        assertEquals(Map.of(otherChatId, 1L), repository.countUnreadByChat(recipientId));
+        assertTrue(repository.countUnreadByChat(senderId).isEmpty());
+    }
+
+    @Test
+    void findByRecipientIdAndStatusIn_returnsOnlyMatchingStatuses() {
+        ChatMessage sent = save(base, MessageStatus.SENT);
+        ChatMessage delivered = save(base.plusSeconds(1), MessageStatus.DELIVERED);
+        ChatMessage read = save(base.plusSeconds(2), MessageStatus.READ);
+
+        List<UUID> unread = repository.findByRecipientIdAndStatusIn(recipientId,
+                List.of(MessageStatus.SENT, MessageStatus.DELIVERED)).stream().map(ChatMessage::getId).toList();
+        List<UUID> readOnly = repository.findByRecipientIdAndStatusIn(recipientId, List.of(MessageStatus.READ))
+                .stream().map(ChatMessage::getId).toList();
+
+        assertEquals(2, unread.size());
+        assertTrue(unread.containsAll(List.of(sent.getId(), delivered.getId())));
+        assertEquals(List.of(read.getId()), readOnly);
+    }
+
+    @Test
+    void findByChatIdOrderBySentAtDesc_returnsNewestMessagesFirst() {
+        ChatMessage oldest = save(base, MessageStatus.SENT);
+        ChatMessage middle = save(base.plusSeconds(1), MessageStatus.SENT);
+        ChatMessage newest = save(base.plusSeconds(2), MessageStatus.SENT);
+        save(otherChatId, UUID.randomUUID(), base.plusSeconds(3), MessageStatus.SENT);
+
+        assertEquals(List.of(newest.getId(), middle.getId()),
+                repository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(2)).stream().map(ChatMessage::getId).toList());
+        assertEquals(List.of(newest.getId(), middle.getId(), oldest.getId()),
+                repository.findByChatIdOrderBySentAtDesc(chatId, Limit.unlimited()).stream().map(ChatMessage::getId).toList());
+    }
+
+    @Test
+    void streamHistory_pagesByTimeAndThenByUnsignedId() {
+        UUID lowId = new UUID(0L, 1L);
+        UUID highId = new UUID(-2L, 1L);
+        save(chatId, highId, base, MessageStatus.SENT);
+        save(chatId, lowId, base, MessageStatus.SENT);
+        ChatMessage later = save(base.plusSeconds(1), MessageStatus.SENT);
+
+        assertEquals(List.of(later.getId(), highId, lowId), history(null, HistoryDirection.OLDER, 10));
+        assertEquals(List.of(lowId, highId), history(null, HistoryDirection.NEWER, 2));
+        assertEquals(List.of(highId, lowId), history(HistoryCursor.at(base, false), HistoryDirection.OLDER, 10));
+        assertEquals(List.of(lowId, highId, later.getId()), history(HistoryCursor.at(base, true), HistoryDirection.NEWER, 10));
+        assertEquals(List.of(highId), history(new HistoryCursor(base, lowId), HistoryDirection.NEWER, 1));
+        assertEquals(List.of(lowId), history(new HistoryCursor(base, highId), HistoryDirection.OLDER, 10));
+        assertTrue(history(null, HistoryDirection.OLDER, 10, UUID.randomUUID()).isEmpty());
+    }
+
+    @Test
+    void streamHistory_pagesThroughMessagesSentWithinTheSameMillisecond() {
+        List<UUID> sent = Stream.of(base.plusNanos(100_000), base.plusNanos(250_000), base.plusNanos(900_000),
+                        base.plusMillis(1).plusNanos(500_000))
+                .map(sentAt -> save(sentAt, MessageStatus.SENT).getId())
+                .toList();
+
+        // Messages of the same millisecond may come in either order, but each exactly once.
+        List<UUID> oldestFirst = pageOneByOne(HistoryDirection.NEWER);
+        assertEquals(Set.copyOf(sent), Set.copyOf(oldestFirst));
+        assertEquals(sent.size(), oldestFirst.size());
+        assertEquals(sent.get(3), oldestFirst.get(3));
+        List<UUID> newestFirst = pageOneByOne(HistoryDirection.OLDER);
+        Collections.reverse(newestFirst);
+        assertEquals(oldestFirst, newestFirst);
+    }
+
+    /**
+     * Pages the chat one message at a time, through encoded cursors like a client.
+     */
+    private List<UUID> pageOneByOne(HistoryDirection direction) {
+        List<UUID> seen = new ArrayList<>();
+        HistoryCursor cursor = null;
+        while (seen.size() <= 10) {
+            List<ChatMessage> page;
+            try (Stream<ChatMessage> stream = repository.streamHistory(chatId, cursor, direction, 1)) {
+                page = stream.toList();
+            }
+            if (page.isEmpty()) {
+                return seen;
+            }
+            seen.add(page.get(0).getId());
+            cursor = HistoryCursor.decode(HistoryCursor.of(page.get(0)).encode());
+        }
+        return fail("paging did not stop: " + seen);
+    }
+
+    private List<UUID> history(HistoryCursor cursor, HistoryDirection direction, int limit) {
+        return history(cursor, direction, limit, chatId);
+    }
+
+    private List<UUID> history(HistoryCursor cursor, HistoryDirection direction, int limit, UUID chat) {
+        try (Stream<ChatMessage> page = repository.streamHistory(chat, cursor, direction, limit)) {
+            return page.map(ChatMessage::getId).toList();
+        }
+    }
+
+    @Test
+    void findChangedSince_returnsSavedAndTransitionedMessagesInChangeOrder() {
+        ChatMessage first = save(base, MessageStatus.SENT);
+        ChatMessage second = save(base.plusSeconds(1), MessageStatus.SENT);
+        save(otherChatId, UUID.randomUUID(), base.plusSeconds(2), MessageStatus.SENT);
+        repository.save(ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(senderId)
+                .recipientId(recipientId).content("before delta sync").status(MessageStatus.READ).sentAt(base).build());
+
+        assertEquals(List.of(first.getId(), second.getId()), changed(SyncCursor.at(base.minusSeconds(1)), 10));
+        assertEquals(List.of(second.getId()), changed(SyncCursor.of(first), 10));
+        assertEquals(List.of(first.getId()), changed(SyncCursor.at(base.minusSeconds(1)), 1));
+
+        Instant readAt = base.plusSeconds(5);
+        repository.markRead(chatId, recipientId, readAt, 100);
+
+        List<ChatMessage> read = repository.findChangedSince(chatId, SyncCursor.of(second), 10);
+        assertEquals(List.of(first.getId(), second.getId()).stream().sorted(HistoryCursor.ID_ORDER).toList(),
+                read.stream().map(ChatMessage::getId).toList());
+        assertTrue(read.stream().allMatch(message -> message.getStatus() == MessageStatus.READ
+                && readAt.equals(message.getUpdatedAt())));
+        assertTrue(changed(SyncCursor.at(readAt), 10).isEmpty());
+    }
+
+    private List<UUID> changed(SyncCursor since, int limit) {
+        return repository.findChangedSince(chatId, since, limit).stream().map(ChatMessage::getId).toList();
+    }
+}
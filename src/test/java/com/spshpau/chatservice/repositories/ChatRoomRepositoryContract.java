@@ -0,0 +1,40 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.ChatRoom;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link ChatRoomRepository} backend must share. Subclasses supply an empty repository.
+ */
+public abstract class ChatRoomRepositoryContract {
+
+    protected abstract ChatRoomRepository emptyRepository();
+
+    @Test
+    void upsertRoom_createsTheRoomOnceWithParticipantsInCanonicalOrder() {
+        ChatRoomRepository repository = emptyRepository();
+        UUID chatId = UUID.randomUUID();
+        UUID low = new UUID(0L, 1L);
+        UUID high = new UUID(1L, 0L);
+
+        repository.upsertRoom(chatId, high, low);
+        ChatRoom created = repository.findById(chatId).orElseThrow();
+        repository.upsertRoom(chatId, low, high);
+        ChatRoom afterSecondUpsert = repository.findById(chatId).orElseThrow();
+
+        assertEquals(low, created.getFirstUserId());
+        assertEquals(high, created.getSecondUserId());
+        assertNotNull(created.getCreatedAt());
+        assertEquals(created.getCreatedAt(), afterSecondUpsert.getCreatedAt());
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void findById_ofUnknownRoom_isEmpty() {
+        assertTrue(emptyRepository().findById(UUID.randomUUID()).isEmpty());
+    }
+}
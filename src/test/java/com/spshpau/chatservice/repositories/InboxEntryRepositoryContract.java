@@ -0,0 +1,122 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link InboxEntryRepository} backend must share. Subclasses supply an empty repository.
+ */
+public abstract class InboxEntryRepositoryContract {
+
+    protected abstract InboxEntryRepository emptyRepository();
+
+    private InboxEntryRepository repository;
+    private UUID senderId;
+    private UUID recipientId;
+    private Instant base;
+
+    @BeforeEach
+    void setUpContract() {
+        repository = emptyRepository();
+        senderId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
+        base = Instant.parse("2025-01-01T00:00:00Z");
+    }
+
+    private ChatMessage message(UUID chatId, UUID from, UUID to, Instant sentAt) {
+        return ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(from)
+                .recipientId(to)
+                .sentAt(sentAt)
+                .build();
+    }
+
+    @Test
+    void recordMessage_upsertsBothEntriesAndCountsUnreadForTheRecipient() {
+        UUID chatId = UUID.randomUUID();
+        repository.recordMessage(message(chatId, senderId, recipientId, base), "first");
+        ChatMessage reply = message(chatId, recipientId, senderId, base.plusSeconds(1));
+        repository.recordMessage(reply, "reply");
+        repository.recordMessage(message(chatId, senderId, recipientId, base.plusSeconds(2)), "second");
+
+        InboxEntry senderEntry = repository.findById(InboxEntry.idFor(senderId, chatId)).orElseThrow();
+        InboxEntry recipientEntry = repository.findById(InboxEntry.idFor(recipientId, chatId)).orElseThrow();
+
+        assertEquals(senderId, senderEntry.getUserId());
+        assertEquals(recipientId, senderEntry.getPartnerId());
+        assertEquals(chatId, senderEntry.getChatId());
+        assertEquals(1, senderEntry.getUnreadCount());
+        assertEquals(2, recipientEntry.getUnreadCount());
+        assertEquals("second", recipientEntry.getLastMessagePreview());
+        assertEquals(senderId, recipientEntry.getLastMessageSenderId());
+        assertEquals(base.plusSeconds(2), recipientEntry.getLastMessageAt());
+        assertEquals(3, senderEntry.getVersion());
+        assertEquals(3, recipientEntry.getVersion());
+    }
+
+    @Test
+    void recordMessage_outOfOrder_keepsTheLatestMessageButCountsEveryOne() {
+        UUID chatId = UUID.randomUUID();
+        ChatMessage latest = message(chatId, senderId, recipientId, base.plusSeconds(2));
+        repository.recordMessage(latest, "latest");
+        repository.recordMessage(message(chatId, senderId, recipientId, base), "late");
+        repository.recordMessage(message(chatId, senderId, recipientId, base.plusSeconds(1)), "later");
+
+        for (UUID userId : List.of(senderId, recipientId)) {
+            InboxEntry entry = repository.findById(InboxEntry.idFor(userId, chatId)).orElseThrow();
+            assertEquals(latest.getId(), entry.getLastMessageId());
+            assertEquals("latest", entry.getLastMessagePreview());
+            assertEquals(base.plusSeconds(2), entry.getLastMessageAt());
+            assertEquals(3, entry.getVersion());
+        }
+        assertEquals(3, repository.findById(InboxEntry.idFor(recipientId, chatId)).orElseThrow().getUnreadCount());
+    }
+
+    @Test
+    void recordRead_decrementsUnreadAndOnlyMovesTheReadMarkerForward() {
+        UUID chatId = UUID.randomUUID();
+        repository.recordMessage(message(chatId, senderId, recipientId, base), "one");
+        repository.recordMessage(message(chatId, senderId, recipientId, base.plusSeconds(1)), "two");
+
+        repository.recordRead(chatId, recipientId, base.plusSeconds(10), 2);
+        repository.recordRead(chatId, recipientId, base.plusSeconds(5), 0);
+        repository.recordRead(UUID.randomUUID(), recipientId, base, 1);
+
+        InboxEntry entry = repository.findById(InboxEntry.idFor(recipientId, chatId)).orElseThrow();
+        assertEquals(0, entry.getUnreadCount());
+        assertEquals(base.plusSeconds(10), entry.getLastReadAt());
+        assertEquals(4, entry.getVersion());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void findByUserIdOrderByLastMessageAtDesc_pagesMostRecentlyActiveFirst() {
+        UUID quiet = UUID.randomUUID();
+        UUID busy = UUID.randomUUID();
+        UUID busiest = UUID.randomUUID();
+        repository.recordMessage(message(quiet, senderId, UUID.randomUUID(), base), "q");
+        repository.recordMessage(message(busy, senderId, UUID.randomUUID(), base.plusSeconds(1)), "b");
+        repository.recordMessage(message(busiest, senderId, UUID.randomUUID(), base.plusSeconds(2)), "bb");
+
+        List<UUID> firstPage = repository.findByUserIdOrderByLastMessageAtDesc(senderId, PageRequest.of(0, 2))
+                .stream().map(InboxEntry::getChatId).toList();
+        List<UUID> secondPage = repository.findByUserIdOrderByLastMessageAtDesc(senderId, PageRequest.of(1, 2))
+                .stream().map(InboxEntry::getChatId).toList();
+
+        assertEquals(List.of(busiest, busy), firstPage);
+        assertEquals(List.of(quiet), secondPage);
+        assertEquals(3, repository.countByUserId(senderId));
+        assertEquals(0, repository.countByUserId(UUID.randomUUID()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.spshpau.chatservice.repositories;
+
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link UserRepository} backend must share. Subclasses supply an empty repository.
+ */
+public abstract class UserRepositoryContract {
+
+    protected abstract UserRepository emptyRepository();
+
+    private UserRepository repository;
+
+    @BeforeEach
+    void setUpContract() {
+        repository = emptyRepository();
+    }
+
+    private static User user(UUID id, String username, StatusEnum status) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setFirstName("First " + username);
+        user.setLastName("Last " + username);
+        user.setStatus(status);
+        return user;
+    }
+
+    @Test
+    void upsertProfiles_keepsTheStoredStatusWhenNoneIsGiven() {
+        UUID id = UUID.randomUUID();
+        repository.upsertProfiles(List.of(user(id, "before", StatusEnum.ONLINE)));
+        repository.upsertProfiles(List.of(user(id, "after", null)));
+
+        User stored = repository.findById(id).orElseThrow();
+        assertEquals("after", stored.getUsername());
+        assertEquals(StatusEnum.ONLINE, stored.getStatus());
+    }
+
+    @Test
+    void updateStatuses_skipsUsersWithoutARecord() {
+        UUID known = UUID.randomUUID();
+        UUID unknown = UUID.randomUUID();
+        repository.upsertProfiles(List.of(user(known, "known", StatusEnum.OFFLINE)));
+
+        repository.updateStatuses("chat-1", Map.of(known, StatusEnum.ONLINE, unknown, StatusEnum.ONLINE));
+
+        assertEquals(StatusEnum.ONLINE, repository.findById(known).orElseThrow().getStatus());
+        assertFalse(repository.existsById(unknown));
+    }
+
+    @Test
+    void updateStatuses_keepsAUserOnlineWhileAnotherNodeHoldsThem() {
+        UUID id = UUID.randomUUID();
+        repository.upsertProfiles(List.of(user(id, "both", StatusEnum.OFFLINE)));
+        repository.updateStatuses("chat-1", Map.of(id, StatusEnum.ONLINE));
+        repository.updateStatuses("chat-2", Map.of(id, StatusEnum.ONLINE));
+
+        repository.updateStatuses("chat-1", Map.of(id, StatusEnum.OFFLINE));
+        User stored = repository.findById(id).orElseThrow();
+        assertEquals(StatusEnum.ONLINE, stored.getStatus());
+        assertEquals(Set.of("chat-2"), stored.getOnlineNodes());
+
+        repository.updateStatuses("chat-2", Map.of(id, StatusEnum.OFFLINE));
+        assertEquals(StatusEnum.OFFLINE, repository.findById(id).orElseThrow().getStatus());
+    }
+
+    @Test
+    void releaseNodes_setsOfflineOnlyTheUsersNoOtherNodeHolds() {
+        UUID onReleased = UUID.randomUUID();
+        UUID onBoth = UUID.randomUUID();
+        UUID onOther = UUID.randomUUID();
+        repository.upsertProfiles(List.of(user(onReleased, "a", null), user(onBoth, "b", null), user(onOther, "c", null)));
+        repository.updateStatuses("chat-1", Map.of(onReleased, StatusEnum.ONLINE, onBoth, StatusEnum.ONLINE));
+        repository.updateStatuses("chat-2", Map.of(onBoth, StatusEnum.ONLINE, onOther, StatusEnum.ONLINE));
+        assertEquals(Set.of("chat-1", "chat-2"), Set.copyOf(repository.findOnlineNodeIds()));
+
+        assertEquals(1, repository.releaseNodes(List.of("chat-1")));
+
+        assertEquals(StatusEnum.OFFLINE, repository.findById(onReleased).orElseThrow().getStatus());
+        assertEquals(StatusEnum.ONLINE, repository.findById(onBoth).orElseThrow().getStatus());
+        assertEquals(StatusEnum.ONLINE, repository.findById(onOther).orElseThrow().getStatus());
+        assertEquals(List.of("chat-2"), repository.findOnlineNodeIds());
+    }
+
+    @Test
+    void releaseAllNodes_setsEveryOnlineUserOffline() {
+        UUID held = UUID.randomUUID();
+        repository.upsertProfiles(List.of(
+                user(held, "a", StatusEnum.OFFLINE),
+                user(UUID.randomUUID(), "b", StatusEnum.ONLINE),
+                user(UUID.randomUUID(), "c", StatusEnum.OFFLINE)));
+        repository.updateStatuses("chat-1", Map.of(held, StatusEnum.ONLINE));
+
+        assertEquals(2, repository.releaseAllNodes());
+        assertTrue(repository.findAllByStatus(StatusEnum.ONLINE).isEmpty());
+        assertEquals(3, repository.findAllByStatus(StatusEnum.OFFLINE).size());
+        assertTrue(repository.findOnlineNodeIds().isEmpty());
+    }
+}
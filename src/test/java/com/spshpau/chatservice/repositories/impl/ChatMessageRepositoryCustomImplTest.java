@@ -0,0 +1,162 @@
+package com.spshpau.chatservice.repositories.impl;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatMessageRepositoryCustomImplTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @InjectMocks
+    private ChatMessageRepositoryCustomImpl repository;
+
+    private UUID chatId;
+    private UUID recipientId;
+
+    @BeforeEach
+    void setUp() {
+        chatId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
+        lenient().when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("chatMessage");
+    }
+
+    private MessageStatusChange change(MessageStatus status, Instant deliveredAt) {
+        return MessageStatusChange.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(UUID.randomUUID())
+                .recipientId(recipientId)
+                .status(status)
+                .deliveredAt(deliveredAt)
+                .build();
+    }
+
+    private static BulkWriteResult modified(int count) {
+        return BulkWriteResult.acknowledged(0, count, 0, count, List.of(), List.of());
+    }
+
+    @Test
+    void markRead_shouldIssueOneOrderedBulkWriteAndKeepSentImpliesDeliveredRule() {
+        Instant earlierDelivery = Instant.now().minusSeconds(60);
+        MessageStatusChange sent = change(MessageStatus.SENT, null);
+        MessageStatusChange delivered = change(MessageStatus.DELIVERED, earlierDelivery);
+        when(mongoTemplate.find(any(Query.class), eq(MessageStatusChange.class), eq("chatMessage")))
+                .thenReturn(new ArrayList<>(List.of(sent, delivered)));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ChatMessage.class)).thenReturn(bulkOperations);
+        when(bulkOperations.updateMulti(any(Query.class), any(Update.class))).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(modified(2));
+
+        Instant readAt = Instant.now();
+        List<MessageStatusChange> result = repository.markRead(chatId, recipientId, readAt, 10);
+
+        assertEquals(2, result.size());
+        assertEquals(MessageStatus.READ, sent.getStatus());
+        assertEquals(readAt, sent.getReadAt());
+        assertEquals(readAt, sent.getDeliveredAt());
+        assertEquals(MessageStatus.READ, delivered.getStatus());
+        assertEquals(earlierDelivery, delivered.getDeliveredAt());
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).updateMulti(any(Query.class), updates.capture());
+        assertTrue(updates.getAllValues().get(0).modifies("deliveredAt"));
+        assertFalse(updates.getAllValues().get(1).modifies("deliveredAt"));
+        verify(bulkOperations, times(1)).execute();
+        verify(mongoTemplate, never()).save(any());
+    }
+
+    @Test
+    void markRead_whenAConcurrentTransitionMovedSomeMessages_shouldReportOnlyTheOnesItMoved() {
+        Instant readAt = Instant.now();
+        MessageStatusChange ours = change(MessageStatus.SENT, null);
+        MessageStatusChange theirs = change(MessageStatus.SENT, null);
+        MessageStatusChange moved = change(MessageStatus.READ, readAt);
+        moved.setId(ours.getId());
+        moved.setReadAt(readAt);
+        when(mongoTemplate.find(any(Query.class), eq(MessageStatusChange.class), eq("chatMessage")))
+                .thenReturn(new ArrayList<>(List.of(ours, theirs)), List.of(moved));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ChatMessage.class)).thenReturn(bulkOperations);
+        when(bulkOperations.updateMulti(any(Query.class), any(Update.class))).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(modified(1));
+
+        List<MessageStatusChange> result = repository.markRead(chatId, recipientId, readAt, 10);
+
+        assertEquals(List.of(moved), result);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).updateMulti(any(Query.class), updates.capture());
+        Object transitionId = updates.getAllValues().get(0).getUpdateObject().get("$set", Document.class)
+                .get("transitionId");
+        assertNotNull(transitionId);
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(MessageStatusChange.class), eq("chatMessage"));
+        assertEquals(transitionId, queries.getAllValues().get(1).getQueryObject().get("transitionId"));
+    }
+
+    @Test
+    void markDelivered_shouldProjectWithoutContentAndUpdateInWindows() {
+        List<MessageStatusChange> firstWindow = new ArrayList<>(List.of(change(MessageStatus.SENT, null), change(MessageStatus.SENT, null)));
+        List<MessageStatusChange> secondWindow = new ArrayList<>(List.of(change(MessageStatus.SENT, null)));
+        when(mongoTemplate.find(any(Query.class), eq(MessageStatusChange.class), eq("chatMessage")))
+                .thenReturn(firstWindow, secondWindow);
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(ChatMessage.class)))
+                .thenReturn(UpdateResult.acknowledged(2, 2L, null), UpdateResult.acknowledged(1, 1L, null));
+
+        Instant deliveredAt = Instant.now();
+        List<MessageStatusChange> result = repository.markDelivered(null, recipientId, deliveredAt, 2);
+
+        assertEquals(3, result.size());
+        result.forEach(change -> {
+            assertEquals(MessageStatus.DELIVERED, change.getStatus());
+            assertEquals(deliveredAt, change.getDeliveredAt());
+        });
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(Update.class), eq(ChatMessage.class));
+
+        ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queryCaptor.capture(), eq(MessageStatusChange.class), eq("chatMessage"));
+        Query windowQuery = queryCaptor.getAllValues().get(0);
+        assertEquals(2, windowQuery.getLimit());
+        assertFalse(windowQuery.getFieldsObject().containsKey("content"));
+        assertFalse(windowQuery.getQueryObject().containsKey("chatId"));
+    }
+
+    @Test
+    void markDelivered_whenNothingMatches_shouldNotWrite() {
+        when(mongoTemplate.find(any(Query.class), eq(MessageStatusChange.class), eq("chatMessage")))
+                .thenReturn(Collections.emptyList());
+
+        List<MessageStatusChange> result = repository.markDelivered(chatId, recipientId, Instant.now(), 10);
+
+        assertTrue(result.isEmpty());
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(ChatMessage.class));
+    }
+}
@@ -0,0 +1,158 @@
+package com.spshpau.chatservice.repositories.indexes;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.ChatRoom;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MongoIndexReconcilerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private IndexOperations messageIndexOps;
+
+    @Mock
+    private IndexOperations roomIndexOps;
+
+    @Mock
+    private IndexOperations userIndexOps;
+
+    @Mock
+    private IndexOperations inboxIndexOps;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    @BeforeEach
+    void setUp() {
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter);
+
+        lenient().when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("chatMessage");
+        lenient().when(mongoTemplate.getCollectionName(ChatRoom.class)).thenReturn("chatRoom");
+        lenient().when(mongoTemplate.getCollectionName(User.class)).thenReturn("user");
+        lenient().when(mongoTemplate.getCollectionName(InboxEntry.class)).thenReturn("inboxEntry");
+        lenient().when(mongoTemplate.indexOps(ChatMessage.class)).thenReturn(messageIndexOps);
+        lenient().when(mongoTemplate.indexOps(ChatRoom.class)).thenReturn(roomIndexOps);
+        lenient().when(mongoTemplate.indexOps(User.class)).thenReturn(userIndexOps);
+        lenient().when(mongoTemplate.indexOps(InboxEntry.class)).thenReturn(inboxIndexOps);
+        lenient().when(mongoTemplate.getCollection(anyString())).thenReturn(collection);
+
+        lenient().when(roomIndexOps.getIndexInfo()).thenReturn(List.of(index("_id_", "_id")));
+        lenient().when(userIndexOps.getIndexInfo()).thenReturn(List.of(index("_id_", "_id"), index(User.INDEX_STATUS, "status"),
+                index(User.INDEX_ONLINE_NODES, "onlineNodes")));
+        lenient().when(inboxIndexOps.getIndexInfo()).thenReturn(List.of(index("_id_", "_id"),
+                IndexInfo.indexInfoOf(new Document("name", InboxEntry.INDEX_BY_ACTIVITY)
+                        .append("key", new Document("userId", 1).append("lastMessageAt", -1)))));
+    }
+
+    private static IndexInfo index(String name, String... fields) {
+        Document keys = new Document();
+        for (String field : fields) {
+            keys.append(field, 1);
+        }
+        return IndexInfo.indexInfoOf(new Document("name", name).append("key", keys));
+    }
+
+    @Test
+    void reconcile_shouldCreateMissingRebuildChangedAndReportUndeclared() {
+        when(messageIndexOps.getIndexInfo()).thenReturn(List.of(
+                index("_id_", "_id"),
+                index(ChatMessage.INDEX_CHAT_HISTORY, "chatId", "sentAt"),
+                index(ChatMessage.INDEX_CHAT_CHANGES, "chatId", "updatedAt", "_id"),
+                index("chatId_1", "chatId")));
+
+        MongoIndexReconciler.Report report = new MongoIndexReconciler(mongoTemplate, IndexManagementMode.RECONCILE).reconcile();
+
+        assertEquals(List.of("chatMessage." + ChatMessage.INDEX_RECIPIENT_STATUS), report.getCreated());
+        assertEquals(List.of("chatMessage." + ChatMessage.INDEX_CHAT_HISTORY), report.getRebuilt());
+        assertEquals(List.of("chatMessage.chatId_1"), report.getUndeclared());
+        assertTrue(report.getMissing().isEmpty());
+
+        verify(messageIndexOps).dropIndex(ChatMessage.INDEX_CHAT_HISTORY);
+        ArgumentCaptor<IndexDefinition> created = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(messageIndexOps, times(2)).ensureIndex(created.capture());
+        assertTrue(created.getAllValues().stream().anyMatch(definition ->
+                MongoIndexReconciler.keySignature(definition.getIndexKeys()).equals("chatId:1,sentAt:1,_id:1")));
+        verify(messageIndexOps, never()).dropIndex("chatId_1");
+        verify(userIndexOps, never()).ensureIndex(any());
+        verify(roomIndexOps, never()).ensureIndex(any());
+        verify(inboxIndexOps, never()).ensureIndex(any());
+    }
+
+    @Test
+    void reconcile_inReportMode_shouldNotModifyIndexes() {
+        when(messageIndexOps.getIndexInfo()).thenReturn(List.of(
+                index("_id_", "_id"),
+                index(ChatMessage.INDEX_CHAT_HISTORY, "chatId"),
+                index(ChatMessage.INDEX_CHAT_CHANGES, "chatId", "updatedAt", "_id")));
+
+        MongoIndexReconciler.Report report = new MongoIndexReconciler(mongoTemplate, IndexManagementMode.REPORT).reconcile();
+
+        assertEquals(List.of("chatMessage." + ChatMessage.INDEX_RECIPIENT_STATUS), report.getMissing());
+        assertEquals(List.of("chatMessage." + ChatMessage.INDEX_CHAT_HISTORY), report.getMismatched());
+        assertTrue(report.getCreated().isEmpty());
+        assertTrue(report.getUndeclared().isEmpty());
+        verify(messageIndexOps, never()).ensureIndex(any());
+        verify(messageIndexOps, never()).dropIndex(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcile_shouldReportIndexesWithoutRecordedUse() {
+        when(messageIndexOps.getIndexInfo()).thenReturn(List.of(
+                index("_id_", "_id"),
+                index(ChatMessage.INDEX_CHAT_HISTORY, "chatId", "sentAt", "_id"),
+                index(ChatMessage.INDEX_RECIPIENT_STATUS, "recipientId", "status", "chatId", "sentAt"),
+                index(ChatMessage.INDEX_CHAT_CHANGES, "chatId", "updatedAt", "_id")));
+        AggregateIterable<Document> stats = mock(AggregateIterable.class);
+        MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(collection.aggregate(anyList())).thenReturn(stats);
+        when(stats.iterator()).thenReturn(cursor);
+        when(cursor.hasNext()).thenReturn(true, true, true, true, false);
+        when(cursor.next()).thenReturn(
+                new Document("name", "_id_").append("accesses", new Document("ops", 0L)),
+                new Document("name", ChatMessage.INDEX_CHAT_HISTORY).append("accesses", new Document("ops", 120L)),
+                new Document("name", ChatMessage.INDEX_RECIPIENT_STATUS).append("accesses", new Document("ops", 0L)),
+                new Document("name", ChatMessage.INDEX_CHAT_CHANGES).append("accesses", new Document("ops", 40L)));
+
+        MongoIndexReconciler.Report report = new MongoIndexReconciler(mongoTemplate, IndexManagementMode.RECONCILE).reconcile();
+
+        assertTrue(report.getCreated().isEmpty());
+        assertEquals(List.of("chatMessage." + ChatMessage.INDEX_RECIPIENT_STATUS), report.getUnused());
+    }
+}
@@ -0,0 +1,170 @@
+package com.spshpau.chatservice.repositories.indexes;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.core.support.DefaultRepositoryMetadata;
+import org.springframework.data.repository.query.parser.Part;
+import org.springframework.data.repository.query.parser.PartTree;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks every repository query against the indexes declared on the entities, so that a new finder
+ * cannot ship as a collection scan. A derived finder is covered when its criteria fields form a prefix of
+ * a declared index (in any order) and its sort fields, if any, directly follow that prefix. Custom and
+ * {@code @Query} methods must name their index with {@link UsesIndex}.
+ */
+class RepositoryIndexCoverageTest {
+
+    private static final List<Class<?>> REPOSITORIES =
+            List.of(ChatMessageRepository.class, ChatRoomRepository.class, UserRepository.class, InboxEntryRepository.class);
+
+    private MongoMappingContext mappingContext;
+
+    @BeforeEach
+    void setUp() {
+        mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+    }
+
+    @Test
+    void allRepositoriesAreCheckedAndAllEntitiesManaged() {
+        Set<Class<?>> domainTypes = REPOSITORIES.stream()
+                .map(repository -> new DefaultRepositoryMetadata(repository).getDomainType())
+                .collect(Collectors.toSet());
+
+        assertEquals(new HashSet<>(MongoIndexReconciler.MANAGED_ENTITIES), domainTypes);
+    }
+
+    @Test
+    void everyDerivedFinderIsServedByADeclaredIndex() {
+        List<String> uncovered = new ArrayList<>();
+        for (Class<?> repository : REPOSITORIES) {
+            uncovered.addAll(uncoveredFinders(repository));
+        }
+
+        assertTrue(uncovered.isEmpty(), "Finders without a supporting index: " + uncovered);
+    }
+
+    @Test
+    void everyCustomQueryNamesADeclaredIndex() {
+        List<String> problems = new ArrayList<>();
+        for (Class<?> repository : REPOSITORIES) {
+            Set<String> indexNames = declaredIndexes(new DefaultRepositoryMetadata(repository).getDomainType()).keySet();
+            for (Class<?> fragment : repository.getInterfaces()) {
+                if (!fragment.getSimpleName().endsWith("Custom")) {
+                    continue;
+                }
+                for (Method method : fragment.getDeclaredMethods()) {
+                    problems.addAll(checkUsesIndex(fragment, method, indexNames));
+                }
+            }
+        }
+
+        assertTrue(problems.isEmpty(), "Custom queries without a declared index: " + problems);
+    }
+
+    @Test
+    void unindexedFinderIsReported() {
+        assertEquals(List.of("UnindexedRepository.findByContent"), uncoveredFinders(UnindexedRepository.class));
+    }
+
+    @Test
+    void finderSortingOutsideTheIndexIsReported() {
+        assertEquals(List.of("UnindexedSortRepository.findByChatIdOrderByContentAsc"),
+                uncoveredFinders(UnindexedSortRepository.class));
+    }
+
+    private List<String> uncoveredFinders(Class<?> repository) {
+        Class<?> domainType = new DefaultRepositoryMetadata(repository).getDomainType();
+        Map<String, List<String>> indexes = declaredIndexes(domainType);
+        MongoPersistentEntity<?> entity = mappingContext.getRequiredPersistentEntity(domainType);
+        List<String> uncovered = new ArrayList<>();
+
+        for (Method method : repository.getDeclaredMethods()) {
+            String name = repository.getSimpleName() + "." + method.getName();
+            if (method.isDefault()) {
+                continue;
+            }
+            if (method.isAnnotationPresent(Query.class)) {
+                uncovered.addAll(checkUsesIndex(repository, method, indexes.keySet()));
+                continue;
+            }
+
+            PartTree tree = new PartTree(method.getName(), domainType);
+            Set<String> filterFields = tree.getParts().stream()
+                    .map(Part::getProperty)
+                    .map(path -> entity.getRequiredPersistentProperty(path.getSegment()).getFieldName())
+                    .collect(Collectors.toSet());
+            List<String> sortFields = tree.getSort().stream()
+                    .map(Sort.Order::getProperty)
+                    .map(property -> entity.getRequiredPersistentProperty(property).getFieldName())
+                    .toList();
+
+            boolean covered = indexes.values().stream().anyMatch(keys -> covers(keys, filterFields, sortFields));
+            if (!covered) {
+                uncovered.add(name);
+            }
+        }
+        return uncovered;
+    }
+
+    private static boolean covers(List<String> keys, Set<String> filterFields, List<String> sortFields) {
+        if (filterFields.isEmpty() || keys.size() < filterFields.size() + sortFields.size()) {
+            return false;
+        }
+        if (!new HashSet<>(keys.subList(0, filterFields.size())).equals(filterFields)) {
+            return false;
+        }
+        return keys.subList(filterFields.size(), filterFields.size() + sortFields.size()).equals(sortFields);
+    }
+
+    private static List<String> checkUsesIndex(Class<?> owner, Method method, Set<String> indexNames) {
+        String name = owner.getSimpleName() + "." + method.getName();
+        UsesIndex usesIndex = method.getAnnotation(UsesIndex.class);
+        if (usesIndex == null || usesIndex.value().length == 0) {
+            return List.of(name + " (no @UsesIndex)");
+        }
+        return Arrays.stream(usesIndex.value())
+                .filter(index -> !indexNames.contains(index))
+                .map(index -> name + " (unknown index " + index + ")")
+                .toList();
+    }
+
+    private Map<String, List<String>> declaredIndexes(Class<?> domainType) {
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        indexes.put(MongoIndexReconciler.ID_INDEX, List.of("_id"));
+        for (IndexDefinition definition : IndexResolver.create(mappingContext).resolveIndexFor(domainType)) {
+            indexes.put(definition.getIndexOptions().getString("name"),
+                    new ArrayList<>(definition.getIndexKeys().keySet()));
+        }
+        return indexes;
+    }
+
+    interface UnindexedRepository extends MongoRepository<ChatMessage, UUID> {
+        List<ChatMessage> findByChatIdOrderBySentAtDesc(UUID chatId);
+
+        List<ChatMessage> findByContent(String content);
+    }
+
+    interface UnindexedSortRepository extends MongoRepository<ChatMessage, UUID> {
+        List<ChatMessage> findByChatIdOrderByContentAsc(UUID chatId);
+    }
+}
@@ -0,0 +1,86 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Engine-specific behaviour; the shared behaviour is covered by {@link InMemoryRepositoryContractTest}.
+ */
+class InMemoryChatMessageRepositoryTest {
+
+    private InMemoryChatMessageRepository repository;
+    private UUID chatId;
+    private UUID recipientId;
+    private Instant base;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryChatMessageRepository();
+        chatId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
+        base = Instant.parse("2025-01-01T00:00:00Z");
+    }
+
+    private ChatMessage save(Instant sentAt, MessageStatus status) {
+        return repository.save(ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(UUID.randomUUID())
+                .recipientId(recipientId)
+                .content("m")
+                .status(status)
+                .sentAt(sentAt)
+                .build());
+    }
+
+    @Test
+    void lateMessages_areInsertedAtTheirPositionInHistory() {
+        ChatMessage second = save(base.plusSeconds(2), MessageStatus.SENT);
+        ChatMessage third = save(base.plusSeconds(3), MessageStatus.SENT);
+        ChatMessage first = save(base.plusSeconds(1), MessageStatus.SENT);
+
+        List<UUID> oldestFirst = repository.streamHistory(chatId, null, HistoryDirection.NEWER, 10)
+                .map(ChatMessage::getId).toList();
+
+        assertEquals(List.of(first.getId(), second.getId(), third.getId()), oldestFirst);
+    }
+
+    @Test
+    void resavingAMessage_replacesItInHistoryAndUnreadCounts() {
+        ChatMessage message = save(base, MessageStatus.SENT);
+        message.setStatus(MessageStatus.READ);
+        message.setContent("edited");
+        repository.save(message);
+        repository.deleteById(save(base.plusSeconds(1), MessageStatus.DELIVERED).getId());
+
+        assertTrue(repository.countUnreadByChat(recipientId).isEmpty());
+        List<ChatMessage> history = repository.findByChatIdOrderBySentAtDesc(chatId, Limit.unlimited());
+        assertEquals(1, history.size());
+        assertEquals("edited", history.get(0).getContent());
+    }
+
+    @Test
+    void returnedMessagesAreCopies() {
+        ChatMessage saved = save(base, MessageStatus.SENT);
+        saved.setContent("changed after save");
+
+        ChatMessage found = repository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(1)).get(0);
+        found.setStatus(MessageStatus.READ);
+
+        ChatMessage stored = repository.findById(saved.getId()).orElseThrow();
+        assertEquals("m", stored.getContent());
+        assertEquals(MessageStatus.SENT, stored.getStatus());
+        assertEquals(Map.of(chatId, 1L), repository.countUnreadByChat(recipientId));
+    }
+}
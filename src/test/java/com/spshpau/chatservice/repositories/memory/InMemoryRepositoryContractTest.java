@@ -0,0 +1,46 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.repositories.ChatMessageRepositoryContract;
+import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import com.spshpau.chatservice.repositories.ChatRoomRepositoryContract;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.InboxEntryRepositoryContract;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.repositories.UserRepositoryContract;
+import org.junit.jupiter.api.Nested;
+
+class InMemoryRepositoryContractTest {
+
+    @Nested
+    class ChatMessages extends ChatMessageRepositoryContract {
+        @Override
+        protected ChatMessageRepository emptyRepository() {
+            return new InMemoryChatMessageRepository();
+        }
+    }
+
+    @Nested
+    class ChatRooms extends ChatRoomRepositoryContract {
+        @Override
+        protected ChatRoomRepository emptyRepository() {
+            return new InMemoryChatRoomRepository();
+        }
+    }
+
+    @Nested
+    class InboxEntries extends InboxEntryRepositoryContract {
+        @Override
+        protected InboxEntryRepository emptyRepository() {
+            return new InMemoryInboxEntryRepository();
+        }
+    }
+
+    @Nested
+    class Users extends UserRepositoryContract {
+        @Override
+        protected UserRepository emptyRepository() {
+            return new InMemoryUserRepository();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStoreTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    private final UUID chatId = UUID.randomUUID();
+    private final UUID senderId = UUID.randomUUID();
+    private final UUID recipientId = UUID.randomUUID();
+    private final Instant base = Instant.parse("2025-01-01T00:00:00Z");
+
+    private InMemoryStore open() throws IOException {
+        return new InMemoryStore(new SimpleMeterRegistry(), dataDirectory);
+    }
+
+    private ChatMessage send(InMemoryStore store, Instant sentAt) {
+        ChatMessage message = store.chatMessages().save(ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(senderId)
+                .recipientId(recipientId)
+                .content("hello")
+                .status(MessageStatus.SENT)
+                .sentAt(sentAt)
+                .build());
+        store.inboxEntries().recordMessage(message, "hello");
+        return message;
+    }
+
+    @Test
+    void recover_replaysTheJournal() throws IOException {
+        InMemoryStore store = open();
+        ChatMessage read = send(store, base);
+        send(store, base.plusSeconds(1));
+        store.chatMessages().markRead(chatId, recipientId, base.plusSeconds(2), 100);
+        ChatMessage unread = send(store, base.plusSeconds(3));
+        store.chatRooms().upsertRoom(chatId, senderId, recipientId);
+        store.flush();
+
+        InMemoryStore recovered = open();
+
+        assertEquals(3, recovered.chatMessages().count());
+        assertEquals(MessageStatus.READ, recovered.chatMessages().findById(read.getId()).orElseThrow().getStatus());
+        assertEquals(Map.of(chatId, 1L), recovered.chatMessages().countUnreadByChat(recipientId));
+        assertEquals(unread.getId(), recovered.inboxEntries()
+                .findById(InboxEntry.idFor(recipientId, chatId)).orElseThrow().getLastMessageId());
+        assertTrue(recovered.chatRooms().existsById(chatId));
+    }
+
+    @Test
+    void snapshot_replacesOlderLogsAndKeepsLaterChanges() throws IOException {
+        InMemoryStore store = open();
+        ChatMessage first = send(store, base);
+        store.snapshot();
+        ChatMessage second = send(store, base.plusSeconds(1));
+        store.chatMessages().deleteById(first.getId());
+        store.flush();
+
+        try (Stream<Path> files = Files.list(dataDirectory)) {
+            assertEquals(2, files.count(), "the snapshot and the log written after it");
+        }
+        InMemoryStore recovered = open();
+
+        assertFalse(recovered.chatMessages().existsById(first.getId()));
+        assertTrue(recovered.chatMessages().existsById(second.getId()));
+        assertEquals(2, recovered.inboxEntries().count());
+    }
+
+    @Test
+    void recover_ignoresATornRecordAtTheEndOfALog() throws IOException {
+        InMemoryStore store = open();
+        ChatMessage message = send(store, base);
+        store.flush();
+        try (Stream<Path> files = Files.list(dataDirectory)) {
+            Path log = files.filter(file -> file.getFileName().toString().startsWith("journal-")).findFirst().orElseThrow();
+            Files.writeString(log, "{\"c\":\"ChatMessage\",\"doc\":{\"id\":", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+
+        InMemoryStore recovered = open();
+        send(recovered, base.plusSeconds(1));
+        recovered.flush();
+
+        assertTrue(recovered.chatMessages().existsById(message.getId()));
+        assertEquals(2, open().chatMessages().count());
+    }
+
+    @Test
+    void withoutDataDirectory_nothingIsWritten() throws IOException {
+        InMemoryStore store = new InMemoryStore(new SimpleMeterRegistry(), null);
+        send(store, base);
+        store.flush();
+        store.snapshot();
+
+        try (Stream<Path> files = Files.list(dataDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
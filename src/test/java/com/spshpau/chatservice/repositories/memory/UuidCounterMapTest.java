@@ -0,0 +1,59 @@
+package com.spshpau.chatservice.repositories.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UuidCounterMapTest {
+
+    @Test
+    void add_countsPerKeyAndDropsKeysAtZero() {
+        UuidCounterMap counters = new UuidCounterMap();
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+
+        counters.add(a, 2);
+        counters.add(b, 1);
+        counters.add(a, -1);
+
+        assertEquals(1, counters.get(a));
+        assertEquals(0, counters.add(b, -5));
+        assertEquals(0, counters.add(UUID.randomUUID(), -1));
+        assertEquals(Map.of(a, 1L), counters.toMap());
+        assertEquals(1, counters.size());
+    }
+
+    @Test
+    void matchesAHashMapUnderRandomChurn() {
+        UuidCounterMap counters = new UuidCounterMap();
+        Map<UUID, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        UUID[] keys = new UUID[300];
+        for (int i = 0; i < keys.length; i++) {
+            // Shared high halves make probe runs collide.
+            keys[i] = new UUID(i % 7, random.nextLong());
+        }
+
+        for (int step = 0; step < 50_000; step++) {
+            UUID key = keys[random.nextInt(keys.length)];
+            long delta = random.nextInt(5) - 2;
+            long updated = Math.max(0, expected.getOrDefault(key, 0L) + delta);
+            if (updated == 0) {
+                expected.remove(key);
+            } else {
+                expected.put(key, updated);
+            }
+            assertEquals(updated, counters.add(key, delta));
+        }
+
+        assertEquals(expected, counters.toMap());
+        for (UUID key : keys) {
+            assertEquals(expected.getOrDefault(key, 0L), counters.get(key));
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package com.spshpau.chatservice.services.impl;
 
+import com.spshpau.chatservice.controller.dto.ChatHistoryMessageDto;
+import com.spshpau.chatservice.controller.dto.ChatSyncDto;
 import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.SyncCursor;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
 import com.spshpau.chatservice.model.enums.MessageStatus;
 import com.spshpau.chatservice.repositories.ChatMessageRepository;
 import com.spshpau.chatservice.services.ChatRoomService;
+import com.spshpau.chatservice.services.InboxService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 
 import java.time.Instant;
 import java.util.Arrays;
@@ -19,9 +30,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,6 +50,21 @@ class ChatMessageServiceImplTest {
     @Mock
     private ChatRoomService chatRoomService;
 
+    @Mock
+    private ChatMessageWriteBehindBuffer writeBehindBuffer;
+
+    @Mock
+    private InboxService inboxService;
+
+    @Mock
+    private ChatTailCache tailCache;
+
+    @Mock
+    private ClusterFanout clusterFanout;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private ChatMessageServiceImpl chatMessageService;
 
@@ -71,12 +103,17 @@ class ChatMessageServiceImplTest {
         assertEquals(chatId, savedMessage.getChatId());
         assertEquals(MessageStatus.SENT, savedMessage.getStatus());
         assertNotNull(savedMessage.getSentAt());
+        assertEquals(0, savedMessage.getSentAt().getNano() % 1_000_000, "stored at millisecond precision");
+        assertEquals(0, savedMessage.getUpdatedAt().getNano() % 1_000_000);
         assertEquals(senderId, savedMessage.getSenderId());
         assertEquals(recipientId, savedMessage.getRecipientId());
         assertEquals("Hello", savedMessage.getContent());
 
         verify(chatRoomService, times(1)).getChatRoomId(senderId, recipientId, true);
         verify(chatMessageRepository, times(1)).save(any(ChatMessage.class));
+        verify(inboxService, times(1)).recordMessage(savedMessage);
+        verify(tailCache).append(savedMessage);
+        verify(clusterFanout).messageSaved(savedMessage);
     }
 
     @Test
@@ -86,19 +123,120 @@ class ChatMessageServiceImplTest {
         assertThrows(RuntimeException.class, () -> chatMessageService.save(sampleChatMessage));
 
         verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        assertEquals(1, meterRegistry.get("chat.messages.save").tag("path", "direct").tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    void submit_whenWriteBehindDisabled_shouldSaveDirectly() {
+        when(writeBehindBuffer.isEnabled()).thenReturn(false);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, true)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        CompletableFuture<ChatMessage> result = chatMessageService.submit(sampleChatMessage);
+
+        assertTrue(result.isDone());
+        assertEquals(chatId, result.join().getChatId());
+        verify(chatMessageRepository, times(1)).save(sampleChatMessage);
+        verify(writeBehindBuffer, never()).enqueue(any(ChatMessage.class));
+    }
+
+    @Test
+    void submit_whenWriteBehindEnabled_shouldPrepareAndEnqueue() {
+        CompletableFuture<ChatMessage> pending = new CompletableFuture<>();
+        when(writeBehindBuffer.isEnabled()).thenReturn(true);
+        when(writeBehindBuffer.enqueue(any(ChatMessage.class))).thenReturn(pending);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, true)).thenReturn(Optional.of(chatId));
+
+        CompletableFuture<ChatMessage> result = chatMessageService.submit(sampleChatMessage);
+
+        ArgumentCaptor<ChatMessage> captor = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(writeBehindBuffer).enqueue(captor.capture());
+        assertNotNull(captor.getValue().getId());
+        assertEquals(chatId, captor.getValue().getChatId());
+        assertEquals(MessageStatus.SENT, captor.getValue().getStatus());
+        assertNotNull(captor.getValue().getSentAt());
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        assertFalse(result.isDone());
+        verify(inboxService, never()).recordMessage(any(ChatMessage.class));
+
+        pending.complete(captor.getValue());
+
+        assertSame(captor.getValue(), result.join());
+        verify(inboxService).recordMessage(captor.getValue());
     }
 
     @Test
-    void findChatMessages_whenChatRoomExists_shouldReturnMessages() {
-        List<ChatMessage> messages = Collections.singletonList(ChatMessage.builder().chatId(chatId).content("Test").build());
+    void pendingWrites_shouldCompleteOnceEveryQueuedMessageOfTheChatIsWritten() {
+        CompletableFuture<ChatMessage> first = new CompletableFuture<>();
+        CompletableFuture<ChatMessage> second = new CompletableFuture<>();
+        when(writeBehindBuffer.isEnabled()).thenReturn(true);
+        when(writeBehindBuffer.enqueue(any(ChatMessage.class))).thenReturn(first, second);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, true)).thenReturn(Optional.of(chatId));
+        assertTrue(chatMessageService.pendingWrites(chatId).isDone());
+
+        ChatMessage firstMessage = ChatMessage.builder().senderId(senderId).recipientId(recipientId).content("1").build();
+        ChatMessage secondMessage = ChatMessage.builder().senderId(senderId).recipientId(recipientId).content("2").build();
+        chatMessageService.submit(firstMessage);
+        chatMessageService.submit(secondMessage);
+        CompletableFuture<Void> pending = chatMessageService.pendingWrites(chatId);
+
+        second.complete(secondMessage);
+        assertFalse(pending.isDone(), "the first message is still queued");
+        first.completeExceptionally(new IllegalStateException("write failed"));
+        assertTrue(pending.isDone());
+        assertFalse(pending.isCompletedExceptionally());
+        assertTrue(chatMessageService.pendingWrites(chatId).isDone());
+        assertTrue(chatMessageService.pendingWrites(UUID.randomUUID()).isDone());
+    }
+
+    @Test
+    void submit_whenChatRoomServiceFails_shouldReturnFailedFuture() {
+        when(writeBehindBuffer.isEnabled()).thenReturn(true);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, true)).thenReturn(Optional.empty());
+
+        CompletableFuture<ChatMessage> result = chatMessageService.submit(sampleChatMessage);
+
+        assertTrue(result.isCompletedExceptionally());
+        verify(writeBehindBuffer, never()).enqueue(any(ChatMessage.class));
+    }
+
+    @Test
+    void findChatMessages_whenChatRoomExists_shouldReturnLatestMessagesInChronologicalOrder() {
+        ChatMessage older = ChatMessage.builder().chatId(chatId).content("First").sentAt(Instant.parse("2024-01-01T10:00:00Z")).build();
+        ChatMessage newer = ChatMessage.builder().chatId(chatId).content("Second").sentAt(Instant.parse("2024-01-01T10:01:00Z")).build();
         when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
-        when(chatMessageRepository.findByChatId(chatId)).thenReturn(messages);
+        when(chatMessageRepository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(500))).thenReturn(List.of(newer, older));
 
         List<ChatMessage> foundMessages = chatMessageService.findChatMessages(senderId, recipientId);
 
-        assertEquals(messages, foundMessages);
+        assertEquals(List.of(older, newer), foundMessages);
         verify(chatRoomService, times(1)).getChatRoomId(senderId, recipientId, false);
-        verify(chatMessageRepository, times(1)).findByChatId(chatId);
+        verify(chatMessageRepository, times(1)).findByChatIdOrderBySentAtDesc(chatId, Limit.of(500));
+    }
+
+    @Test
+    void findChatMessages_whenTailIsCached_shouldNotReadTheRepository() {
+        ChatMessage older = ChatMessage.builder().chatId(chatId).content("First").sentAt(Instant.parse("2024-01-01T10:00:00Z")).build();
+        ChatMessage newer = ChatMessage.builder().chatId(chatId).content("Second").sentAt(Instant.parse("2024-01-01T10:01:00Z")).build();
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(clusterFanout.receivesChangesOf(senderId, recipientId)).thenReturn(true);
+        when(tailCache.page(chatId, null, HistoryDirection.OLDER, 500)).thenReturn(Optional.of(List.of(newer, older)));
+
+        List<ChatMessage> foundMessages = chatMessageService.findChatMessages(senderId, recipientId);
+
+        assertEquals(List.of(older, newer), foundMessages);
+        verify(chatMessageRepository, never()).findByChatIdOrderBySentAtDesc(any(UUID.class), any(Limit.class));
+    }
+
+    @Test
+    void findChatMessages_whenThisNodeMissesChangesOfTheChat_shouldNotUseTheTailCache() {
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(clusterFanout.receivesChangesOf(senderId, recipientId)).thenReturn(false);
+        when(chatMessageRepository.findByChatIdOrderBySentAtDesc(chatId, Limit.of(500))).thenReturn(List.of());
+
+        assertTrue(chatMessageService.findChatMessages(senderId, recipientId).isEmpty());
+
+        verify(tailCache, never()).page(any(), any(), any(), anyInt());
     }
 
     @Test
@@ -109,114 +247,211 @@ class ChatMessageServiceImplTest {
 
         assertTrue(foundMessages.isEmpty());
         verify(chatRoomService, times(1)).getChatRoomId(senderId, recipientId, false);
-        verify(chatMessageRepository, never()).findByChatId(any(UUID.class));
+        verify(chatMessageRepository, never()).findByChatIdOrderBySentAtDesc(any(UUID.class), any(Limit.class));
     }
 
     @Test
-    void markMessagesAsDelivered_whenSentMessagesExist_shouldUpdateAndSave() {
-        ChatMessage msg1 = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.SENT).build();
-        ChatMessage msg2 = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.SENT).build();
-        List<ChatMessage> messagesToUpdate = Arrays.asList(msg1, msg2);
+    void streamChatHistory_whenChatRoomExists_shouldMapToHistoryDtos() {
+        Instant sentAt = Instant.parse("2024-01-01T10:00:00Z");
+        Instant readAt = sentAt.plusSeconds(30);
+        ChatMessage read = ChatMessage.builder().id(UUID.randomUUID()).senderId(senderId).content("Read")
+                .status(MessageStatus.READ).sentAt(sentAt).deliveredAt(sentAt.plusSeconds(5)).readAt(readAt).build();
+        ChatMessage sent = ChatMessage.builder().id(UUID.randomUUID()).senderId(recipientId).content("Sent")
+                .status(MessageStatus.SENT).sentAt(sentAt.minusSeconds(60)).build();
+        HistoryCursor cursor = HistoryCursor.at(sentAt.plusSeconds(60), false);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.streamHistory(chatId, cursor, HistoryDirection.OLDER, 10)).thenReturn(Stream.of(read, sent));
+
+        List<ChatHistoryMessageDto> history;
+        try (Stream<ChatHistoryMessageDto> stream = chatMessageService.streamChatHistory(senderId, recipientId, cursor, HistoryDirection.OLDER, 10)) {
+            history = stream.toList();
+        }
+
+        assertEquals(2, history.size());
+        assertEquals(read.getId(), history.get(0).getId());
+        assertEquals(readAt, history.get(0).getStatusTimestamp());
+        assertEquals(sent.getSentAt(), history.get(1).getStatusTimestamp());
+        assertEquals(MessageStatus.SENT, history.get(1).getStatus());
+    }
 
-        when(chatMessageRepository.findByChatIdAndRecipientIdAndStatus(chatId, recipientId, MessageStatus.SENT))
-                .thenReturn(messagesToUpdate);
-        when(chatMessageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    @Test
+    void streamChatHistory_shouldClampLimitToMaxPageSizePlusLookAhead() {
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.streamHistory(eq(chatId), isNull(), eq(HistoryDirection.NEWER), anyInt())).thenReturn(Stream.empty());
+
+        chatMessageService.streamChatHistory(senderId, recipientId, null, HistoryDirection.NEWER, 10_000).close();
+
+        verify(chatMessageRepository).streamHistory(chatId, null, HistoryDirection.NEWER, 201);
+    }
+
+    @Test
+    void historyPageSize_shouldClampToOneAndTheMaxPageSize() {
+        assertEquals(1, chatMessageService.historyPageSize(0));
+        assertEquals(50, chatMessageService.historyPageSize(50));
+        assertEquals(200, chatMessageService.historyPageSize(10_000));
+    }
+
+    @Test
+    void streamChatHistory_whenChatRoomDoesNotExist_shouldReturnEmptyStream() {
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.empty());
+
+        assertEquals(0, chatMessageService.streamChatHistory(senderId, recipientId, null, HistoryDirection.OLDER, 50).count());
+        verify(chatMessageRepository, never()).streamHistory(any(), any(), any(), anyInt());
+    }
 
-        List<ChatMessage> updatedMessages = chatMessageService.markMessagesAsDelivered(chatId, recipientId);
+    @Test
+    void markMessagesAsDelivered_whenSentMessagesExist_shouldUseBulkTransition() {
+        MessageStatusChange msg1 = MessageStatusChange.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.DELIVERED).deliveredAt(Instant.now()).build();
+        MessageStatusChange msg2 = MessageStatusChange.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.DELIVERED).deliveredAt(Instant.now()).build();
+        when(chatMessageRepository.markDelivered(eq(chatId), eq(recipientId), any(Instant.class), anyInt()))
+                .thenReturn(Arrays.asList(msg1, msg2));
+
+        List<MessageStatusChange> updatedMessages = chatMessageService.markMessagesAsDelivered(chatId, recipientId);
 
         assertEquals(2, updatedMessages.size());
         updatedMessages.forEach(msg -> {
             assertEquals(MessageStatus.DELIVERED, msg.getStatus());
             assertNotNull(msg.getDeliveredAt());
         });
-        verify(chatMessageRepository, times(2)).save(any(ChatMessage.class));
+        verify(chatMessageRepository, times(1)).markDelivered(eq(chatId), eq(recipientId), any(Instant.class), anyInt());
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
     }
 
     @Test
     void markMessagesAsDelivered_whenNoSentMessages_shouldReturnEmptyList() {
-        when(chatMessageRepository.findByChatIdAndRecipientIdAndStatus(chatId, recipientId, MessageStatus.SENT))
+        when(chatMessageRepository.markDelivered(eq(chatId), eq(recipientId), any(Instant.class), anyInt()))
                 .thenReturn(Collections.emptyList());
 
-        List<ChatMessage> updatedMessages = chatMessageService.markMessagesAsDelivered(chatId, recipientId);
+        List<MessageStatusChange> updatedMessages = chatMessageService.markMessagesAsDelivered(chatId, recipientId);
 
         assertTrue(updatedMessages.isEmpty());
         verify(chatMessageRepository, never()).save(any(ChatMessage.class));
     }
 
     @Test
-    void markMessagesAsRead_whenSentOrDeliveredMessagesExist_shouldUpdateAndSave() {
-        ChatMessage msgSent = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.SENT).build();
-        ChatMessage msgDelivered = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId).status(MessageStatus.DELIVERED).deliveredAt(Instant.now().minusSeconds(10)).build();
-        List<ChatMessage> messagesToUpdate = Arrays.asList(msgSent, msgDelivered);
-        List<MessageStatus> expectedStatuses = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-
-        when(chatMessageRepository.findByChatIdAndRecipientIdAndStatusIn(chatId, recipientId, expectedStatuses))
-                .thenReturn(messagesToUpdate);
-        when(chatMessageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    void markMessagesAsRead_whenSentOrDeliveredMessagesExist_shouldUseBulkTransition() {
+        Instant readAt = Instant.now();
+        MessageStatusChange msg = MessageStatusChange.builder().id(UUID.randomUUID()).chatId(chatId).recipientId(recipientId)
+                .status(MessageStatus.READ).readAt(readAt).deliveredAt(readAt).build();
+        when(chatMessageRepository.markRead(eq(chatId), eq(recipientId), any(Instant.class), anyInt()))
+                .thenReturn(List.of(msg));
 
-        List<ChatMessage> updatedMessages = chatMessageService.markMessagesAsRead(chatId, recipientId);
+        List<MessageStatusChange> updatedMessages = chatMessageService.markMessagesAsRead(chatId, recipientId);
 
-        assertEquals(2, updatedMessages.size());
-        ArgumentCaptor<ChatMessage> captor = ArgumentCaptor.forClass(ChatMessage.class);
-        verify(chatMessageRepository, times(2)).save(captor.capture());
+        assertEquals(1, updatedMessages.size());
+        assertEquals(MessageStatus.READ, updatedMessages.get(0).getStatus());
+        verify(chatMessageRepository, times(1)).markRead(eq(chatId), eq(recipientId), any(Instant.class), eq(500));
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(inboxService).recordRead(eq(chatId), eq(recipientId), any(Instant.class), eq(1L));
+        verify(tailCache).applyStatusChanges(List.of(msg));
+        verify(clusterFanout).statusChanged(List.of(msg));
+        assertEquals(1, meterRegistry.get("chat.messages.status.transition")
+                .tags("status", "READ", "scope", "chat", "outcome", "success").timer().count());
+        assertEquals(1.0, meterRegistry.get("chat.messages.status.batch")
+                .tags("status", "READ", "scope", "chat").summary().totalAmount());
+    }
 
-        List<ChatMessage> capturedMessages = captor.getAllValues();
-        ChatMessage updatedSentMsg = capturedMessages.stream().filter(m -> m.getId().equals(msgSent.getId())).findFirst().orElseThrow();
-        ChatMessage updatedDeliveredMsg = capturedMessages.stream().filter(m -> m.getId().equals(msgDelivered.getId())).findFirst().orElseThrow();
+    private ChatMessage changedAt(Instant updatedAt) {
+        return ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(senderId).content("Hi")
+                .status(MessageStatus.SENT).sentAt(updatedAt).updatedAt(updatedAt).build();
+    }
 
-        assertEquals(MessageStatus.READ, updatedSentMsg.getStatus());
-        assertNotNull(updatedSentMsg.getReadAt());
-        assertNotNull(updatedSentMsg.getDeliveredAt());
-        assertEquals(updatedSentMsg.getReadAt(), updatedSentMsg.getDeliveredAt());
+    @Test
+    void syncChat_whenNothingChanged_shouldKeepTheCursor() {
+        SyncCursor since = SyncCursor.at(Instant.parse("2024-01-01T10:00:00Z"));
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.findChangedSince(chatId, since, 201)).thenReturn(List.of());
 
-        assertEquals(MessageStatus.READ, updatedDeliveredMsg.getStatus());
-        assertNotNull(updatedDeliveredMsg.getReadAt());
-        assertNotNull(updatedDeliveredMsg.getDeliveredAt());
-        assertTrue(updatedDeliveredMsg.getReadAt().isAfter(updatedDeliveredMsg.getDeliveredAt()) || updatedDeliveredMsg.getReadAt().equals(updatedDeliveredMsg.getDeliveredAt()));
+        ChatSyncDto sync = chatMessageService.syncChat(senderId, recipientId, since, 10_000);
 
+        assertTrue(sync.getChanges().isEmpty());
+        assertEquals(since.encode(), sync.getCursor());
+        assertFalse(sync.isHasMore());
+        assertEquals(1, meterRegistry.get("chat.messages.sync.requests").tag("result", "unchanged").counter().count());
+    }
 
+    @Test
+    void syncChat_whenChangesHaveSettled_shouldMoveTheCursorToTheLastChange() {
+        SyncCursor since = SyncCursor.at(Instant.parse("2024-01-01T10:00:00Z"));
+        ChatMessage first = changedAt(Instant.parse("2024-01-01T10:00:01Z"));
+        ChatMessage last = changedAt(Instant.parse("2024-01-01T10:00:02Z"));
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.findChangedSince(chatId, since, 51)).thenReturn(List.of(first, last));
+
+        ChatSyncDto sync = chatMessageService.syncChat(senderId, recipientId, since, 50);
+
+        assertEquals(List.of(first.getId(), last.getId()), sync.getChanges().stream().map(ChatHistoryMessageDto::getId).toList());
+        assertEquals(SyncCursor.of(last).encode(), sync.getCursor());
+        assertFalse(sync.isHasMore());
+    }
+
+    @Test
+    void syncChat_whenChangesAreRecent_shouldStopTheCursorBeforeTheSettleWindow() {
+        Instant now = Instant.now();
+        SyncCursor since = SyncCursor.at(now.minusSeconds(60));
+        ChatMessage recent = changedAt(now);
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.findChangedSince(chatId, since, 51)).thenReturn(List.of(recent));
+
+        SyncCursor next = SyncCursor.decode(chatMessageService.syncChat(senderId, recipientId, since, 50).getCursor());
+
+        assertTrue(next.isAfter(since));
+        assertTrue(SyncCursor.of(recent).isAfter(next), "the recent change is returned again by the next sync");
+    }
+
+    @Test
+    void syncChat_whenPageIsFull_shouldMoveTheCursorToTheLastReturnedChange() {
+        Instant now = Instant.now();
+        SyncCursor since = SyncCursor.at(now.minusSeconds(60));
+        ChatMessage first = changedAt(now.minusMillis(2));
+        ChatMessage second = changedAt(now.minusMillis(1));
+        when(chatRoomService.getChatRoomId(senderId, recipientId, false)).thenReturn(Optional.of(chatId));
+        when(chatMessageRepository.findChangedSince(chatId, since, 2)).thenReturn(List.of(first, second));
+
+        ChatSyncDto sync = chatMessageService.syncChat(senderId, recipientId, since, 1);
+
+        assertEquals(1, sync.getChanges().size());
+        assertTrue(sync.isHasMore());
+        assertEquals(SyncCursor.of(first).encode(), sync.getCursor());
     }
 
     @Test
     void markMessagesAsRead_whenNoRelevantMessages_shouldReturnEmptyList() {
-        List<MessageStatus> expectedStatuses = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-        when(chatMessageRepository.findByChatIdAndRecipientIdAndStatusIn(chatId, recipientId, expectedStatuses))
+        when(chatMessageRepository.markRead(eq(chatId), eq(recipientId), any(Instant.class), anyInt()))
                 .thenReturn(Collections.emptyList());
 
-        List<ChatMessage> updatedMessages = chatMessageService.markMessagesAsRead(chatId, recipientId);
+        List<MessageStatusChange> updatedMessages = chatMessageService.markMessagesAsRead(chatId, recipientId);
 
         assertTrue(updatedMessages.isEmpty());
         verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(inboxService, never()).recordRead(any(), any(), any(), anyLong());
     }
 
     @Test
-    void markSentMessagesToUserAsDelivered_whenSentMessagesExist_shouldUpdate() {
+    void markSentMessagesToUserAsDelivered_whenSentMessagesExist_shouldUpdateAcrossAllChats() {
         UUID userRecipientId = UUID.randomUUID();
-        ChatMessage msg1 = ChatMessage.builder().id(UUID.randomUUID()).recipientId(userRecipientId).status(MessageStatus.SENT).build();
-        List<ChatMessage> messagesToUpdate = Collections.singletonList(msg1);
+        MessageStatusChange msg1 = MessageStatusChange.builder().id(UUID.randomUUID()).recipientId(userRecipientId)
+                .status(MessageStatus.DELIVERED).deliveredAt(Instant.now()).build();
+        when(chatMessageRepository.markDelivered(isNull(), eq(userRecipientId), any(Instant.class), anyInt()))
+                .thenReturn(Collections.singletonList(msg1));
 
-        when(chatMessageRepository.findByRecipientIdAndStatus(userRecipientId, MessageStatus.SENT))
-                .thenReturn(messagesToUpdate);
-        when(chatMessageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
-        List<ChatMessage> updatedMessages = chatMessageService.markSentMessagesToUserAsDelivered(userRecipientId);
+        List<MessageStatusChange> updatedMessages = chatMessageService.markSentMessagesToUserAsDelivered(userRecipientId);
 
         assertEquals(1, updatedMessages.size());
         assertEquals(MessageStatus.DELIVERED, updatedMessages.get(0).getStatus());
         assertNotNull(updatedMessages.get(0).getDeliveredAt());
-        verify(chatMessageRepository, times(1)).save(any(ChatMessage.class));
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
     }
 
     @Test
     void markSentMessagesToUserAsDelivered_whenNoSentMessages_shouldReturnEmptyList() {
         UUID userRecipientId = UUID.randomUUID();
-        when(chatMessageRepository.findByRecipientIdAndStatus(userRecipientId, MessageStatus.SENT))
+        when(chatMessageRepository.markDelivered(isNull(), eq(userRecipientId), any(Instant.class), anyInt()))
                 .thenReturn(Collections.emptyList());
 
-        List<ChatMessage> updatedMessages = chatMessageService.markSentMessagesToUserAsDelivered(userRecipientId);
+        List<MessageStatusChange> updatedMessages = chatMessageService.markSentMessagesToUserAsDelivered(userRecipientId);
 
         assertTrue(updatedMessages.isEmpty());
-        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
     }
 
 
@@ -226,16 +461,7 @@ class ChatMessageServiceImplTest {
         UUID chat1 = UUID.randomUUID();
         UUID chat2 = UUID.randomUUID();
 
-        ChatMessage msg1Chat1 = ChatMessage.builder().chatId(chat1).recipientId(recipientUser).status(MessageStatus.SENT).build();
-        ChatMessage msg2Chat1 = ChatMessage.builder().chatId(chat1).recipientId(recipientUser).status(MessageStatus.DELIVERED).build();
-        ChatMessage msg1Chat2 = ChatMessage.builder().chatId(chat2).recipientId(recipientUser).status(MessageStatus.SENT).build();
-        ChatMessage msgReadChat1 = ChatMessage.builder().chatId(chat1).recipientId(recipientUser).status(MessageStatus.READ).build();
-
-        List<ChatMessage> unreadMessages = Arrays.asList(msg1Chat1, msg2Chat1, msg1Chat2);
-        List<MessageStatus> unreadStatuses = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-
-        when(chatMessageRepository.findByRecipientIdAndStatusIn(recipientUser, unreadStatuses))
-                .thenReturn(unreadMessages);
+        when(chatMessageRepository.countUnreadByChat(recipientUser)).thenReturn(Map.of(chat1, 2L, chat2, 1L));
 
         Map<UUID, Long> counts = chatMessageService.getUnreadMessageCountsPerChatForUser(recipientUser);
 
@@ -249,10 +475,7 @@ class ChatMessageServiceImplTest {
     @Test
     void getUnreadMessageCountsPerChatForUser_whenNoUnreadMessages_shouldReturnEmptyMap() {
         UUID recipientUser = UUID.randomUUID();
-        List<MessageStatus> unreadStatuses = Arrays.asList(MessageStatus.SENT, MessageStatus.DELIVERED);
-
-        when(chatMessageRepository.findByRecipientIdAndStatusIn(recipientUser, unreadStatuses))
-                .thenReturn(Collections.emptyList());
+        when(chatMessageRepository.countUnreadByChat(recipientUser)).thenReturn(Map.of());
 
         Map<UUID, Long> counts = chatMessageService.getUnreadMessageCountsPerChatForUser(recipientUser);
 
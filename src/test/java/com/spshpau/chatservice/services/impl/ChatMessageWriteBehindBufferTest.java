@@ -0,0 +1,157 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatMessageWriteBehindBufferTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChatMessageWriteBehindBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter);
+        lenient().when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("chatMessage");
+        lenient().when(mongoTemplate.getCollection("chatMessage")).thenReturn(collection);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    private ChatMessageWriteBehindBuffer newBuffer(int batchSize, WriteBehindAckMode ackMode) {
+        return new ChatMessageWriteBehindBuffer(mongoTemplate, meterRegistry, "write-behind",
+                batchSize, 20, 100, 50, ackMode);
+    }
+
+    private ChatMessage message() {
+        return ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(UUID.randomUUID())
+                .senderId(UUID.randomUUID())
+                .recipientId(UUID.randomUUID())
+                .content("Hello")
+                .status(MessageStatus.SENT)
+                .sentAt(Instant.now())
+                .build();
+    }
+
+    @Test
+    void enqueue_shouldWriteQueuedMessagesInOneUnorderedBatchAndCompleteFutures() throws Exception {
+        buffer = newBuffer(3, WriteBehindAckMode.ON_FLUSH);
+        CompletableFuture<ChatMessage> f1 = buffer.enqueue(message());
+        CompletableFuture<ChatMessage> f2 = buffer.enqueue(message());
+        CompletableFuture<ChatMessage> f3 = buffer.enqueue(message());
+        assertFalse(f1.isDone());
+
+        buffer.start();
+        CompletableFuture.allOf(f1, f2, f3).get(5, TimeUnit.SECONDS);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Document>> docsCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<InsertManyOptions> optionsCaptor = ArgumentCaptor.forClass(InsertManyOptions.class);
+        verify(collection, times(1)).insertMany(docsCaptor.capture(), optionsCaptor.capture());
+        assertEquals(3, docsCaptor.getValue().size());
+        assertFalse(optionsCaptor.getValue().isOrdered());
+        assertEquals(3.0, meterRegistry.get("chat.messages.writebehind.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    void enqueue_whenOneWriteFails_shouldFailOnlyThatFuture() throws Exception {
+        BulkWriteError error = new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1);
+        doThrow(new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(error), null,
+                new ServerAddress(), Set.of()))
+                .when(collection).insertMany(anyList(), any(InsertManyOptions.class));
+
+        buffer = newBuffer(2, WriteBehindAckMode.ON_FLUSH);
+        CompletableFuture<ChatMessage> ok = buffer.enqueue(message());
+        CompletableFuture<ChatMessage> failed = buffer.enqueue(message());
+        buffer.start();
+
+        assertNotNull(ok.get(5, TimeUnit.SECONDS));
+        assertThrows(Exception.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.get("chat.messages.writebehind.failed").counter().count());
+    }
+
+    @Test
+    void enqueue_whenAckOnEnqueue_shouldCompleteImmediately() {
+        buffer = newBuffer(10, WriteBehindAckMode.ON_ENQUEUE);
+        ChatMessage msg = message();
+
+        CompletableFuture<ChatMessage> result = buffer.enqueue(msg);
+
+        assertTrue(result.isDone());
+        assertSame(msg, result.join());
+    }
+
+    @Test
+    void enqueue_whenBufferFull_shouldWriteSynchronously() {
+        buffer = new ChatMessageWriteBehindBuffer(mongoTemplate, meterRegistry, "write-behind",
+                10, 20, 1, 1, WriteBehindAckMode.ON_FLUSH);
+        CompletableFuture<ChatMessage> queued = buffer.enqueue(message());
+        CompletableFuture<ChatMessage> overflow = buffer.enqueue(message());
+
+        assertFalse(queued.isDone());
+        assertTrue(overflow.isDone());
+        verify(collection, times(1)).insertMany(anyList(), any(InsertManyOptions.class));
+        assertEquals(1.0, meterRegistry.get("chat.messages.writebehind.overflow").counter().count());
+    }
+
+    @Test
+    void isEnabled_whenDirectMode_shouldBeFalse() {
+        ChatMessageWriteBehindBuffer direct = new ChatMessageWriteBehindBuffer(mongoTemplate, meterRegistry, "direct",
+                10, 20, 10, 10, WriteBehindAckMode.ON_FLUSH);
+
+        assertFalse(direct.isEnabled());
+    }
+}
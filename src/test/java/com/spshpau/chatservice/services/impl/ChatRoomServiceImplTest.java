@@ -1,18 +1,18 @@
 package com.spshpau.chatservice.services.impl;
 
-import com.spshpau.chatservice.model.ChatRoom;
 import com.spshpau.chatservice.repositories.ChatRoomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
-import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +25,12 @@ class ChatRoomServiceImplTest {
     @Mock
     private ChatRoomRepository chatRoomRepository;
 
+    @Spy
+    private ChatRoomIdResolver chatRoomIdResolver = new ChatRoomIdResolver(100);
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private ChatRoomServiceImpl chatRoomService;
 
@@ -33,17 +39,8 @@ class ChatRoomServiceImplTest {
 
     @BeforeEach
     void setUp() {
-        UUID id1 = UUID.randomUUID();
-        UUID id2 = UUID.randomUUID();
-
-        if (id1.toString().compareTo(id2.toString()) > 0) {
-            senderId = id1;
-            recipientId = id2;
-        } else {
-            senderId = id2;
-            recipientId = id1;
-        }
-        UUID recipientIdLexicographicallySmaller = UUID.fromString("00000000-0000-0000-0000-000000000000");
+        senderId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
     }
 
     private UUID generateExpectedChatId(UUID id1, UUID id2) {
@@ -57,147 +54,83 @@ class ChatRoomServiceImplTest {
     }
 
     @Test
-    void getChatRoomId_whenRoomExists_shouldReturnExistingChatId() {
-        UUID existingChatId = UUID.randomUUID();
-        ChatRoom existingRoom = ChatRoom.builder()
-                .id(UUID.randomUUID())
-                .chatId(existingChatId)
-                .senderId(senderId)
-                .recipientId(recipientId)
-                .build();
-
-        when(chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId)).thenReturn(Optional.of(existingRoom));
-
+    void getChatRoomId_whenCreateNewIsTrue_shouldUpsertWithoutReadingAndReturnDeterministicChatId() {
         Optional<UUID> result = chatRoomService.getChatRoomId(senderId, recipientId, true);
 
+        UUID expectedChatId = generateExpectedChatId(senderId, recipientId);
         assertTrue(result.isPresent());
-        assertEquals(existingChatId, result.get());
-        verify(chatRoomRepository, times(1)).findBySenderIdAndRecipientId(senderId, recipientId);
-        verify(chatRoomRepository, never()).save(any(ChatRoom.class));
+        assertEquals(expectedChatId, result.get());
+        verify(chatRoomRepository, times(1)).upsertRoom(expectedChatId, senderId, recipientId);
+        verify(chatRoomRepository, never()).existsById(any(UUID.class));
     }
 
     @Test
-    void getChatRoomId_whenRoomDoesNotExistAndCreateNewIsTrue_shouldCreateAndReturnNewChatId() {
-        when(chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId)).thenReturn(Optional.empty());
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
-        Optional<UUID> result = chatRoomService.getChatRoomId(senderId, recipientId, true);
-
-        assertTrue(result.isPresent());
-        assertNotNull(result.get());
-
-        UUID expectedChatId = generateExpectedChatId(senderId, recipientId);
-        assertEquals(expectedChatId, result.get());
-
-        verify(chatRoomRepository, times(1)).findBySenderIdAndRecipientId(senderId, recipientId);
-
-        ArgumentCaptor<ChatRoom> chatRoomCaptor = ArgumentCaptor.forClass(ChatRoom.class);
-        verify(chatRoomRepository, times(2)).save(chatRoomCaptor.capture());
-
-        List<ChatRoom> savedRooms = chatRoomCaptor.getAllValues();
-        assertEquals(2, savedRooms.size());
-
-        ChatRoom room1 = savedRooms.get(0);
-        ChatRoom room2 = savedRooms.get(1);
+    void getChatRoomId_whenRoomAlreadyKnown_shouldNotTouchRepository() {
+        chatRoomService.getChatRoomId(senderId, recipientId, true);
+        clearInvocations(chatRoomRepository);
 
-        assertEquals(expectedChatId, room1.getChatId());
-        assertEquals(expectedChatId, room2.getChatId());
+        Optional<UUID> fromSender = chatRoomService.getChatRoomId(senderId, recipientId, true);
+        Optional<UUID> fromRecipient = chatRoomService.getChatRoomId(recipientId, senderId, false);
 
-        boolean senderRecipientPairFound = (room1.getSenderId().equals(senderId) && room1.getRecipientId().equals(recipientId)) ||
-                (room2.getSenderId().equals(senderId) && room2.getRecipientId().equals(recipientId));
-        boolean recipientSenderPairFound = (room1.getSenderId().equals(recipientId) && room1.getRecipientId().equals(senderId)) ||
-                (room2.getSenderId().equals(recipientId) && room2.getRecipientId().equals(senderId));
-        assertTrue(senderRecipientPairFound, "Sender-Recipient pair not saved correctly");
-        assertTrue(recipientSenderPairFound, "Recipient-Sender pair not saved correctly");
-        assertNotEquals(room1.getId(), room2.getId(), "Primary keys for the two room documents should be different.");
+        assertEquals(fromSender, fromRecipient);
+        verifyNoInteractions(chatRoomRepository);
+        assertEquals(1, meterRegistry.get("chat.rooms.resolve").tag("result", "upserted").timer().count());
+        assertEquals(2, meterRegistry.get("chat.rooms.resolve").tag("result", "cached").timer().count());
     }
 
-
     @Test
-    void getChatRoomId_whenRoomDoesNotExistAndCreateNewIsTrue_orderOfIdsDoesNotAffectChatId() {
+    void getChatRoomId_orderOfIdsDoesNotAffectChatId() {
         UUID idLarge = UUID.fromString("ffffffff-ffff-ffff-ffff-ffffffffffff");
         UUID idSmall = UUID.fromString("00000000-0000-0000-0000-000000000000");
 
-        when(chatRoomRepository.findBySenderIdAndRecipientId(any(UUID.class), any(UUID.class))).thenReturn(Optional.empty());
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
         Optional<UUID> result1 = chatRoomService.getChatRoomId(idLarge, idSmall, true);
-        assertTrue(result1.isPresent());
-        UUID chatId1 = result1.get();
-        clearInvocations(chatRoomRepository);
-        when(chatRoomRepository.findBySenderIdAndRecipientId(any(UUID.class), any(UUID.class))).thenReturn(Optional.empty());
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
         Optional<UUID> result2 = chatRoomService.getChatRoomId(idSmall, idLarge, true);
+
+        assertTrue(result1.isPresent());
         assertTrue(result2.isPresent());
-        UUID chatId2 = result2.get();
+        assertEquals(result1.get(), result2.get(), "ChatId should be the same regardless of sender/recipient order.");
+        assertEquals(generateExpectedChatId(idLarge, idSmall), result1.get());
+    }
 
-        assertEquals(chatId1, chatId2, "ChatId should be the same regardless of sender/recipient order for creation.");
+    @Test
+    void getChatRoomId_whenRoomExistsAndCreateNewIsFalse_shouldCheckExistenceOnce() {
+        UUID expectedChatId = generateExpectedChatId(senderId, recipientId);
+        when(chatRoomRepository.existsById(expectedChatId)).thenReturn(true);
 
-        UUID expectedChatId = generateExpectedChatId(idLarge, idSmall);
-        assertEquals(expectedChatId, chatId1);
-        assertEquals(expectedChatId, chatId2);
-    }
+        Optional<UUID> first = chatRoomService.getChatRoomId(senderId, recipientId, false);
+        Optional<UUID> second = chatRoomService.getChatRoomId(senderId, recipientId, false);
 
+        assertEquals(Optional.of(expectedChatId), first);
+        assertEquals(Optional.of(expectedChatId), second);
+        verify(chatRoomRepository, times(1)).existsById(expectedChatId);
+        verify(chatRoomRepository, never()).upsertRoom(any(), any(), any());
+    }
 
     @Test
     void getChatRoomId_whenRoomDoesNotExistAndCreateNewIsFalse_shouldReturnEmptyOptional() {
-        when(chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId)).thenReturn(Optional.empty());
+        UUID expectedChatId = generateExpectedChatId(senderId, recipientId);
+        when(chatRoomRepository.existsById(expectedChatId)).thenReturn(false);
 
         Optional<UUID> result = chatRoomService.getChatRoomId(senderId, recipientId, false);
 
         assertTrue(result.isEmpty());
-        verify(chatRoomRepository, times(1)).findBySenderIdAndRecipientId(senderId, recipientId);
-        verify(chatRoomRepository, never()).save(any(ChatRoom.class));
+        assertFalse(chatRoomIdResolver.isKnown(expectedChatId));
+        verify(chatRoomRepository, never()).upsertRoom(any(), any(), any());
     }
 
     @Test
-    void createChatRoomEntries_internalLogicVerificationViaGetChatRoomId() {
-        UUID userA = UUID.randomUUID();
-        UUID userB = UUID.randomUUID();
-        if (userA.toString().compareTo(userB.toString()) > 0) {
-            UUID temp = userA;
-            userA = userB;
-            userB = temp;
-        }
-
-        when(chatRoomRepository.findBySenderIdAndRecipientId(userA, userB)).thenReturn(Optional.empty());
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
-        Optional<UUID> generatedChatIdOpt = chatRoomService.getChatRoomId(userA, userB, true);
-        assertTrue(generatedChatIdOpt.isPresent());
-        UUID generatedChatId = generatedChatIdOpt.get();
-
-        String expectedCombinedString = userA.toString() + "|" + userB.toString();
-        UUID expectedChatId = UUID.nameUUIDFromBytes(expectedCombinedString.getBytes(StandardCharsets.UTF_8));
-        assertEquals(expectedChatId, generatedChatId);
-
-        ArgumentCaptor<ChatRoom> captor = ArgumentCaptor.forClass(ChatRoom.class);
-        verify(chatRoomRepository, times(2)).save(captor.capture());
-        List<ChatRoom> savedRooms = captor.getAllValues();
-
-        UUID finalUserA = userA;
-        UUID finalUserB = userB;
-        ChatRoom roomForAtoB = savedRooms.stream()
-                .filter(r -> r.getSenderId().equals(finalUserA) && r.getRecipientId().equals(finalUserB))
-                .findFirst().orElse(null);
-        ChatRoom roomForBtoA = savedRooms.stream()
-                .filter(r -> r.getSenderId().equals(finalUserB) && r.getRecipientId().equals(finalUserA))
-                .findFirst().orElse(null);
-
-        assertNotNull(roomForAtoB);
-        assertNotNull(roomForBtoA);
-
-        assertEquals(expectedChatId, roomForAtoB.getChatId());
-        assertEquals(userA, roomForAtoB.getSenderId());
-        assertEquals(userB, roomForAtoB.getRecipientId());
-        assertNotNull(roomForAtoB.getId());
-
-        assertEquals(expectedChatId, roomForBtoA.getChatId());
-        assertEquals(userB, roomForBtoA.getSenderId());
-        assertEquals(userA, roomForBtoA.getRecipientId());
-        assertNotNull(roomForBtoA.getId());
-
-        assertNotEquals(roomForAtoB.getId(), roomForBtoA.getId(), "Primary keys of the two ChatRoom documents must be unique.");
+    void chatRoomIdResolver_whenCapacityReached_shouldForgetAndStillResolve() {
+        ChatRoomIdResolver smallResolver = new ChatRoomIdResolver(2);
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        UUID c = UUID.randomUUID();
+
+        smallResolver.markKnown(a);
+        smallResolver.markKnown(b);
+        smallResolver.markKnown(c);
+
+        assertTrue(smallResolver.isKnown(c));
+        assertFalse(smallResolver.isKnown(a));
+        assertEquals(smallResolver.resolve(a, b), smallResolver.resolve(b, a));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+package com.spshpau.chatservice.services.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatStripedExecutorTest {
+
+    private MeterRegistry meterRegistry;
+    private ExecutorService workers;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        workers = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void tasksOfAChat_runInSubmissionOrderWhileChatsRunInParallel() throws Exception {
+        int chats = 32;
+        int tasksPerChat = 500;
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 16, 10_000, 8, 1_000, workers);
+        Map<UUID, List<Integer>> seen = new ConcurrentHashMap<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(chats * tasksPerChat);
+
+        ExecutorService producers = Executors.newFixedThreadPool(chats);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int c = 0; c < chats; c++) {
+            UUID chatId = UUID.randomUUID();
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            seen.put(chatId, order);
+            producers.execute(() -> {
+                Random random = new Random(chatId.getLeastSignificantBits());
+                awaitQuietly(start);
+                for (int i = 0; i < tasksPerChat; i++) {
+                    int sequence = i;
+                    executor.execute(chatId, () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        if (random.nextInt(50) == 0) {
+                            Thread.yield();
+                        }
+                        order.add(sequence);
+                        running.decrementAndGet();
+                        done.countDown();
+                    });
+                    if (random.nextInt(20) == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        start.countDown();
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "all tasks ran");
+        producers.shutdown();
+        seen.forEach((chatId, order) -> {
+            assertEquals(tasksPerChat, order.size());
+            for (int i = 0; i < tasksPerChat; i++) {
+                assertEquals(i, order.get(i), "task " + i + " of chat " + chatId);
+            }
+        });
+        assertTrue(maxRunning.get() > 1, "stripes ran in parallel");
+        assertEquals(0, meterRegistry.get("chat.stripes.overflow").counter().count());
+    }
+
+    @Test
+    void aStripeNeverRunsTwoTasksAtOnce() throws Exception {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 1, 10_000, 4, 1_000, workers);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2_000);
+
+        for (int i = 0; i < 2_000; i++) {
+            executor.execute(UUID.randomUUID(), () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void aFullStripe_runsTheTaskOnTheCaller() throws Exception {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 1, 1, 1, 10, workers);
+        UUID chatId = UUID.randomUUID();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        executor.execute(chatId, () -> {
+            blocking.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+        executor.execute(chatId, () -> { });
+
+        Thread caller = Thread.currentThread();
+        List<Thread> ranOn = new ArrayList<>();
+        executor.execute(chatId, () -> ranOn.add(Thread.currentThread()));
+        release.countDown();
+
+        assertEquals(List.of(caller), ranOn);
+        assertEquals(1, meterRegistry.get("chat.stripes.overflow").counter().count());
+    }
+
+    @Test
+    void anAsyncTask_holdsItsStripeUntilItsStageCompletes() throws Exception {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 1, 100, 8, 1_000, workers);
+        UUID chatId = UUID.randomUUID();
+        CompletableFuture<Void> persisted = new CompletableFuture<>();
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.executeAsync(chatId, () -> {
+            ran.add("message queued");
+            return persisted.thenRun(() -> ran.add("message persisted"));
+        });
+        executor.execute(chatId, () -> {
+            ran.add("read receipt");
+            done.countDown();
+        });
+
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS), "the receipt waits for the message");
+        persisted.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("message queued", "message persisted", "read receipt"), ran);
+    }
+
+    @Test
+    void anAsyncTaskThatFails_releasesItsStripe() throws Exception {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 1, 100, 8, 1_000, workers);
+        UUID chatId = UUID.randomUUID();
+        CompletableFuture<Void> persisted = new CompletableFuture<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.executeAsync(chatId, () -> persisted);
+        executor.execute(chatId, done::countDown);
+        persisted.completeExceptionally(new IllegalStateException("flush failed"));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failingTasks_areCountedAndDoNotStopTheStripe() throws Exception {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 4, 100, 8, 1_000, workers);
+        UUID chatId = UUID.randomUUID();
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(chatId, () -> {
+            throw new IllegalStateException("boom");
+        });
+        executor.execute(chatId, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        String stripe = Integer.toString(executor.stripeIndex(chatId));
+        assertEquals(1, meterRegistry.get("chat.stripes.failed").counter().count());
+        assertEquals(2, meterRegistry.get("chat.stripes.tasks").tag("stripe", stripe).counter().count());
+        assertEquals(0, meterRegistry.get("chat.stripes.queue.depth").tag("stripe", stripe).gauge().value());
+        assertEquals(4, meterRegistry.get("chat.stripes.queue.depth").gauges().size());
+    }
+
+    @Test
+    void afterShutdown_queuedTasksStillRun() {
+        ChatStripedExecutor executor = new ChatStripedExecutor(meterRegistry, 4, 100, 8, 1_000, workers);
+        executor.shutdown();
+        AtomicInteger ran = new AtomicInteger();
+
+        executor.execute(UUID.randomUUID(), ran::incrementAndGet);
+
+        assertEquals(1, ran.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
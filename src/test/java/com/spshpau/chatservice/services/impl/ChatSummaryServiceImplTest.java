@@ -0,0 +1,159 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import com.spshpau.chatservice.model.ChatSummaryResult;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.services.ChatMessageService;
+import com.spshpau.chatservice.services.InboxService;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import com.spshpau.chatservice.services.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatSummaryServiceImplTest {
+
+    @Mock
+    private ChatMessageService chatMessageService;
+
+    @Mock
+    private MessageStatusNotifier messageStatusNotifier;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private InboxService inboxService;
+
+    @Mock
+    private Jwt jwt;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private ChatSummaryServiceImpl chatSummaryService;
+    private UUID userId;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        executor = Executors.newFixedThreadPool(3);
+        chatSummaryService = new ChatSummaryServiceImpl(chatMessageService, messageStatusNotifier, userService,
+                inboxService, meterRegistry, executor, 1_000, 200, 1_000);
+        userId = UUID.randomUUID();
+        lenient().when(chatMessageService.markSentMessagesToUserAsDelivered(userId)).thenReturn(List.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername(username);
+        return user;
+    }
+
+    @Test
+    void assembleSummaries_shouldRunStagesInParallelAndJoinResults() {
+        CountDownLatch allStarted = new CountDownLatch(3);
+        List<User> connections = List.of(user("partner"));
+        List<InboxEntry> entries = List.of(InboxEntry.builder().userId(userId).build());
+        List<ChatSummaryDto> summaries = List.of(ChatSummaryDto.builder().chatPartner(connections.get(0)).build());
+        when(userService.findMyChats(jwt)).thenAnswer(invocation -> awaitOthers(allStarted, connections));
+        when(inboxService.findInboxPage(userId, 0, 50)).thenAnswer(invocation -> awaitOthers(allStarted, entries));
+        when(chatMessageService.markSentMessagesToUserAsDelivered(userId))
+                .thenAnswer(invocation -> awaitOthers(allStarted, List.<MessageStatusChange>of()));
+        when(inboxService.toChatSummaries(userId, entries, connections, 0, 50)).thenReturn(summaries);
+
+        ChatSummaryResult result = chatSummaryService.assembleSummaries(jwt, userId, 0, 50);
+
+        assertSame(summaries, result.getSummaries());
+        assertFalse(result.isPartial());
+        assertEquals(List.of("connections", "inbox", "delivered", "assemble"),
+                List.copyOf(result.getStageDurations().keySet()));
+        verify(messageStatusNotifier).notifySenders(List.of(), userId);
+        assertEquals(1, meterRegistry.get("chat.summary.stage")
+                .tag("stage", "connections").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("chat.summary.assembly").tag("partial", "false").timer().count());
+    }
+
+    @Test
+    void assembleSummaries_whenConnectionsTimeOut_shouldReturnPartialSummariesFromInbox() {
+        CountDownLatch release = new CountDownLatch(1);
+        List<InboxEntry> entries = List.of(InboxEntry.builder().userId(userId).build());
+        when(userService.findMyChats(jwt)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(user("late"));
+        });
+        when(inboxService.findInboxPage(userId, 0, 50)).thenReturn(entries);
+        when(inboxService.toChatSummaries(userId, entries, List.of(), 0, 50)).thenReturn(List.of());
+
+        ChatSummaryResult result = chatSummaryService.assembleSummaries(jwt, userId, 0, 50);
+        release.countDown();
+
+        assertEquals(List.of("connections"), result.getDegradedStages());
+        assertTrue(result.getStageDurations().get("connections").toMillis() >= 200);
+        assertEquals(1, meterRegistry.get("chat.summary.stage")
+                .tag("stage", "connections").tag("outcome", "timeout").timer().count());
+        assertEquals(1, meterRegistry.get("chat.summary.assembly").tag("partial", "true").timer().count());
+    }
+
+    @Test
+    void assembleSummaries_whenDeliveredMarkingFails_shouldStillReturnSummaries() {
+        List<User> connections = List.of(user("partner"));
+        List<ChatSummaryDto> summaries = List.of(ChatSummaryDto.builder().chatPartner(connections.get(0)).build());
+        when(userService.findMyChats(jwt)).thenReturn(connections);
+        when(inboxService.findInboxPage(userId, 0, 50)).thenReturn(List.of());
+        when(chatMessageService.markSentMessagesToUserAsDelivered(userId)).thenThrow(new RuntimeException("mongo down"));
+        when(inboxService.toChatSummaries(userId, List.of(), connections, 0, 50)).thenReturn(summaries);
+
+        ChatSummaryResult result = chatSummaryService.assembleSummaries(jwt, userId, 0, 50);
+
+        assertSame(summaries, result.getSummaries());
+        assertEquals(List.of("delivered"), result.getDegradedStages());
+        verify(messageStatusNotifier, never()).notifySenders(anyList(), any());
+        assertEquals(1, meterRegistry.get("chat.summary.stage")
+                .tag("stage", "delivered").tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    void assembleSummaries_whenInboxFails_shouldFallBackToConnections() {
+        List<User> connections = List.of(user("partner"));
+        when(userService.findMyChats(jwt)).thenReturn(connections);
+        when(inboxService.findInboxPage(userId, 0, 50)).thenThrow(new RuntimeException("mongo down"));
+        when(inboxService.toChatSummaries(userId, List.of(), connections, 0, 50)).thenReturn(List.of());
+
+        ChatSummaryResult result = chatSummaryService.assembleSummaries(jwt, userId, 0, 50);
+
+        assertEquals(List.of("inbox"), result.getDegradedStages());
+        verify(inboxService).toChatSummaries(userId, List.of(), connections, 0, 50);
+    }
+
+    private static <T> T awaitOthers(CountDownLatch allStarted, T value) throws InterruptedException {
+        allStarted.countDown();
+        assertTrue(allStarted.await(5, TimeUnit.SECONDS), "stages must run concurrently");
+        return value;
+    }
+}
@@ -0,0 +1,222 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.HistoryCursor;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.repositories.memory.InMemoryChatMessageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatTailCacheTest {
+
+    private ChatMessageRepository repository;
+    private MeterRegistry meterRegistry;
+    private UUID chatId;
+    private Instant base;
+
+    @BeforeEach
+    void setUp() {
+        repository = spy(new InMemoryChatMessageRepository());
+        meterRegistry = new SimpleMeterRegistry();
+        chatId = UUID.randomUUID();
+        base = Instant.parse("2025-01-01T00:00:00Z");
+    }
+
+    private ChatTailCache cache(int messagesPerChat, long maxBytes) {
+        return new ChatTailCache(repository, meterRegistry, true, messagesPerChat, maxBytes);
+    }
+
+    private ChatMessage save(UUID chatId, int second) {
+        return repository.save(ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(UUID.randomUUID())
+                .recipientId(UUID.randomUUID())
+                .content("message " + second)
+                .status(MessageStatus.SENT)
+                .sentAt(base.plusSeconds(second))
+                .build());
+    }
+
+    private static List<UUID> ids(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getId).toList();
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("chat.messages.tail.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void latestPage_isLoadedOnceAndThenServedFromTheTail() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        ChatMessage first = save(chatId, 1);
+        ChatMessage second = save(chatId, 2);
+
+        assertEquals(List.of(second.getId(), first.getId()),
+                ids(cache.page(chatId, null, HistoryDirection.OLDER, 5).orElseThrow()));
+        assertEquals(List.of(second.getId(), first.getId()),
+                ids(cache.page(chatId, null, HistoryDirection.OLDER, 5).orElseThrow()));
+
+        verify(repository, times(1)).findByChatIdOrderBySentAtDesc(eq(chatId), any(Limit.class));
+        assertEquals(1, requests("load"));
+        assertEquals(1, requests("hit"));
+        assertEquals(0.5, cache.getHitRatio());
+    }
+
+    @Test
+    void append_keepsOnlyTheLatestMessagesAndFallsBackForOlderPages() {
+        ChatTailCache cache = cache(3, 1 << 20);
+        save(chatId, 1);
+        ChatMessage second = save(chatId, 2);
+        cache.page(chatId, null, HistoryDirection.OLDER, 3);
+
+        ChatMessage third = save(chatId, 3);
+        cache.append(third);
+        ChatMessage fourth = save(chatId, 4);
+        cache.append(fourth);
+
+        assertEquals(List.of(fourth.getId(), third.getId(), second.getId()),
+                ids(cache.page(chatId, null, HistoryDirection.OLDER, 3).orElseThrow()));
+        assertTrue(cache.page(chatId, HistoryCursor.of(second), HistoryDirection.OLDER, 3).isEmpty(),
+                "the first message is no longer cached");
+        assertEquals(List.of(third.getId(), fourth.getId()),
+                ids(cache.page(chatId, HistoryCursor.of(second), HistoryDirection.NEWER, 3).orElseThrow()));
+        assertTrue(cache.page(chatId, null, HistoryDirection.NEWER, 3).isEmpty());
+        assertTrue(cache.page(chatId, null, HistoryDirection.OLDER, 4).isEmpty());
+    }
+
+    @Test
+    void statusChanges_updateCachedMessagesButNeverMoveThemBack() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        ChatMessage message = save(chatId, 1);
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        Instant readAt = base.plusSeconds(10);
+
+        cache.applyStatusChanges(List.of(change(message, MessageStatus.READ, readAt, readAt)));
+        cache.applyStatusChanges(List.of(change(message, MessageStatus.DELIVERED, base.plusSeconds(5), null)));
+
+        ChatMessage cached = cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow().get(0);
+        assertEquals(MessageStatus.READ, cached.getStatus());
+        assertEquals(readAt, cached.getReadAt());
+    }
+
+    @Test
+    void messagesWithSubMillisecondTimestamps_takeStatusChangesAndPageByEncodedCursors() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        ChatMessage first = unsaved(base.plusNanos(123_456));
+        ChatMessage second = unsaved(base.plusNanos(654_321));
+        ChatMessage third = unsaved(base.plusMillis(1).plusNanos(1));
+        List.of(first, second, third).forEach(cache::append);
+
+        // Status changes carry the stored, millisecond sentAt.
+        ChatMessage stored = unsaved(base);
+        stored.setId(first.getId());
+        cache.applyStatusChanges(List.of(change(stored, MessageStatus.READ, base.plusSeconds(1), base.plusSeconds(1))));
+
+        List<ChatMessage> all = cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow();
+        assertEquals(MessageStatus.READ, all.stream().filter(message -> message.getId().equals(first.getId()))
+                .findFirst().orElseThrow().getStatus());
+        for (int i = 0; i < all.size(); i++) {
+            HistoryCursor cursor = HistoryCursor.decode(HistoryCursor.of(all.get(i)).encode());
+            assertEquals(ids(all.subList(i + 1, all.size())),
+                    ids(cache.page(chatId, cursor, HistoryDirection.OLDER, 10).orElseThrow()));
+            List<UUID> newer = new ArrayList<>(ids(all.subList(0, i)));
+            Collections.reverse(newer);
+            assertEquals(newer, ids(cache.page(chatId, cursor, HistoryDirection.NEWER, 10).orElseThrow()));
+        }
+    }
+
+    private ChatMessage unsaved(Instant sentAt) {
+        return ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(UUID.randomUUID())
+                .recipientId(UUID.randomUUID()).content("message").status(MessageStatus.SENT).sentAt(sentAt).build();
+    }
+
+    @Test
+    void returnedMessagesAreCopies() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        save(chatId, 1);
+        cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow().get(0).setContent("changed");
+
+        assertEquals("message 1", cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow().get(0).getContent());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedChatsBeyondTheSizeLimit() {
+        long oneChat = ChatTailCache.estimateBytes(save(chatId, 1));
+        ChatTailCache cache = cache(10, 2 * oneChat);
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        save(second, 1);
+        save(third, 1);
+
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        cache.page(second, null, HistoryDirection.OLDER, 10);
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        cache.page(third, null, HistoryDirection.OLDER, 10);
+
+        assertEquals(2, cache.size());
+        assertEquals(2 * oneChat, cache.getBytes());
+        assertEquals(1, meterRegistry.get("chat.messages.tail.evictions").counter().count());
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        assertEquals(2, requests("hit"), "the first chat stayed cached");
+    }
+
+    @Test
+    void writesDuringALoad_keepTheLoadedTailOutOfTheCache() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        save(chatId, 1);
+        doAnswer(invocation -> {
+            cache.append(save(chatId, 2));
+            return invocation.callRealMethod();
+        }).doCallRealMethod().when(repository).findByChatIdOrderBySentAtDesc(eq(chatId), any(Limit.class));
+
+        assertEquals(2, cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow().size());
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.page(chatId, null, HistoryDirection.OLDER, 10).orElseThrow().size());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void invalidateUser_shouldDropTheUsersChatsAndEmptyChats() {
+        ChatTailCache cache = cache(10, 1 << 20);
+        ChatMessage mine = save(chatId, 1);
+        UUID otherChatId = UUID.randomUUID();
+        save(otherChatId, 2);
+        UUID emptyChatId = UUID.randomUUID();
+        cache.page(chatId, null, HistoryDirection.OLDER, 10);
+        cache.page(otherChatId, null, HistoryDirection.OLDER, 10);
+        cache.page(emptyChatId, null, HistoryDirection.OLDER, 10);
+        long otherBytes = ChatTailCache.estimateBytes(repository.findByChatIdOrderBySentAtDesc(otherChatId,
+                Limit.of(1)).get(0));
+
+        cache.invalidateUser(mine.getRecipientId());
+
+        assertEquals(1, cache.size());
+        assertEquals(otherBytes, cache.getBytes());
+        cache.page(otherChatId, null, HistoryDirection.OLDER, 10);
+        assertEquals(1, requests("hit"));
+    }
+
+    private static MessageStatusChange change(ChatMessage message, MessageStatus status, Instant deliveredAt, Instant readAt) {
+        return MessageStatusChange.builder().id(message.getId()).chatId(message.getChatId()).sentAt(message.getSentAt())
+                .status(status).deliveredAt(deliveredAt).readAt(readAt).build();
+    }
+}
@@ -0,0 +1,135 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ClusterMember;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterDirectoryTest {
+
+    @Mock
+    private PresenceRegistry presenceA;
+    @Mock
+    private PresenceRegistry presenceB;
+    @Mock
+    private ChatTailCache tailCache;
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private LoopbackClusterTransport.Hub hub;
+    private SimpleMeterRegistry meterRegistry;
+    private ClusterDirectory nodeA;
+    private ClusterDirectory nodeB;
+    private UUID alice;
+
+    @BeforeEach
+    void setUp() {
+        hub = new LoopbackClusterTransport.Hub();
+        meterRegistry = new SimpleMeterRegistry();
+        Clock clock = Clock.fixed(Instant.parse("2025-01-01T00:00:00Z"), ZoneOffset.UTC);
+        nodeA = directory("a", presenceA, clock, meterRegistry);
+        nodeB = directory("b", presenceB, clock, new SimpleMeterRegistry());
+        alice = UUID.randomUUID();
+    }
+
+    private ClusterDirectory directory(String nodeId, PresenceRegistry presence, Clock clock,
+                                       SimpleMeterRegistry registry) {
+        return new ClusterDirectory(new LoopbackClusterTransport(hub, nodeId), presence, tailCache, registry, nodeId,
+                true, 5_000, 100, 64, clock, scheduler);
+    }
+
+    @Test
+    void heartbeat_shouldShareTheUsersOfEachNode() {
+        when(presenceA.getOnlineUserIds()).thenReturn(Set.of(alice));
+        when(presenceB.getOnlineUserIds()).thenReturn(Set.of());
+
+        nodeA.heartbeat();
+        nodeB.heartbeat();
+        nodeA.heartbeat();
+
+        assertEquals(Set.of("a"), nodeB.ownersOf(alice));
+        assertEquals(Set.of("a"), nodeB.routeTo(alice));
+        assertEquals(Set.of(), nodeA.ownersOf(alice), "a node does not route to itself");
+        assertEquals(Set.of("a", "b"), nodeA.getMemberIds());
+        assertEquals(2, meterRegistry.get("chat.cluster.members").gauge().value());
+    }
+
+    @Test
+    void placementOf_shouldBeTheSameOnEveryNode() {
+        when(presenceA.getOnlineUserIds()).thenReturn(Set.of());
+        when(presenceB.getOnlineUserIds()).thenReturn(Set.of());
+        nodeA.heartbeat();
+        nodeB.heartbeat();
+        nodeA.heartbeat();
+
+        for (int i = 0; i < 100; i++) {
+            UUID user = UUID.randomUUID();
+            String placement = nodeA.placementOf(user);
+            assertEquals(placement, nodeB.placementOf(user));
+            // Without known sessions a change goes to the placement node, unless that is this node.
+            assertEquals(placement.equals("a") ? Set.of() : Set.of("b"), nodeA.routeTo(user));
+        }
+    }
+
+    @Test
+    void heartbeat_shouldDropMembersNotHeardFromWithinTheTimeout() {
+        when(presenceA.getOnlineUserIds()).thenReturn(Set.of());
+        new LoopbackClusterTransport(hub, "gone").announce(
+                new ClusterMember("gone", Set.of(alice), Instant.parse("2024-12-31T23:59:00Z")));
+
+        nodeA.heartbeat();
+
+        assertEquals(Set.of("a"), nodeA.getMemberIds());
+        assertEquals(Set.of(), nodeA.ownersOf(alice));
+    }
+
+    @Test
+    void onPresenceChange_shouldDropTheUsersCachedChatsAndAnnounceOnce() {
+        nodeA.onPresenceChange(new PresenceChange(alice, true, Instant.now()));
+        nodeA.onPresenceChange(new PresenceChange(UUID.randomUUID(), true, Instant.now()));
+
+        verify(tailCache).invalidateUser(alice);
+        ArgumentCaptor<Runnable> announce = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(1)).schedule(announce.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        when(presenceA.getOnlineUserIds()).thenReturn(Set.of(alice));
+        announce.getValue().run();
+        assertEquals(List.of(Set.of(alice)), new LoopbackClusterTransport(hub, "x").members().stream()
+                .map(ClusterMember::getUsers).toList());
+        nodeA.onPresenceChange(new PresenceChange(alice, false, Instant.now()));
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    void withoutRouting_shouldIgnorePresenceChanges() {
+        ClusterDirectory off = new ClusterDirectory(null, presenceA, tailCache, new SimpleMeterRegistry(), "a",
+                true, 5_000, 100, 64, Clock.systemUTC(), scheduler);
+
+        off.onPresenceChange(new PresenceChange(alice, true, Instant.now()));
+
+        assertFalse(off.isRouting());
+        verifyNoInteractions(tailCache, scheduler);
+    }
+}
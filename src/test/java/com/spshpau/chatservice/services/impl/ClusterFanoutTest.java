@@ -0,0 +1,166 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.ChatNotification;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.ClusterChange;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterFanoutTest {
+
+    @Mock
+    private SimpMessagingTemplate templateA;
+    @Mock
+    private SimpMessagingTemplate templateB;
+    @Mock
+    private MessageStatusNotifier notifierA;
+    @Mock
+    private MessageStatusNotifier notifierB;
+    @Mock
+    private PresenceRegistry presenceA;
+    @Mock
+    private PresenceRegistry presenceB;
+    @Mock
+    private ChatTailCache tailCacheA;
+    @Mock
+    private ChatTailCache tailCacheB;
+
+    private ClusterFanout nodeA;
+    private ClusterFanout nodeB;
+    private SimpleMeterRegistry meterRegistryB;
+
+    private UUID senderId;
+    private UUID recipientId;
+    private ChatMessage message;
+
+    @BeforeEach
+    void setUp() {
+        LoopbackClusterTransport.Hub hub = new LoopbackClusterTransport.Hub();
+        meterRegistryB = new SimpleMeterRegistry();
+        nodeA = new ClusterFanout(Optional.of(new LoopbackClusterTransport(hub, "a")), templateA, notifierA, presenceA,
+                tailCacheA, null, new SimpleMeterRegistry(), 100);
+        nodeB = new ClusterFanout(Optional.of(new LoopbackClusterTransport(hub, "b")), templateB, notifierB, presenceB,
+                tailCacheB, null, meterRegistryB, 100);
+        nodeA.start();
+        nodeB.start();
+
+        senderId = UUID.randomUUID();
+        recipientId = UUID.randomUUID();
+        message = ChatMessage.builder()
+                .id(UUID.randomUUID())
+                .chatId(UUID.randomUUID())
+                .senderId(senderId)
+                .recipientId(recipientId)
+                .content("Hello")
+                .status(MessageStatus.SENT)
+                .sentAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+
+    private double received(String result) {
+        return meterRegistryB.get("chat.cluster.received").tag("result", result).counter().count();
+    }
+
+    @Test
+    void messageSaved_shouldBeDeliveredByTheOtherNodeOnly() {
+        when(presenceB.isOnline(recipientId)).thenReturn(true);
+
+        nodeA.messageSaved(message);
+
+        ArgumentCaptor<ChatNotification> captor = ArgumentCaptor.forClass(ChatNotification.class);
+        verify(templateB).convertAndSendToUser(eq(recipientId.toString()), eq("/queue/messages"), captor.capture());
+        assertEquals(message.getId(), captor.getValue().getId());
+        assertEquals("Hello", captor.getValue().getContent());
+        verify(tailCacheB).append(any(ChatMessage.class));
+        // The publishing node notifies its own sessions directly; its echo is a duplicate.
+        verifyNoInteractions(templateA);
+        verify(tailCacheA, never()).append(any());
+    }
+
+    @Test
+    void messageSaved_whenRecipientIsNotOnTheNode_shouldSkipIt() {
+        nodeA.messageSaved(message);
+
+        verify(templateB, never()).convertAndSendToUser(anyString(), anyString(), any());
+        verify(tailCacheB).append(any(ChatMessage.class));
+        assertEquals(1, received("skipped"));
+    }
+
+    @Test
+    void statusChanged_shouldNotifySendersOnTheOtherNodeGroupedByReader() {
+        when(presenceB.isOnline(senderId)).thenReturn(true);
+        Instant readAt = Instant.now();
+        MessageStatusChange read = new MessageStatusChange(message.getId(), message.getChatId(), senderId, recipientId,
+                MessageStatus.READ, message.getSentAt(), readAt, readAt, readAt);
+
+        nodeA.statusChanged(List.of(read));
+
+        ArgumentCaptor<List<MessageStatusChange>> captor = ArgumentCaptor.captor();
+        verify(notifierB).notifySenders(captor.capture(), eq(recipientId));
+        assertEquals(List.of(message.getId()), captor.getValue().stream().map(MessageStatusChange::getId).toList());
+        assertEquals(MessageStatus.READ, captor.getValue().get(0).getStatus());
+        verify(tailCacheB).applyStatusChanges(anyList());
+        verifyNoInteractions(notifierA);
+    }
+
+    @Test
+    void receive_shouldDeliverAChangePassedAgainOnce() {
+        when(presenceB.isOnline(recipientId)).thenReturn(true);
+        ClusterChange saved = ClusterChange.saved(message);
+
+        nodeB.receive(List.of(saved));
+        nodeB.receive(List.of(saved, ClusterChange.saved(message)));
+
+        verify(templateB, times(1)).convertAndSendToUser(eq(recipientId.toString()), eq("/queue/messages"), any());
+        assertEquals(1, received("delivered"));
+        assertEquals(2, received("duplicate"));
+    }
+
+    @Test
+    void receive_whenDedupSetIsFull_shouldForgetTheOldestChanges() {
+        when(presenceB.isOnline(any())).thenReturn(true);
+        ClusterFanout small = new ClusterFanout(Optional.empty(), templateB, notifierB, presenceB, tailCacheB,
+                null, new SimpleMeterRegistry(), 1);
+        ChatMessage other = ChatMessage.builder().id(UUID.randomUUID()).chatId(message.getChatId()).senderId(senderId)
+                .recipientId(recipientId).status(MessageStatus.SENT).build();
+
+        small.receive(List.of(ClusterChange.saved(message)));
+        small.receive(List.of(ClusterChange.saved(other)));
+        small.receive(List.of(ClusterChange.saved(message)));
+
+        verify(templateB, times(3)).convertAndSendToUser(eq(recipientId.toString()), eq("/queue/messages"), any());
+        assertFalse(small.isEnabled());
+    }
+
+    @Test
+    void stop_shouldDisconnectTheNode() {
+        nodeB.stop();
+
+        nodeA.messageSaved(message);
+
+        verifyNoInteractions(templateB, tailCacheB);
+    }
+}
@@ -0,0 +1,200 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.HistoryDirection;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import com.spshpau.chatservice.repositories.ChatMessageRepository;
+import com.spshpau.chatservice.services.MessageStatusNotifier;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs a cluster of nodes on a loopback hub, with users pinned to their placement nodes and some connected
+ * elsewhere, and counts the changes each node receives from the transport with and without routing.
+ */
+class ClusterRoutingTrafficTest {
+
+    private static final int NODES = 4;
+    private static final int USERS = 400;
+    private static final int MESSAGES = 2_000;
+
+    private static final class Node {
+        final String nodeId;
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+        final PresenceRegistryImpl presence;
+        final ClusterDirectory directory;
+        final ClusterFanout fanout;
+
+        Node(String nodeId, LoopbackClusterTransport.Hub hub, boolean routing) {
+            this(nodeId, hub, routing, mock(ChatTailCache.class));
+        }
+
+        Node(String nodeId, LoopbackClusterTransport.Hub hub, boolean routing, ChatTailCache tailCache) {
+            this.nodeId = nodeId;
+            LoopbackClusterTransport transport = new LoopbackClusterTransport(hub, nodeId);
+            presence = new PresenceRegistryImpl(event -> { }, meterRegistry, 60_000, Clock.systemUTC(),
+                    mock(ScheduledExecutorService.class));
+            directory = new ClusterDirectory(transport, presence, tailCache, meterRegistry, nodeId, routing, 5_000,
+                    100, 128, Clock.systemUTC(), mock(ScheduledExecutorService.class));
+            fanout = new ClusterFanout(Optional.of(transport), template, mock(MessageStatusNotifier.class), presence,
+                    tailCache, directory, meterRegistry, 100_000);
+            fanout.start();
+        }
+
+        double received() {
+            return meterRegistry.get("chat.cluster.received").counters().stream().mapToDouble(Counter::count).sum();
+        }
+    }
+
+    private record Result(double received, long delivered, long expected) {
+    }
+
+    /**
+     * Two rounds, so the nodes announcing first also read the later announcements.
+     */
+    private static void heartbeats(List<Node> nodes) {
+        nodes.forEach(node -> node.directory.heartbeat());
+        nodes.forEach(node -> node.directory.heartbeat());
+    }
+
+    private Result run(boolean routing) {
+        LoopbackClusterTransport.Hub hub = new LoopbackClusterTransport.Hub();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new Node("node-" + i, hub, routing));
+        }
+        heartbeats(nodes);
+
+        Random random = new Random(42);
+        List<UUID> users = new ArrayList<>();
+        Map<UUID, Node> homes = new HashMap<>();
+        for (int i = 0; i < USERS; i++) {
+            UUID user = new UUID(random.nextLong(), random.nextLong());
+            users.add(user);
+            if (random.nextInt(10) < 6) {
+                // Most users follow the placement hint; the rest reach whichever node the balancer picked.
+                String placement = nodes.get(0).directory.placementOf(user);
+                Node home = random.nextInt(10) < 8
+                        ? nodes.stream().filter(node -> node.nodeId.equals(placement)).findFirst().orElseThrow()
+                        : nodes.get(random.nextInt(NODES));
+                home.presence.sessionConnected(user, "session-" + i);
+                homes.put(user, home);
+            }
+        }
+        heartbeats(nodes);
+
+        long expected = 0;
+        Instant now = Instant.now();
+        for (int i = 0; i < MESSAGES; i++) {
+            UUID sender = users.get(random.nextInt(USERS));
+            UUID recipient = users.get(random.nextInt(USERS));
+            Node from = homes.getOrDefault(sender, nodes.get(random.nextInt(NODES)));
+            ChatMessage message = ChatMessage.builder().id(UUID.randomUUID()).chatId(UUID.randomUUID())
+                    .senderId(sender).recipientId(recipient).content("message " + i).status(MessageStatus.SENT)
+                    .sentAt(now).updatedAt(now).build();
+            from.fanout.messageSaved(message);
+            Node to = homes.get(recipient);
+            if (to != null && to != from) {
+                expected++;
+            }
+            Node reader = homes.getOrDefault(recipient, nodes.get(random.nextInt(NODES)));
+            reader.fanout.statusChanged(List.of(new MessageStatusChange(message.getId(), message.getChatId(), sender,
+                    recipient, MessageStatus.READ, now, now, now, now)));
+        }
+
+        long delivered = 0;
+        for (Node node : nodes) {
+            delivered += mockingDetails(node.template).getInvocations().size();
+            node.fanout.stop();
+        }
+        return new Result(nodes.stream().mapToDouble(Node::received).sum(), delivered, expected);
+    }
+
+    @Test
+    void routing_shouldReachTheSameSessionsWithAFractionOfTheCrossNodeTraffic() {
+        Result broadcast = run(false);
+        Result routed = run(true);
+
+        assertEquals(broadcast.expected(), broadcast.delivered());
+        assertEquals(routed.expected(), routed.delivered(), "every message reached its online recipient once");
+        assertEquals(2.0 * MESSAGES * NODES, broadcast.received());
+        double ratio = broadcast.received() / routed.received();
+        assertTrue(ratio >= 3, String.format("%d nodes received %.0f changes routed and %.0f broadcast (%.1fx less)",
+                NODES, routed.received(), broadcast.received(), ratio));
+    }
+
+    @Test
+    void routing_shouldNotifyAUserOnTheNodeItWasAnnouncedOn() {
+        LoopbackClusterTransport.Hub hub = new LoopbackClusterTransport.Hub();
+        Node a = new Node("a", hub, true);
+        Node b = new Node("b", hub, true);
+        Node c = new Node("c", hub, true);
+        UUID recipient = UUID.randomUUID();
+        c.presence.sessionConnected(recipient, "session");
+        List.of(a, b, c, a).forEach(node -> node.directory.heartbeat());
+        // A sender without a session is routed to its placement node, which must not be b here.
+        UUID sender = UUID.randomUUID();
+        while (a.directory.placementOf(sender).equals("b")) {
+            sender = UUID.randomUUID();
+        }
+
+        a.fanout.messageSaved(ChatMessage.builder().id(UUID.randomUUID()).chatId(UUID.randomUUID())
+                .senderId(sender).recipientId(recipient).status(MessageStatus.SENT).build());
+
+        verify(c.template).convertAndSendToUser(anyString(), anyString(), any());
+        assertEquals(0, b.received());
+        assertEquals(1, c.received());
+    }
+
+    @Test
+    void routing_shouldKeepACachedChatCurrentWhenItsParticipantActsOnAnotherNode() {
+        LoopbackClusterTransport.Hub hub = new LoopbackClusterTransport.Hub();
+        ChatMessageRepository repository = mock(ChatMessageRepository.class);
+        ChatTailCache tailCache = new ChatTailCache(repository, new SimpleMeterRegistry(), true, 500, 1 << 20);
+        Node a = new Node("a", hub, true, tailCache);
+        Node b = new Node("b", hub, true);
+        Node c = new Node("c", hub, true);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID chatId = UUID.randomUUID();
+        a.presence.sessionConnected(alice, "alice-phone");
+        b.presence.sessionConnected(alice, "alice-laptop");
+        c.presence.sessionConnected(bob, "bob");
+        List.of(a, b, c, a).forEach(node -> node.directory.heartbeat());
+        when(repository.findByChatIdOrderBySentAtDesc(eq(chatId), any())).thenReturn(List.of());
+        assertTrue(a.fanout.receivesChangesOf(alice, bob));
+        assertEquals(List.of(), tailCache.page(chatId, null, HistoryDirection.OLDER, 50).orElseThrow());
+
+        Instant sentAt = Instant.now();
+        ChatMessage fromBob = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(bob)
+                .recipientId(alice).status(MessageStatus.SENT).sentAt(sentAt).updatedAt(sentAt).build();
+        c.fanout.messageSaved(fromBob);
+        ChatMessage fromAlice = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId).senderId(alice)
+                .recipientId(bob).status(MessageStatus.SENT).sentAt(sentAt.plusSeconds(1))
+                .updatedAt(sentAt.plusSeconds(1)).build();
+        b.fanout.messageSaved(fromAlice);
+        Instant readAt = sentAt.plusSeconds(2);
+        b.fanout.statusChanged(List.of(new MessageStatusChange(fromBob.getId(), chatId, bob, alice,
+                MessageStatus.READ, sentAt, readAt, readAt, readAt)));
+
+        List<ChatMessage> cached = tailCache.page(chatId, null, HistoryDirection.OLDER, 50).orElseThrow();
+        assertEquals(List.of(fromAlice.getId(), fromBob.getId()), cached.stream().map(ChatMessage::getId).toList());
+        assertEquals(MessageStatus.READ, cached.get(1).getStatus());
+        assertFalse(a.fanout.receivesChangesOf(UUID.randomUUID(), bob), "no participant on a, so no cached reads");
+    }
+}
@@ -0,0 +1,58 @@
+package com.spshpau.chatservice.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    private static final List<UUID> USERS = IntStream.range(0, 10_000)
+            .mapToObj(i -> new UUID(0x5eed_0000_0000_0000L + i, 0x1234_5678_9abc_def0L ^ i * 0x9e3779b97f4a7c15L))
+            .toList();
+
+    @Test
+    void nodeFor_shouldNotDependOnTheOrderTheNodesAreListedIn() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"), 64);
+        ConsistentHashRing reordered = new ConsistentHashRing(List.of("c", "a", "b"), 64);
+
+        for (UUID user : USERS) {
+            assertEquals(ring.nodeFor(user), reordered.nodeFor(user));
+        }
+    }
+
+    @Test
+    void nodeFor_shouldSpreadUsersOverTheNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c", "d"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+
+        USERS.forEach(user -> counts.merge(ring.nodeFor(user), 1, Integer::sum));
+
+        assertEquals(Set.of("a", "b", "c", "d"), counts.keySet());
+        counts.values().forEach(count -> assertTrue(count > 1_750 && count < 3_250, counts.toString()));
+    }
+
+    @Test
+    void addingANode_shouldOnlyMoveUsersToIt() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("a", "b", "c"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("a", "b", "c", "d"), 128);
+        int moved = 0;
+
+        for (UUID user : USERS) {
+            String node = after.nodeFor(user);
+            if (!node.equals(before.nodeFor(user))) {
+                assertEquals("d", node);
+                moved++;
+            }
+        }
+
+        assertTrue(moved > 1_750 && moved < 3_250, "moved " + moved);
+    }
+
+    @Test
+    void nodeFor_onAnEmptyRing_shouldReturnNull() {
+        assertNull(new ConsistentHashRing(List.of(), 16).nodeFor(USERS.get(0)));
+    }
+}
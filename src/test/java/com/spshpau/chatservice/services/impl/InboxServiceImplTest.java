@@ -0,0 +1,231 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.dto.ChatSummaryDto;
+import com.spshpau.chatservice.model.ChatMessage;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.User;
+import com.spshpau.chatservice.repositories.InboxEntryRepository;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.InboxUpdateNotifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxServiceImplTest {
+
+    @Mock
+    private InboxEntryRepository inboxEntryRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private InboxUpdateNotifier inboxUpdateNotifier;
+
+    @Spy
+    private ChatRoomIdResolver chatRoomIdResolver = new ChatRoomIdResolver(100);
+
+    @InjectMocks
+    private InboxServiceImpl inboxService;
+
+    private UUID userId;
+    private User partnerWithChat;
+    private User partnerWithoutChat;
+
+    @BeforeEach
+    void setUp() {
+        userId = UUID.randomUUID();
+        partnerWithChat = user(UUID.randomUUID(), "artist");
+        partnerWithoutChat = user(UUID.randomUUID(), "producer");
+    }
+
+    private static User user(UUID id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+
+    private InboxEntry entry(User partner, long unreadCount) {
+        UUID chatId = chatRoomIdResolver.resolve(userId, partner.getId());
+        return InboxEntry.builder()
+                .id(InboxEntry.idFor(userId, chatId))
+                .userId(userId)
+                .chatId(chatId)
+                .partnerId(partner.getId())
+                .unreadCount(unreadCount)
+                .lastMessagePreview("Hello")
+                .lastMessageAt(Instant.parse("2024-01-01T10:00:00Z"))
+                .version(7)
+                .build();
+    }
+
+    @Test
+    void recordMessage_shouldTruncatePreview() {
+        ChatMessage message = ChatMessage.builder().id(UUID.randomUUID()).chatId(UUID.randomUUID())
+                .senderId(userId).recipientId(partnerWithChat.getId()).content("x".repeat(500)).build();
+
+        inboxService.recordMessage(message);
+
+        verify(inboxEntryRepository).recordMessage(message, "x".repeat(120));
+    }
+
+    @Test
+    void recordMessage_whenRepositoryFails_shouldNotPropagate() {
+        ChatMessage message = ChatMessage.builder().id(UUID.randomUUID()).content("Hi").build();
+        doThrow(new RuntimeException("down")).when(inboxEntryRepository).recordMessage(any(), anyString());
+
+        assertDoesNotThrow(() -> inboxService.recordMessage(message));
+        verifyNoInteractions(inboxUpdateNotifier);
+    }
+
+    @Test
+    void recordMessage_shouldPushTheEntriesOfOnlineParticipants() {
+        UUID chatId = UUID.randomUUID();
+        ChatMessage message = ChatMessage.builder().id(UUID.randomUUID()).chatId(chatId)
+                .senderId(userId).recipientId(partnerWithChat.getId()).content("Hi").build();
+        InboxEntry recipientEntry = InboxEntry.builder().id(InboxEntry.idFor(partnerWithChat.getId(), chatId))
+                .userId(partnerWithChat.getId()).chatId(chatId).unreadCount(1).version(1).build();
+        when(inboxUpdateNotifier.hasAudience(userId)).thenReturn(false);
+        when(inboxUpdateNotifier.hasAudience(partnerWithChat.getId())).thenReturn(true);
+        when(inboxEntryRepository.findAllById(List.of(recipientEntry.getId()))).thenReturn(List.of(recipientEntry));
+
+        inboxService.recordMessage(message);
+
+        verify(inboxUpdateNotifier).notifyOwners(List.of(recipientEntry));
+    }
+
+    @Test
+    void recordMessage_whenNobodyIsOnline_shouldNotReadEntries() {
+        ChatMessage message = ChatMessage.builder().id(UUID.randomUUID()).chatId(UUID.randomUUID())
+                .senderId(userId).recipientId(partnerWithChat.getId()).content("Hi").build();
+
+        inboxService.recordMessage(message);
+
+        verify(inboxEntryRepository, never()).findAllById(any());
+        verify(inboxUpdateNotifier, never()).notifyOwners(any());
+    }
+
+    @Test
+    void recordRead_shouldPushTheReadersEntry() {
+        UUID chatId = UUID.randomUUID();
+        InboxEntry readerEntry = InboxEntry.builder().id(InboxEntry.idFor(userId, chatId))
+                .userId(userId).chatId(chatId).version(4).build();
+        when(inboxUpdateNotifier.hasAudience(userId)).thenReturn(true);
+        when(inboxEntryRepository.findAllById(List.of(readerEntry.getId()))).thenReturn(List.of(readerEntry));
+
+        inboxService.recordRead(chatId, userId, Instant.now(), 2);
+
+        verify(inboxUpdateNotifier).notifyOwners(List.of(readerEntry));
+    }
+
+    @Test
+    void recordRead_whenNothingWasRead_shouldSkipUpdate() {
+        inboxService.recordRead(UUID.randomUUID(), userId, Instant.now(), 0);
+
+        verify(inboxEntryRepository, never()).recordRead(any(), any(), any(), anyLong());
+    }
+
+    @Test
+    void findChatSummaries_shouldReadInboxAndAppendConnectionsWithoutConversation() {
+        InboxEntry existing = entry(partnerWithChat, 3);
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(0, 50)))
+                .thenReturn(List.of(existing));
+        when(inboxEntryRepository.countByUserId(userId)).thenReturn(1L);
+        when(inboxEntryRepository.findAllById(any())).thenReturn(List.of(existing));
+
+        List<ChatSummaryDto> summaries = inboxService.findChatSummaries(
+                userId, List.of(partnerWithChat, partnerWithoutChat), 0, 50);
+
+        assertEquals(2, summaries.size());
+        assertSame(partnerWithChat, summaries.get(0).getChatPartner());
+        assertEquals(existing.getChatId(), summaries.get(0).getChatId());
+        assertEquals(3, summaries.get(0).getUnreadCount());
+        assertEquals("Hello", summaries.get(0).getLastMessagePreview());
+        assertEquals(7, summaries.get(0).getVersion());
+        assertSame(partnerWithoutChat, summaries.get(1).getChatPartner());
+        assertNull(summaries.get(1).getChatId());
+        assertEquals(0, summaries.get(1).getUnreadCount());
+        verify(userRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void findChatSummaries_onFullPage_shouldNotAppendConnections() {
+        InboxEntry existing = entry(partnerWithChat, 0);
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(0, 1)))
+                .thenReturn(List.of(existing));
+
+        List<ChatSummaryDto> summaries = inboxService.findChatSummaries(
+                userId, List.of(partnerWithChat, partnerWithoutChat), 0, 1);
+
+        assertEquals(1, summaries.size());
+        verify(inboxEntryRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void findChatSummaries_shouldPageConnectionsWithoutConversationAfterTheInbox() {
+        InboxEntry existing = entry(partnerWithChat, 0);
+        List<User> connections = new ArrayList<>(List.of(partnerWithChat));
+        for (int i = 0; i < 5; i++) {
+            connections.add(user(UUID.randomUUID(), "new-" + i));
+        }
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(0, 2)))
+                .thenReturn(List.of(existing));
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(1, 2)))
+                .thenReturn(List.of());
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(3, 2)))
+                .thenReturn(List.of());
+        when(inboxEntryRepository.countByUserId(userId)).thenReturn(1L);
+        when(inboxEntryRepository.findAllById(any())).thenReturn(List.of(existing));
+
+        List<ChatSummaryDto> first = inboxService.findChatSummaries(userId, connections, 0, 2);
+        List<ChatSummaryDto> second = inboxService.findChatSummaries(userId, connections, 1, 2);
+        List<ChatSummaryDto> last = inboxService.findChatSummaries(userId, connections, 3, 2);
+
+        assertEquals(List.of(partnerWithChat, connections.get(1)), first.stream().map(ChatSummaryDto::getChatPartner).toList());
+        assertEquals(List.of(connections.get(2), connections.get(3)), second.stream().map(ChatSummaryDto::getChatPartner).toList());
+        assertEquals(List.of(), last);
+    }
+
+    @Test
+    void findChatSummaries_whenPartnerIsNotAConnection_shouldLoadPartnerFromRepository() {
+        User formerConnection = user(UUID.randomUUID(), "former");
+        InboxEntry existing = entry(formerConnection, 1);
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(eq(userId), any()))
+                .thenReturn(List.of(existing));
+        when(userRepository.findAllById(List.of(formerConnection.getId()))).thenReturn(List.of(formerConnection));
+
+        List<ChatSummaryDto> summaries = inboxService.findChatSummaries(userId, List.of(), 0, 50);
+
+        assertEquals(1, summaries.size());
+        assertSame(formerConnection, summaries.get(0).getChatPartner());
+    }
+
+    @Test
+    void findChatSummaries_shouldClampNegativeUnreadCountAndPageSize() {
+        InboxEntry drifted = entry(partnerWithChat, -2);
+        when(inboxEntryRepository.findByUserIdOrderByLastMessageAtDesc(userId, PageRequest.of(0, 100)))
+                .thenReturn(List.of(drifted));
+
+        List<ChatSummaryDto> summaries = inboxService.findChatSummaries(userId, List.of(partnerWithChat), 0, 10_000);
+
+        assertEquals(0, summaries.get(0).getUnreadCount());
+    }
+}
@@ -0,0 +1,125 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.InboxUpdateNotification;
+import com.spshpau.chatservice.model.InboxEntry;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxUpdateNotifierImplTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    private InboxUpdateNotifierImpl notifier;
+
+    private UUID ownerId;
+    private UUID partnerId;
+    private UUID chatId;
+
+    @BeforeEach
+    void setUp() {
+        notifier = new InboxUpdateNotifierImpl(messagingTemplate, presenceRegistry, new SimpleMeterRegistry());
+        ownerId = UUID.randomUUID();
+        partnerId = UUID.randomUUID();
+        chatId = UUID.randomUUID();
+    }
+
+    private InboxEntry entry(UUID userId, long unreadCount, long version) {
+        return InboxEntry.builder()
+                .id(InboxEntry.idFor(userId, chatId))
+                .userId(userId)
+                .chatId(chatId)
+                .partnerId(userId.equals(ownerId) ? partnerId : ownerId)
+                .unreadCount(unreadCount)
+                .lastMessagePreview("Hello")
+                .lastMessageAt(Instant.parse("2025-01-01T10:00:00Z"))
+                .version(version)
+                .build();
+    }
+
+    private List<InboxUpdateNotification> sentTo(UUID userId, int frames) {
+        ArgumentCaptor<InboxUpdateNotification> captor = ArgumentCaptor.forClass(InboxUpdateNotification.class);
+        verify(messagingTemplate, times(frames)).convertAndSendToUser(
+                eq(userId.toString()), eq(InboxUpdateNotifierImpl.DESTINATION), captor.capture());
+        return captor.getAllValues();
+    }
+
+    @Test
+    void notifyOwners_shouldSendEachEntryToItsOwnerNumberedPerOwner() {
+        when(presenceRegistry.isOnline(ownerId)).thenReturn(true);
+        when(presenceRegistry.isOnline(partnerId)).thenReturn(true);
+
+        notifier.notifyOwners(List.of(entry(ownerId, 0, 1), entry(partnerId, 1, 1)));
+        int frames = notifier.notifyOwners(List.of(entry(partnerId, 0, 2)));
+
+        assertEquals(1, frames);
+        InboxUpdateNotification forOwner = sentTo(ownerId, 1).get(0);
+        assertEquals(1, forOwner.getSeq());
+        assertEquals(partnerId, forOwner.getPartnerId());
+        assertEquals("Hello", forOwner.getLastMessagePreview());
+        List<InboxUpdateNotification> forPartner = sentTo(partnerId, 2);
+        assertEquals(List.of(1L, 2L), forPartner.stream().map(InboxUpdateNotification::getSeq).toList());
+        assertEquals(List.of(1L, 0L), forPartner.stream().map(InboxUpdateNotification::getUnreadCount).toList());
+        assertEquals(2, forPartner.get(1).getVersion());
+    }
+
+    @Test
+    void notifyOwners_shouldSkipOfflineOwnersAndClampUnreadCount() {
+        when(presenceRegistry.isOnline(ownerId)).thenReturn(true);
+
+        int frames = notifier.notifyOwners(List.of(entry(ownerId, -3, 5), entry(partnerId, 1, 1)));
+
+        assertEquals(1, frames);
+        assertEquals(0, sentTo(ownerId, 1).get(0).getUnreadCount());
+        verify(messagingTemplate, never()).convertAndSendToUser(eq(partnerId.toString()), anyString(), any());
+    }
+
+    @Test
+    void notifyOwners_whenSendFails_shouldContinueAndLeaveAGap() {
+        when(presenceRegistry.isOnline(ownerId)).thenReturn(true);
+        when(presenceRegistry.isOnline(partnerId)).thenReturn(true);
+        doThrow(new RuntimeException("broker down")).doNothing()
+                .when(messagingTemplate).convertAndSendToUser(eq(ownerId.toString()), anyString(), any());
+
+        int frames = notifier.notifyOwners(List.of(entry(ownerId, 0, 1), entry(partnerId, 1, 1)));
+        notifier.notifyOwners(List.of(entry(ownerId, 0, 2)));
+
+        assertEquals(1, frames);
+        assertEquals(List.of(1L, 2L), sentTo(ownerId, 2).stream().map(InboxUpdateNotification::getSeq).toList());
+        assertEquals(1, sentTo(partnerId, 1).get(0).getSeq());
+    }
+
+    @Test
+    void onPresenceChange_whenOwnerWentOffline_shouldRestartNumbering() {
+        when(presenceRegistry.isOnline(ownerId)).thenReturn(true, true, false, true);
+
+        notifier.notifyOwners(List.of(entry(ownerId, 0, 1)));
+        notifier.notifyOwners(List.of(entry(ownerId, 0, 2)));
+        notifier.onPresenceChange(new PresenceChange(ownerId, false, Instant.now()));
+        notifier.notifyOwners(List.of(entry(ownerId, 0, 3)));
+
+        assertEquals(List.of(1L, 2L, 1L), sentTo(ownerId, 3).stream().map(InboxUpdateNotification::getSeq).toList());
+    }
+}
@@ -0,0 +1,110 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.MessageStatusUpdateNotification;
+import com.spshpau.chatservice.model.MessageStatusChange;
+import com.spshpau.chatservice.model.enums.MessageStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessageStatusNotifierImplTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    private MessageStatusNotifierImpl notifier;
+
+    private UUID readerId;
+    private UUID senderA;
+    private UUID senderB;
+    private UUID chatA;
+    private UUID chatB;
+
+    @BeforeEach
+    void setUp() {
+        notifier = new MessageStatusNotifierImpl(messagingTemplate, new SimpleMeterRegistry(), 0);
+        readerId = UUID.randomUUID();
+        senderA = UUID.randomUUID();
+        senderB = UUID.randomUUID();
+        chatA = UUID.randomUUID();
+        chatB = UUID.randomUUID();
+    }
+
+    private MessageStatusChange read(UUID senderId, UUID chatId, Instant sentAt, Instant readAt) {
+        return MessageStatusChange.builder()
+                .id(UUID.randomUUID())
+                .chatId(chatId)
+                .senderId(senderId)
+                .recipientId(readerId)
+                .status(MessageStatus.READ)
+                .sentAt(sentAt)
+                .readAt(readAt)
+                .deliveredAt(readAt)
+                .build();
+    }
+
+    @Test
+    void notifySenders_shouldSendOneFramePerSenderAndChatWithAllIds() {
+        Instant readAt = Instant.now();
+        List<MessageStatusChange> changes = List.of(
+                read(senderA, chatA, readAt.minusSeconds(30), readAt),
+                read(senderA, chatA, readAt.minusSeconds(20), readAt),
+                read(senderA, chatA, readAt.minusSeconds(10), readAt),
+                read(senderB, chatB, readAt.minusSeconds(5), readAt));
+
+        int frames = notifier.notifySenders(changes, readerId);
+
+        assertEquals(2, frames);
+        ArgumentCaptor<MessageStatusUpdateNotification> captor = ArgumentCaptor.forClass(MessageStatusUpdateNotification.class);
+        verify(messagingTemplate).convertAndSendToUser(eq(senderA.toString()), eq("/queue/status-updates"), captor.capture());
+        MessageStatusUpdateNotification forA = captor.getValue();
+        assertEquals(chatA, forA.getChatId());
+        assertEquals(3, forA.getMessageIds().size());
+        assertEquals(MessageStatus.READ, forA.getNewStatus());
+        assertEquals(readAt, forA.getStatusTimestamp());
+        assertEquals(readerId, forA.getUpdatedByUserId());
+        assertNull(forA.getUpToSentAt());
+        verify(messagingTemplate).convertAndSendToUser(eq(senderB.toString()), eq("/queue/status-updates"), any(MessageStatusUpdateNotification.class));
+    }
+
+    @Test
+    void notifySenders_whenGroupReachesThreshold_shouldSendWatermark() {
+        notifier = new MessageStatusNotifierImpl(messagingTemplate, new SimpleMeterRegistry(), 3);
+        Instant readAt = Instant.now();
+        Instant newestSentAt = readAt.minusSeconds(1);
+        List<MessageStatusChange> changes = new ArrayList<>();
+        changes.add(read(senderA, chatA, readAt.minusSeconds(30), readAt));
+        changes.add(read(senderA, chatA, newestSentAt, readAt));
+        changes.add(read(senderA, chatA, readAt.minusSeconds(20), readAt));
+
+        notifier.notifySenders(changes, readerId);
+
+        ArgumentCaptor<MessageStatusUpdateNotification> captor = ArgumentCaptor.forClass(MessageStatusUpdateNotification.class);
+        verify(messagingTemplate).convertAndSendToUser(eq(senderA.toString()), eq("/queue/status-updates"), captor.capture());
+        assertEquals(newestSentAt, captor.getValue().getUpToSentAt());
+        assertTrue(captor.getValue().getMessageIds().isEmpty());
+    }
+
+    @Test
+    void notifySenders_whenNoChanges_shouldSendNothing() {
+        assertEquals(0, notifier.notifySenders(List.of(), readerId));
+        verify(messagingTemplate, never()).convertAndSendToUser(anyString(), anyString(), any());
+    }
+}
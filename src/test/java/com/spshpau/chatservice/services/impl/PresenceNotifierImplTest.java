@@ -0,0 +1,117 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.notifications.PresenceDeltaNotification;
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceNotifierImplTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    private SimpleMeterRegistry meterRegistry;
+    private PresenceNotifierImpl notifier;
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final UUID carol = UUID.randomUUID();
+    private final UUID stranger = UUID.randomUUID();
+    private final Set<UUID> online = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        notifier = new PresenceNotifierImpl(messagingTemplate, presenceRegistry, meterRegistry,
+                Executors.newSingleThreadScheduledExecutor());
+        lenient().when(presenceRegistry.isOnline(any())).thenAnswer(invocation -> online.contains(invocation.getArgument(0)));
+    }
+
+    private void change(UUID userId, boolean online) {
+        notifier.onPresenceChange(new PresenceChange(userId, online, Instant.ofEpochMilli(1_000)));
+    }
+
+    @Test
+    void flush_shouldSendOneBatchedFrameToEachOnlineWatcherOnly() {
+        notifier.registerConnections(alice, List.of(bob, carol));
+        notifier.registerConnections(stranger, List.of(carol));
+        online.add(alice);
+        online.add(bob);
+        online.add(carol);
+        change(bob, true);
+        change(carol, true);
+
+        assertEquals(1, notifier.flush());
+
+        ArgumentCaptor<PresenceDeltaNotification> frame = ArgumentCaptor.forClass(PresenceDeltaNotification.class);
+        verify(messagingTemplate).convertAndSendToUser(eq(alice.toString()), eq("/queue/presence"), frame.capture());
+        assertEquals(Set.of(bob, carol), frame.getValue().getChanges().stream()
+                .map(PresenceDeltaNotification.Delta::getUserId).collect(Collectors.toSet()));
+        assertTrue(frame.getValue().getChanges().stream().allMatch(delta -> delta.getStatus() == StatusEnum.ONLINE));
+        verify(messagingTemplate, never()).convertAndSendToUser(eq(stranger.toString()), anyString(), any());
+    }
+
+    @Test
+    void flush_whenUserFlappedBackToLastSentState_shouldSuppressChange() {
+        notifier.registerConnections(alice, List.of(bob));
+        online.add(alice);
+        change(bob, true);
+        change(bob, false);
+
+        assertEquals(0, notifier.flush());
+
+        verifyNoInteractions(messagingTemplate);
+        assertEquals(1, meterRegistry.get("chat.presence.fanout.suppressed").counter().count());
+    }
+
+    @Test
+    void flush_whenWatcherWentOffline_shouldDropItsRegistrations() {
+        notifier.registerConnections(alice, List.of(bob));
+        change(alice, false);
+        notifier.flush();
+
+        online.add(alice);
+        online.add(bob);
+        change(bob, true);
+
+        assertEquals(0, notifier.flush());
+        verifyNoInteractions(messagingTemplate);
+    }
+
+    @Test
+    void registerConnections_shouldReplacePreviousConnections() {
+        notifier.registerConnections(alice, List.of(bob));
+        notifier.registerConnections(alice, List.of(carol));
+        online.add(alice);
+        online.add(bob);
+        change(bob, true);
+
+        assertEquals(0, notifier.flush());
+    }
+}
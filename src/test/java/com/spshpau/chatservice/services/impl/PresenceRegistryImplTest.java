@@ -0,0 +1,126 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.PresenceChange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceRegistryImplTest {
+
+    private static final long SESSION_TIMEOUT = 60_000;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private SimpleMeterRegistry meterRegistry;
+    private Instant now;
+    private PresenceRegistryImpl registry;
+    private UUID userId;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        now = Instant.parse("2024-01-01T10:00:00Z");
+        registry = new PresenceRegistryImpl(eventPublisher, meterRegistry, SESSION_TIMEOUT,
+                new Clock() {
+                    @Override
+                    public Instant instant() {
+                        return now;
+                    }
+
+                    @Override
+                    public java.time.ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(java.time.ZoneId zone) {
+                        return this;
+                    }
+                },
+                Executors.newSingleThreadScheduledExecutor());
+        userId = UUID.randomUUID();
+    }
+
+    @Test
+    void sessions_shouldKeepUserOnlineUntilLastTabCloses() {
+        assertTrue(registry.sessionConnected(userId, "tab-1"));
+        assertFalse(registry.sessionConnected(userId, "tab-2"));
+        assertEquals(2, registry.getSessionCount(userId));
+
+        assertFalse(registry.sessionDisconnected("tab-1"));
+        assertTrue(registry.isOnline(userId));
+
+        assertTrue(registry.sessionDisconnected("tab-2"));
+        assertFalse(registry.isOnline(userId));
+        assertEquals(Set.of(), registry.getOnlineUserIds());
+
+        ArgumentCaptor<PresenceChange> events = ArgumentCaptor.forClass(PresenceChange.class);
+        verify(eventPublisher, times(2)).publishEvent(events.capture());
+        assertTrue(events.getAllValues().get(0).isOnline());
+        assertFalse(events.getAllValues().get(1).isOnline());
+    }
+
+    @Test
+    void sessionDisconnected_whenUnknownSession_shouldBeIgnored() {
+        assertFalse(registry.sessionDisconnected("unknown"));
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void reapStaleSessions_shouldRemoveOnlyIdleSessions() {
+        UUID otherUserId = UUID.randomUUID();
+        registry.sessionConnected(userId, "idle");
+        registry.sessionConnected(otherUserId, "active");
+        now = now.plusMillis(SESSION_TIMEOUT);
+        registry.touch("active");
+        now = now.plusMillis(1);
+
+        assertEquals(1, registry.reapStaleSessions());
+
+        assertFalse(registry.isOnline(userId));
+        assertTrue(registry.isOnline(otherUserId));
+        assertEquals(1, meterRegistry.get("chat.presence.sessions.reaped").counter().count());
+        assertEquals(1, meterRegistry.get("chat.presence.online.users").gauge().value());
+    }
+
+    @Test
+    void touch_whenSessionWasReaped_shouldNotRegisterItAgain() {
+        registry.sessionConnected(userId, "tab-1");
+        now = now.plusMillis(SESSION_TIMEOUT + 1);
+        registry.reapStaleSessions();
+
+        registry.touch("tab-1");
+
+        assertFalse(registry.isOnline(userId));
+        assertNull(registry.getSessionUser("tab-1"));
+    }
+
+    @Test
+    void touch_afterDisconnect_shouldNotBringTheSessionBack() {
+        registry.sessionConnected(userId, "tab-1");
+        registry.sessionDisconnected("tab-1");
+
+        registry.touch("tab-1");
+
+        assertFalse(registry.isOnline(userId));
+        assertEquals(0, meterRegistry.get("chat.presence.online.users").gauge().value());
+    }
+}
@@ -0,0 +1,118 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.model.PresenceChange;
+import com.spshpau.chatservice.model.enums.StatusEnum;
+import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceSnapshotWriterTest {
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ClusterDirectory clusterDirectory;
+
+    private PresenceSnapshotWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(clusterDirectory.getNodeId()).thenReturn("chat-1");
+        writer = writer(false);
+    }
+
+    private PresenceSnapshotWriter writer(boolean clustered) {
+        return new PresenceSnapshotWriter(presenceRegistry, userRepository, clusterDirectory, new SimpleMeterRegistry(),
+                true, true, clustered, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @Test
+    void flush_shouldWriteCurrentStateOncePerUser() {
+        UUID flapping = UUID.randomUUID();
+        UUID leaving = UUID.randomUUID();
+        writer.onPresenceChange(new PresenceChange(flapping, true, Instant.now()));
+        writer.onPresenceChange(new PresenceChange(flapping, false, Instant.now()));
+        writer.onPresenceChange(new PresenceChange(flapping, true, Instant.now()));
+        writer.onPresenceChange(new PresenceChange(leaving, false, Instant.now()));
+        when(presenceRegistry.isOnline(any())).thenAnswer(invocation -> flapping.equals(invocation.getArgument(0)));
+
+        assertEquals(2, writer.flush());
+
+        verify(userRepository).updateStatuses("chat-1", Map.of(flapping, StatusEnum.ONLINE, leaving, StatusEnum.OFFLINE));
+        assertEquals(0, writer.flush());
+        verifyNoMoreInteractions(userRepository);
+    }
+
+    @Test
+    void flush_whenWriteFails_shouldRetryOnNextFlush() {
+        UUID userId = UUID.randomUUID();
+        writer.onPresenceChange(new PresenceChange(userId, true, Instant.now()));
+        doThrow(new RuntimeException("mongo down")).doNothing().when(userRepository).updateStatuses(any(), any());
+
+        assertThrows(RuntimeException.class, () -> writer.flush());
+        assertEquals(1, writer.flush());
+    }
+
+    @Test
+    void afterSingletonsInstantiated_whenSingleNode_shouldReleaseAllNodes() {
+        writer.afterSingletonsInstantiated();
+
+        verify(userRepository).releaseAllNodes();
+        verify(userRepository, never()).releaseNodes(any());
+    }
+
+    @Test
+    void afterSingletonsInstantiated_whenClustered_shouldOnlyReleaseThisNode() {
+        writer(true).afterSingletonsInstantiated();
+
+        verify(userRepository).releaseNodes(List.of("chat-1"));
+        verify(userRepository, never()).releaseAllNodes();
+    }
+
+    @Test
+    void flush_whenRouting_shouldReleaseDepartedNodesOncePerMembershipChange() {
+        PresenceSnapshotWriter clusteredWriter = writer(true);
+        when(clusterDirectory.isRouting()).thenReturn(true);
+        when(clusterDirectory.isMembershipKnown()).thenReturn(true);
+        when(clusterDirectory.getMemberIds()).thenReturn(Set.of("chat-1", "chat-2"));
+        when(userRepository.findOnlineNodeIds()).thenReturn(List.of("chat-1", "chat-2", "chat-3"));
+
+        clusteredWriter.flush();
+        clusteredWriter.flush();
+
+        verify(userRepository).releaseNodes(Set.of("chat-3"));
+        verify(userRepository).findOnlineNodeIds();
+    }
+
+    @Test
+    void flush_beforeTheFirstHeartbeat_shouldNotReleaseOtherNodes() {
+        PresenceSnapshotWriter clusteredWriter = writer(true);
+        when(clusterDirectory.isRouting()).thenReturn(true);
+
+        clusteredWriter.flush();
+
+        verify(userRepository, never()).findOnlineNodeIds();
+        verify(userRepository, never()).releaseNodes(any());
+    }
+}
@@ -0,0 +1,258 @@
+package com.spshpau.chatservice.services.impl;
+
+import com.spshpau.chatservice.controller.dto.UserSummaryDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserConnectionsCacheTest {
+
+    private static final long TTL = 1_000;
+    private static final long MAX_STALE = 10_000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+    private ManualExecutor executor;
+    private UserConnectionsCache cache;
+    private UUID userId;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+        executor = new ManualExecutor();
+        cache = new UserConnectionsCache(meterRegistry, true, TTL, MAX_STALE, 2, clock, executor);
+        userId = UUID.randomUUID();
+    }
+
+    private static List<UserSummaryDto> connections(String username) {
+        UserSummaryDto dto = new UserSummaryDto();
+        dto.setId(UUID.randomUUID());
+        dto.setUsername(username);
+        return List.of(dto);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("chat.connections.cache.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void get_withinTtl_shouldServeFromCache() {
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<List<UserSummaryDto>> loader = () -> {
+            calls.incrementAndGet();
+            return connections("first");
+        };
+
+        List<UserSummaryDto> first = cache.get(userId, loader);
+        clock.advance(TTL - 1);
+        List<UserSummaryDto> second = cache.get(userId, loader);
+
+        assertSame(first, second);
+        assertEquals(1, calls.get());
+        assertEquals(1, requests("miss"));
+        assertEquals(1, requests("hit"));
+    }
+
+    @Test
+    void get_whenStale_shouldServeStaleAndRefreshInBackgroundOnce() {
+        List<UserSummaryDto> initial = cache.get(userId, () -> connections("old"));
+        clock.advance(TTL + 1);
+        List<UserSummaryDto> refreshed = connections("new");
+
+        assertSame(initial, cache.get(userId, () -> refreshed));
+        assertSame(initial, cache.get(userId, () -> refreshed));
+        assertEquals(1, executor.pending(), "concurrent stale reads must share one refresh");
+        assertEquals(1, meterRegistry.get("chat.connections.cache.coalesced").counter().count());
+
+        executor.runAll();
+
+        assertEquals(refreshed, cache.get(userId, () -> fail("fresh entry must not be reloaded")));
+        assertEquals(2, requests("stale"));
+    }
+
+    @Test
+    void get_whenExpiredAndLoadFails_shouldServeLastKnownConnections() {
+        List<UserSummaryDto> initial = cache.get(userId, () -> connections("old"));
+        clock.advance(MAX_STALE + 1);
+
+        List<UserSummaryDto> result = cache.get(userId, () -> {
+            throw new IllegalStateException("user service down");
+        });
+
+        assertSame(initial, result);
+        assertEquals(1, meterRegistry.get("chat.connections.cache.stale.on.error").counter().count());
+        assertEquals(1, meterRegistry.get("chat.connections.cache.load.failures").counter().count());
+    }
+
+    @Test
+    void get_whenNothingCachedAndLoadFails_shouldPropagate() {
+        IllegalStateException failure = new IllegalStateException("user service down");
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> cache.get(userId, () -> {
+            throw failure;
+        }));
+
+        assertSame(failure, thrown);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void get_concurrentMisses_shouldCallUserServiceOnce() throws Exception {
+        UserConnectionsCache concurrentCache = new UserConnectionsCache(meterRegistry, true, TTL, MAX_STALE, 10, clock, executor);
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<List<UserSummaryDto>> slowLoader = () -> {
+            calls.incrementAndGet();
+            loaderStarted.countDown();
+            try {
+                releaseLoader.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return connections("slow");
+        };
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<UserSummaryDto>>> results = new ArrayList<>();
+            results.add(callers.submit(() -> concurrentCache.get(userId, slowLoader)));
+            assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(callers.submit(() -> concurrentCache.get(userId, slowLoader)));
+            }
+            while (meterRegistry.get("chat.connections.cache.coalesced").counter().count() < 3) {
+                Thread.onSpinWait();
+            }
+            releaseLoader.countDown();
+
+            List<UserSummaryDto> first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<List<UserSummaryDto>> result : results) {
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void get_beyondMaxSize_shouldEvictLeastRecentlyUsed() {
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        cache.get(userId, () -> connections("a"));
+        cache.get(second, () -> connections("b"));
+        cache.get(userId, () -> fail("cached"));
+        cache.get(third, () -> connections("c"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, meterRegistry.get("chat.connections.cache.evictions").counter().count());
+        AtomicInteger reloads = new AtomicInteger();
+        cache.get(userId, () -> {
+            reloads.incrementAndGet();
+            return connections("a");
+        });
+        assertEquals(0, reloads.get(), "recently used user must survive eviction");
+    }
+
+    @Test
+    void get_whenDisabled_shouldAlwaysCallLoader() {
+        UserConnectionsCache disabled = new UserConnectionsCache(meterRegistry, false, TTL, MAX_STALE, 2, clock, executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        disabled.get(userId, () -> connections("x" + calls.incrementAndGet()));
+        disabled.get(userId, () -> connections("x" + calls.incrementAndGet()));
+
+        assertEquals(2, calls.get());
+        assertEquals(0, disabled.size());
+    }
+
+    private static class MutableClock extends Clock {
+        private final AtomicLong millis = new AtomicLong(1_000_000);
+
+        void advance(long deltaMillis) {
+            millis.addAndGet(deltaMillis);
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    /**
+     * Queues background refreshes until the test runs them explicitly.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        int pending() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            List<Runnable> toRun = new ArrayList<>(tasks);
+            tasks.clear();
+            toRun.forEach(Runnable::run);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
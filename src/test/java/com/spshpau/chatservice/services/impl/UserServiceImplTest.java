@@ -5,20 +5,27 @@ import com.spshpau.chatservice.model.User;
 import com.spshpau.chatservice.model.enums.StatusEnum;
 import com.spshpau.chatservice.otherservices.UserClient;
 import com.spshpau.chatservice.repositories.UserRepository;
+import com.spshpau.chatservice.services.PresenceNotifier;
+import com.spshpau.chatservice.services.PresenceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.oauth2.jwt.Jwt;
 
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -34,7 +41,18 @@ class UserServiceImplTest {
     @Mock
     private UserClient userClient;
 
-    @InjectMocks
+    @Spy
+    private UserConnectionsCache userConnectionsCache = new UserConnectionsCache(
+            new SimpleMeterRegistry(), false, 0, 0, 0, Clock.systemUTC(), Executors.newSingleThreadExecutor());
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private PresenceNotifier presenceNotifier;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private UserServiceImpl userService;
 
     private UUID testUserId;
@@ -55,18 +73,23 @@ class UserServiceImplTest {
         testUser.setFirstName(testFirstName);
         testUser.setLastName(testLastName);
         testUser.setStatus(StatusEnum.OFFLINE);
+        meterRegistry = new SimpleMeterRegistry();
+        userService = new UserServiceImpl(userRepository, userClient, userConnectionsCache, presenceRegistry,
+                presenceNotifier, meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<User> upserted() {
+        ArgumentCaptor<Collection<User>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(userRepository).upsertProfiles(captor.capture());
+        return new ArrayList<>(captor.getValue());
     }
 
     @Test
-    void saveUser_whenNewUser_shouldCreateAndSaveUserAsOnline() {
-        when(userRepository.findById(testUserId)).thenReturn(Optional.empty());
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
-            User savedUser = invocation.getArgument(0);
-            if (savedUser.getId() == null) savedUser.setId(testUserId);
-            return savedUser;
-        });
+    void saveUser_shouldUpsertProfileAndReturnPresence() {
+        when(presenceRegistry.isOnline(testUserId)).thenReturn(true);
 
-        User result = userService.saveUser(testUserId, testUsername, testFirstName, testLastName, false);
+        User result = userService.saveUser(testUserId, testUsername, testFirstName, testLastName);
 
         assertNotNull(result);
         assertEquals(testUserId, result.getId());
@@ -75,89 +98,61 @@ class UserServiceImplTest {
         assertEquals(testLastName, result.getLastName());
         assertEquals(StatusEnum.ONLINE, result.getStatus());
 
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User capturedUser = userCaptor.getValue();
-
-        assertEquals(testUserId, capturedUser.getId());
-        assertEquals(testUsername, capturedUser.getUsername());
-        assertEquals(StatusEnum.ONLINE, capturedUser.getStatus());
-        verify(userRepository, times(1)).findById(testUserId);
-        verify(userRepository, times(1)).save(any(User.class));
+        List<User> written = upserted();
+        assertEquals(1, written.size());
+        assertEquals(testUserId, written.get(0).getId());
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
-    void saveUser_whenExistingUser_shouldUpdateAndSaveUserAsOnline() {
-        testUser.setStatus(StatusEnum.OFFLINE);
-        when(userRepository.findById(testUserId)).thenReturn(Optional.of(testUser));
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    void saveUser_whenNoSessionOpen_shouldReturnOffline() {
+        User result = userService.saveUser(testUserId, testUsername, "UpdatedTest", testLastName);
 
-        String newFirstName = "UpdatedTest";
-        User result = userService.saveUser(testUserId, testUsername, newFirstName, testLastName, false);
-
-        assertNotNull(result);
-        assertEquals(testUserId, result.getId());
-        assertEquals(testUsername, result.getUsername());
-        assertEquals(newFirstName, result.getFirstName());
-        assertEquals(StatusEnum.ONLINE, result.getStatus());
-
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User capturedUser = userCaptor.getValue();
-
-        assertEquals(testUserId, capturedUser.getId());
-        assertEquals(newFirstName, capturedUser.getFirstName());
-        assertEquals(StatusEnum.ONLINE, capturedUser.getStatus());
-        verify(userRepository, times(1)).findById(testUserId);
-        verify(userRepository, times(1)).save(any(User.class));
+        assertEquals("UpdatedTest", result.getFirstName());
+        assertEquals(StatusEnum.OFFLINE, result.getStatus());
     }
 
     @Test
-    void saveUser_whenExistingUser_shouldUpdateAndSaveUserAndKeepStatus() {
-        testUser.setStatus(StatusEnum.OFFLINE);
+    void disconnect_whenLastSession_shouldCloseSessionAndReturnOffline() {
+        testUser.setStatus(StatusEnum.ONLINE);
+        when(presenceRegistry.getSessionUser("session-1")).thenReturn(testUserId);
         when(userRepository.findById(testUserId)).thenReturn(Optional.of(testUser));
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        String newFirstName = "UpdatedTest";
-        User result = userService.saveUser(testUserId, testUsername, newFirstName, testLastName, true);
+        User result = userService.disconnect(testUserId, "session-1");
 
         assertNotNull(result);
         assertEquals(testUserId, result.getId());
-        assertEquals(testUsername, result.getUsername());
-        assertEquals(newFirstName, result.getFirstName());
         assertEquals(StatusEnum.OFFLINE, result.getStatus());
+        verify(presenceRegistry).sessionDisconnected("session-1");
+        verify(userRepository, never()).save(any(User.class));
+    }
 
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User capturedUser = userCaptor.getValue();
+    @Test
+    void disconnect_whenOtherTabStillOpen_shouldStayOnline() {
+        when(presenceRegistry.getSessionUser("session-1")).thenReturn(testUserId);
+        when(presenceRegistry.isOnline(testUserId)).thenReturn(true);
+        when(userRepository.findById(testUserId)).thenReturn(Optional.of(testUser));
 
-        assertEquals(testUserId, capturedUser.getId());
-        assertEquals(newFirstName, capturedUser.getFirstName());
-        assertEquals(StatusEnum.OFFLINE, capturedUser.getStatus());
-        verify(userRepository, times(1)).findById(testUserId);
-        verify(userRepository, times(1)).save(any(User.class));
+        User result = userService.disconnect(testUserId, "session-1");
+
+        assertEquals(StatusEnum.ONLINE, result.getStatus());
     }
 
     @Test
-    void disconnect_whenUserExists_shouldSetStatusOfflineAndSave() {
-        testUser.setStatus(StatusEnum.ONLINE);
+    void disconnect_whenSessionBelongsToAnotherUser_shouldNotClose() {
+        when(presenceRegistry.getSessionUser("session-1")).thenReturn(UUID.randomUUID());
         when(userRepository.findById(testUserId)).thenReturn(Optional.of(testUser));
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        User result = userService.disconnect(testUserId);
+        userService.disconnect(testUserId, "session-1");
 
-        assertNotNull(result);
-        assertEquals(testUserId, result.getId());
-        assertEquals(StatusEnum.OFFLINE, result.getStatus());
-        verify(userRepository, times(1)).findById(testUserId);
-        verify(userRepository, times(1)).save(testUser);
+        verify(presenceRegistry, never()).sessionDisconnected(anyString());
     }
 
     @Test
     void disconnect_whenUserDoesNotExist_shouldReturnNull() {
         when(userRepository.findById(testUserId)).thenReturn(Optional.empty());
 
-        User result = userService.disconnect(testUserId);
+        User result = userService.disconnect(testUserId, "session-1");
 
         assertNull(result);
         verify(userRepository, times(1)).findById(testUserId);
@@ -165,19 +160,20 @@ class UserServiceImplTest {
     }
 
     @Test
-    void findConnectedUsers_shouldReturnListOfOnlineUsers() {
-        User user1 = new User(); user1.setId(UUID.randomUUID()); user1.setStatus(StatusEnum.ONLINE);
+    void findConnectedUsers_shouldReturnUsersOnlineInRegistry() {
+        User user1 = new User(); user1.setId(UUID.randomUUID()); user1.setStatus(StatusEnum.OFFLINE);
         User user2 = new User(); user2.setId(UUID.randomUUID()); user2.setStatus(StatusEnum.ONLINE);
-        List<User> onlineUsers = List.of(user1, user2);
+        Set<UUID> onlineIds = Set.of(user1.getId(), user2.getId());
 
-        when(userRepository.findAllByStatus(StatusEnum.ONLINE)).thenReturn(onlineUsers);
+        when(presenceRegistry.getOnlineUserIds()).thenReturn(onlineIds);
+        when(userRepository.findAllById(onlineIds)).thenReturn(List.of(user1, user2));
 
         List<User> result = userService.findConnectedUsers();
 
         assertNotNull(result);
         assertEquals(2, result.size());
-        assertTrue(result.containsAll(onlineUsers));
-        verify(userRepository, times(1)).findAllByStatus(StatusEnum.ONLINE);
+        assertTrue(result.stream().allMatch(user -> user.getStatus() == StatusEnum.ONLINE));
+        verify(userRepository, never()).findAllByStatus(any());
     }
 
     @Test
@@ -194,14 +190,6 @@ class UserServiceImplTest {
         when(mockJwt.getClaimAsString("family_name")).thenReturn(currentUserLastName);
         when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
 
-        when(userRepository.findById(testUserId)).thenReturn(Optional.empty());
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
-            User userToSave = invocation.getArgument(0);
-            if (userToSave.getId() == null) userToSave.setId(UUID.randomUUID());
-            return userToSave;
-        });
-
-
         UUID partner1Id = UUID.randomUUID();
         UserSummaryDto partner1Dto = new UserSummaryDto(partner1Id, "partner1", "Partner", "One", "Location1");
         UUID partner2Id = UUID.randomUUID();
@@ -209,6 +197,12 @@ class UserServiceImplTest {
         List<UserSummaryDto> connectionDtos = List.of(partner1Dto, partner2Dto);
 
         when(userClient.findConnectionsByJwt("Bearer mockTokenValue")).thenReturn(connectionDtos);
+        List<StatusEnum> writtenStatuses = new ArrayList<>();
+        doAnswer(invocation -> {
+            Collection<User> users = invocation.getArgument(0);
+            users.forEach(user -> writtenStatuses.add(user.getStatus()));
+            return null;
+        }).when(userRepository).upsertProfiles(any());
 
         List<User> result = userService.findMyChats(mockJwt);
 
@@ -217,8 +211,15 @@ class UserServiceImplTest {
         assertTrue(result.stream().anyMatch(u -> u.getId().equals(partner1Id) && u.getUsername().equals("partner1")));
         assertTrue(result.stream().anyMatch(u -> u.getId().equals(partner2Id) && u.getUsername().equals("partner2")));
 
-        verify(userRepository, times(3)).save(any(User.class));
+        verify(userRepository, times(1)).findAllById(List.of(testUserId, partner1Id, partner2Id));
+        List<User> written = upserted();
+        assertEquals(3, written.size());
+        assertEquals(Collections.nCopies(3, null), writtenStatuses, "status is owned by the presence snapshot");
+        assertTrue(result.stream().allMatch(user -> user.getStatus() == StatusEnum.OFFLINE));
+        verify(userRepository, never()).save(any(User.class));
         verify(userClient, times(1)).findConnectionsByJwt("Bearer mockTokenValue");
+        verify(presenceNotifier).registerConnections(testUserId, List.of(partner1Id, partner2Id));
+        assertEquals(3, meterRegistry.get("chat.users.sync.writes").tag("type", "insert").counter().count());
     }
 
     @Test
@@ -231,10 +232,6 @@ class UserServiceImplTest {
         when(mockJwt.getClaimAsString("preferred_username")).thenReturn(currentUsername);
         when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
 
-        when(userRepository.findById(testUserId)).thenReturn(Optional.of(new User()));
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
-
         when(userClient.findConnectionsByJwt("Bearer mockTokenValue")).thenReturn(Collections.emptyList());
 
         List<User> result = userService.findMyChats(mockJwt);
@@ -242,7 +239,67 @@ class UserServiceImplTest {
         assertNotNull(result);
         assertTrue(result.isEmpty());
         verify(userClient, times(1)).findConnectionsByJwt("Bearer mockTokenValue");
-        verify(userRepository, times(1)).save(argThat(user -> user.getId().equals(testUserId)));
+        List<User> written = upserted();
+        assertEquals(1, written.size());
+        assertEquals(testUserId, written.get(0).getId());
+    }
+
+    @Test
+    void findMyChats_whenNothingChanged_shouldSkipWrites() {
+        Jwt mockJwt = mock(Jwt.class);
+        when(mockJwt.getSubject()).thenReturn(testUserId.toString());
+        when(mockJwt.getClaimAsString("preferred_username")).thenReturn(testUsername);
+        when(mockJwt.getClaimAsString("given_name")).thenReturn(testFirstName);
+        when(mockJwt.getClaimAsString("family_name")).thenReturn(testLastName);
+        when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
+        testUser.setStatus(StatusEnum.ONLINE);
+
+        User partner = new User();
+        partner.setId(UUID.randomUUID());
+        partner.setUsername("partner");
+        partner.setFirstName("Partner");
+        partner.setLastName("One");
+        partner.setStatus(StatusEnum.OFFLINE);
+        when(userClient.findConnectionsByJwt("Bearer mockTokenValue")).thenReturn(List.of(
+                new UserSummaryDto(partner.getId(), "partner", "Partner", "One", "Loc")));
+        when(userRepository.findAllById(any())).thenReturn(List.of(partner, testUser));
+
+        List<User> result = userService.findMyChats(mockJwt);
+
+        assertEquals(List.of(partner), result);
+        assertEquals(StatusEnum.OFFLINE, result.get(0).getStatus());
+        verify(userRepository, never()).upsertProfiles(any());
+        assertEquals(2, meterRegistry.get("chat.users.sync.skipped").counter().count());
+    }
+
+    @Test
+    void findMyChats_whenPartnerProfileChanged_shouldWriteOnlyThatPartner() {
+        Jwt mockJwt = mock(Jwt.class);
+        when(mockJwt.getSubject()).thenReturn(testUserId.toString());
+        when(mockJwt.getClaimAsString("preferred_username")).thenReturn(testUsername);
+        when(mockJwt.getClaimAsString("given_name")).thenReturn(testFirstName);
+        when(mockJwt.getClaimAsString("family_name")).thenReturn(testLastName);
+        when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
+        testUser.setStatus(StatusEnum.ONLINE);
+
+        User partner = new User();
+        partner.setId(UUID.randomUUID());
+        partner.setUsername("oldName");
+        partner.setStatus(StatusEnum.ONLINE);
+        when(userClient.findConnectionsByJwt("Bearer mockTokenValue")).thenReturn(List.of(
+                new UserSummaryDto(partner.getId(), "newName", "Partner", "One", "Loc")));
+        when(userRepository.findAllById(any())).thenReturn(List.of(testUser, partner));
+        when(presenceRegistry.isOnline(partner.getId())).thenReturn(true);
+
+        List<User> result = userService.findMyChats(mockJwt);
+
+        assertEquals("newName", result.get(0).getUsername());
+        assertEquals(StatusEnum.ONLINE, result.get(0).getStatus());
+        List<User> written = upserted();
+        assertEquals(1, written.size());
+        assertEquals(partner.getId(), written.get(0).getId());
+        assertEquals(1, meterRegistry.get("chat.users.sync.writes").tag("type", "update").counter().count());
+        assertEquals(1, meterRegistry.get("chat.users.sync.skipped").counter().count());
     }
 
     @Test
@@ -299,10 +356,6 @@ class UserServiceImplTest {
         when(mockJwt.getClaimAsString("preferred_username")).thenReturn(currentUsername);
         when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
 
-        when(userRepository.findById(testUserId)).thenReturn(Optional.empty());
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
-
-
         when(userClient.findConnectionsByJwt("Bearer mockTokenValue")).thenThrow(new RuntimeException("UserClient failed"));
 
         List<User> result = userService.findMyChats(mockJwt);
@@ -310,7 +363,9 @@ class UserServiceImplTest {
         assertNotNull(result);
         assertTrue(result.isEmpty());
         verify(userClient, times(1)).findConnectionsByJwt("Bearer mockTokenValue");
-        verify(userRepository, times(1)).save(argThat(user -> user.getId().equals(testUserId)));
+        List<User> written = upserted();
+        assertEquals(1, written.size());
+        assertEquals(testUserId, written.get(0).getId());
     }
 
     @Test
@@ -323,13 +378,6 @@ class UserServiceImplTest {
         when(mockJwt.getClaimAsString("preferred_username")).thenReturn(currentUsername);
         when(mockJwt.getTokenValue()).thenReturn("mockTokenValue");
 
-        when(userRepository.findById(any(UUID.class))).thenReturn(Optional.empty());
-        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
-            User u = invocation.getArgument(0);
-            if (u.getId() == null) u.setId(UUID.randomUUID());
-            return u;
-        });
-
         UserSummaryDto validDto = new UserSummaryDto(UUID.randomUUID(), "validUser", "Valid", "User", "Loc");
         UserSummaryDto nullIdDto = new UserSummaryDto(null, "nullIdUser", "Null", "Id", "Loc"); // ID is null
 
@@ -345,6 +393,6 @@ class UserServiceImplTest {
         assertEquals(1, result.size());
         assertEquals(validDto.getId(), result.get(0).getId());
 
-        verify(userRepository, times(2)).save(any(User.class));
+        assertEquals(2, upserted().size());
     }
 }
\ No newline at end of file